@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.performance;
+
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.testng.annotations.*;
+import org.w3c.dom.Document;
+
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import java.io.*;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the time taken to verify a Signature with a growing number of References, when the
+ * References are validated sequentially and when they are validated in parallel on a ForkJoinPool
+ * (see RequestData#setSignatureVerificationExecutor).
+ */
+public class SignatureReferencesTimingTest extends AbstractTestBase {
+
+    private static final int ITERATIONS = 20;
+
+    private Crypto signatureCrypto;
+    private Crypto verificationCrypto;
+    private ForkJoinPool forkJoinPool;
+    private FileWriter samples;
+    private String partContent;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        signatureCrypto = CryptoFactory.getInstance(getCryptoProperties("transmitter.jks"));
+        verificationCrypto = CryptoFactory.getInstance(getCryptoProperties("receiver.jks"));
+        forkJoinPool = new ForkJoinPool();
+
+        StringBuilder stringBuilder = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml"), "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("<?xml")) {
+                stringBuilder.append(line).append('\n');
+            }
+        }
+        reader.close();
+        partContent = stringBuilder.toString();
+
+        samples = new FileWriter("target/signature-references-samples.txt");
+        samples.write("# references sequential(ms) parallel(ms)\n");
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception {
+        samples.close();
+        forkJoinPool.shutdown();
+    }
+
+    @DataProvider(name = "referenceCounts")
+    public Object[][] getReferenceCounts() {
+        return new Object[][] {{1}, {5}, {10}, {20}, {40}, {60}};
+    }
+
+    //warm up.
+    @Test
+    public void warmUp() throws Exception {
+        byte[] signedMessage = createSignedMessage(10);
+        for (int i = 0; i < ITERATIONS; i++) {
+            verify(signedMessage, null);
+            verify(signedMessage, forkJoinPool);
+        }
+    }
+
+    @Test(dataProvider = "referenceCounts", dependsOnMethods = "warmUp")
+    public void testReferenceVerificationTime(int referenceCount) throws Exception {
+        byte[] signedMessage = createSignedMessage(referenceCount);
+
+        long sequential = 0;
+        long parallel = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            sequential += verify(signedMessage, null);
+            parallel += verify(signedMessage, forkJoinPool);
+        }
+
+        samples.write("" + referenceCount);
+        samples.write(" ");
+        samples.write("" + sequential / ITERATIONS / 1000000.0);
+        samples.write(" ");
+        samples.write("" + parallel / ITERATIONS / 1000000.0);
+        samples.write("\n");
+        samples.flush();
+    }
+
+    /**
+     * Verify the signed message and return the time taken by the security processing, in nanoseconds
+     */
+    private long verify(byte[] signedMessage, Executor executor) throws Exception {
+        Document document =
+                documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(signedMessage));
+
+        RequestData requestData = new RequestData();
+        requestData.setSigVerCrypto(verificationCrypto);
+        requestData.setSignatureVerificationExecutor(executor);
+
+        long start = System.nanoTime();
+        new WSSecurityEngine().processSecurityHeader(document, requestData);
+        return System.nanoTime() - start;
+    }
+
+    private byte[] createSignedMessage(int referenceCount) throws Exception {
+        StringBuilder message = new StringBuilder();
+        message.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\">\n" +
+                "<env:Header></env:Header>\n" +
+                "<env:Body><test xmlns=\"http://www.example.com\">");
+        for (int i = 0; i < referenceCount; i++) {
+            message.append("<part").append(i).append('>');
+            message.append(partContent);
+            message.append("</part").append(i).append('>');
+        }
+        message.append("</test></env:Body>\n</env:Envelope>");
+
+        Document document = documentBuilderFactory.newDocumentBuilder().parse(
+                new ByteArrayInputStream(message.toString().getBytes("UTF-8")));
+
+        WSSecSignature signature = new WSSecSignature();
+        signature.setUserInfo("transmitter", "default");
+        signature.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        for (int i = 0; i < referenceCount; i++) {
+            signature.getParts().add(new WSEncryptionPart("part" + i, "http://www.example.com", "Element"));
+        }
+
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(document);
+        signature.build(document, signatureCrypto, secHeader);
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        TRANSFORMER_FACTORY.newTransformer().transform(
+                new DOMSource(document), new StreamResult(byteArrayOutputStream));
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private Properties getCryptoProperties(String keystore) {
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.provider", "org.apache.wss4j.common.crypto.Merlin");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.type", "jks");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.password", "default");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.file", keystore);
+        return properties;
+    }
+}
@@ -0,0 +1,434 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory ReplayCache implementation that does not use a global lock. Identifiers are stored
+ * in a ConcurrentHashMap together with their expiry time, so that contains() is a single map
+ * lookup. Identifiers are additionally grouped into coarse time buckets, which are swept
+ * periodically by whichever thread first notices that a bucket has expired. The default TTL is
+ * 5 minutes and the max TTL is 60 minutes.
+ *
+ * The cache can optionally be bounded by a maximum number of entries and/or an (estimated)
+ * maximum memory usage. When the cache is full and expired entries cannot make room, it fails
+ * closed, treating every unknown identifier as a replay until space becomes available.
+ *
+ * Within this package the cache can instead be created to evict the identifiers that are
+ * closest to expiry. An evicted identifier has not expired, and so it would be accepted again
+ * if it were replayed. This mode is only used for the near cache of a DistributedReplayCache,
+ * where the shared store still detects the replay.
+ */
+public class ConcurrentReplayCache implements AtomicReplayCache {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long MAX_TTL = DEFAULT_TTL * 12L;
+    public static final long DEFAULT_BUCKET_SIZE = 1000L;
+
+    /**
+     * The approximate number of bytes used by a cache entry, excluding the characters of the
+     * identifier itself.
+     */
+    public static final long ENTRY_OVERHEAD = 112L;
+
+    private final ConcurrentMap<String, Long> ids = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, Queue<String>> buckets =
+        new ConcurrentSkipListMap<>();
+    private final AtomicLong nextSweep = new AtomicLong();
+    private final long bucketSize;
+    private final int maxEntries;
+    private final long maxMemory;
+    private final boolean failClosed;
+
+    private final AtomicInteger entryCount = new AtomicInteger();
+    private final AtomicLong memoryUsage = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong rejectionCount = new AtomicLong();
+    private final AtomicLong expirySweepCount = new AtomicLong();
+
+    public ConcurrentReplayCache() {
+        this(DEFAULT_BUCKET_SIZE);
+    }
+
+    /**
+     * Create a new unbounded ConcurrentReplayCache
+     * @param bucketSize The granularity of the expiry buckets in milliseconds
+     */
+    public ConcurrentReplayCache(long bucketSize) {
+        this(bucketSize, 0, 0L);
+    }
+
+    /**
+     * Create a new bounded ConcurrentReplayCache, that treats unknown identifiers as replays
+     * when the cache is full
+     * @param bucketSize The granularity of the expiry buckets in milliseconds
+     * @param maxEntries The maximum number of entries in the cache, or 0 for no limit
+     * @param maxMemory The maximum (estimated) memory usage of the cache in bytes, or 0 for no limit
+     */
+    public ConcurrentReplayCache(long bucketSize, int maxEntries, long maxMemory) {
+        this(bucketSize, maxEntries, maxMemory, true);
+    }
+
+    /**
+     * Create a new ConcurrentReplayCache
+     * @param bucketSize The granularity of the expiry buckets in milliseconds
+     * @param maxEntries The maximum number of entries in the cache, or 0 for no limit
+     * @param maxMemory The maximum (estimated) memory usage of the cache in bytes, or 0 for no limit
+     * @param failClosed Whether to treat unknown identifiers as replays when the cache is full
+     * (true), or to evict the identifiers that are closest to expiry instead (false). Evicted
+     * identifiers have not expired, and so evicting reopens the replay window for them.
+     */
+    ConcurrentReplayCache(long bucketSize, int maxEntries, long maxMemory, boolean failClosed) {
+        if (bucketSize <= 0) {
+            throw new IllegalArgumentException("The bucket size must be a positive value");
+        }
+        if (maxEntries < 0 || maxMemory < 0) {
+            throw new IllegalArgumentException("The cache limits must not be negative");
+        }
+        this.bucketSize = bucketSize;
+        this.maxEntries = maxEntries;
+        this.maxMemory = maxMemory;
+        this.failClosed = failClosed;
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     */
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+
+        long currentTime = System.currentTimeMillis();
+        long expires = currentTime + ttl * 1000L;
+        sweepIfRequired(currentTime);
+
+        while (true) {
+            Long previous = ids.get(identifier);
+            if (previous != null) {
+                // Update the expiry time of an entry that is already counted. This fails if
+                // the entry was swept or updated concurrently, in which case try again
+                if (ids.replace(identifier, previous, expires)) {
+                    break;
+                }
+            } else {
+                if (!reserve(identifier, currentTime)) {
+                    rejectionCount.incrementAndGet();
+                    return;
+                }
+                if (ids.putIfAbsent(identifier, expires) == null) {
+                    break;
+                }
+                // The identifier was added concurrently, so the reservation was not needed
+                release(identifier);
+            }
+        }
+        addToBucket(identifier, expires);
+    }
+
+    /**
+     * Add the given identifier to the cache if it is not already contained in the cache.
+     * It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     * @return true if the identifier was added, or false if it was already in the cache
+     */
+    public boolean addIfAbsent(String identifier) {
+        return addIfAbsent(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not
+     * already contained in the cache. If the cache is full and configured to fail closed, then
+     * this method returns false for unknown identifiers.
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return true if the identifier was added, or false if it was already in the cache
+     */
+    public boolean addIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+
+        long currentTime = System.currentTimeMillis();
+        long expires = currentTime + ttl * 1000L;
+        sweepIfRequired(currentTime);
+
+        Long previous = ids.get(identifier);
+        if (previous != null && previous > currentTime) {
+            return false;
+        }
+        if (!reserve(identifier, currentTime)) {
+            rejectionCount.incrementAndGet();
+            return false;
+        }
+
+        previous = ids.putIfAbsent(identifier, expires);
+        while (previous != null) {
+            if (previous > currentTime) {
+                release(identifier);
+                return false;
+            }
+            if (ids.replace(identifier, previous, expires)) {
+                // The expired entry was already counted, so the reservation was not needed
+                release(identifier);
+                break;
+            }
+            previous = ids.putIfAbsent(identifier, expires);
+        }
+        addToBucket(identifier, expires);
+        return true;
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache. If the cache is full and
+     * configured to fail closed, then this method also returns true for unknown identifiers.
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+
+        long currentTime = System.currentTimeMillis();
+        sweepIfRequired(currentTime);
+
+        Long expires = ids.get(identifier);
+        if (expires != null && expires > currentTime) {
+            return true;
+        }
+
+        if (failClosed && isFull(identifier)) {
+            processTokenExpiry(currentTime);
+            if (isFull(identifier)) {
+                rejectionCount.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of identifiers currently held in the cache. This may include identifiers
+     * that have expired but have not been swept yet.
+     */
+    public int size() {
+        return entryCount.get();
+    }
+
+    /**
+     * Get the estimated memory usage of the cache in bytes
+     */
+    public long getMemoryUsage() {
+        return memoryUsage.get();
+    }
+
+    /**
+     * Get the number of unexpired identifiers that were evicted to make room for new ones
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Get the number of identifiers that were rejected because the cache was full
+     */
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    /**
+     * Get the number of times that the cache was swept for expired identifiers
+     */
+    public long getExpirySweepCount() {
+        return expirySweepCount.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public boolean isFailClosed() {
+        return failClosed;
+    }
+
+    private static long getEntrySize(String identifier) {
+        return ENTRY_OVERHEAD + 2L * identifier.length();
+    }
+
+    private boolean isFull(String identifier) {
+        return maxEntries > 0 && entryCount.get() >= maxEntries
+            || maxMemory > 0 && memoryUsage.get() + getEntrySize(identifier) > maxMemory;
+    }
+
+    private boolean tryReserve(String identifier) {
+        int count = entryCount.incrementAndGet();
+        long memory = memoryUsage.addAndGet(getEntrySize(identifier));
+        if (maxEntries > 0 && count > maxEntries || maxMemory > 0 && memory > maxMemory) {
+            release(identifier);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean reserve(String identifier, long currentTime) {
+        if (tryReserve(identifier)) {
+            return true;
+        }
+
+        processTokenExpiry(currentTime);
+        if (tryReserve(identifier)) {
+            return true;
+        }
+
+        if (!failClosed) {
+            do {
+                if (!evictEarliestBucket()) {
+                    return false;
+                }
+            } while (!tryReserve(identifier));
+            return true;
+        }
+        return false;
+    }
+
+    private void release(String identifier) {
+        entryCount.decrementAndGet();
+        memoryUsage.addAndGet(-getEntrySize(identifier));
+    }
+
+    private boolean remove(String identifier, Long expires) {
+        if (ids.remove(identifier, expires)) {
+            release(identifier);
+            return true;
+        }
+        return false;
+    }
+
+    private Long getBucketKey(long expires) {
+        // Round up, so that a bucket is only swept once every identifier in it has expired
+        return (expires / bucketSize + 1) * bucketSize;
+    }
+
+    private void addToBucket(String identifier, long expires) {
+        Long bucketKey = getBucketKey(expires);
+        Queue<String> bucket = getBucket(bucketKey);
+        bucket.add(identifier);
+        if (buckets.get(bucketKey) != bucket && remove(identifier, expires)
+            && expires > System.currentTimeMillis()) {
+            // The bucket was removed concurrently. A sweep only removes buckets whose
+            // identifiers have all expired, so an unexpired identifier was evicted
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private Queue<String> getBucket(Long key) {
+        Queue<String> bucket = buckets.get(key);
+        if (bucket == null) {
+            Queue<String> newBucket = new ConcurrentLinkedQueue<>();
+            bucket = buckets.putIfAbsent(key, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        return bucket;
+    }
+
+    private boolean evictEarliestBucket() {
+        Entry<Long, Queue<String>> entry = buckets.pollFirstEntry();
+        if (entry == null) {
+            return false;
+        }
+        for (String id : entry.getValue()) {
+            Long expires = ids.get(id);
+            // Identifiers that were re-added with a later expiry time belong to a later bucket
+            if (expires != null && expires < entry.getKey() && remove(id, expires)) {
+                evictionCount.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    private void sweepIfRequired(long currentTime) {
+        long sweepTime = nextSweep.get();
+        if (currentTime >= sweepTime
+            && nextSweep.compareAndSet(sweepTime, currentTime + bucketSize)) {
+            processTokenExpiry(currentTime);
+        }
+    }
+
+    protected void processTokenExpiry(long currentTime) {
+        expirySweepCount.incrementAndGet();
+        Iterator<Entry<Long, Queue<String>>> it =
+            buckets.headMap(currentTime, true).entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Long, Queue<String>> entry = it.next();
+            it.remove();
+            for (String id : entry.getValue()) {
+                Long expires = ids.get(id);
+                // The identifier may have been re-added with a later expiry time
+                if (expires != null && expires <= currentTime) {
+                    remove(id, expires);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        buckets.clear();
+        ids.clear();
+        entryCount.set(0);
+        memoryUsage.set(0L);
+    }
+}
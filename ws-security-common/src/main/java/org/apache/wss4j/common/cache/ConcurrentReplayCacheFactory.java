@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.Map;
+
+/**
+ * A factory to return a ConcurrentReplayCache instance. If the configuration Object is a Map 
+ * (for example a Properties instance), then the cache limits are read from it. Otherwise the
+ * limits are read from the System properties of the same name. When a bounded cache is full,
+ * unknown identifiers are treated as replays.
+ */
+public class ConcurrentReplayCacheFactory extends ReplayCacheFactory {
+    
+    /**
+     * The maximum number of entries in the cache. The default is "0", meaning no limit.
+     */
+    public static final String MAX_ENTRIES = "org.apache.wss4j.cache.replay.maxEntries";
+    
+    /**
+     * The maximum (estimated) memory usage of the cache in bytes. The default is "0", meaning 
+     * no limit.
+     */
+    public static final String MAX_MEMORY = "org.apache.wss4j.cache.replay.maxMemory";
+    
+    /**
+     * The granularity of the expiry buckets in milliseconds. The default is "1000".
+     */
+    public static final String BUCKET_SIZE = "org.apache.wss4j.cache.replay.bucketSize";
+    
+    public ReplayCache newReplayCache(String key, Object configuration) {
+        Map<?, ?> config = null;
+        if (configuration instanceof Map) {
+            config = (Map<?, ?>)configuration;
+        }
+        
+        long bucketSize = 
+            Long.parseLong(getConfigValue(config, BUCKET_SIZE, 
+                                          Long.toString(ConcurrentReplayCache.DEFAULT_BUCKET_SIZE)));
+        int maxEntries = Integer.parseInt(getConfigValue(config, MAX_ENTRIES, "0"));
+        long maxMemory = Long.parseLong(getConfigValue(config, MAX_MEMORY, "0"));
+        
+        return new ConcurrentReplayCache(bucketSize, maxEntries, maxMemory);
+    }
+    
+    private static String getConfigValue(Map<?, ?> config, String name, String defaultValue) {
+        Object value = config != null ? config.get(name) : System.getProperty(name);
+        if (value == null || "".equals(value.toString().trim())) {
+            return defaultValue;
+        }
+        return value.toString().trim();
+    }
+    
+}
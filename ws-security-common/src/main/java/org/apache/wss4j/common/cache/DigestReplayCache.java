@@ -0,0 +1,329 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A compact in-memory ReplayCache implementation. Rather than storing the identifiers themselves,
+ * it stores a 128-bit digest (the first half of the SHA-256 digest) of each identifier together
+ * with its expiry time in open-addressing tables backed by primitive long arrays. Each entry
+ * takes three longs, independently of the length of the identifier. The tables are split into
+ * segments, each guarded by its own lock. The default TTL is 5 minutes and the max TTL is
+ * 60 minutes.
+ */
+public class DigestReplayCache implements AtomicReplayCache {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long MAX_TTL = DEFAULT_TTL * 12L;
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int ENTRY_SIZE = 3;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final Segment[] segments;
+
+    public DigestReplayCache() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Create a new DigestReplayCache
+     * @param concurrencyLevel The (minimum) number of independently locked segments
+     */
+    public DigestReplayCache(int concurrencyLevel) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("The concurrency level must be a positive value");
+        }
+        int segmentCount = Integer.highestOneBit(concurrencyLevel);
+        if (segmentCount < concurrencyLevel) {
+            segmentCount <<= 1;
+        }
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     */
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+
+        long currentTime = System.currentTimeMillis();
+        // An expiry time of zero marks an empty slot
+        long expires = Math.max(1L, currentTime + ttl * 1000L);
+
+        byte[] digest = digest(identifier);
+        long hi = toLong(digest, 0);
+        long lo = toLong(digest, 8);
+        getSegment(hi).put(hi, lo, expires, currentTime, false);
+    }
+
+    /**
+     * Add the given identifier to the cache if it is not already contained in the cache.
+     * It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     * @return true if the identifier was added, or false if it was already in the cache
+     */
+    public boolean addIfAbsent(String identifier) {
+        return addIfAbsent(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not
+     * already contained in the cache
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return true if the identifier was added, or false if it was already in the cache
+     */
+    public boolean addIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+
+        long currentTime = System.currentTimeMillis();
+        // An expiry time of zero marks an empty slot
+        long expires = Math.max(1L, currentTime + ttl * 1000L);
+
+        byte[] digest = digest(identifier);
+        long hi = toLong(digest, 0);
+        long lo = toLong(digest, 8);
+        return getSegment(hi).put(hi, lo, expires, currentTime, true);
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+
+        byte[] digest = digest(identifier);
+        long hi = toLong(digest, 0);
+        long lo = toLong(digest, 8);
+        return getSegment(hi).contains(hi, lo, System.currentTimeMillis());
+    }
+
+    /**
+     * Get the number of identifiers currently held in the cache. This may include identifiers
+     * that have expired but have not been purged yet.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment getSegment(long hi) {
+        return segments[(int)(hi >>> 32) & (segments.length - 1)];
+    }
+
+    private static byte[] digest(String identifier) {
+        MessageDigest messageDigest = DIGEST.get();
+        messageDigest.reset();
+        return messageDigest.digest(identifier.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * A linear-probing hash table of (digest high bits, digest low bits, expiry time) triples.
+     * Expired entries are left in place as tombstones, which are reused by later insertions
+     * and discarded when the table is rebuilt.
+     */
+    private static final class Segment {
+
+        private long[] table = new long[INITIAL_CAPACITY * ENTRY_SIZE];
+        private int capacity = INITIAL_CAPACITY;
+        private int used;
+        private int live;
+
+        synchronized boolean contains(long hi, long lo, long currentTime) {
+            int index = indexOf(lo);
+            for (int i = 0; i < capacity; i++) {
+                int slot = index * ENTRY_SIZE;
+                long expires = table[slot + 2];
+                if (expires == 0L) {
+                    return false;
+                }
+                if (table[slot] == hi && table[slot + 1] == lo) {
+                    return expires > currentTime;
+                }
+                index = (index + 1) & (capacity - 1);
+            }
+            return false;
+        }
+
+        /**
+         * Insert or update an entry. If onlyIfAbsent is true, an unexpired entry is left
+         * untouched and false is returned.
+         */
+        synchronized boolean put(long hi, long lo, long expires, long currentTime, boolean onlyIfAbsent) {
+            if (used + 1 > capacity * 3 / 4) {
+                rebuild(currentTime);
+            }
+
+            int index = indexOf(lo);
+            int reusable = -1;
+            for (int i = 0; i < capacity; i++) {
+                int slot = index * ENTRY_SIZE;
+                long slotExpires = table[slot + 2];
+                if (slotExpires == 0L) {
+                    break;
+                }
+                if (table[slot] == hi && table[slot + 1] == lo) {
+                    if (onlyIfAbsent && slotExpires > currentTime) {
+                        return false;
+                    }
+                    table[slot + 2] = expires;
+                    return true;
+                }
+                if (reusable < 0 && slotExpires <= currentTime) {
+                    reusable = slot;
+                }
+                index = (index + 1) & (capacity - 1);
+            }
+
+            int slot = reusable;
+            if (slot < 0) {
+                slot = index * ENTRY_SIZE;
+                used++;
+                live++;
+            }
+            table[slot] = hi;
+            table[slot + 1] = lo;
+            table[slot + 2] = expires;
+            return true;
+        }
+
+        synchronized int size() {
+            return live;
+        }
+
+        synchronized void clear() {
+            table = new long[INITIAL_CAPACITY * ENTRY_SIZE];
+            capacity = INITIAL_CAPACITY;
+            used = 0;
+            live = 0;
+        }
+
+        private int indexOf(long lo) {
+            return (int)(lo ^ (lo >>> 32)) & (capacity - 1);
+        }
+
+        /**
+         * Rebuild the table without the expired entries, growing or shrinking it so that the
+         * unexpired entries take up between a quarter and a half of the new table.
+         */
+        private void rebuild(long currentTime) {
+            long[] oldTable = table;
+            int oldCapacity = capacity;
+
+            int count = 0;
+            for (int i = 0; i < oldCapacity; i++) {
+                long expires = oldTable[i * ENTRY_SIZE + 2];
+                if (expires != 0L && expires > currentTime) {
+                    count++;
+                }
+            }
+
+            int newCapacity = INITIAL_CAPACITY;
+            while (newCapacity < (count + 1) * 2) {
+                newCapacity <<= 1;
+            }
+
+            table = new long[newCapacity * ENTRY_SIZE];
+            capacity = newCapacity;
+            used = 0;
+            live = 0;
+            for (int i = 0; i < oldCapacity; i++) {
+                int oldSlot = i * ENTRY_SIZE;
+                long expires = oldTable[oldSlot + 2];
+                if (expires != 0L && expires > currentTime) {
+                    long lo = oldTable[oldSlot + 1];
+                    int index = indexOf(lo);
+                    while (table[index * ENTRY_SIZE + 2] != 0L) {
+                        index = (index + 1) & (newCapacity - 1);
+                    }
+                    int slot = index * ENTRY_SIZE;
+                    table[slot] = oldTable[oldSlot];
+                    table[slot + 1] = lo;
+                    table[slot + 2] = expires;
+                    used++;
+                    live++;
+                }
+            }
+        }
+    }
+}
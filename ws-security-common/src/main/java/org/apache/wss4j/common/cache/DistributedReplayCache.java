@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A ReplayCache implementation that detects replays across a number of nodes, by storing the 
+ * identifiers in a shared ReplayCacheStore. Identifiers are prefixed with a namespace in the 
+ * store, so that a number of caches can share a store.
+ * 
+ * A bounded local "near cache" holds the identifiers that this node has added to the store. 
+ * Lookups of these identifiers (for example a replay that is sent to the same node) never leave 
+ * the node. Other lookups must go to the store, as only the store knows whether another node has
+ * seen the identifier. The batch operation addAllIfAbsent sends all of the identifiers that are 
+ * not in the near cache to the store in a single round-trip. It is not used by the WSS4J 
+ * security header processing, which checks a single identifier per cache at a time, but is 
+ * available to applications that check a number of identifiers together.
+ * 
+ * If the store does not respond within the timeout, or fails, then the cache fails closed: 
+ * identifiers are treated as replays. The default TTL is 5 minutes and the max TTL is 60 minutes.
+ */
+public class DistributedReplayCache implements AtomicReplayCache {
+    
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long MAX_TTL = DEFAULT_TTL * 12L;
+    public static final int DEFAULT_NEAR_CACHE_SIZE = 10000;
+    public static final long DEFAULT_TIMEOUT = 5000L;
+    
+    private static final org.slf4j.Logger LOG = 
+        org.slf4j.LoggerFactory.getLogger(DistributedReplayCache.class);
+    
+    private final ReplayCacheStore store;
+    private final String namespace;
+    private final ConcurrentReplayCache nearCache;
+    private final long timeout;
+    
+    public DistributedReplayCache(ReplayCacheStore store) {
+        this(store, "", DEFAULT_NEAR_CACHE_SIZE, DEFAULT_TIMEOUT);
+    }
+    
+    /**
+     * Create a new DistributedReplayCache
+     * @param store The shared ReplayCacheStore
+     * @param namespace The prefix of the identifiers in the store
+     * @param nearCacheSize The maximum number of entries in the near cache, or 0 to disable it
+     * @param timeout The time to wait for the store to respond in milliseconds
+     */
+    public DistributedReplayCache(
+        ReplayCacheStore store, String namespace, int nearCacheSize, long timeout
+    ) {
+        if (store == null) {
+            throw new IllegalArgumentException("A ReplayCacheStore must be supplied");
+        }
+        this.store = store;
+        this.namespace = namespace == null ? "" : namespace;
+        this.timeout = timeout;
+        if (nearCacheSize > 0) {
+            nearCache = 
+                new ConcurrentReplayCache(ConcurrentReplayCache.DEFAULT_BUCKET_SIZE, nearCacheSize, 0L, false);
+        } else {
+            nearCache = null;
+        }
+    }
+    
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+    
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     */
+    public void add(String identifier, long timeToLive) {
+        addIfAbsent(identifier, timeToLive);
+    }
+    
+    /**
+     * Atomically add the given identifier to the cache, if it is not already contained in it
+     * on any node. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     * @return true if the identifier was added, and false if it was already contained in the 
+     * cache (or if the store could not be reached)
+     */
+    public boolean addIfAbsent(String identifier) {
+        return addIfAbsent(identifier, DEFAULT_TTL);
+    }
+    
+    /**
+     * Atomically add the given identifier to the cache, if it is not already contained in it
+     * on any node.
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return true if the identifier was added, and false if it was already contained in the 
+     * cache (or if the store could not be reached)
+     */
+    public boolean addIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+        if (nearCache != null && nearCache.contains(identifier)) {
+            return false;
+        }
+        
+        long ttl = getTTL(timeToLive);
+        Boolean added = 
+            await(store.addIfAbsent(namespace + identifier, System.currentTimeMillis() + ttl * 1000L));
+        if (added == null) {
+            return false;
+        }
+        if (added && nearCache != null) {
+            nearCache.add(identifier, ttl);
+        }
+        return added;
+    }
+    
+    /**
+     * Atomically add each of the given identifiers to the cache that is not already contained
+     * in it on any node. This makes at most one round-trip to the store.
+     * @param identifiers The identifiers to be added
+     * @param timeToLive The length of time to cache the Identifiers in seconds
+     * @return the identifiers that were already contained in the cache (or all of the 
+     * identifiers that were not in the near cache, if the store could not be reached)
+     */
+    public Set<String> addAllIfAbsent(Collection<String> identifiers, long timeToLive) {
+        if (identifiers == null || identifiers.isEmpty()) {
+            return Collections.emptySet();
+        }
+        
+        long ttl = getTTL(timeToLive);
+        long expires = System.currentTimeMillis() + ttl * 1000L;
+        Set<String> existing = new HashSet<>();
+        Map<String, Long> remoteIdentifiers = new HashMap<>();
+        for (String identifier : identifiers) {
+            if (identifier == null || "".equals(identifier)) {
+                continue;
+            }
+            if (nearCache != null && nearCache.contains(identifier)) {
+                existing.add(identifier);
+            } else {
+                remoteIdentifiers.put(namespace + identifier, expires);
+            }
+        }
+        if (remoteIdentifiers.isEmpty()) {
+            return existing;
+        }
+        
+        Set<String> remoteExisting = await(store.addAllIfAbsent(remoteIdentifiers));
+        for (String remoteIdentifier : remoteIdentifiers.keySet()) {
+            String identifier = remoteIdentifier.substring(namespace.length());
+            if (remoteExisting == null || remoteExisting.contains(remoteIdentifier)) {
+                existing.add(identifier);
+            } else if (nearCache != null) {
+                nearCache.add(identifier, ttl);
+            }
+        }
+        return existing;
+    }
+    
+    /**
+     * Return true if the given identifier is contained in the cache on any node (or if the 
+     * store could not be reached)
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+        if (nearCache != null && nearCache.contains(identifier)) {
+            return true;
+        }
+        
+        Boolean contained = await(store.contains(namespace + identifier));
+        return contained == null || contained;
+    }
+    
+    public ReplayCacheStore getStore() {
+        return store;
+    }
+    
+    /**
+     * Close the near cache. The store is not closed, as it may be shared with other caches.
+     */
+    @Override
+    public void close() {
+        if (nearCache != null) {
+            nearCache.close();
+        }
+    }
+    
+    private static long getTTL(long timeToLive) {
+        if (timeToLive < 0 || timeToLive > MAX_TTL) {
+            return DEFAULT_TTL;
+        }
+        return timeToLive;
+    }
+    
+    /**
+     * Wait for the store to respond, returning null if it fails or does not respond in time
+     */
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for the replay cache store", ex);
+        } catch (ExecutionException ex) {
+            LOG.warn("Error accessing the replay cache store", ex.getCause());
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            LOG.warn("Timed out waiting for the replay cache store", ex);
+        }
+        return null;
+    }
+    
+}
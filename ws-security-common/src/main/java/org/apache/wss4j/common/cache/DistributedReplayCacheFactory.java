@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+
+/**
+ * A factory to return a DistributedReplayCache instance. The ReplayCacheStore is taken from the
+ * configuration Object if it is a ReplayCacheStore, or else from the factory. A factory that is
+ * created with the default constructor uses an in-process store that is shared by the whole JVM.
+ * The identifiers of each type of cache (e.g. "wss4j.nonce.cache") are kept in a separate 
+ * namespace in the store.
+ */
+public class DistributedReplayCacheFactory extends ReplayCacheFactory {
+    
+    private static final ReplayCacheStore DEFAULT_STORE = new InMemoryReplayCacheStore();
+    
+    private final ReplayCacheStore store;
+    
+    public DistributedReplayCacheFactory() {
+        this(DEFAULT_STORE);
+    }
+    
+    public DistributedReplayCacheFactory(ReplayCacheStore store) {
+        this.store = store;
+    }
+    
+    public ReplayCache newReplayCache(String key, Object configuration) {
+        ReplayCacheStore cacheStore = store;
+        if (configuration instanceof ReplayCacheStore) {
+            cacheStore = (ReplayCacheStore)configuration;
+        }
+        return new DistributedReplayCache(cacheStore, getSharedCacheName(key) + ":", 
+                                          DistributedReplayCache.DEFAULT_NEAR_CACHE_SIZE,
+                                          DistributedReplayCache.DEFAULT_TIMEOUT);
+    }
+    
+}
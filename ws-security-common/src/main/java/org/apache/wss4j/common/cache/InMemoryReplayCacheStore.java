@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process reference implementation of the ReplayCacheStore SPI, which can stand in for a 
+ * remote store in tests, or be shared by a number of DistributedReplayCache instances in one 
+ * JVM. If an Executor is given, each operation is run asynchronously on it, to simulate the 
+ * round-trip to a remote store. Otherwise operations run on the calling thread.
+ */
+public class InMemoryReplayCacheStore implements ReplayCacheStore {
+    
+    private static final int PURGE_INTERVAL = 1000;
+    
+    private final ConcurrentMap<String, Long> ids = new ConcurrentHashMap<>();
+    private final AtomicLong operationCount = new AtomicLong();
+    private final AtomicLong roundTripCount = new AtomicLong();
+    private final Executor executor;
+    
+    public InMemoryReplayCacheStore() {
+        this(null);
+    }
+    
+    /**
+     * Create a new InMemoryReplayCacheStore
+     * @param executor The Executor on which to run the operations, or null to run them on the 
+     * calling thread
+     */
+    public InMemoryReplayCacheStore(Executor executor) {
+        this.executor = executor;
+    }
+    
+    public Future<Boolean> addIfAbsent(final String identifier, final long expires) {
+        return submit(new Callable<Boolean>() {
+            public Boolean call() {
+                return doAddIfAbsent(identifier, expires, System.currentTimeMillis());
+            }
+        });
+    }
+    
+    public Future<Set<String>> addAllIfAbsent(final Map<String, Long> identifiers) {
+        return submit(new Callable<Set<String>>() {
+            public Set<String> call() {
+                long currentTime = System.currentTimeMillis();
+                Set<String> existing = new HashSet<>();
+                for (Entry<String, Long> entry : identifiers.entrySet()) {
+                    if (!doAddIfAbsent(entry.getKey(), entry.getValue(), currentTime)) {
+                        existing.add(entry.getKey());
+                    }
+                }
+                return existing;
+            }
+        });
+    }
+    
+    public Future<Boolean> contains(final String identifier) {
+        return submit(new Callable<Boolean>() {
+            public Boolean call() {
+                Long expires = ids.get(identifier);
+                return expires != null && expires > System.currentTimeMillis();
+            }
+        });
+    }
+    
+    /**
+     * Get the number of round-trips (operations) that have been made to this store
+     */
+    public long getRoundTripCount() {
+        return roundTripCount.get();
+    }
+    
+    /**
+     * Get the number of identifiers currently held in the store. This may include identifiers
+     * that have expired but have not been purged yet.
+     */
+    public int size() {
+        return ids.size();
+    }
+    
+    @Override
+    public void close() {
+        ids.clear();
+    }
+    
+    private boolean doAddIfAbsent(String identifier, Long expires, long currentTime) {
+        if (operationCount.incrementAndGet() % PURGE_INTERVAL == 0) {
+            purge(currentTime);
+        }
+        
+        while (true) {
+            Long existing = ids.putIfAbsent(identifier, expires);
+            if (existing == null) {
+                return true;
+            } else if (existing > currentTime) {
+                return false;
+            } else if (ids.replace(identifier, existing, expires)) {
+                // The existing identifier had expired
+                return true;
+            }
+        }
+    }
+    
+    private void purge(long currentTime) {
+        for (Entry<String, Long> entry : ids.entrySet()) {
+            if (entry.getValue() <= currentTime) {
+                ids.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    private <T> Future<T> submit(Callable<T> callable) {
+        roundTripCount.incrementAndGet();
+        FutureTask<T> task = new FutureTask<>(callable);
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        return task;
+    }
+    
+}
@@ -0,0 +1,492 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent ReplayCache implementation that survives restarts without requiring a third-party
+ * cache library. Every identifier that is added to the cache is appended to a journal, which
+ * consists of a number of memory-mapped segment files in a directory. Lookups are served from
+ * memory. When the cache is created, the unexpired identifiers are reloaded from the journal.
+ * A background thread periodically removes expired identifiers from memory, and deletes the
+ * segment files in which every identifier has expired. The default TTL is 5 minutes and the
+ * max TTL is 60 minutes.
+ *
+ * Only one JournalReplayCache instance (in any JVM) can use a given directory at a time. If the
+ * directory does not exist, it is created with permissions for its owner only.
+ */
+public class JournalReplayCache implements AtomicReplayCache {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long MAX_TTL = DEFAULT_TTL * 12L;
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final long DEFAULT_COMPACTION_INTERVAL = 60L;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(JournalReplayCache.class);
+
+    private static final String LOCK_FILE = "journal.lock";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    // The length of the identifier (int) and the expiry time (long)
+    private static final int RECORD_HEADER_SIZE = 4 + 8;
+
+    private final ConcurrentMap<String, Long> ids = new ConcurrentHashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    // Expired segment files that could not be deleted yet
+    private final List<File> pendingDeletions = new ArrayList<>();
+    private final File directory;
+    private final int segmentSize;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    private final ScheduledExecutorService compactionExecutor;
+    private Segment currentSegment;
+    private long nextSegmentId;
+    private boolean closed;
+
+    /**
+     * Create a new JournalReplayCache with the default segment size and compaction interval
+     * @param directory The directory in which to store the journal
+     * @throws IOException if the journal cannot be opened or reloaded
+     */
+    public JournalReplayCache(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Create a new JournalReplayCache
+     * @param directory The directory in which to store the journal
+     * @param segmentSize The size of each journal segment file in bytes
+     * @param compactionInterval The interval between compactions in seconds, or 0 to disable
+     * background compaction
+     * @throws IOException if the journal cannot be opened or reloaded
+     */
+    public JournalReplayCache(
+        File directory, int segmentSize, long compactionInterval
+    ) throws IOException {
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("The segment size is too small");
+        }
+        if (!directory.isDirectory()) {
+            if (!directory.mkdirs()) {
+                throw new IOException("Cannot create the journal directory " + directory);
+            }
+            restrictToOwner(directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        FileLock fileLock = null;
+        try {
+            fileLock = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException ex) {
+            // The directory is already locked by another instance in this JVM
+            LOG.debug(ex.getMessage(), ex);
+        } finally {
+            if (fileLock == null) {
+                lockFile.close();
+            }
+        }
+        if (fileLock == null) {
+            throw new IOException("The journal directory " + directory + " is already in use");
+        }
+        lock = fileLock;
+
+        try {
+            reload();
+        } catch (IOException ex) {
+            closeFiles();
+            throw ex;
+        }
+
+        if (compactionInterval > 0) {
+            compactionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "wss4j-replay-journal-compaction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            compactionExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        compact();
+                    } catch (RuntimeException ex) {
+                        LOG.warn("Error compacting the replay cache journal", ex);
+                    }
+                }
+            }, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+        } else {
+            compactionExecutor = null;
+        }
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     */
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+        long expires = System.currentTimeMillis() + ttl * 1000L;
+
+        ids.put(identifier, expires);
+        appendQuietly(identifier, expires);
+    }
+
+    /**
+     * Add the given identifier to the cache if it is not already contained in the cache.
+     * It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     * @return true if the identifier was added, or false if it was already in the cache
+     */
+    public boolean addIfAbsent(String identifier) {
+        return addIfAbsent(identifier, DEFAULT_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not
+     * already contained in the cache
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return true if the identifier was added, or false if it was already in the cache
+     */
+    public boolean addIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+        long currentTime = System.currentTimeMillis();
+        long expires = currentTime + ttl * 1000L;
+
+        Long previous = ids.putIfAbsent(identifier, expires);
+        while (previous != null) {
+            if (previous > currentTime) {
+                return false;
+            }
+            if (ids.replace(identifier, previous, expires)) {
+                break;
+            }
+            previous = ids.putIfAbsent(identifier, expires);
+        }
+        appendQuietly(identifier, expires);
+        return true;
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+
+        Long expires = ids.get(identifier);
+        return expires != null && expires > System.currentTimeMillis();
+    }
+
+    /**
+     * Get the number of identifiers currently held in the cache. This may include identifiers
+     * that have expired but have not been removed by a compaction yet.
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Get the number of journal segment files currently in use
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Remove the expired identifiers from memory, and delete the journal segments in which
+     * every identifier has expired. This is called periodically by a background thread, unless
+     * background compaction is disabled.
+     */
+    public void compact() {
+        long currentTime = System.currentTimeMillis();
+
+        for (Entry<String, Long> entry : ids.entrySet()) {
+            if (entry.getValue() <= currentTime) {
+                // The identifier may have been re-added concurrently with a later expiry time
+                ids.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            Iterator<Segment> segmentIterator = segments.iterator();
+            while (segmentIterator.hasNext()) {
+                Segment segment = segmentIterator.next();
+                if (segment != currentSegment && segment.maxExpires <= currentTime) {
+                    segmentIterator.remove();
+                    segment.delete();
+                }
+            }
+            
+            Iterator<File> fileIterator = pendingDeletions.iterator();
+            while (fileIterator.hasNext()) {
+                File file = fileIterator.next();
+                if (file.delete() || !file.exists()) {
+                    fileIterator.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+            closeFiles();
+        }
+        ids.clear();
+    }
+
+    private void closeFiles() throws IOException {
+        for (Segment segment : segments) {
+            segment.unmap();
+        }
+        segments.clear();
+        currentSegment = null;
+        try {
+            lock.release();
+        } finally {
+            lockFile.close();
+        }
+    }
+
+    private void appendQuietly(String identifier, long expires) {
+        try {
+            append(identifier.getBytes(StandardCharsets.UTF_8), expires);
+        } catch (IOException ex) {
+            // The identifier is still cached in memory, it will just not survive a restart
+            LOG.warn("Cannot write to the replay cache journal in " + directory, ex);
+        }
+    }
+
+    private synchronized void append(byte[] identifier, long expires) throws IOException {
+        if (closed) {
+            return;
+        }
+        int recordSize = RECORD_HEADER_SIZE + identifier.length;
+        if (currentSegment == null || currentSegment.buffer.remaining() < recordSize + 4) {
+            // Leave room for a terminating zero length at the end of every segment
+            currentSegment = createSegment(Math.max(segmentSize, recordSize + 4));
+        }
+
+        MappedByteBuffer buffer = currentSegment.buffer;
+        int position = buffer.position();
+        buffer.position(position + 4);
+        buffer.putLong(expires);
+        buffer.put(identifier);
+        // Write the length last, so that a partially written record is never reloaded
+        buffer.putInt(position, identifier.length);
+        currentSegment.maxExpires = Math.max(currentSegment.maxExpires, expires);
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        File file = new File(directory, SEGMENT_PREFIX + nextSegmentId++ + SEGMENT_SUFFIX);
+        Segment segment = new Segment(file, size);
+        segments.add(segment);
+        return segment;
+    }
+
+    private synchronized void reload() throws IOException {
+        File[] files = directory.listFiles();
+        List<Long> segmentIds = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segmentIds.add(Long.valueOf(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException ex) {
+                        LOG.debug("Ignoring unknown file " + file + " in the replay cache journal");
+                    }
+                }
+            }
+        }
+        Long[] sortedIds = segmentIds.toArray(new Long[segmentIds.size()]);
+        Arrays.sort(sortedIds);
+
+        long currentTime = System.currentTimeMillis();
+        for (Long segmentId : sortedIds) {
+            File file = new File(directory, SEGMENT_PREFIX + segmentId + SEGMENT_SUFFIX);
+            Segment segment = new Segment(file, (int)file.length());
+            segment.load(currentTime);
+            nextSegmentId = segmentId + 1;
+            if (segment.maxExpires <= currentTime) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+                currentSegment = segment;
+            }
+        }
+    }
+
+    /**
+     * Restrict the permissions of the given file to its owner
+     */
+    private static void restrictToOwner(File file) {
+        boolean restricted = 
+            file.setReadable(false, false) && file.setReadable(true, true)
+            && file.setWritable(false, false) && file.setWritable(true, true)
+            && file.setExecutable(false, false) && file.setExecutable(true, true);
+        if (!restricted) {
+            LOG.warn("Cannot restrict the permissions of the journal directory " + file);
+        }
+    }
+
+    /**
+     * A memory-mapped journal segment file. Each record consists of the length of the UTF-8
+     * encoded identifier, the expiry time and the identifier itself. A zero length marks the
+     * end of the segment.
+     */
+    private final class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private long maxExpires;
+
+        Segment(File file, int size) throws IOException {
+            this.file = file;
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        void load(long currentTime) {
+            try {
+                while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                    int position = buffer.position();
+                    int length = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining() - 8) {
+                        buffer.position(position);
+                        break;
+                    }
+                    long expires = buffer.getLong();
+                    byte[] identifier = new byte[length];
+                    buffer.get(identifier);
+                    maxExpires = Math.max(maxExpires, expires);
+                    if (expires > currentTime) {
+                        String id = new String(identifier, StandardCharsets.UTF_8);
+                        Long existing = ids.get(id);
+                        if (existing == null || existing < expires) {
+                            ids.put(id, expires);
+                        }
+                    }
+                }
+            } catch (BufferUnderflowException ex) {
+                LOG.debug("Truncated record in the replay cache journal segment " + file);
+            }
+        }
+
+        /**
+         * Unmap and delete the segment file. The segment must not be used afterwards. If the 
+         * file cannot be deleted yet (e.g. as the mapping could not be released), then the 
+         * deletion is retried by the next compaction.
+         */
+        void delete() {
+            unmap();
+            if (!file.delete() && file.exists()) {
+                LOG.debug("Cannot delete the replay cache journal segment " + file + " yet");
+                pendingDeletions.add(file);
+            }
+        }
+
+        /**
+         * Release the memory mapping of the segment file, rather than waiting for the buffer to
+         * be garbage collected. The segment must not be used afterwards.
+         */
+        void unmap() {
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Exception ex) {
+                LOG.debug("Cannot unmap the replay cache journal segment " + file, ex);
+            }
+        }
+    }
+}
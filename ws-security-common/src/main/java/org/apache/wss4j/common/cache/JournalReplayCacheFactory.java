@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A factory to return a JournalReplayCache instance. The journal of each cache is stored in a
+ * subdirectory of the directory given by the configuration Object (a String or File), or by the
+ * System property "org.apache.wss4j.cache.replay.journal.directory". One of these must be set:
+ * there is no default directory, as only one process at a time can use a journal, and a shared 
+ * well-known location could be read or locked by other users of the host. Each process must 
+ * be configured with its own directory, which should only be accessible to its user.
+ * 
+ * The subdirectory is named after the cache key, without any random suffix that is appended to
+ * it by RequestData or WSSSecurityProperties. So all caches of the same type share a journal,
+ * and the same journal is reloaded after a restart. The shared JournalReplayCache instance is
+ * closed when each cache returned by this factory has been closed.
+ */
+public class JournalReplayCacheFactory extends ReplayCacheFactory {
+    
+    /**
+     * The System property that holds the directory in which the journals are stored
+     */
+    public static final String JOURNAL_DIRECTORY = "org.apache.wss4j.cache.replay.journal.directory";
+    
+    private static final Map<File, SharedJournalReplayCache> CACHES = new HashMap<>();
+    
+    public ReplayCache newReplayCache(String key, Object configuration) {
+        File directory = new File(getJournalDirectory(configuration), 
+                                  getSharedCacheName(key).replaceAll("[^A-Za-z0-9._]", "_"));
+        
+        synchronized (CACHES) {
+            SharedJournalReplayCache sharedCache = CACHES.get(directory);
+            if (sharedCache == null) {
+                try {
+                    sharedCache = new SharedJournalReplayCache(new JournalReplayCache(directory));
+                } catch (IOException ex) {
+                    throw new IllegalStateException(
+                        "Cannot open the replay cache journal in " + directory, ex
+                    );
+                }
+                CACHES.put(directory, sharedCache);
+            }
+            sharedCache.references++;
+            return new JournalReplayCacheReference(sharedCache);
+        }
+    }
+    
+    private static File getJournalDirectory(Object configuration) {
+        if (configuration instanceof File) {
+            return (File)configuration;
+        } else if (configuration instanceof String && !"".equals(configuration)) {
+            return new File((String)configuration);
+        }
+        String directory = System.getProperty(JOURNAL_DIRECTORY);
+        if (directory != null && !"".equals(directory)) {
+            return new File(directory);
+        }
+        throw new IllegalStateException(
+            "No replay cache journal directory is configured, set the System property " 
+            + JOURNAL_DIRECTORY
+        );
+    }
+    
+    private static final class SharedJournalReplayCache {
+        private final JournalReplayCache cache;
+        private int references;
+        
+        SharedJournalReplayCache(JournalReplayCache cache) {
+            this.cache = cache;
+        }
+    }
+    
+    /**
+     * A reference to a shared JournalReplayCache. The shared cache is closed when its last
+     * reference is closed.
+     */
+    private static final class JournalReplayCacheReference implements AtomicReplayCache {
+        private volatile SharedJournalReplayCache sharedCache;
+        
+        JournalReplayCacheReference(SharedJournalReplayCache sharedCache) {
+            this.sharedCache = sharedCache;
+        }
+        
+        public void add(String identifier) {
+            getCache().add(identifier);
+        }
+        
+        public void add(String identifier, long timeToLive) {
+            getCache().add(identifier, timeToLive);
+        }
+        
+        public boolean contains(String identifier) {
+            return getCache().contains(identifier);
+        }
+        
+        public boolean addIfAbsent(String identifier) {
+            return getCache().addIfAbsent(identifier);
+        }
+        
+        public boolean addIfAbsent(String identifier, long timeToLive) {
+            return getCache().addIfAbsent(identifier, timeToLive);
+        }
+        
+        private JournalReplayCache getCache() {
+            SharedJournalReplayCache cache = sharedCache;
+            if (cache == null) {
+                throw new IllegalStateException("The replay cache has been closed");
+            }
+            return cache.cache;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            synchronized (CACHES) {
+                if (sharedCache == null) {
+                    return;
+                }
+                SharedJournalReplayCache cache = sharedCache;
+                sharedCache = null;
+                if (--cache.references == 0) {
+                    CACHES.remove(cache.cache.getDirectory());
+                    cache.cache.close();
+                }
+            }
+        }
+    }
+    
+}
@@ -35,7 +35,7 @@ import java.util.TreeMap;
  * A simple in-memory HashSet based cache to prevent against replay attacks. The default TTL is 5 minutes
  * and the max TTL is 60 minutes.
  */
-public class MemoryReplayCache implements ReplayCache {
+public class MemoryReplayCache implements AtomicReplayCache {
     
     public static final long DEFAULT_TTL = 60L * 5L;
     public static final long MAX_TTL = DEFAULT_TTL * 12L;
@@ -60,6 +60,42 @@ public class MemoryReplayCache implements ReplayCache {
             return;
         }
         
+        addExpiry(identifier, timeToLive);
+        ids.add(identifier);
+    }
+    
+    /**
+     * Add the given identifier to the cache if it is not already contained in the cache.
+     * It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     * @return true if the identifier was added, or false if it was already in the cache
+     */
+    public boolean addIfAbsent(String identifier) {
+        return addIfAbsent(identifier, DEFAULT_TTL);
+    }
+    
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not
+     * already contained in the cache
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return true if the identifier was added, or false if it was already in the cache
+     */
+    public boolean addIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+        
+        processTokenExpiry();
+        
+        if (!ids.add(identifier)) {
+            return false;
+        }
+        addExpiry(identifier, timeToLive);
+        return true;
+    }
+    
+    private void addExpiry(String identifier, long timeToLive) {
         long ttl = timeToLive;
         if (ttl < 0 || ttl > MAX_TTL) {
             ttl = DEFAULT_TTL;
@@ -77,7 +113,6 @@ public class MemoryReplayCache implements ReplayCache {
             }
             list.add(identifier);
         }
-        ids.add(identifier);
     }
     
     /**
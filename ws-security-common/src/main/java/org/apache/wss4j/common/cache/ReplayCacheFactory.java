@@ -25,11 +25,18 @@ import java.net.URL;
 import org.apache.wss4j.common.util.Loader;
 
 /**
- * An abstract factory to return a ReplayCache instance. It returns an EHCacheReplayCacheFactory
- * if EH-Cache is available. Otherwise it returns a MemoryReplayCacheFactory.
+ * An abstract factory to return a ReplayCache instance. If the system property 
+ * "org.apache.wss4j.cache.replay.factory" is set, then it returns an instance of the 
+ * ReplayCacheFactory implementation named by it. Otherwise it returns an EHCacheReplayCacheFactory
+ * if EH-Cache is available, and a MemoryReplayCacheFactory if it is not.
  */
 public abstract class ReplayCacheFactory {
     
+    /**
+     * The system property used to select the ReplayCacheFactory implementation
+     */
+    public static final String REPLAY_CACHE_FACTORY_PROPERTY = "org.apache.wss4j.cache.replay.factory";
+    
     private static final org.slf4j.Logger LOG = 
         org.slf4j.LoggerFactory.getLogger(ReplayCacheFactory.class);
     private static boolean ehCacheInstalled;
@@ -51,6 +58,32 @@ public abstract class ReplayCacheFactory {
     }
     
     public static ReplayCacheFactory newInstance() {
+        String factoryClassName = System.getProperty(REPLAY_CACHE_FACTORY_PROPERTY);
+        if (factoryClassName != null && !"".equals(factoryClassName)) {
+            return newInstance(factoryClassName);
+        }
+        
+        return newDefaultInstance();
+    }
+    
+    /**
+     * Return a new instance of the given ReplayCacheFactory implementation. If it cannot be
+     * loaded, then the default ReplayCacheFactory is returned instead.
+     * @param factoryClassName the class name of the ReplayCacheFactory implementation
+     */
+    public static ReplayCacheFactory newInstance(String factoryClassName) {
+        try {
+            Class<? extends ReplayCacheFactory> factoryClass = 
+                Loader.loadClass(factoryClassName, ReplayCacheFactory.class);
+            return factoryClass.newInstance();
+        } catch (Exception e) {
+            LOG.warn("Cannot create ReplayCacheFactory " + factoryClassName + ", using the default", e);
+        }
+        
+        return newDefaultInstance();
+    }
+    
+    private static ReplayCacheFactory newDefaultInstance() {
         if (isEhCacheInstalled()) {
             return new EHCacheReplayCacheFactory();
         }
@@ -60,6 +93,22 @@ public abstract class ReplayCacheFactory {
     
     public abstract ReplayCache newReplayCache(String key, Object configuration);
     
+    /**
+     * Get the name of the cache with the given key, without the random suffix that is appended 
+     * to the key by RequestData and WSSSecurityProperties. This name is the same for all caches
+     * of the same type, e.g. "wss4j.nonce.cache".
+     */
+    protected static String getSharedCacheName(String key) {
+        if (key == null || "".equals(key)) {
+            return "wss4j.replay.cache";
+        }
+        int index = key.lastIndexOf('-');
+        if (index > 0) {
+            return key.substring(0, index);
+        }
+        return key;
+    }
+    
     protected URL getConfigFileURL(Object o) {
         if (o instanceof String) {
             try {
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * A store of replay identifiers that is shared by a number of nodes, such as a remote key-value 
+ * store. A DistributedReplayCache uses it to detect replays across nodes. All operations are 
+ * asynchronous, so that the caller can overlap the round-trips to the store with other work. 
+ * Identifiers are given together with the absolute time (in milliseconds since the epoch) at 
+ * which they expire.
+ */
+public interface ReplayCacheStore extends Closeable {
+    
+    /**
+     * Atomically add the given identifier to the store, if it is not already contained in it 
+     * (or has expired).
+     * @param identifier The identifier to be added
+     * @param expires The time at which the identifier expires in milliseconds since the epoch
+     * @return a Future that returns true if the identifier was added, and false if it was 
+     * already contained in the store
+     */
+    Future<Boolean> addIfAbsent(String identifier, long expires);
+    
+    /**
+     * Atomically add each of the given identifiers to the store that is not already contained
+     * in it, in a single round-trip.
+     * @param identifiers A Map of identifiers to the time at which they expire
+     * @return a Future that returns the identifiers that were already contained in the store
+     */
+    Future<Set<String>> addAllIfAbsent(Map<String, Long> identifiers);
+    
+    /**
+     * Return whether the given identifier is contained in the store
+     * @param identifier The identifier to check
+     * @return a Future that returns true if the identifier is contained in the store
+     */
+    Future<Boolean> contains(String identifier);
+    
+}
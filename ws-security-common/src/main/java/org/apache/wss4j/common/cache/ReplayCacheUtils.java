@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.cache;
+
+/**
+ * Utility methods for replay checks against a ReplayCache.
+ */
+public final class ReplayCacheUtils {
+    
+    private ReplayCacheUtils() {
+        // complete
+    }
+    
+    /**
+     * Add the given identifier to the cache if it is not already contained in the cache. It will 
+     * be cached for a default amount of time. The check is atomic if the cache is an 
+     * AtomicReplayCache, and is otherwise done with contains() followed by add().
+     * @param replayCache The ReplayCache to use
+     * @param identifier The identifier to be added
+     * @return true if the identifier was added, or false if it was already in the cache (a replay)
+     */
+    public static boolean addIfAbsent(ReplayCache replayCache, String identifier) {
+        if (replayCache instanceof AtomicReplayCache) {
+            return ((AtomicReplayCache)replayCache).addIfAbsent(identifier);
+        }
+        if (replayCache.contains(identifier)) {
+            return false;
+        }
+        replayCache.add(identifier);
+        return true;
+    }
+    
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not 
+     * already contained in the cache. The check is atomic if the cache is an 
+     * AtomicReplayCache, and is otherwise done with contains() followed by add().
+     * @param replayCache The ReplayCache to use
+     * @param identifier The identifier to be added
+     * @param timeToLive The length of time to cache the Identifier in seconds
+     * @return true if the identifier was added, or false if it was already in the cache (a replay)
+     */
+    public static boolean addIfAbsent(ReplayCache replayCache, String identifier, long timeToLive) {
+        if (replayCache instanceof AtomicReplayCache) {
+            return ((AtomicReplayCache)replayCache).addIfAbsent(identifier, timeToLive);
+        }
+        if (replayCache.contains(identifier)) {
+            return false;
+        }
+        replayCache.add(identifier, timeToLive);
+        return true;
+    }
+    
+}
@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * A bounded cache of certificate chains that have been successfully validated by
+ * Merlin.verifyTrust. An entry is keyed on a digest of the encoded form of the certificates,
+ * together with whether revocation checking was enabled and the subject certificate constraints
+ * that were applied. Entries expire after a configurable time to live, and never outlive the
+ * earliest "notAfter" date of the certificates in the chain. When the cache is full, the least
+ * recently used entry is discarded.
+ */
+public class CertPathValidationCache {
+    
+    public static final long DEFAULT_TTL = 60L * 5L;
+    
+    private static final org.slf4j.Logger LOG = 
+        org.slf4j.LoggerFactory.getLogger(CertPathValidationCache.class);
+    
+    private final int maxSize;
+    private final long ttl;
+    private final Map<String, Long> entries;
+    private long generation;
+    
+    public CertPathValidationCache(int maxSize) {
+        this(maxSize, DEFAULT_TTL);
+    }
+    
+    /**
+     * Create a new CertPathValidationCache
+     * @param maxSize The maximum number of validated certificate chains to cache
+     * @param ttl The length of time to cache a validated certificate chain in seconds
+     */
+    public CertPathValidationCache(final int maxSize, long ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The cache size must be a positive value");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("The time to live must be a positive value");
+        }
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        entries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    /**
+     * Return true if the given certificate chain has been validated with the given settings,
+     * and the cache entry has not expired.
+     * @param certs Certificate chain to validate
+     * @param enableRevocation whether CRL verification is enabled or not
+     * @param subjectCertConstraints A set of constraints on the Subject DN of the certificates
+     */
+    public boolean contains(
+        X509Certificate[] certs, boolean enableRevocation, Collection<Pattern> subjectCertConstraints
+    ) {
+        String key = getKey(certs, enableRevocation, subjectCertConstraints);
+        if (key == null) {
+            return false;
+        }
+        
+        synchronized (entries) {
+            Long expires = entries.get(key);
+            if (expires == null) {
+                return false;
+            }
+            if (expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Record that the given certificate chain was validated with the given settings.
+     * @param certs Certificate chain that was validated
+     * @param enableRevocation whether CRL verification was enabled or not
+     * @param subjectCertConstraints A set of constraints on the Subject DN of the certificates
+     * @param validationGeneration The generation of the cache (see getGeneration()) before the 
+     * validation started. If the cache has been cleared since then, the chain is not cached.
+     */
+    public void add(
+        X509Certificate[] certs, 
+        boolean enableRevocation, 
+        Collection<Pattern> subjectCertConstraints,
+        long validationGeneration
+    ) {
+        String key = getKey(certs, enableRevocation, subjectCertConstraints);
+        if (key == null) {
+            return;
+        }
+        
+        long expires = System.currentTimeMillis() + ttl * 1000L;
+        for (X509Certificate cert : certs) {
+            expires = Math.min(expires, cert.getNotAfter().getTime());
+        }
+        
+        synchronized (entries) {
+            if (validationGeneration == generation) {
+                entries.put(key, expires);
+            }
+        }
+    }
+    
+    /**
+     * Get the current generation of the cache. This changes every time the cache is cleared.
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+    
+    /**
+     * Remove all of the entries from the cache, e.g. because the trust configuration or
+     * the CRLs have changed.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            generation++;
+        }
+    }
+    
+    /**
+     * Get the number of certificate chains currently held in the cache. This may include
+     * entries that have expired but have not been removed yet.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    public long getTTL() {
+        return ttl;
+    }
+    
+    private static String getKey(
+        X509Certificate[] certs, boolean enableRevocation, Collection<Pattern> subjectCertConstraints
+    ) {
+        if (certs == null || certs.length == 0) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (X509Certificate cert : certs) {
+                digest.update(cert.getEncoded());
+            }
+            
+            StringBuilder key = new StringBuilder(Base64.encode(digest.digest()));
+            key.append(enableRevocation ? "|R" : "|N");
+            if (subjectCertConstraints != null) {
+                for (Pattern pattern : subjectCertConstraints) {
+                    String regex = pattern.pattern();
+                    key.append('|').append(pattern.flags()).append(':').append(regex.length())
+                        .append(':').append(regex);
+                }
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            LOG.debug("Cannot compute the certificate cache key: " + e.getMessage(), e);
+            return null;
+        }
+    }
+}
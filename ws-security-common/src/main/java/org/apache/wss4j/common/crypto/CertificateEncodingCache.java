@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * A cache of the encoded forms of (outbound) certificates, together with the key identifiers
+ * that are computed from them. The signing and encryption certificates are the same for every
+ * message sent with a given Crypto alias, and so there is no need to DER and Base64 encode the
+ * certificate (or PKIPath chain), or to compute the SKI and Thumbprint identifiers, for each
+ * message.
+ *
+ * All of these values are a function of the certificate only, and so the cache is shared by
+ * all of the Crypto instances. Entries are keyed on the certificate, and the least recently used
+ * entry is discarded when the cache is full.
+ */
+public final class CertificateEncodingCache {
+
+    public static final int MAX_SIZE = 256;
+
+    private static final Map<X509Certificate, Entry> ENTRIES =
+        new LinkedHashMap<X509Certificate, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<X509Certificate, Entry> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+
+    private CertificateEncodingCache() {
+        // complete
+    }
+
+    /**
+     * Get the DER encoded form of the certificate.
+     */
+    public static byte[] getEncoded(X509Certificate cert) throws WSSecurityException {
+        return getEntry(cert).getEncoded().clone();
+    }
+
+    /**
+     * Get the Base64 encoding of the DER encoded form of the certificate.
+     */
+    public static String getBase64Encoded(X509Certificate cert) throws WSSecurityException {
+        Entry entry = getEntry(cert);
+        String base64 = entry.base64;
+        if (base64 == null) {
+            base64 = Base64.encode(entry.getEncoded());
+            entry.base64 = base64;
+        }
+        return base64;
+    }
+
+    /**
+     * Get the Base64 encoded Thumbprint (SHA-1 digest) of the certificate.
+     */
+    public static String getBase64Thumbprint(X509Certificate cert) throws WSSecurityException {
+        Entry entry = getEntry(cert);
+        String thumbprint = entry.thumbprint;
+        if (thumbprint == null) {
+            thumbprint = Base64.encode(KeyUtils.generateDigest(entry.getEncoded()));
+            entry.thumbprint = thumbprint;
+        }
+        return thumbprint;
+    }
+
+    /**
+     * Get the Base64 encoded Subject Key Identifier of the certificate. The SKI bytes are
+     * read from the certificate by the given Crypto (or Merlin if it is null). Only the value
+     * computed by Merlin is cached - another Crypto implementation may compute the SKI in a
+     * different way, and so it is asked for the SKI bytes each time.
+     */
+    public static String getBase64SKI(X509Certificate cert, Crypto crypto)
+        throws WSSecurityException {
+        if (crypto != null && crypto.getClass() != Merlin.class) {
+            return Base64.encode(crypto.getSKIBytesFromCert(cert));
+        }
+        Entry entry = getEntry(cert);
+        String ski = entry.ski;
+        if (ski == null) {
+            Crypto skiCrypto = crypto;
+            if (skiCrypto == null) {
+                skiCrypto = new Merlin();
+            }
+            ski = Base64.encode(skiCrypto.getSKIBytesFromCert(cert));
+            entry.ski = ski;
+        }
+        return ski;
+    }
+
+    /**
+     * Get the PKIPath encoding of a certificate chain. The chain is encoded by the given
+     * Crypto (or Merlin if it is null) the first time. The last chain that was encoded is
+     * cached for the first certificate of the chain.
+     */
+    public static byte[] getPKIPath(X509Certificate[] certs, Crypto crypto)
+        throws WSSecurityException {
+        return getPKIPathEntry(certs, crypto).data.clone();
+    }
+
+    /**
+     * Get the Base64 encoding of the PKIPath encoding of a certificate chain.
+     */
+    public static String getBase64PKIPath(X509Certificate[] certs, Crypto crypto)
+        throws WSSecurityException {
+        return getPKIPathEntry(certs, crypto).base64;
+    }
+
+    /**
+     * Remove all of the entries from the cache.
+     */
+    public static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+    }
+
+    private static PKIPath getPKIPathEntry(X509Certificate[] certs, Crypto crypto)
+        throws WSSecurityException {
+        Entry entry = getEntry(certs[0]);
+        PKIPath pkiPath = entry.pkiPath;
+        if (pkiPath == null || !Arrays.equals(pkiPath.certs, certs)) {
+            Crypto pkiPathCrypto = crypto;
+            if (pkiPathCrypto == null) {
+                pkiPathCrypto = new Merlin();
+            }
+            byte[] data = pkiPathCrypto.getBytesFromCertificates(certs);
+            pkiPath = new PKIPath(certs.clone(), data, Base64.encode(data));
+            entry.pkiPath = pkiPath;
+        }
+        return pkiPath;
+    }
+
+    private static Entry getEntry(X509Certificate cert) {
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(cert);
+            if (entry == null) {
+                entry = new Entry(cert);
+                ENTRIES.put(cert, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * The cached values for a certificate. The values are computed lazily - two threads may
+     * compute the same value at the same time, but they will get the same result.
+     */
+    private static final class Entry {
+        private final X509Certificate cert;
+        private volatile byte[] encoded;
+        private volatile String base64;
+        private volatile String thumbprint;
+        private volatile String ski;
+        private volatile PKIPath pkiPath;
+
+        Entry(X509Certificate cert) {
+            this.cert = cert;
+        }
+
+        byte[] getEncoded() throws WSSecurityException {
+            byte[] data = encoded;
+            if (data == null) {
+                try {
+                    data = cert.getEncoded();
+                } catch (CertificateEncodingException e) {
+                    throw new WSSecurityException(
+                        WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, e, "encodeError"
+                    );
+                }
+                encoded = data;
+            }
+            return data;
+        }
+    }
+
+    private static final class PKIPath {
+        private final X509Certificate[] certs;
+        private final byte[] data;
+        private final String base64;
+
+        PKIPath(X509Certificate[] certs, byte[] data, String base64) {
+            this.certs = certs;
+            this.data = data;
+            this.base64 = base64;
+        }
+    }
+}
@@ -132,6 +132,16 @@ public abstract class CryptoFactory {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty", 
                                               new Object[] {"Cannot create Crypto class " + cryptoClassName});
             }
+        } else if (cryptoClassName.equals(ReloadableCrypto.class.getName())) {
+            try {
+                return new ReloadableCrypto(properties, classLoader, passwordEncryptor);
+            } catch (java.lang.Exception e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Unable to instantiate ReloadableCrypto", e);
+                }
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty", 
+                                              new Object[] {"Cannot create Crypto class " + cryptoClassName});
+            }
         } else {
             try {
                 // instruct the class loader to load the crypto implementation
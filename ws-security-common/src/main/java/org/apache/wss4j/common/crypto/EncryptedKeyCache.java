@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * A bounded cache of the symmetric keys that have been unwrapped from EncryptedKey elements.
+ * Some clients reuse the same EncryptedKey across many messages, and this avoids the expensive
+ * private key operation to unwrap the key for every message.
+ *
+ * Entries are keyed on a digest of the encrypted key bytes, together with the key transport
+ * algorithm and its parameters and the certificate of the recipient (see createKey). Only keys
+ * that were unwrapped successfully should be added to the cache. A cache instance should not be
+ * shared between configurations that use different decryption keystores. Entries expire after
+ * a configurable time to live. When the cache is full, the least recently used entry is discarded.
+ */
+public class EncryptedKeyCache {
+
+    public static final long DEFAULT_TTL = 60L * 60L;
+
+    private final int maxSize;
+    private final long ttl;
+    private final Map<String, CachedSecret> entries;
+
+    public EncryptedKeyCache(int maxSize) {
+        this(maxSize, DEFAULT_TTL);
+    }
+
+    /**
+     * Create a new EncryptedKeyCache
+     * @param maxSize The maximum number of unwrapped keys to cache
+     * @param ttl The length of time to cache an unwrapped key in seconds
+     */
+    public EncryptedKeyCache(final int maxSize, long ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The cache size must be a positive value");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("The time to live must be a positive value");
+        }
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        entries = new LinkedHashMap<String, CachedSecret>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedSecret> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Create the cache key for an EncryptedKey.
+     * @param recipientCert The certificate whose private key unwraps the key
+     * @param keyTransportAlgorithm The key transport algorithm URI
+     * @param digestAlgorithm The OAEP digest algorithm URI, or null
+     * @param mgfAlgorithm The OAEP MGF algorithm URI, or null
+     * @param oaepParams The OAEP parameters, or null
+     * @param encryptedKey The encrypted key bytes
+     * @return the cache key
+     * @throws WSSecurityException if the certificate cannot be encoded
+     */
+    public static String createKey(
+        X509Certificate recipientCert,
+        String keyTransportAlgorithm,
+        String digestAlgorithm,
+        String mgfAlgorithm,
+        byte[] oaepParams,
+        byte[] encryptedKey
+    ) throws WSSecurityException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, recipientCert.getEncoded());
+            update(digest, toBytes(keyTransportAlgorithm));
+            update(digest, toBytes(digestAlgorithm));
+            update(digest, toBytes(mgfAlgorithm));
+            update(digest, oaepParams);
+            update(digest, encryptedKey);
+            return Base64.encode(digest.digest());
+        } catch (CertificateEncodingException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
+            );
+        } catch (NoSuchAlgorithmException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex
+            );
+        }
+    }
+
+    /**
+     * Get the unwrapped key for the given cache key, or null if it is not cached or has expired.
+     * @param key The cache key (see createKey)
+     */
+    public byte[] get(String key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (entries) {
+            CachedSecret cachedSecret = entries.get(key);
+            if (cachedSecret == null) {
+                return null;
+            }
+            if (cachedSecret.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return cachedSecret.secret.clone();
+        }
+    }
+
+    /**
+     * Add an unwrapped key to the cache.
+     * @param key The cache key (see createKey)
+     * @param secret The unwrapped key bytes
+     */
+    public void put(String key, byte[] secret) {
+        if (key == null || secret == null) {
+            return;
+        }
+        CachedSecret cachedSecret =
+            new CachedSecret(secret.clone(), System.currentTimeMillis() + ttl * 1000L);
+        synchronized (entries) {
+            entries.put(key, cachedSecret);
+        }
+    }
+
+    /**
+     * Remove all of the entries from the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the number of unwrapped keys currently held in the cache. This may include
+     * entries that have expired but have not been removed yet.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTTL() {
+        return ttl;
+    }
+
+    static byte[] toBytes(String value) {
+        if (value == null) {
+            return null;
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void update(MessageDigest digest, byte[] value) {
+        int length = value == null ? -1 : value.length;
+        digest.update((byte)(length >>> 24));
+        digest.update((byte)(length >>> 16));
+        digest.update((byte)(length >>> 8));
+        digest.update((byte)length);
+        if (value != null) {
+            digest.update(value);
+        }
+    }
+
+    private static final class CachedSecret {
+        private final byte[] secret;
+        private final long expires;
+
+        CachedSecret(byte[] secret, long expires) {
+            this.secret = secret;
+            this.expires = expires;
+        }
+    }
+}
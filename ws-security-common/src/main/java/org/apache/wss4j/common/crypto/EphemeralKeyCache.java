@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * A cache of outbound ephemeral (session) keys, together with the key that was wrapped for a
+ * recipient certificate. Wrapping a key with the public key of the recipient is the most
+ * expensive part of encrypting a message, and so a wrapped key can be reused for a number of
+ * messages to the same recipient, i.e. the same EncryptedKey is sent in each of these messages.
+ *
+ * Entries are keyed on the certificate of the recipient, together with the key transport and
+ * symmetric encryption algorithms (see createKey). A wrapped key is handed out for at most
+ * "maxUses" messages and for at most "ttl" seconds, after which a new key is generated and
+ * wrapped (i.e. the key is rotated). When the cache is full, the least recently used entry
+ * is discarded.
+ */
+public class EphemeralKeyCache {
+
+    public static final int DEFAULT_MAX_SIZE = 100;
+    public static final long DEFAULT_TTL = 60L * 5L;
+
+    private final int maxSize;
+    private final int maxUses;
+    private final long ttl;
+    private final Map<String, WrappedKey> entries;
+
+    public EphemeralKeyCache(int maxUses) {
+        this(DEFAULT_MAX_SIZE, maxUses, DEFAULT_TTL);
+    }
+
+    /**
+     * Create a new EphemeralKeyCache
+     * @param maxSize The maximum number of recipients to cache a wrapped key for
+     * @param maxUses The maximum number of messages a wrapped key is used for
+     * @param ttl The maximum length of time to use a wrapped key for in seconds
+     */
+    public EphemeralKeyCache(final int maxSize, int maxUses, long ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The cache size must be a positive value");
+        }
+        if (maxUses <= 0) {
+            throw new IllegalArgumentException("The maximum number of uses must be a positive value");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("The time to live must be a positive value");
+        }
+        this.maxSize = maxSize;
+        this.maxUses = maxUses;
+        this.ttl = ttl;
+        entries = new LinkedHashMap<String, WrappedKey>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, WrappedKey> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Create the cache key for a recipient.
+     * @param recipientCert The certificate whose public key wraps the key
+     * @param keyTransportAlgorithm The key transport algorithm URI
+     * @param digestAlgorithm The OAEP digest algorithm URI, or null
+     * @param mgfAlgorithm The OAEP MGF algorithm URI, or null
+     * @param oaepParams The OAEP parameters, or null
+     * @param symmetricAlgorithm The symmetric encryption algorithm URI of the ephemeral key
+     * @return the cache key
+     * @throws WSSecurityException if the certificate cannot be encoded
+     */
+    public static String createKey(
+        X509Certificate recipientCert,
+        String keyTransportAlgorithm,
+        String digestAlgorithm,
+        String mgfAlgorithm,
+        byte[] oaepParams,
+        String symmetricAlgorithm
+    ) throws WSSecurityException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            EncryptedKeyCache.update(digest, recipientCert.getEncoded());
+            EncryptedKeyCache.update(digest, EncryptedKeyCache.toBytes(keyTransportAlgorithm));
+            EncryptedKeyCache.update(digest, EncryptedKeyCache.toBytes(digestAlgorithm));
+            EncryptedKeyCache.update(digest, EncryptedKeyCache.toBytes(mgfAlgorithm));
+            EncryptedKeyCache.update(digest, oaepParams);
+            EncryptedKeyCache.update(digest, EncryptedKeyCache.toBytes(symmetricAlgorithm));
+            return Base64.encode(digest.digest());
+        } catch (CertificateEncodingException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
+            );
+        } catch (NoSuchAlgorithmException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex
+            );
+        }
+    }
+
+    /**
+     * Get the wrapped key for the given cache key, and count it as being used once more.
+     * Returns null if no key is cached, or if the cached key has been used "maxUses" times
+     * or has expired, in which case a new key must be generated, wrapped and put in the cache.
+     * @param key The cache key (see createKey)
+     */
+    public WrappedKey get(String key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (entries) {
+            WrappedKey wrappedKey = entries.get(key);
+            if (wrappedKey == null) {
+                return null;
+            }
+            if (wrappedKey.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            wrappedKey.uses++;
+            if (wrappedKey.uses >= maxUses) {
+                entries.remove(key);
+            }
+            return wrappedKey;
+        }
+    }
+
+    /**
+     * Add a newly wrapped key to the cache, which counts as its first use.
+     * @param key The cache key (see createKey)
+     * @param ephemeralKey The ephemeral key bytes
+     * @param encryptedEphemeralKey The wrapped ephemeral key bytes
+     */
+    public void put(String key, byte[] ephemeralKey, byte[] encryptedEphemeralKey) {
+        if (key == null || ephemeralKey == null || encryptedEphemeralKey == null || maxUses == 1) {
+            return;
+        }
+        WrappedKey wrappedKey =
+            new WrappedKey(
+                ephemeralKey.clone(), encryptedEphemeralKey.clone(),
+                System.currentTimeMillis() + ttl * 1000L
+            );
+        wrappedKey.uses = 1;
+        synchronized (entries) {
+            entries.put(key, wrappedKey);
+        }
+    }
+
+    /**
+     * Remove all of the entries from the cache, e.g. to force all of the keys to be rotated.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the number of wrapped keys currently held in the cache. This may include
+     * entries that have expired but have not been removed yet.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMaxUses() {
+        return maxUses;
+    }
+
+    public long getTTL() {
+        return ttl;
+    }
+
+    /**
+     * An ephemeral key, together with the key that was wrapped for the recipient.
+     */
+    public static final class WrappedKey {
+        private final byte[] ephemeralKey;
+        private final byte[] encryptedEphemeralKey;
+        private final long expires;
+        private int uses;
+
+        WrappedKey(byte[] ephemeralKey, byte[] encryptedEphemeralKey, long expires) {
+            this.ephemeralKey = ephemeralKey;
+            this.encryptedEphemeralKey = encryptedEphemeralKey;
+            this.expires = expires;
+        }
+
+        public byte[] getEphemeralKey() {
+            return ephemeralKey.clone();
+        }
+
+        public byte[] getEncryptedEphemeralKey() {
+            return encryptedEphemeralKey.clone();
+        }
+
+        /**
+         * Get the EncryptedKeySHA1 identifier of the wrapped key, i.e. the Base64 encoded
+         * SHA-1 digest of the wrapped key bytes, which a recipient that has kept the key
+         * can use to look it up.
+         */
+        public String getEncryptedKeySHA1() throws WSSecurityException {
+            return Base64.encode(KeyUtils.generateDigest(encryptedEphemeralKey));
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.Key;
@@ -52,8 +53,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -112,6 +115,18 @@ public class Merlin extends CryptoBase {
      */
     public static final String X509_CRL_FILE = "x509crl.file";
     
+    /*
+     * Cache of validated certificate chains
+     */
+    public static final String CERTPATH_CACHE_SIZE = "certpath.cache.size";
+    public static final String CERTPATH_CACHE_TTL = "certpath.cache.ttl";
+    
+    /*
+     * Cache of unlocked private keys
+     */
+    public static final String PRIVATEKEY_CACHE_SIZE = "privatekey.cache.size";
+    public static final String PRIVATEKEY_CACHE_TTL = "privatekey.cache.ttl";
+    
     private static final org.slf4j.Logger LOG = 
         org.slf4j.LoggerFactory.getLogger(Merlin.class);
     private static final boolean DO_DEBUG = LOG.isDebugEnabled();
@@ -124,6 +139,13 @@ public class Merlin extends CryptoBase {
     protected boolean privatePasswordSet; 
     protected PasswordEncryptor passwordEncryptor;
     
+    private volatile CertificateIndex keystoreIndex;
+    private volatile CertificateIndex truststoreIndex;
+    private volatile TrustConfiguration trustConfiguration;
+    private volatile CertPathValidationCache certPathValidationCache;
+    private volatile PrivateKeyCache privateKeyCache;
+    private volatile ThreadLocal<CertPathValidator> certPathValidators = new ThreadLocal<>();
+    
     public Merlin() {
         // default constructor
     }
@@ -315,6 +337,62 @@ public class Merlin extends CryptoBase {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "failedCredentialLoad");
             }
         }
+        
+        loadCertPathValidationCache(properties, prefix);
+        loadPrivateKeyCache(properties, prefix);
+        clearTrustCache();
+    }
+    
+    /**
+     * Create the cache of validated certificate chains, if it is enabled by setting a 
+     * (positive) cache size in the given properties
+     */
+    protected void loadCertPathValidationCache(Properties properties, String prefix) 
+        throws WSSecurityException {
+        String cacheSize = properties.getProperty(prefix + CERTPATH_CACHE_SIZE);
+        if (cacheSize == null) {
+            return;
+        }
+        String cacheTTL = properties.getProperty(prefix + CERTPATH_CACHE_TTL);
+        try {
+            int size = Integer.parseInt(cacheSize.trim());
+            if (size <= 0) {
+                return;
+            }
+            long ttl = CertPathValidationCache.DEFAULT_TTL;
+            if (cacheTTL != null) {
+                ttl = Long.parseLong(cacheTTL.trim());
+            }
+            certPathValidationCache = new CertPathValidationCache(size, ttl);
+        } catch (IllegalArgumentException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "failedCredentialLoad");
+        }
+    }
+    
+    /**
+     * Create the cache of unlocked private keys, if it is enabled by setting a (positive) 
+     * cache size in the given properties
+     */
+    protected void loadPrivateKeyCache(Properties properties, String prefix) 
+        throws WSSecurityException {
+        String cacheSize = properties.getProperty(prefix + PRIVATEKEY_CACHE_SIZE);
+        if (cacheSize == null) {
+            return;
+        }
+        String cacheTTL = properties.getProperty(prefix + PRIVATEKEY_CACHE_TTL);
+        try {
+            int size = Integer.parseInt(cacheSize.trim());
+            if (size <= 0) {
+                return;
+            }
+            long ttl = PrivateKeyCache.DEFAULT_TTL;
+            if (cacheTTL != null) {
+                ttl = Long.parseLong(cacheTTL.trim());
+            }
+            privateKeyCache = new PrivateKeyCache(size, ttl);
+        } catch (IllegalArgumentException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "failedCredentialLoad");
+        }
     }
 
     
@@ -399,6 +477,7 @@ public class Merlin extends CryptoBase {
      */
     public void setKeyStore(KeyStore keyStore) {
         keystore = keyStore;
+        clearTrustCache();
     }
     
     /**
@@ -417,6 +496,7 @@ public class Merlin extends CryptoBase {
      */
     public void setTrustStore(KeyStore trustStore) {
         truststore = trustStore;
+        clearTrustCache();
     }
     
     /**
@@ -427,6 +507,80 @@ public class Merlin extends CryptoBase {
      */
     public void setCRLCertStore(CertStore crlCertStore) {
         this.crlCertStore = crlCertStore;
+        clearTrustCache();
+    }
+    
+    /**
+     * Clear the certificate lookup indexes, the trust anchors and PKIX parameters that are
+     * cached for certificate path validation, and the unlocked private keys. These are refreshed 
+     * automatically when a different keystore, truststore or CRL CertStore is set, but this 
+     * method must be called if the contents of one of the existing KeyStore objects are modified.
+     */
+    public void clearTrustCache() {
+        keystoreIndex = null;
+        truststoreIndex = null;
+        trustConfiguration = null;
+        CertPathValidationCache cache = certPathValidationCache;
+        if (cache != null) {
+            cache.clear();
+        }
+        PrivateKeyCache keyCache = privateKeyCache;
+        if (keyCache != null) {
+            keyCache.clear();
+        }
+    }
+    
+    /**
+     * Build the certificate lookup indexes, and the trust anchors and PKIX parameters, up front
+     * rather than on the first request that requires them.
+     * @throws WSSecurityException if the keystore or truststore cannot be read
+     */
+    public void initTrustCache() throws WSSecurityException {
+        if (keystore != null) {
+            getCertificateIndex(keystore);
+        }
+        if (truststore != null) {
+            getCertificateIndex(truststore);
+        }
+        try {
+            getTrustConfiguration();
+        } catch (KeyStoreException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
+        }
+    }
+    
+    /**
+     * Set the cache of validated certificate chains. If this is set, verifyTrust does not repeat
+     * the certificate path validation of a chain that was successfully validated before with
+     * the same settings, until the cache entry expires or the trust configuration changes.
+     * @param certPathValidationCache the cache of validated certificate chains, or null to
+     * disable the caching of validation results
+     */
+    public void setCertPathValidationCache(CertPathValidationCache certPathValidationCache) {
+        this.certPathValidationCache = certPathValidationCache;
+    }
+    
+    public CertPathValidationCache getCertPathValidationCache() {
+        return certPathValidationCache;
+    }
+    
+    /**
+     * Set the cache of unlocked private keys.
+     * @param privateKeyCache the cache of unlocked private keys, or null to disable caching
+     */
+    public void setPrivateKeyCache(PrivateKeyCache privateKeyCache) {
+        this.privateKeyCache = privateKeyCache;
+    }
+    
+    public PrivateKeyCache getPrivateKeyCache() {
+        return privateKeyCache;
+    }
+    
+    @Override
+    public void setCryptoProvider(String provider) {
+        super.setCryptoProvider(provider);
+        // Discard the CertPathValidator instances obtained from the previous provider
+        certPathValidators = new ThreadLocal<>();
     }
     
     /**
@@ -643,6 +797,15 @@ public class Merlin extends CryptoBase {
                     password = decryptPassword(password, passwordEncryptor);
                 }
             }
+            PrivateKeyCache cache = privateKeyCache;
+            long generation = 0;
+            if (cache != null) {
+                generation = cache.getGeneration();
+                PrivateKey cachedKey = cache.get(identifier, password);
+                if (cachedKey != null) {
+                    return cachedKey;
+                }
+            }
             Key keyTmp = keystore.getKey(identifier, password == null 
                                          ? new char[]{} : password.toCharArray());
             if (!(keyTmp instanceof PrivateKey)) {
@@ -652,6 +815,9 @@ public class Merlin extends CryptoBase {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty", 
                                               new Object[]{msg});
             }
+            if (cache != null) {
+                cache.put(identifier, password, (PrivateKey) keyTmp, generation);
+            }
             return (PrivateKey) keyTmp;
         } catch (KeyStoreException | UnrecoverableKeyException | NoSuchAlgorithmException ex) {
             throw new WSSecurityException(
@@ -692,6 +858,15 @@ public class Merlin extends CryptoBase {
                     password = password.trim();
                 }
             }
+            PrivateKeyCache cache = privateKeyCache;
+            long generation = 0;
+            if (cache != null) {
+                generation = cache.getGeneration();
+                PrivateKey cachedKey = cache.get(identifier, password);
+                if (cachedKey != null) {
+                    return cachedKey;
+                }
+            }
             Key keyTmp = keystore.getKey(identifier, password == null 
                                          ? new char[]{} : password.toCharArray());
             if (!(keyTmp instanceof PrivateKey)) {
@@ -701,6 +876,9 @@ public class Merlin extends CryptoBase {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty", 
                                               new Object[] {msg});
             }
+            if (cache != null) {
+                cache.put(identifier, password, (PrivateKey) keyTmp, generation);
+            }
             return (PrivateKey) keyTmp;
         } catch (KeyStoreException | UnrecoverableKeyException | NoSuchAlgorithmException ex) {
             throw new WSSecurityException(
@@ -722,6 +900,38 @@ public class Merlin extends CryptoBase {
         X509Certificate[] certs, 
         boolean enableRevocation,
         Collection<Pattern> subjectCertConstraints
+    ) throws WSSecurityException {
+        CertPathValidationCache cache = certPathValidationCache;
+        if (cache == null) {
+            verifyCertPath(certs, enableRevocation, subjectCertConstraints);
+            return;
+        }
+        
+        try {
+            // This discards the cached results if the keystore, truststore or CRLs were replaced
+            getTrustConfiguration();
+        } catch (KeyStoreException e) {
+            verifyCertPath(certs, enableRevocation, subjectCertConstraints);
+            return;
+        }
+        
+        long generation = cache.getGeneration();
+        if (cache.contains(certs, enableRevocation, subjectCertConstraints)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(
+                    "Cached trust for certificate with " + certs[0].getSubjectX500Principal().getName()
+                );
+            }
+            return;
+        }
+        verifyCertPath(certs, enableRevocation, subjectCertConstraints);
+        cache.add(certs, enableRevocation, subjectCertConstraints, generation);
+    }
+    
+    private void verifyCertPath(
+        X509Certificate[] certs, 
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints
     ) throws WSSecurityException {
         //
         // FIRST step - Search the keystore for the transmitted certificate
@@ -805,51 +1015,11 @@ public class Merlin extends CryptoBase {
             List<X509Certificate> certList = Arrays.asList(x509certs);
             CertPath path = getCertificateFactory().generateCertPath(certList);
 
-            Set<TrustAnchor> set = new HashSet<>();
-            if (truststore != null) {
-                Enumeration<String> truststoreAliases = truststore.aliases();
-                while (truststoreAliases.hasMoreElements()) {
-                    String alias = truststoreAliases.nextElement();
-                    X509Certificate cert = 
-                        (X509Certificate) truststore.getCertificate(alias);
-                    if (cert != null) {
-                        TrustAnchor anchor = 
-                            new TrustAnchor(cert, cert.getExtensionValue(NAME_CONSTRAINTS_OID));
-                        set.add(anchor);
-                    }
-                }
-            }
-
-            //
-            // Add certificates from the keystore - only if there is no TrustStore, apart from
-            // the case that the truststore is the JDK CA certs. This behaviour is preserved
-            // for backwards compatibility reasons
-            //
-            if (keystore != null && (truststore == null || loadCACerts)) {
-                Enumeration<String> aliases = keystore.aliases();
-                while (aliases.hasMoreElements()) {
-                    String alias = aliases.nextElement();
-                    X509Certificate cert = 
-                        (X509Certificate) keystore.getCertificate(alias);
-                    if (cert != null) {
-                        TrustAnchor anchor = 
-                            new TrustAnchor(cert, cert.getExtensionValue(NAME_CONSTRAINTS_OID));
-                        set.add(anchor);
-                    }
-                }
-            }
-
-            // Verify the trust path using the above settings
-            String provider = getCryptoProvider();
-            CertPathValidator validator = null;
-            if (provider == null || provider.length() == 0) {
-                validator = CertPathValidator.getInstance("PKIX");
-            } else {
-                validator = CertPathValidator.getInstance("PKIX", provider);
-            }
-            
-            PKIXParameters param = createPKIXParameters(set, enableRevocation);
-            validator.validate(path, param);
+            // Verify the trust path using the cached trust anchors. The PKIXParameters are
+            // mutable, and so a new instance is created for each validation.
+            Set<TrustAnchor> trustAnchors = getTrustConfiguration().trustAnchors;
+            PKIXParameters param = createPKIXParameters(trustAnchors, enableRevocation);
+            getCertPathValidator().validate(path, param);
         } catch (NoSuchProviderException | NoSuchAlgorithmException 
             | CertificateException | InvalidAlgorithmParameterException
             | java.security.cert.CertPathValidatorException 
@@ -865,6 +1035,113 @@ public class Merlin extends CryptoBase {
         }
     }
     
+    /**
+     * Get the lookup index of the certificates in the given KeyStore, creating it if the
+     * KeyStore has not been indexed yet
+     */
+    private CertificateIndex getCertificateIndex(KeyStore store) throws WSSecurityException {
+        try {
+            CertificateIndex index;
+            if (store == keystore) {
+                index = keystoreIndex;
+                if (index == null || index.store != store) {
+                    index = new CertificateIndex(this, store);
+                    keystoreIndex = index;
+                }
+            } else if (store == truststore) {
+                index = truststoreIndex;
+                if (index == null || index.store != store) {
+                    index = new CertificateIndex(this, store);
+                    truststoreIndex = index;
+                }
+            } else {
+                index = new CertificateIndex(this, store);
+            }
+            return index;
+        } catch (KeyStoreException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
+            );
+        }
+    }
+    
+    /**
+     * Get the trust anchors for the current keystore, truststore and CRL CertStore, loading
+     * them if they are not cached yet
+     */
+    private TrustConfiguration getTrustConfiguration() throws KeyStoreException {
+        TrustConfiguration configuration = trustConfiguration;
+        if (configuration == null || !configuration.isCurrent(this)) {
+            CertPathValidationCache cache = certPathValidationCache;
+            if (configuration != null && cache != null) {
+                cache.clear();
+            }
+            configuration = new TrustConfiguration(this);
+            trustConfiguration = configuration;
+        }
+        return configuration;
+    }
+    
+    /**
+     * Get the trust anchors from the truststore and (if applicable) the keystore
+     */
+    private Set<TrustAnchor> loadTrustAnchors() throws KeyStoreException {
+        Set<TrustAnchor> set = new HashSet<>();
+        if (truststore != null) {
+            Enumeration<String> truststoreAliases = truststore.aliases();
+            while (truststoreAliases.hasMoreElements()) {
+                String alias = truststoreAliases.nextElement();
+                X509Certificate cert = 
+                    (X509Certificate) truststore.getCertificate(alias);
+                if (cert != null) {
+                    TrustAnchor anchor = 
+                        new TrustAnchor(cert, cert.getExtensionValue(NAME_CONSTRAINTS_OID));
+                    set.add(anchor);
+                }
+            }
+        }
+
+        //
+        // Add certificates from the keystore - only if there is no TrustStore, apart from
+        // the case that the truststore is the JDK CA certs. This behaviour is preserved
+        // for backwards compatibility reasons
+        //
+        if (keystore != null && (truststore == null || loadCACerts)) {
+            Enumeration<String> aliases = keystore.aliases();
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                X509Certificate cert = 
+                    (X509Certificate) keystore.getCertificate(alias);
+                if (cert != null) {
+                    TrustAnchor anchor = 
+                        new TrustAnchor(cert, cert.getExtensionValue(NAME_CONSTRAINTS_OID));
+                    set.add(anchor);
+                }
+            }
+        }
+        return set;
+    }
+    
+    /**
+     * Get a PKIX CertPathValidator for the configured provider. CertPathValidator instances
+     * are not thread-safe, so one instance is reused per thread.
+     */
+    private CertPathValidator getCertPathValidator() 
+        throws NoSuchAlgorithmException, NoSuchProviderException {
+        ThreadLocal<CertPathValidator> validators = certPathValidators;
+        CertPathValidator validator = validators.get();
+        if (validator == null) {
+            String provider = getCryptoProvider();
+            if (provider == null || provider.length() == 0) {
+                validator = CertPathValidator.getInstance("PKIX");
+            } else {
+                validator = CertPathValidator.getInstance("PKIX", provider);
+            }
+            validators.set(validator);
+        }
+        return validator;
+    }
+    
     // Separated out to allow subclasses to override it
     protected PKIXParameters createPKIXParameters(
         Set<TrustAnchor> trustAnchors, boolean enableRevocation
@@ -962,35 +1239,7 @@ public class Merlin extends CryptoBase {
         BigInteger serialNumber, 
         KeyStore store
     ) throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-                
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    if (x509cert.getSerialNumber().compareTo(serialNumber) == 0) {
-                        Object certName = 
-                            createBCX509Name(x509cert.getIssuerX500Principal().getName());
-                        if (certName.equals(issuerRDN)) {
-                            return certs;
-                        }
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
-        }
-        return new Certificate[]{};
+        return getCertificateIndex(store).getCertificatesByIssuerSerial(issuerRDN, serialNumber);
     }
     
     /**
@@ -1001,23 +1250,14 @@ public class Merlin extends CryptoBase {
      * @throws WSSecurityException if problems during keystore handling or wrong certificate
      */
     private X509Certificate[] getX509Certificates(byte[] thumbprint) throws WSSecurityException {
-        MessageDigest sha = null;
-        
-        try {
-            sha = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
-            );
-        }
         Certificate[] certs = null;
         if (keystore != null) {
-            certs = getCertificates(thumbprint, keystore, sha);
+            certs = getCertificatesThumbprint(thumbprint, keystore);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
         if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(thumbprint, truststore, sha);
+            certs = getCertificatesThumbprint(thumbprint, truststore);
         }
         
         if (certs == null || certs.length == 0) {
@@ -1032,51 +1272,17 @@ public class Merlin extends CryptoBase {
     }
 
     /**
-     * Get an X509 Certificate (chain) of the X500Principal argument in the supplied KeyStore 
+     * Get an X509 Certificate (chain) with the given SHA-1 thumbprint in the supplied KeyStore 
      * @param thumbprint
      * @param store The KeyStore
      * @return an X509 Certificate (chain)
      * @throws WSSecurityException
      */
-    private Certificate[] getCertificates(
+    private Certificate[] getCertificatesThumbprint(
         byte[] thumbprint, 
-        KeyStore store,
-        MessageDigest sha
+        KeyStore store
     ) throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-                
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    try {
-                        sha.update(x509cert.getEncoded());
-                    } catch (CertificateEncodingException ex) {
-                        throw new WSSecurityException(
-                            WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
-                        );
-                    }
-                    byte[] data = sha.digest();
-
-                    if (Arrays.equals(data, thumbprint)) {
-                        return certs;
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
-        }
-        return new Certificate[]{};
+        return getCertificateIndex(store).getCertificatesByThumbprint(thumbprint);
     }
     
     /**
@@ -1108,7 +1314,7 @@ public class Merlin extends CryptoBase {
     }
     
     /**
-     * Get an X509 Certificate (chain) of the X500Principal argument in the supplied KeyStore 
+     * Get an X509 Certificate (chain) with the given SubjectKeyIdentifier in the supplied KeyStore 
      * @param skiBytes
      * @param store The KeyStore
      * @return an X509 Certificate (chain)
@@ -1118,32 +1324,7 @@ public class Merlin extends CryptoBase {
         byte[] skiBytes, 
         KeyStore store
     ) throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-                
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    byte[] data = getSKIBytesFromCert(x509cert);
-                    if (data.length == skiBytes.length && Arrays.equals(data, skiBytes)) {
-                        return certs;
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
-        }
-        return new Certificate[]{};
+        return getCertificateIndex(store).getCertificatesBySKI(skiBytes);
     }
     
     /**
@@ -1246,26 +1427,10 @@ public class Merlin extends CryptoBase {
             return false;
         }
         try {
-            for (Enumeration<String> e = keyStoreToSearch.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = keyStoreToSearch.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = keyStoreToSearch.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-                
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate
-                    && publicKey.equals(((X509Certificate)certs[0]).getPublicKey())) {
-                    return true;
-                }
-            }
-        } catch (KeyStoreException e) {
+            return getCertificateIndex(keyStoreToSearch).containsPublicKey(publicKey);
+        } catch (WSSecurityException e) {
             return false;
         }
-        return false;
     }
     
     /**
@@ -1277,32 +1442,7 @@ public class Merlin extends CryptoBase {
      */
     private Certificate[] getCertificates(Object subjectRDN, KeyStore store) 
         throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X500Principal foundRDN = ((X509Certificate)certs[0]).getSubjectX500Principal();
-                    Object certName = createBCX509Name(foundRDN.getName());
-
-                    if (subjectRDN.equals(certName)) {
-                        return certs;
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
-        }
-        return new Certificate[]{};
+        return getCertificateIndex(store).getCertificatesBySubject(subjectRDN);
     }
     
     private static String createKeyStoreErrorMessage(KeyStore keystore) throws KeyStoreException {
@@ -1332,27 +1472,7 @@ public class Merlin extends CryptoBase {
      */
     private String getIdentifier(X509Certificate cert, KeyStore store)
         throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    Certificate retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert != null) {
-                        certs = new Certificate[]{retrievedCert};
-                    }
-                }
-                
-                if (certs != null && certs.length > 0 && certs[0].equals(cert)) {
-                    return alias;
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
-        }
-        return null;
+        return getCertificateIndex(store).getAlias(cert);
     }
     
     /**
@@ -1400,4 +1520,147 @@ public class Merlin extends CryptoBase {
     public void setPasswordEncryptor(PasswordEncryptor passwordEncryptor) {
         this.passwordEncryptor = passwordEncryptor;
     }
+    
+    /**
+     * The trust anchors derived from a given keystore, truststore and CRL CertStore
+     */
+    private static final class TrustConfiguration {
+        private final KeyStore keystore;
+        private final KeyStore truststore;
+        private final CertStore crlCertStore;
+        private final boolean loadCACerts;
+        private final Set<TrustAnchor> trustAnchors;
+        
+        TrustConfiguration(Merlin merlin) throws KeyStoreException {
+            keystore = merlin.keystore;
+            truststore = merlin.truststore;
+            crlCertStore = merlin.crlCertStore;
+            loadCACerts = merlin.loadCACerts;
+            
+            trustAnchors = Collections.unmodifiableSet(merlin.loadTrustAnchors());
+        }
+        
+        boolean isCurrent(Merlin merlin) {
+            return keystore == merlin.keystore && truststore == merlin.truststore
+                && crlCertStore == merlin.crlCertStore && loadCACerts == merlin.loadCACerts;
+        }
+    }
+    
+    /**
+     * An index of the certificate (chains) in a KeyStore by issuer and serial number, SHA-1
+     * thumbprint, SubjectKeyIdentifier, subject DN and public key. Where several entries match
+     * a key, the index holds the first one in the order of KeyStore.aliases(), which is the one
+     * a linear search through the KeyStore would find.
+     */
+    private static final class CertificateIndex {
+        private final KeyStore store;
+        private final Map<List<Object>, Certificate[]> issuerSerials = new HashMap<>();
+        private final Map<ByteBuffer, Certificate[]> thumbprints = new HashMap<>();
+        private final Map<ByteBuffer, Certificate[]> skis = new HashMap<>();
+        private final Map<Object, Certificate[]> subjects = new HashMap<>();
+        private final Set<ByteBuffer> publicKeys = new HashSet<>();
+        private final Map<Certificate, String> aliases = new HashMap<>();
+        
+        CertificateIndex(Merlin merlin, KeyStore store) throws KeyStoreException {
+            this.store = store;
+            
+            MessageDigest sha = null;
+            try {
+                sha = MessageDigest.getInstance("SHA1");
+            } catch (NoSuchAlgorithmException e) {
+                LOG.debug(e.getMessage(), e);
+            }
+            
+            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
+                String alias = e.nextElement();
+                Certificate[] certs = store.getCertificateChain(alias);
+                if (certs == null || certs.length == 0) {
+                    // no cert chain, so lets check if getCertificate gives us a result.
+                    Certificate cert = store.getCertificate(alias);
+                    if (cert != null) {
+                        certs = new Certificate[]{cert};
+                    }
+                }
+                if (certs == null || certs.length == 0) {
+                    continue;
+                }
+                
+                putIfAbsent(aliases, certs[0], alias);
+                if (certs[0] instanceof X509Certificate) {
+                    index(merlin, (X509Certificate)certs[0], certs, sha);
+                }
+            }
+        }
+        
+        private void index(
+            Merlin merlin, X509Certificate x509cert, Certificate[] certs, MessageDigest sha
+        ) {
+            Object issuerName = merlin.createBCX509Name(x509cert.getIssuerX500Principal().getName());
+            putIfAbsent(
+                issuerSerials, Arrays.asList(issuerName, (Object)x509cert.getSerialNumber()), certs
+            );
+            
+            Object subjectName = merlin.createBCX509Name(x509cert.getSubjectX500Principal().getName());
+            putIfAbsent(subjects, subjectName, certs);
+            
+            if (sha != null) {
+                try {
+                    sha.reset();
+                    putIfAbsent(thumbprints, ByteBuffer.wrap(sha.digest(x509cert.getEncoded())), certs);
+                } catch (CertificateEncodingException ex) {
+                    LOG.debug(ex.getMessage(), ex);
+                }
+            }
+            
+            try {
+                putIfAbsent(skis, ByteBuffer.wrap(merlin.getSKIBytesFromCert(x509cert)), certs);
+            } catch (WSSecurityException ex) {
+                LOG.debug(ex.getMessage(), ex);
+            }
+            
+            byte[] encodedKey = x509cert.getPublicKey().getEncoded();
+            if (encodedKey != null) {
+                publicKeys.add(ByteBuffer.wrap(encodedKey));
+            }
+        }
+        
+        private static <K, V> void putIfAbsent(Map<K, V> map, K key, V value) {
+            if (!map.containsKey(key)) {
+                map.put(key, value);
+            }
+        }
+        
+        private static Certificate[] copyOf(Certificate[] certs) {
+            if (certs == null) {
+                return new Certificate[]{};
+            }
+            return certs.clone();
+        }
+        
+        Certificate[] getCertificatesByIssuerSerial(Object issuerName, BigInteger serialNumber) {
+            return copyOf(issuerSerials.get(Arrays.asList(issuerName, (Object)serialNumber)));
+        }
+        
+        Certificate[] getCertificatesByThumbprint(byte[] thumbprint) {
+            return copyOf(thumbprints.get(ByteBuffer.wrap(thumbprint)));
+        }
+        
+        Certificate[] getCertificatesBySKI(byte[] skiBytes) {
+            return copyOf(skis.get(ByteBuffer.wrap(skiBytes)));
+        }
+        
+        Certificate[] getCertificatesBySubject(Object subjectName) {
+            return copyOf(subjects.get(subjectName));
+        }
+        
+        boolean containsPublicKey(PublicKey publicKey) {
+            byte[] encodedKey = publicKey.getEncoded();
+            return encodedKey != null && publicKeys.contains(ByteBuffer.wrap(encodedKey));
+        }
+        
+        String getAlias(Certificate cert) {
+            return aliases.get(cert);
+        }
+    }
+    
 }
@@ -209,6 +209,10 @@ public class MerlinDevice extends Merlin {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "failedCredentialLoad");
             }
         }
+        
+        loadCertPathValidationCache(properties, prefix);
+        loadPrivateKeyCache(properties, prefix);
+        clearTrustCache();
     }
 
 }
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * A cache of the certificates parsed from (inbound) BinarySecurityTokens. Most messages are
+ * sent by a small number of clients, and so the same X509v3 or PKIPath token is received again
+ * and again. The cache maps a SHA-256 digest of the raw token bytes to the parsed certificates,
+ * so that a token that has been seen before does not need to be parsed again.
+ *
+ * The cache is shared by the DOM and StAX code. Only tokens parsed by a Merlin instance are
+ * cached, as a subclass of Merlin, or another Crypto implementation, may parse or check the
+ * certificates in its own way. The name of the provider of the CertificateFactory of the
+ * Crypto is part of the digest, so that a Merlin instance that is configured with a different
+ * provider does not get the certificates parsed by another provider. When the cache is full,
+ * the least recently used entry is discarded.
+ */
+public final class ParsedCertificateCache {
+
+    public static final int MAX_SIZE = 500;
+
+    private static final byte X509_V3_TYPE = 1;
+    private static final byte PKI_PATH_TYPE = 2;
+
+    private static final Map<String, X509Certificate[]> ENTRIES =
+        new LinkedHashMap<String, X509Certificate[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, X509Certificate[]> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+
+    private ParsedCertificateCache() {
+        // complete
+    }
+
+    /**
+     * Get the certificate that is contained in a X509v3 token.
+     * @param data The DER encoded certificate
+     * @param crypto The Crypto instance used to parse the certificate if it is not cached
+     * @return the (parsed) certificate
+     * @throws WSSecurityException if the certificate cannot be parsed
+     * @throws IOException if the certificate data cannot be read
+     */
+    public static X509Certificate loadCertificate(byte[] data, Crypto crypto)
+        throws WSSecurityException, IOException {
+        if (!isCacheable(crypto)) {
+            return parseCertificate(data, crypto);
+        }
+        String key = getKey(X509_V3_TYPE, data, crypto);
+        X509Certificate[] certs = get(key);
+        if (certs == null) {
+            certs = new X509Certificate[]{parseCertificate(data, crypto)};
+            put(key, certs);
+        }
+        return certs[0];
+    }
+
+    /**
+     * Get the certificates that are contained in a PKIPath token.
+     * @param data The PKIPath encoded certificates
+     * @param crypto The Crypto instance used to parse the certificates if they are not cached
+     * @return the (parsed) certificates
+     * @throws WSSecurityException if the certificates cannot be parsed
+     */
+    public static X509Certificate[] getCertificatesFromBytes(byte[] data, Crypto crypto)
+        throws WSSecurityException {
+        if (!isCacheable(crypto)) {
+            return crypto.getCertificatesFromBytes(data);
+        }
+        String key = getKey(PKI_PATH_TYPE, data, crypto);
+        X509Certificate[] certs = get(key);
+        if (certs == null) {
+            certs = crypto.getCertificatesFromBytes(data);
+            put(key, certs.clone());
+        } else {
+            certs = certs.clone();
+        }
+        return certs;
+    }
+
+    /**
+     * Remove all of the entries from the cache.
+     */
+    public static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+    }
+
+    /**
+     * Get the number of tokens currently held in the cache.
+     */
+    public static int size() {
+        synchronized (ENTRIES) {
+            return ENTRIES.size();
+        }
+    }
+
+    private static boolean isCacheable(Crypto crypto) {
+        return crypto != null && crypto.getClass() == Merlin.class;
+    }
+
+    private static X509Certificate parseCertificate(byte[] data, Crypto crypto)
+        throws WSSecurityException, IOException {
+        if (data == null) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, "invalidCertData", new Object[] {"0"}
+            );
+        }
+        try (InputStream in = new ByteArrayInputStream(data)) {
+            return crypto.loadCertificate(in);
+        }
+    }
+
+    private static X509Certificate[] get(String key) {
+        synchronized (ENTRIES) {
+            return ENTRIES.get(key);
+        }
+    }
+
+    private static void put(String key, X509Certificate[] certs) {
+        synchronized (ENTRIES) {
+            ENTRIES.put(key, certs);
+        }
+    }
+
+    private static String getKey(byte type, byte[] data, Crypto crypto) throws WSSecurityException {
+        if (data == null) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, "invalidCertData", new Object[] {"0"}
+            );
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(type);
+            CertificateFactory certificateFactory = crypto.getCertificateFactory();
+            if (certificateFactory != null) {
+                String provider = certificateFactory.getProvider().getName();
+                digest.update(provider.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+            digest.update(data);
+            return Base64.encode(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e
+            );
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the private keys that have been unlocked by Merlin.getPrivateKey, keyed on
+ * the keystore alias. This avoids decrypting the key (which for PKCS12 keystores involves an
+ * expensive password-based key derivation) for every message. A digest of the password that
+ * unlocked the key is stored together with it, and a lookup only succeeds if the password that
+ * the caller resolved (e.g. via its CallbackHandler) matches it. Entries expire after
+ * a configurable time to live. When the cache is full, the least recently used entry is discarded.
+ */
+public class PrivateKeyCache {
+    
+    public static final long DEFAULT_TTL = 60L * 60L;
+    
+    private final int maxSize;
+    private final long ttl;
+    private final Map<String, CachedKey> entries;
+    private long generation;
+    
+    public PrivateKeyCache(int maxSize) {
+        this(maxSize, DEFAULT_TTL);
+    }
+    
+    /**
+     * Create a new PrivateKeyCache
+     * @param maxSize The maximum number of private keys to cache
+     * @param ttl The length of time to cache a private key in seconds
+     */
+    public PrivateKeyCache(final int maxSize, long ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The cache size must be a positive value");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("The time to live must be a positive value");
+        }
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        entries = new LinkedHashMap<String, CachedKey>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedKey> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    /**
+     * Get the cached private key for the given alias, if it was unlocked with the given password.
+     * Returns null if it is not cached, has expired, or was unlocked with a different password.
+     * @param alias The keystore alias of the private key
+     * @param password The password of the private key
+     */
+    public PrivateKey get(String alias, String password) {
+        if (alias == null) {
+            return null;
+        }
+        byte[] passwordDigest = digest(password);
+        synchronized (entries) {
+            CachedKey cachedKey = entries.get(alias);
+            if (cachedKey == null || !MessageDigest.isEqual(passwordDigest, cachedKey.passwordDigest)) {
+                return null;
+            }
+            if (cachedKey.expires <= System.currentTimeMillis()) {
+                entries.remove(alias);
+                return null;
+            }
+            return cachedKey.privateKey;
+        }
+    }
+    
+    /**
+     * Add a private key that was unlocked with the given password to the cache.
+     * @param alias The keystore alias of the private key
+     * @param password The password that unlocked the private key
+     * @param privateKey The private key
+     * @param loadGeneration The generation of the cache (see getGeneration()) before the 
+     * key was loaded. If the cache has been cleared since then, the key is not cached.
+     */
+    public void put(String alias, String password, PrivateKey privateKey, long loadGeneration) {
+        if (alias == null || privateKey == null) {
+            return;
+        }
+        CachedKey cachedKey = 
+            new CachedKey(privateKey, digest(password), System.currentTimeMillis() + ttl * 1000L);
+        synchronized (entries) {
+            if (loadGeneration == generation) {
+                entries.put(alias, cachedKey);
+            }
+        }
+    }
+    
+    /**
+     * Get the current generation of the cache. This changes every time the cache is cleared.
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+    
+    /**
+     * Remove all of the entries from the cache, e.g. because the keystore has changed.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            generation++;
+        }
+    }
+    
+    /**
+     * Get the number of private keys currently held in the cache. This may include
+     * entries that have expired but have not been removed yet.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    public long getTTL() {
+        return ttl;
+    }
+    
+    private static byte[] digest(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (password != null) {
+                digest.update(password.getBytes(StandardCharsets.UTF_8));
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static final class CachedKey {
+        private final PrivateKey privateKey;
+        private final byte[] passwordDigest;
+        private final long expires;
+        
+        CachedKey(PrivateKey privateKey, byte[] passwordDigest, long expires) {
+            this.privateKey = privateKey;
+            this.passwordDigest = passwordDigest;
+            this.expires = expires;
+        }
+    }
+}
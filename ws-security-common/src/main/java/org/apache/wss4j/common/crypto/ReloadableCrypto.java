@@ -0,0 +1,373 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * A Crypto implementation that wraps a Merlin instance, and that reloads it when the keystore,
+ * truststore or CRL file changes on the file system. The files are watched using a 
+ * WatchService. When a change is detected, a new Merlin instance is loaded on a background 
+ * thread, its certificate indexes and trust anchors are built, and it then replaces the 
+ * current instance atomically. If the new files cannot be loaded, the current instance is kept.
+ * 
+ * Each method call is delegated to the Merlin instance that is current when the call is made.
+ * Different calls made while processing one message, for example the lookup of a certificate
+ * and the verification of its trust, may therefore be served by different instances if the
+ * files are reloaded in between. A caller that needs all of the calls for a message to use
+ * the same keystore and truststore should call getMerlin() once for the message, and use the
+ * returned instance for the whole message.
+ * 
+ * The caches of parsed certificates and of Subject Key Identifiers are only used for a plain
+ * Merlin instance, and so they are not used when a ReloadableCrypto is passed to WSS4J.
+ * They are used for the instance that is returned by getMerlin().
+ * 
+ * This class can be selected by setting the "org.apache.wss4j.crypto.provider" property to
+ * "org.apache.wss4j.common.crypto.ReloadableCrypto". The other properties are the same as 
+ * for Merlin. Files that are loaded from inside a jar file are not watched.
+ */
+public class ReloadableCrypto implements Crypto, Closeable {
+    
+    public static final long DEFAULT_RELOAD_DELAY = 1000L;
+    
+    private static final org.slf4j.Logger LOG = 
+        org.slf4j.LoggerFactory.getLogger(ReloadableCrypto.class);
+    
+    private final Properties properties;
+    private final ClassLoader loader;
+    private final PasswordEncryptor passwordEncryptor;
+    private final long reloadDelay;
+    private final Set<Path> watchedFiles = new HashSet<>();
+    private final WatchService watchService;
+    private final Thread watchThread;
+    private final AtomicLong reloadCount = new AtomicLong();
+    
+    private volatile Merlin merlin;
+    private volatile String cryptoProvider;
+    private volatile String defaultX509Identifier;
+    private volatile CertificateFactory certificateFactory;
+    
+    public ReloadableCrypto(Properties properties, ClassLoader loader) 
+        throws WSSecurityException, IOException {
+        this(properties, loader, null);
+    }
+    
+    public ReloadableCrypto(
+        Properties properties, ClassLoader loader, PasswordEncryptor passwordEncryptor
+    ) throws WSSecurityException, IOException {
+        this(properties, loader, passwordEncryptor, DEFAULT_RELOAD_DELAY);
+    }
+    
+    /**
+     * Create a new ReloadableCrypto
+     * @param properties The Merlin properties
+     * @param loader The ClassLoader to load the files with
+     * @param passwordEncryptor The PasswordEncryptor to decrypt the passwords with
+     * @param reloadDelay The time to wait in milliseconds after a file change is detected
+     * before reloading, so that a file that is being written is not loaded half way
+     */
+    public ReloadableCrypto(
+        Properties properties, 
+        ClassLoader loader, 
+        PasswordEncryptor passwordEncryptor,
+        long reloadDelay
+    ) throws WSSecurityException, IOException {
+        this.properties = properties;
+        this.loader = loader;
+        this.passwordEncryptor = passwordEncryptor;
+        this.reloadDelay = reloadDelay;
+        
+        merlin = loadMerlin();
+        
+        for (String key : new String[] {
+            Merlin.KEYSTORE_FILE, Merlin.OLD_KEYSTORE_FILE, Merlin.TRUSTSTORE_FILE, Merlin.X509_CRL_FILE
+        }) {
+            Path path = getPath(getProperty(key));
+            if (path != null) {
+                watchedFiles.add(path);
+            }
+        }
+        
+        if (watchedFiles.isEmpty()) {
+            watchService = null;
+            watchThread = null;
+            return;
+        }
+        
+        watchService = FileSystems.getDefault().newWatchService();
+        Set<Path> directories = new HashSet<>();
+        for (Path path : watchedFiles) {
+            directories.add(path.getParent());
+        }
+        for (Path directory : directories) {
+            // Keystores are often replaced by moving a new file into place
+            directory.register(
+                watchService, 
+                StandardWatchEventKinds.ENTRY_CREATE, 
+                StandardWatchEventKinds.ENTRY_MODIFY
+            );
+        }
+        
+        watchThread = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "wss4j-crypto-reload");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+    
+    /**
+     * Load a new Merlin instance from the files, and swap it in if it loads successfully
+     * @throws WSSecurityException if the files cannot be loaded
+     */
+    public void reload() throws WSSecurityException {
+        try {
+            Merlin newMerlin = loadMerlin();
+            merlin = newMerlin;
+            reloadCount.incrementAndGet();
+            LOG.info("The keystore, truststore and CRL files have been reloaded");
+        } catch (IOException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "failedCredentialLoad");
+        }
+    }
+    
+    /**
+     * Get the number of times that the files have been reloaded
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+    
+    /**
+     * Get the Merlin instance that currently serves the requests. The returned instance is not
+     * replaced when the files are reloaded, and so it can be used to process a whole message
+     * with the same keystore and truststore.
+     */
+    public Merlin getMerlin() {
+        return merlin;
+    }
+    
+    /**
+     * Stop watching the files for changes
+     */
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchThread.interrupt();
+        }
+    }
+    
+    private Merlin loadMerlin() throws WSSecurityException, IOException {
+        Merlin newMerlin = new Merlin(properties, loader, passwordEncryptor);
+        if (cryptoProvider != null) {
+            newMerlin.setCryptoProvider(cryptoProvider);
+        }
+        if (defaultX509Identifier != null) {
+            newMerlin.setDefaultX509Identifier(defaultX509Identifier);
+        }
+        if (certificateFactory != null) {
+            newMerlin.setCertificateFactory(certificateFactory);
+        }
+        newMerlin.initTrustCache();
+        return newMerlin;
+    }
+    
+    private String getProperty(String key) {
+        String value = properties.getProperty(Merlin.PREFIX + key);
+        if (value == null) {
+            value = properties.getProperty(Merlin.OLD_PREFIX + key);
+        }
+        return value == null ? null : value.trim();
+    }
+    
+    /**
+     * Get the path of the given file location on the file system, using the same lookup
+     * order as Merlin.loadInputStream, or null if it is not a file on the file system
+     */
+    private Path getPath(String location) {
+        if (location == null) {
+            return null;
+        }
+        URL url = Loader.getResource(loader, location);
+        if (url != null) {
+            if (!"file".equals(url.getProtocol())) {
+                return null;
+            }
+            try {
+                return new File(url.toURI()).toPath().toAbsolutePath();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                LOG.debug(e.getMessage(), e);
+                return null;
+            }
+        }
+        File file = new File(location);
+        return file.exists() ? file.toPath().toAbsolutePath() : null;
+    }
+    
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = isChanged(key);
+                if (changed) {
+                    // Wait for the file to be written completely, and collapse multiple events
+                    Thread.sleep(reloadDelay);
+                    key = watchService.poll();
+                    while (key != null) {
+                        isChanged(key);
+                        key = watchService.poll(reloadDelay, TimeUnit.MILLISECONDS);
+                    }
+                    try {
+                        reload();
+                    } catch (WSSecurityException | RuntimeException e) {
+                        LOG.warn("The keystore, truststore or CRL files could not be reloaded", e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching the keystore, truststore and CRL files");
+        }
+    }
+    
+    private boolean isChanged(WatchKey key) {
+        boolean changed = false;
+        Path directory = (Path)key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path 
+                && watchedFiles.contains(directory.resolve((Path)event.context()))) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+    
+    //
+    // Crypto methods, which are delegated to the current Merlin instance
+    //
+    
+    public String getCryptoProvider() {
+        return merlin.getCryptoProvider();
+    }
+    
+    public void setCryptoProvider(String provider) {
+        cryptoProvider = provider;
+        merlin.setCryptoProvider(provider);
+    }
+    
+    public String getDefaultX509Identifier() throws WSSecurityException {
+        return merlin.getDefaultX509Identifier();
+    }
+    
+    public void setDefaultX509Identifier(String identifier) {
+        defaultX509Identifier = identifier;
+        merlin.setDefaultX509Identifier(identifier);
+    }
+    
+    public void setCertificateFactory(CertificateFactory certFactory) {
+        certificateFactory = certFactory;
+        merlin.setCertificateFactory(certFactory);
+    }
+    
+    public CertificateFactory getCertificateFactory() throws WSSecurityException {
+        return merlin.getCertificateFactory();
+    }
+    
+    public X509Certificate loadCertificate(InputStream in) throws WSSecurityException {
+        return merlin.loadCertificate(in);
+    }
+    
+    public byte[] getSKIBytesFromCert(X509Certificate cert) throws WSSecurityException {
+        return merlin.getSKIBytesFromCert(cert);
+    }
+    
+    public byte[] getBytesFromCertificates(X509Certificate[] certs) throws WSSecurityException {
+        return merlin.getBytesFromCertificates(certs);
+    }
+    
+    public X509Certificate[] getCertificatesFromBytes(byte[] data) throws WSSecurityException {
+        return merlin.getCertificatesFromBytes(data);
+    }
+    
+    public X509Certificate[] getX509Certificates(CryptoType cryptoType) throws WSSecurityException {
+        return merlin.getX509Certificates(cryptoType);
+    }
+    
+    public String getX509Identifier(X509Certificate cert) throws WSSecurityException {
+        return merlin.getX509Identifier(cert);
+    }
+    
+    public PrivateKey getPrivateKey(
+        X509Certificate certificate, CallbackHandler callbackHandler
+    ) throws WSSecurityException {
+        return merlin.getPrivateKey(certificate, callbackHandler);
+    }
+    
+    public PrivateKey getPrivateKey(String identifier, String password) throws WSSecurityException {
+        return merlin.getPrivateKey(identifier, password);
+    }
+    
+    public void verifyTrust(
+        X509Certificate[] certs, 
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints
+    ) throws WSSecurityException {
+        merlin.verifyTrust(certs, enableRevocation, subjectCertConstraints);
+    }
+    
+    public void verifyDirectTrust(X509Certificate[] certs) throws WSSecurityException {
+        merlin.verifyDirectTrust(certs);
+    }
+    
+    public void verifyTrust(PublicKey publicKey) throws WSSecurityException {
+        merlin.verifyTrust(publicKey);
+    }
+    
+}
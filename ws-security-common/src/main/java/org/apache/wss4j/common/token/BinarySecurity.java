@@ -210,6 +210,22 @@ public class BinarySecurity {
         setRawToken(data);
     }
     
+    /**
+     * Set the token information, where the base 64 encoding of the data is already known
+     * (e.g. from the CertificateEncodingCache).
+     * 
+     * @param data The raw token bytes
+     * @param base64Data The base 64 encoding of the raw token bytes
+     */
+    protected void setToken(byte[] data, String base64Data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data == null");
+        }
+        Text node = getFirstNode();
+        node.setData(base64Data);
+        this.data = data;
+    }
+    
     /**
      * Set the raw token data, without Base-64 encoding it into the Element.
      */
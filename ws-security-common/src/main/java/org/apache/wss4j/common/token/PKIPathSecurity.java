@@ -22,7 +22,9 @@ package org.apache.wss4j.common.token;
 import org.apache.wss4j.common.WSS4JConstants;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.crypto.CertificateEncodingCache;
 import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.ParsedCertificateCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -73,7 +75,7 @@ public class PKIPathSecurity extends BinarySecurity {
         if (crypto == null) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "noSigCryptoFile");
         }
-        return crypto.getCertificatesFromBytes(data);
+        return ParsedCertificateCache.getCertificatesFromBytes(data, crypto);
     }
 
     /**
@@ -90,8 +92,10 @@ public class PKIPathSecurity extends BinarySecurity {
         if (certs == null) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "noCert");
         }
-        byte[] data = crypto.getBytesFromCertificates(certs);
-        setToken(data);
+        setToken(
+            CertificateEncodingCache.getPKIPath(certs, crypto), 
+            CertificateEncodingCache.getBase64PKIPath(certs, crypto)
+        );
     }
 
     public static String getType() {
@@ -20,7 +20,6 @@
 package org.apache.wss4j.common.token;
 
 import java.math.BigInteger;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 
@@ -33,12 +32,11 @@ import org.w3c.dom.Text;
 import org.apache.wss4j.common.WSS4JConstants;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.crypto.CertificateEncodingCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoType;
-import org.apache.wss4j.common.crypto.Merlin;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.DOM2Writer;
-import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.xml.security.exceptions.Base64DecodingException;
 import org.apache.xml.security.utils.Base64;
@@ -184,15 +182,7 @@ public class SecurityTokenReference {
     public void setKeyIdentifier(X509Certificate cert)
         throws WSSecurityException {
         Document doc = element.getOwnerDocument();
-        byte data[] = null;
-        try {
-            data = cert.getEncoded();
-        } catch (CertificateEncodingException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, e, "encodeError"
-            );
-        }
-        Text text = doc.createTextNode(Base64.encode(data));
+        Text text = doc.createTextNode(CertificateEncodingCache.getBase64Encoded(cert));
         
         createKeyIdentifier(doc, X509_V3_TYPE, text, true);
     }
@@ -218,14 +208,8 @@ public class SecurityTokenReference {
         }
         
         Document doc = element.getOwnerDocument();
-        // Fall back to Merlin if crypto parameter is null
-        Crypto skiCrypto = crypto;
-        if (skiCrypto == null) {
-            skiCrypto = new Merlin();
-        }
-        byte data[] = skiCrypto.getSKIBytesFromCert(cert);
-        
-        Text text = doc.createTextNode(Base64.encode(data));
+        // The cache falls back to Merlin if the crypto parameter is null
+        Text text = doc.createTextNode(CertificateEncodingCache.getBase64SKI(cert, crypto));
         createKeyIdentifier(doc, SKI_URI, text, true);        
     }
 
@@ -241,17 +225,8 @@ public class SecurityTokenReference {
      */
     public void setKeyIdentifierThumb(X509Certificate cert) throws WSSecurityException {
         Document doc = element.getOwnerDocument();
-        byte[] encodedCert = null;
-        try {
-            encodedCert = cert.getEncoded();
-        } catch (CertificateEncodingException e1) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, e1, "encodeError"
-            );
-        }
         try {
-            byte[] encodedBytes = KeyUtils.generateDigest(encodedCert);
-            Text text = doc.createTextNode(Base64.encode(encodedBytes));
+            Text text = doc.createTextNode(CertificateEncodingCache.getBase64Thumbprint(cert));
             createKeyIdentifier(doc, THUMB_URI, text, true);
         } catch (WSSecurityException e1) {
             throw new WSSecurityException(
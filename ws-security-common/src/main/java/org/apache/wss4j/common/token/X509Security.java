@@ -22,16 +22,15 @@ package org.apache.wss4j.common.token;
 import org.apache.wss4j.common.WSS4JConstants;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.crypto.CertificateEncodingCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.wss4j.common.crypto.ParsedCertificateCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ByteArrayInputStream;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 
 /**
@@ -92,15 +91,14 @@ public class X509Security extends BinarySecurity {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.FAILURE, "invalidCertData", new Object[] {"0"});
         }
-        try (InputStream in = new ByteArrayInputStream(data)) {
-            cachedCert = certCrypto.loadCertificate(in);
+        try {
+            cachedCert = ParsedCertificateCache.loadCertificate(data, certCrypto);
             return cachedCert;
         } catch (IOException e) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, e, "parseError"
             );
         }
-
     }
 
     /**
@@ -117,12 +115,8 @@ public class X509Security extends BinarySecurity {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "noCert");
         }
         cachedCert = cert;
-        try {
-            setToken(cert.getEncoded());
-        } catch (CertificateEncodingException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, e, "encodeError"
-            );
-        }
+        setToken(
+            CertificateEncodingCache.getEncoded(cert), CertificateEncodingCache.getBase64Encoded(cert)
+        );
     }
 }
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.xml.security.algorithms.JCEMapper;
+
+/**
+ * A bounded pool of javax.crypto.Cipher instances for the RSA key transport and the symmetric
+ * encryption algorithms, keyed by the algorithm URI and the JCE provider configured in the
+ * JCEMapper. Looking up a provider and creating a Cipher is expensive compared to wrapping a
+ * single key or encrypting a small attachment, so instances that have been used are returned
+ * to the pool and handed out again.
+ *
+ * An instance taken from the pool is used by one thread only, until it is returned. When a
+ * Cipher is returned, it is initialised with a throwaway key of the same algorithm (a public
+ * key for RSA, a generated secret key otherwise), so that it does not keep the key of the
+ * message that it was last used for. A Cipher that cannot be initialised with a throwaway key
+ * is not pooled, and neither is an instance that is not returned (e.g. because processing
+ * failed, or because the stream that uses it was never closed).
+ *
+ * XMLCipher instances are not pooled, as they keep a reference to the Document of their last
+ * use, which cannot be cleared.
+ */
+public final class CipherPool {
+
+    /**
+     * The maximum number of idle instances that are kept for each algorithm and provider
+     */
+    public static final int MAX_POOL_SIZE = 16;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CipherPool.class);
+
+    private static final ConcurrentMap<String, Queue<Cipher>> CIPHERS =
+        new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, Key> THROWAWAY_SECRET_KEYS =
+        new ConcurrentHashMap<>();
+
+    private CipherPool() {
+        // complete
+    }
+
+    /**
+     * Get a javax.crypto.Cipher instance for the "cipherAlgo" URI, either from the pool or
+     * via {@link KeyUtils#getCipherInstance(String)}. The Cipher must be initialised before
+     * it is used.
+     */
+    public static Cipher getCipher(String cipherAlgo) throws WSSecurityException {
+        Queue<Cipher> pool = CIPHERS.get(getKey(cipherAlgo));
+        Cipher cipher = pool == null ? null : pool.poll();
+        if (cipher == null) {
+            cipher = KeyUtils.getCipherInstance(cipherAlgo);
+        }
+        return cipher;
+    }
+
+    /**
+     * Return a javax.crypto.Cipher instance for the "cipherAlgo" URI to the pool, once it is
+     * not used anymore. The key of its last use is replaced by a throwaway key first.
+     */
+    public static void returnCipher(String cipherAlgo, Cipher cipher) {
+        if (cipher == null) {
+            return;
+        }
+        try {
+            // Some JCE providers only support key wrap ciphers in the wrap and unwrap modes
+            int mode = "SymmetricKeyWrap".equals(JCEMapper.getAlgorithmClassFromURI(cipherAlgo))
+                ? Cipher.WRAP_MODE : Cipher.ENCRYPT_MODE;
+            cipher.init(mode, getThrowawayKey(cipherAlgo));
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            LOG.debug(ex.getMessage(), ex);
+            return;
+        }
+        String key = getKey(cipherAlgo);
+        Queue<Cipher> pool = CIPHERS.get(key);
+        if (pool == null) {
+            pool = new ArrayBlockingQueue<>(MAX_POOL_SIZE);
+            Queue<Cipher> existingPool = CIPHERS.putIfAbsent(key, pool);
+            if (existingPool != null) {
+                pool = existingPool;
+            }
+        }
+        pool.offer(cipher);
+    }
+
+    /**
+     * Wrap the given InputStream, which reads through the given javax.crypto.Cipher instance,
+     * so that the Cipher is returned to the pool once the stream is closed. This is used for
+     * the attachment streams, which are read after the Cipher has been set up.
+     */
+    public static InputStream returnOnClose(
+        final String cipherAlgo, final Cipher cipher, InputStream inputStream
+    ) {
+        return new FilterInputStream(inputStream) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    returnCipher(cipherAlgo, cipher);
+                }
+            }
+        };
+    }
+
+    /**
+     * Remove all of the pooled instances, e.g. after the JCE providers have been changed.
+     */
+    public static void clear() {
+        CIPHERS.clear();
+    }
+
+    private static Key getThrowawayKey(String cipherAlgo) throws GeneralSecurityException {
+        String keyAlgorithm = JCEMapper.getJCEKeyAlgorithmFromURI(cipherAlgo);
+        if ("RSA".equals(keyAlgorithm)) {
+            return ThrowawayKey.PUBLIC_KEY;
+        }
+        if (keyAlgorithm == null) {
+            throw new GeneralSecurityException("Unknown key algorithm for " + cipherAlgo);
+        }
+        Key key = THROWAWAY_SECRET_KEYS.get(cipherAlgo);
+        if (key == null) {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance(keyAlgorithm);
+            int keyLength = JCEMapper.getKeyLengthFromURI(cipherAlgo);
+            if (keyLength > 0) {
+                keyGenerator.init(keyLength);
+            }
+            key = keyGenerator.generateKey();
+            THROWAWAY_SECRET_KEYS.putIfAbsent(cipherAlgo, key);
+        }
+        return key;
+    }
+
+    private static String getKey(String algorithm) {
+        String provider = JCEMapper.getProviderId();
+        if (provider == null) {
+            return algorithm;
+        }
+        return algorithm + "|" + provider;
+    }
+
+    /**
+     * The public key that a Cipher is initialised with when it is returned to the pool. It is
+     * generated the first time that it is needed.
+     */
+    private static final class ThrowawayKey {
+        private static final PublicKey PUBLIC_KEY = generatePublicKey();
+
+        private static PublicKey generatePublicKey() {
+            try {
+                KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+                keyPairGenerator.initialize(1024);
+                return keyPairGenerator.generateKeyPair().getPublic();
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Some tests for the ConcurrentReplayCache.
+ */
+public class ConcurrentReplayCacheTest extends Assert {
+
+    @Test
+    public void testAddAndContains() throws Exception {
+        ReplayCache replayCache = new ConcurrentReplayCache();
+        
+        String id = UUID.randomUUID().toString();
+        assertFalse(replayCache.contains(id));
+        replayCache.add(id);
+        assertTrue(replayCache.contains(id));
+        
+        assertFalse(replayCache.contains(null));
+        assertFalse(replayCache.contains(""));
+        replayCache.add("");
+        assertFalse(replayCache.contains(""));
+        
+        replayCache.close();
+        assertFalse(replayCache.contains(id));
+    }
+    
+    @Test
+    public void testExpiry() throws Exception {
+        ConcurrentReplayCache replayCache = new ConcurrentReplayCache(10L);
+        
+        String id = UUID.randomUUID().toString();
+        replayCache.add(id, 1L);
+        String id2 = UUID.randomUUID().toString();
+        replayCache.add(id2, 60L);
+        assertTrue(replayCache.contains(id));
+        assertEquals(2, replayCache.size());
+        
+        Thread.sleep(1100L);
+        
+        assertFalse(replayCache.contains(id));
+        assertTrue(replayCache.contains(id2));
+        assertEquals(1, replayCache.size());
+        
+        replayCache.close();
+    }
+    
+    @Test
+    public void testReAddExtendsExpiry() throws Exception {
+        ConcurrentReplayCache replayCache = new ConcurrentReplayCache(10L);
+        
+        String id = UUID.randomUUID().toString();
+        replayCache.add(id, 1L);
+        replayCache.add(id, 60L);
+        
+        Thread.sleep(1100L);
+        
+        assertTrue(replayCache.contains(id));
+        assertEquals(1, replayCache.size());
+        
+        replayCache.close();
+    }
+    
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ReplayCache replayCache = new ConcurrentReplayCache(1L);
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 8000; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int offset = t * 1000;
+            Thread thread = new Thread() {
+                public void run() {
+                    for (int i = offset; i < offset + 1000; i++) {
+                        String id = ids.get(i);
+                        if (!replayCache.contains(id)) {
+                            replayCache.add(id);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        for (String id : ids) {
+            assertTrue(replayCache.contains(id));
+        }
+        
+        replayCache.close();
+    }
+    
+    @Test
+    public void testConcurrentAddAndSweep() throws Exception {
+        final ConcurrentReplayCache replayCache = new ConcurrentReplayCache(1L);
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        
+        // Re-add a few identifiers with a TTL of 0 from a number of threads, while another
+        // thread sweeps them
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread sweeper = new Thread() {
+            public void run() {
+                while (!done.get()) {
+                    replayCache.processTokenExpiry(System.currentTimeMillis());
+                }
+            }
+        };
+        sweeper.start();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 200000; i++) {
+                        replayCache.add(ids.get(i % ids.size()), 0L);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        sweeper.join();
+        
+        assertTrue(replayCache.size() >= 0 && replayCache.size() <= ids.size());
+        replayCache.processTokenExpiry(Long.MAX_VALUE);
+        assertEquals(0, replayCache.size());
+        assertEquals(0L, replayCache.getMemoryUsage());
+        
+        replayCache.close();
+    }
+    
+    @Test
+    public void testFactory() throws Exception {
+        ReplayCacheFactory factory = 
+            ReplayCacheFactory.newInstance(ConcurrentReplayCacheFactory.class.getName());
+        assertTrue(factory instanceof ConcurrentReplayCacheFactory);
+        
+        ReplayCache replayCache = factory.newReplayCache("wss4j.test.cache", null);
+        assertTrue(replayCache instanceof ConcurrentReplayCache);
+        replayCache.close();
+        
+        String previous = System.getProperty(ReplayCacheFactory.REPLAY_CACHE_FACTORY_PROPERTY);
+        System.setProperty(ReplayCacheFactory.REPLAY_CACHE_FACTORY_PROPERTY, 
+                           ConcurrentReplayCacheFactory.class.getName());
+        try {
+            assertTrue(ReplayCacheFactory.newInstance() instanceof ConcurrentReplayCacheFactory);
+        } finally {
+            if (previous == null) {
+                System.clearProperty(ReplayCacheFactory.REPLAY_CACHE_FACTORY_PROPERTY);
+            } else {
+                System.setProperty(ReplayCacheFactory.REPLAY_CACHE_FACTORY_PROPERTY, previous);
+            }
+        }
+        
+        factory = ReplayCacheFactory.newInstance("org.apache.wss4j.UnknownReplayCacheFactory");
+        assertTrue(factory instanceof EHCacheReplayCacheFactory);
+    }
+    
+    @Test
+    public void testMaxEntriesFailClosed() throws Exception {
+        ConcurrentReplayCache replayCache = new ConcurrentReplayCache(10L, 2, 0L);
+        
+        replayCache.add("id1", 1L);
+        assertFalse(replayCache.contains("id3"));
+        replayCache.add("id2");
+        assertEquals(2, replayCache.size());
+        
+        // The cache is full, so unknown identifiers are treated as replays
+        replayCache.add("id3");
+        assertTrue(replayCache.contains("id3"));
+        assertTrue(replayCache.contains("id4"));
+        assertEquals(2, replayCache.size());
+        assertEquals(3L, replayCache.getRejectionCount());
+        assertEquals(0L, replayCache.getEvictionCount());
+        
+        // Re-adding an existing identifier does not need any more room
+        replayCache.add("id2", 60L);
+        assertEquals(3L, replayCache.getRejectionCount());
+        
+        // Space becomes available once the first identifier expires
+        Thread.sleep(1100L);
+        assertFalse(replayCache.contains("id3"));
+        replayCache.add("id3");
+        assertTrue(replayCache.contains("id3"));
+        assertEquals(2, replayCache.size());
+        assertTrue(replayCache.getExpirySweepCount() > 0);
+        
+        replayCache.close();
+        assertEquals(0, replayCache.size());
+        assertEquals(0L, replayCache.getMemoryUsage());
+    }
+    
+    @Test
+    public void testMaxEntriesEviction() throws Exception {
+        ConcurrentReplayCache replayCache = new ConcurrentReplayCache(10L, 2, 0L, false);
+        
+        replayCache.add("id1", 10L);
+        replayCache.add("id2", 60L);
+        replayCache.add("id3", 60L);
+        
+        // The identifier closest to expiry is evicted
+        assertFalse(replayCache.contains("id1"));
+        assertTrue(replayCache.contains("id2"));
+        assertTrue(replayCache.contains("id3"));
+        assertFalse(replayCache.contains("id4"));
+        assertEquals(2, replayCache.size());
+        assertEquals(1L, replayCache.getEvictionCount());
+        assertEquals(0L, replayCache.getRejectionCount());
+        
+        replayCache.close();
+    }
+    
+    @Test
+    public void testMaxMemory() throws Exception {
+        long maxMemory = 3 * (ConcurrentReplayCache.ENTRY_OVERHEAD + 2 * 36);
+        ConcurrentReplayCache replayCache = new ConcurrentReplayCache(10L, 0, maxMemory);
+        
+        for (int i = 0; i < 5; i++) {
+            replayCache.add(UUID.randomUUID().toString());
+        }
+        assertEquals(3, replayCache.size());
+        assertEquals(maxMemory, replayCache.getMemoryUsage());
+        assertEquals(2L, replayCache.getRejectionCount());
+        
+        replayCache.close();
+    }
+    
+    @Test
+    public void testFactoryConfiguration() throws Exception {
+        Properties properties = new Properties();
+        properties.put(ConcurrentReplayCacheFactory.MAX_ENTRIES, "100");
+        properties.put(ConcurrentReplayCacheFactory.MAX_MEMORY, "65536");
+        
+        ReplayCache replayCache = 
+            new ConcurrentReplayCacheFactory().newReplayCache("wss4j.test.cache", properties);
+        assertTrue(replayCache instanceof ConcurrentReplayCache);
+        ConcurrentReplayCache concurrentReplayCache = (ConcurrentReplayCache)replayCache;
+        assertEquals(100, concurrentReplayCache.getMaxEntries());
+        assertEquals(65536L, concurrentReplayCache.getMaxMemory());
+        assertTrue(concurrentReplayCache.isFailClosed());
+        
+        replayCache.close();
+    }
+    
+}
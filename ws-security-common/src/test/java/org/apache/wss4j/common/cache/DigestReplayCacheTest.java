@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Some tests for the DigestReplayCache.
+ */
+public class DigestReplayCacheTest extends Assert {
+
+    @Test
+    public void testAddAndContains() throws Exception {
+        ReplayCache replayCache = new DigestReplayCache();
+        
+        String id = UUID.randomUUID().toString();
+        assertFalse(replayCache.contains(id));
+        replayCache.add(id);
+        assertTrue(replayCache.contains(id));
+        assertFalse(replayCache.contains(id + "x"));
+        
+        assertFalse(replayCache.contains(null));
+        assertFalse(replayCache.contains(""));
+        replayCache.add("");
+        assertFalse(replayCache.contains(""));
+        
+        replayCache.close();
+        assertFalse(replayCache.contains(id));
+    }
+    
+    @Test
+    public void testExpiry() throws Exception {
+        DigestReplayCache replayCache = new DigestReplayCache(1);
+        
+        String id = UUID.randomUUID().toString();
+        replayCache.add(id, 1L);
+        String id2 = UUID.randomUUID().toString();
+        replayCache.add(id2, 60L);
+        assertTrue(replayCache.contains(id));
+        
+        Thread.sleep(1100L);
+        
+        assertFalse(replayCache.contains(id));
+        assertTrue(replayCache.contains(id2));
+        
+        // Re-adding an expired identifier caches it again
+        replayCache.add(id, 60L);
+        assertTrue(replayCache.contains(id));
+        assertEquals(2, replayCache.size());
+        
+        replayCache.close();
+    }
+    
+    @Test
+    public void testManyEntries() throws Exception {
+        DigestReplayCache replayCache = new DigestReplayCache(4);
+        
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            replayCache.add(id);
+        }
+        
+        assertEquals(10000, replayCache.size());
+        for (String id : ids) {
+            assertTrue(replayCache.contains(id));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(replayCache.contains(UUID.randomUUID().toString()));
+        }
+        
+        replayCache.close();
+        assertEquals(0, replayCache.size());
+    }
+    
+    @Test
+    public void testExpiredEntriesArePurged() throws Exception {
+        DigestReplayCache replayCache = new DigestReplayCache(1);
+        
+        for (int i = 0; i < 1000; i++) {
+            replayCache.add(UUID.randomUUID().toString(), 1L);
+        }
+        
+        Thread.sleep(1100L);
+        
+        String id = UUID.randomUUID().toString();
+        for (int i = 0; i < 1000; i++) {
+            replayCache.add(id + i, 60L);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(replayCache.contains(id + i));
+        }
+        assertTrue(replayCache.size() < 2000);
+        
+        replayCache.close();
+    }
+    
+    @Test
+    public void testFactory() throws Exception {
+        ReplayCacheFactory factory = 
+            ReplayCacheFactory.newInstance(DigestReplayCacheFactory.class.getName());
+        assertTrue(factory instanceof DigestReplayCacheFactory);
+        
+        ReplayCache replayCache = factory.newReplayCache("wss4j.test.cache", null);
+        assertTrue(replayCache instanceof DigestReplayCache);
+        replayCache.close();
+    }
+    
+}
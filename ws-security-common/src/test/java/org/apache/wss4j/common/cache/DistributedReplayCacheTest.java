@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Some tests for the DistributedReplayCache.
+ */
+public class DistributedReplayCacheTest extends Assert {
+
+    @Test
+    public void testReplayAcrossNodes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            InMemoryReplayCacheStore store = new InMemoryReplayCacheStore(executor);
+            DistributedReplayCache node1 = new DistributedReplayCache(store);
+            DistributedReplayCache node2 = new DistributedReplayCache(store);
+            
+            String id = UUID.randomUUID().toString();
+            assertFalse(node1.contains(id));
+            assertTrue(node1.addIfAbsent(id, 60L));
+            
+            assertTrue(node2.contains(id));
+            assertFalse(node2.addIfAbsent(id, 60L));
+            assertFalse(node1.addIfAbsent(id, 60L));
+            
+            node1.close();
+            node2.close();
+            store.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testNearCache() throws Exception {
+        InMemoryReplayCacheStore store = new InMemoryReplayCacheStore();
+        DistributedReplayCache replayCache = new DistributedReplayCache(store);
+        
+        String id = UUID.randomUUID().toString();
+        replayCache.add(id);
+        long roundTrips = store.getRoundTripCount();
+        
+        // Lookups of identifiers added by this node stay local
+        assertTrue(replayCache.contains(id));
+        assertFalse(replayCache.addIfAbsent(id, 60L));
+        assertEquals(roundTrips, store.getRoundTripCount());
+        
+        replayCache.close();
+    }
+    
+    @Test
+    public void testBatch() throws Exception {
+        InMemoryReplayCacheStore store = new InMemoryReplayCacheStore();
+        DistributedReplayCache node1 = new DistributedReplayCache(store);
+        DistributedReplayCache node2 = new DistributedReplayCache(store);
+        
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        String id3 = UUID.randomUUID().toString();
+        node1.add(id1);
+        node2.add(id2);
+        
+        long roundTrips = store.getRoundTripCount();
+        Set<String> existing = node1.addAllIfAbsent(Arrays.asList(id1, id2, id3), 60L);
+        assertEquals(2, existing.size());
+        assertTrue(existing.contains(id1));
+        assertTrue(existing.contains(id2));
+        assertEquals(roundTrips + 1, store.getRoundTripCount());
+        
+        assertTrue(node2.contains(id3));
+        assertTrue(node1.addAllIfAbsent(Collections.<String>emptyList(), 60L).isEmpty());
+        
+        node1.close();
+        node2.close();
+    }
+    
+    @Test
+    public void testNamespaces() throws Exception {
+        InMemoryReplayCacheStore store = new InMemoryReplayCacheStore();
+        ReplayCacheFactory factory = new DistributedReplayCacheFactory(store);
+        ReplayCache nonceCache = factory.newReplayCache("wss4j.nonce.cache-abc", null);
+        ReplayCache nonceCache2 = factory.newReplayCache("wss4j.nonce.cache-def", null);
+        ReplayCache timestampCache = factory.newReplayCache("wss4j.timestamp.cache-abc", null);
+        
+        String id = UUID.randomUUID().toString();
+        nonceCache.add(id);
+        assertTrue(nonceCache2.contains(id));
+        assertFalse(timestampCache.contains(id));
+        
+        nonceCache.close();
+        nonceCache2.close();
+        timestampCache.close();
+    }
+    
+    @Test
+    public void testFailClosed() throws Exception {
+        ReplayCacheStore store = new ReplayCacheStore() {
+            public Future<Boolean> addIfAbsent(String identifier, long expires) {
+                return failure();
+            }
+            
+            public Future<Set<String>> addAllIfAbsent(Map<String, Long> identifiers) {
+                return failure();
+            }
+            
+            public Future<Boolean> contains(String identifier) {
+                return failure();
+            }
+            
+            public void close() {
+                // complete
+            }
+            
+            private <T> Future<T> failure() {
+                FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+                    public T call() throws Exception {
+                        throw new IOException("The store is unavailable");
+                    }
+                });
+                task.run();
+                return task;
+            }
+        };
+        
+        DistributedReplayCache replayCache = new DistributedReplayCache(store);
+        String id = UUID.randomUUID().toString();
+        assertTrue(replayCache.contains(id));
+        assertFalse(replayCache.addIfAbsent(id, 60L));
+        assertEquals(1, replayCache.addAllIfAbsent(Collections.singletonList(id), 60L).size());
+        replayCache.close();
+    }
+    
+}
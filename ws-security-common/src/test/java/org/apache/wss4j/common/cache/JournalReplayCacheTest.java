@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Some tests for the JournalReplayCache.
+ */
+public class JournalReplayCacheTest extends Assert {
+    
+    private File directory;
+    
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("wss4j-journal").toFile();
+    }
+    
+    @After
+    public void deleteDirectory() throws Exception {
+        delete(directory);
+    }
+
+    @Test
+    public void testReloadAfterRestart() throws Exception {
+        String id = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        
+        JournalReplayCache replayCache = new JournalReplayCache(directory);
+        replayCache.add(id);
+        replayCache.add(id2, 1L);
+        assertTrue(replayCache.contains(id));
+        assertTrue(replayCache.contains(id2));
+        replayCache.close();
+        
+        Thread.sleep(1100L);
+        
+        replayCache = new JournalReplayCache(directory);
+        assertTrue(replayCache.contains(id));
+        assertFalse(replayCache.contains(id2));
+        assertEquals(1, replayCache.size());
+        assertFalse(replayCache.contains(UUID.randomUUID().toString()));
+        replayCache.close();
+    }
+    
+    @Test
+    public void testSegmentRotationAndCompaction() throws Exception {
+        JournalReplayCache replayCache = new JournalReplayCache(directory, 512, 0L);
+        
+        for (int i = 0; i < 50; i++) {
+            replayCache.add(UUID.randomUUID().toString(), 1L);
+        }
+        assertTrue(replayCache.getSegmentCount() > 1);
+        
+        Thread.sleep(1100L);
+        
+        String id = UUID.randomUUID().toString();
+        replayCache.add(id);
+        replayCache.compact();
+        
+        assertEquals(1, replayCache.size());
+        assertEquals(1, replayCache.getSegmentCount());
+        assertTrue(replayCache.contains(id));
+        replayCache.close();
+        
+        replayCache = new JournalReplayCache(directory, 512, 0L);
+        assertEquals(1, replayCache.size());
+        assertTrue(replayCache.contains(id));
+        replayCache.close();
+    }
+    
+    @Test
+    public void testLargeIdentifier() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append(UUID.randomUUID().toString());
+        }
+        String id = builder.toString();
+        
+        JournalReplayCache replayCache = new JournalReplayCache(directory, 512, 0L);
+        replayCache.add(id);
+        replayCache.close();
+        
+        replayCache = new JournalReplayCache(directory, 512, 0L);
+        assertTrue(replayCache.contains(id));
+        replayCache.close();
+    }
+    
+    @Test
+    public void testDirectoryLocked() throws Exception {
+        JournalReplayCache replayCache = new JournalReplayCache(directory);
+        try {
+            new JournalReplayCache(directory);
+            fail("Failure expected on a journal directory that is in use");
+        } catch (IOException ex) {
+            // expected
+        }
+        replayCache.close();
+        
+        replayCache = new JournalReplayCache(directory);
+        replayCache.close();
+    }
+    
+    @Test
+    public void testFactory() throws Exception {
+        ReplayCacheFactory factory = 
+            ReplayCacheFactory.newInstance(JournalReplayCacheFactory.class.getName());
+        assertTrue(factory instanceof JournalReplayCacheFactory);
+        
+        ReplayCache replayCache = factory.newReplayCache("wss4j.nonce.cache-abc", directory);
+        ReplayCache replayCache2 = factory.newReplayCache("wss4j.nonce.cache-def", directory);
+        
+        // Caches of the same type share a journal
+        String id = UUID.randomUUID().toString();
+        replayCache.add(id);
+        assertTrue(replayCache2.contains(id));
+        
+        replayCache.close();
+        assertTrue(replayCache2.contains(id));
+        replayCache2.close();
+        assertTrue(new File(directory, "wss4j.nonce.cache").isDirectory());
+        
+        replayCache = factory.newReplayCache("wss4j.nonce.cache-ghi", directory);
+        assertTrue(replayCache.contains(id));
+        replayCache.close();
+    }
+    
+    @Test
+    public void testFactoryRequiresDirectory() throws Exception {
+        ReplayCacheFactory factory = new JournalReplayCacheFactory();
+        try {
+            factory.newReplayCache("wss4j.nonce.cache-abc", null);
+            fail("Failure expected when no journal directory is configured");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testNewDirectoryIsPrivate() throws Exception {
+        File journalDirectory = new File(directory, "journal");
+        JournalReplayCache replayCache = new JournalReplayCache(journalDirectory);
+        replayCache.close();
+        
+        if (journalDirectory.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(
+                PosixFilePermissions.fromString("rwx------"), 
+                Files.getPosixFilePermissions(journalDirectory.toPath())
+            );
+        }
+    }
+    
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+    
+}
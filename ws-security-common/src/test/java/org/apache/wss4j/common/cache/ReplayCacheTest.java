@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.cache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Some tests for the atomic addIfAbsent operation of the AtomicReplayCache implementations.
+ */
+public class ReplayCacheTest extends Assert {
+
+    @Test
+    public void testMemoryReplayCache() throws Exception {
+        AtomicReplayCache replayCache = new MemoryReplayCache();
+        testAddIfAbsent(replayCache);
+        testAddIfAbsentExpiry(replayCache);
+        testConcurrentAddIfAbsent(replayCache);
+        replayCache.close();
+    }
+
+    @Test
+    public void testEHCacheReplayCache() throws Exception {
+        AtomicReplayCache replayCache = 
+            new EHCacheReplayCache("wss4j.replay.cache-" + UUID.randomUUID(), (URL)null);
+        testAddIfAbsent(replayCache);
+        testAddIfAbsentExpiry(replayCache);
+        testConcurrentAddIfAbsent(replayCache);
+        replayCache.close();
+    }
+
+    @Test
+    public void testConcurrentReplayCache() throws Exception {
+        AtomicReplayCache replayCache = new ConcurrentReplayCache();
+        testAddIfAbsent(replayCache);
+        testAddIfAbsentExpiry(replayCache);
+        testConcurrentAddIfAbsent(replayCache);
+        replayCache.close();
+    }
+
+    @Test
+    public void testDigestReplayCache() throws Exception {
+        AtomicReplayCache replayCache = new DigestReplayCache();
+        testAddIfAbsent(replayCache);
+        testAddIfAbsentExpiry(replayCache);
+        testConcurrentAddIfAbsent(replayCache);
+        replayCache.close();
+    }
+
+    @Test
+    public void testFullConcurrentReplayCache() throws Exception {
+        ConcurrentReplayCache replayCache = 
+            new ConcurrentReplayCache(ConcurrentReplayCache.DEFAULT_BUCKET_SIZE, 1, 0L);
+        
+        assertTrue(replayCache.addIfAbsent(UUID.randomUUID().toString()));
+        // The cache is full, so an unknown identifier must be treated as a replay
+        assertFalse(replayCache.addIfAbsent(UUID.randomUUID().toString()));
+        assertEquals(1, replayCache.size());
+        assertEquals(1L, replayCache.getRejectionCount());
+        
+        replayCache.close();
+    }
+
+    @Test
+    public void testNonAtomicReplayCache() throws Exception {
+        // A ReplayCache that does not implement AtomicReplayCache
+        final MemoryReplayCache memoryReplayCache = new MemoryReplayCache();
+        ReplayCache replayCache = new ReplayCache() {
+            public void add(String identifier) {
+                memoryReplayCache.add(identifier);
+            }
+            public void add(String identifier, long timeToLive) {
+                memoryReplayCache.add(identifier, timeToLive);
+            }
+            public boolean contains(String identifier) {
+                return memoryReplayCache.contains(identifier);
+            }
+            public void close() throws IOException {
+                memoryReplayCache.close();
+            }
+        };
+        
+        String id = UUID.randomUUID().toString();
+        assertTrue(ReplayCacheUtils.addIfAbsent(replayCache, id));
+        assertTrue(replayCache.contains(id));
+        assertFalse(ReplayCacheUtils.addIfAbsent(replayCache, id));
+        assertFalse(ReplayCacheUtils.addIfAbsent(replayCache, id, 60L));
+        
+        String id2 = UUID.randomUUID().toString();
+        assertTrue(ReplayCacheUtils.addIfAbsent(replayCache, id2, 60L));
+        assertFalse(ReplayCacheUtils.addIfAbsent(replayCache, id2));
+        replayCache.close();
+    }
+
+    private void testAddIfAbsent(AtomicReplayCache replayCache) {
+        String id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id));
+        assertTrue(replayCache.contains(id));
+        assertFalse(replayCache.addIfAbsent(id));
+        assertFalse(replayCache.addIfAbsent(id, 60L));
+        
+        String id2 = UUID.randomUUID().toString();
+        replayCache.add(id2);
+        assertFalse(replayCache.addIfAbsent(id2));
+        
+        assertTrue(replayCache.addIfAbsent(null));
+        assertTrue(replayCache.addIfAbsent(""));
+        assertFalse(replayCache.contains(""));
+    }
+
+    private void testAddIfAbsentExpiry(AtomicReplayCache replayCache) throws Exception {
+        String id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id, 1L));
+        assertFalse(replayCache.addIfAbsent(id, 1L));
+        
+        Thread.sleep(2000L);
+        
+        // An expired identifier can be added again
+        assertTrue(replayCache.addIfAbsent(id, 60L));
+        assertFalse(replayCache.addIfAbsent(id, 60L));
+        assertTrue(replayCache.contains(id));
+    }
+
+    private void testConcurrentAddIfAbsent(final AtomicReplayCache replayCache) throws Exception {
+        final String id = UUID.randomUUID().toString();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger added = new AtomicInteger();
+        
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    if (replayCache.addIfAbsent(id)) {
+                        added.incrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        // Exactly one of the threads sees the identifier as new
+        assertEquals(1, added.get());
+    }
+
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.cert.CertStore;
+import java.security.cert.Certificate;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXCertPathChecker;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for the cache of validated certificate chains.
+ */
+public class CertPathValidationCacheTest extends org.junit.Assert {
+    
+    @org.junit.Test
+    public void testCachedValidation() throws Exception {
+        X509Certificate[] certs = getAliceCertificates();
+        CountingMerlin crypto = new CountingMerlin(certs[1]);
+        crypto.setCertPathValidationCache(new CertPathValidationCache(100));
+        
+        crypto.verifyTrust(certs, false, null);
+        assertEquals(1, crypto.getValidationCount());
+        crypto.verifyTrust(certs, false, null);
+        crypto.verifyTrust(certs, false, null);
+        assertEquals(1, crypto.getValidationCount());
+        
+        // Different settings are cached separately
+        Collection<Pattern> constraints = Collections.singletonList(Pattern.compile(".*CN=alice.*"));
+        crypto.verifyTrust(certs, false, constraints);
+        crypto.verifyTrust(certs, false, constraints);
+        assertEquals(2, crypto.getValidationCount());
+        assertEquals(2, crypto.getCertPathValidationCache().size());
+    }
+    
+    @org.junit.Test
+    public void testUncachedValidation() throws Exception {
+        X509Certificate[] certs = getAliceCertificates();
+        CountingMerlin crypto = new CountingMerlin(certs[1]);
+        
+        crypto.verifyTrust(certs, false, null);
+        crypto.verifyTrust(certs, false, null);
+        assertEquals(2, crypto.getValidationCount());
+    }
+    
+    @org.junit.Test
+    public void testExpiry() throws Exception {
+        X509Certificate[] certs = getAliceCertificates();
+        CountingMerlin crypto = new CountingMerlin(certs[1]);
+        crypto.setCertPathValidationCache(new CertPathValidationCache(100, 1L));
+        
+        crypto.verifyTrust(certs, false, null);
+        crypto.verifyTrust(certs, false, null);
+        assertEquals(1, crypto.getValidationCount());
+        
+        Thread.sleep(1100L);
+        crypto.verifyTrust(certs, false, null);
+        assertEquals(2, crypto.getValidationCount());
+    }
+    
+    @org.junit.Test
+    public void testNotAfter() throws Exception {
+        // This certificate expired in 2019, and so must never be cached
+        KeyStore keyStore = loadKeyStore("keys/wss40.jks", "JKS", "security");
+        X509Certificate[] certs = new X509Certificate[] {(X509Certificate)keyStore.getCertificate("wss40")};
+        
+        CertPathValidationCache cache = new CertPathValidationCache(100);
+        cache.add(certs, false, null, cache.getGeneration());
+        assertFalse(cache.contains(certs, false, null));
+    }
+    
+    @org.junit.Test
+    public void testMaxSize() throws Exception {
+        X509Certificate[] certs = getAliceCertificates();
+        CertPathValidationCache cache = new CertPathValidationCache(2);
+        
+        cache.add(certs, false, null, cache.getGeneration());
+        cache.add(certs, true, null, cache.getGeneration());
+        cache.add(new X509Certificate[] {certs[0]}, false, null, cache.getGeneration());
+        
+        assertEquals(2, cache.size());
+        assertFalse(cache.contains(certs, false, null));
+        assertTrue(cache.contains(certs, true, null));
+    }
+    
+    @org.junit.Test
+    public void testCRLReloadClearsCache() throws Exception {
+        X509Certificate[] certs = getAliceCertificates();
+        CountingMerlin crypto = new CountingMerlin(certs[1]);
+        crypto.setCertPathValidationCache(new CertPathValidationCache(100));
+        
+        crypto.verifyTrust(certs, false, null);
+        assertEquals(1, crypto.getCertPathValidationCache().size());
+        
+        crypto.setCRLCertStore(
+            CertStore.getInstance("Collection", new CollectionCertStoreParameters())
+        );
+        assertEquals(0, crypto.getCertPathValidationCache().size());
+        crypto.verifyTrust(certs, false, null);
+        assertEquals(2, crypto.getValidationCount());
+        
+        // A result that was computed before the cache was cleared is discarded
+        CertPathValidationCache cache = crypto.getCertPathValidationCache();
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.add(certs, true, null, generation);
+        assertFalse(cache.contains(certs, true, null));
+    }
+    
+    @org.junit.Test
+    public void testCacheProperties() throws Exception {
+        Properties properties = new Properties();
+        ClassLoader loader = Loader.getClassLoader(CertPathValidationCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, "alice.properties")) {
+            properties.load(input);
+        }
+        properties.put(Merlin.PREFIX + Merlin.CERTPATH_CACHE_SIZE, "50");
+        properties.put(Merlin.PREFIX + Merlin.CERTPATH_CACHE_TTL, "60");
+        
+        Merlin crypto = new Merlin(properties, loader, null);
+        CertPathValidationCache cache = crypto.getCertPathValidationCache();
+        assertNotNull(cache);
+        assertEquals(50, cache.getMaxSize());
+        assertEquals(60L, cache.getTTL());
+        
+        // Direct trust in a certificate from the keystore is cached as well
+        X509Certificate[] certs = new X509Certificate[] {getAliceCertificates()[0]};
+        crypto.verifyTrust(certs, false, null);
+        assertTrue(cache.contains(certs, false, null));
+    }
+    
+    private static X509Certificate[] getAliceCertificates() throws Exception {
+        KeyStore keyStore = loadKeyStore("keys/alice.p12", "PKCS12", "password");
+        Certificate[] chain = keyStore.getCertificateChain("alice");
+        X509Certificate[] certs = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+            certs[i] = (X509Certificate)chain[i];
+        }
+        return certs;
+    }
+    
+    private static KeyStore loadKeyStore(String location, String type, String password) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(type);
+        ClassLoader loader = Loader.getClassLoader(CertPathValidationCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, password.toCharArray());
+        }
+        return keyStore;
+    }
+    
+    /**
+     * Counts the certificate path validations, using a PKIXCertPathChecker
+     */
+    private static class CountingMerlin extends Merlin {
+        
+        private final AtomicInteger validationCount = new AtomicInteger();
+        
+        CountingMerlin(X509Certificate caCert) throws Exception {
+            KeyStore trustStore = KeyStore.getInstance("JKS");
+            trustStore.load(null, null);
+            trustStore.setCertificateEntry("ca", caCert);
+            setTrustStore(trustStore);
+        }
+        
+        @Override
+        protected PKIXParameters createPKIXParameters(
+            Set<TrustAnchor> trustAnchors, boolean enableRevocation
+        ) throws InvalidAlgorithmParameterException {
+            PKIXParameters param = super.createPKIXParameters(trustAnchors, enableRevocation);
+            param.addCertPathChecker(new PKIXCertPathChecker() {
+                @Override
+                public void init(boolean forward) {
+                    validationCount.incrementAndGet();
+                }
+                
+                @Override
+                public boolean isForwardCheckingSupported() {
+                    return false;
+                }
+                
+                @Override
+                public Set<String> getSupportedExtensions() {
+                    return null;
+                }
+                
+                @Override
+                public void check(Certificate cert, Collection<String> unresolvedCritExts) {
+                    // complete
+                }
+            });
+            return param;
+        }
+        
+        int getValidationCount() {
+            return validationCount.get();
+        }
+    }
+    
+}
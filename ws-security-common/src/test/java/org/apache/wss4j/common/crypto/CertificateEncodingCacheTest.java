@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.wss4j.common.util.Loader;
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * Some tests for the cache of encoded certificates and key identifiers.
+ */
+public class CertificateEncodingCacheTest extends org.junit.Assert {
+
+    private Crypto crypto;
+
+    public CertificateEncodingCacheTest() throws Exception {
+        WSProviderConfig.init();
+        Properties properties = new Properties();
+        ClassLoader loader = Loader.getClassLoader(CertificateEncodingCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, "wss40.properties")) {
+            properties.load(input);
+        }
+        crypto = new Merlin(properties, loader, null);
+    }
+
+    @org.junit.Test
+    public void testCachedValues() throws Exception {
+        X509Certificate cert = getCertificates("wss40")[0];
+
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(cert.getEncoded(), CertificateEncodingCache.getEncoded(cert));
+            assertEquals(
+                Base64.encode(cert.getEncoded()), CertificateEncodingCache.getBase64Encoded(cert)
+            );
+            assertEquals(
+                Base64.encode(KeyUtils.generateDigest(cert.getEncoded())),
+                CertificateEncodingCache.getBase64Thumbprint(cert)
+            );
+            assertEquals(
+                Base64.encode(crypto.getSKIBytesFromCert(cert)),
+                CertificateEncodingCache.getBase64SKI(cert, crypto)
+            );
+        }
+
+        // The cached bytes can't be modified
+        CertificateEncodingCache.getEncoded(cert)[0] = 0;
+        assertArrayEquals(cert.getEncoded(), CertificateEncodingCache.getEncoded(cert));
+    }
+
+    @org.junit.Test
+    public void testSKIFromOtherCrypto() throws Exception {
+        X509Certificate cert = getCertificates("wss40")[0];
+        assertEquals(
+            Base64.encode(crypto.getSKIBytesFromCert(cert)),
+            CertificateEncodingCache.getBase64SKI(cert, null)
+        );
+
+        // A Crypto other than Merlin is asked for the SKI bytes, rather than being
+        // served the value that Merlin computed
+        final byte[] ski = new byte[]{1, 2, 3, 4};
+        Crypto otherCrypto = new CertificateStore(new X509Certificate[]{cert}) {
+            @Override
+            public byte[] getSKIBytesFromCert(X509Certificate certificate) {
+                return ski;
+            }
+        };
+        assertEquals(Base64.encode(ski), CertificateEncodingCache.getBase64SKI(cert, otherCrypto));
+        assertEquals(
+            Base64.encode(crypto.getSKIBytesFromCert(cert)),
+            CertificateEncodingCache.getBase64SKI(cert, crypto)
+        );
+    }
+
+    @org.junit.Test
+    public void testPKIPath() throws Exception {
+        X509Certificate[] certs = getCertificates("wss40");
+        X509Certificate[] otherCerts = getCertificates("wss40ca");
+
+        assertArrayEquals(
+            crypto.getBytesFromCertificates(certs), CertificateEncodingCache.getPKIPath(certs, crypto)
+        );
+        assertEquals(
+            Base64.encode(crypto.getBytesFromCertificates(certs)),
+            CertificateEncodingCache.getBase64PKIPath(certs, crypto)
+        );
+
+        // A different chain for the same certificate is not served from the cache
+        X509Certificate[] chain = new X509Certificate[]{certs[0], otherCerts[0]};
+        assertArrayEquals(
+            crypto.getBytesFromCertificates(chain), CertificateEncodingCache.getPKIPath(chain, crypto)
+        );
+    }
+
+    private X509Certificate[] getCertificates(String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType);
+    }
+
+}
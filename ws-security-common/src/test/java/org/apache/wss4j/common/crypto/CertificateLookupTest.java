@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for the (indexed) certificate lookups in Merlin.
+ */
+public class CertificateLookupTest extends org.junit.Assert {
+    
+    @org.junit.Test
+    public void testLookups() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40_server.jks"));
+        crypto.setTrustStore(loadKeyStore("keys/wss40CA.jks"));
+        
+        X509Certificate cert = getCertificate(crypto, "wss40_server");
+        X509Certificate caCert = getCertificate(crypto, "wss40ca");
+        
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), cert.getSerialNumber());
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+        
+        cryptoType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        cryptoType.setBytes(MessageDigest.getInstance("SHA-1").digest(cert.getEncoded()));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+        
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(crypto.getSKIBytesFromCert(cert));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+        
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN(cert.getSubjectX500Principal().getName());
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+        
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN(caCert.getSubjectX500Principal().getName());
+        assertEquals(caCert, crypto.getX509Certificates(cryptoType)[0]);
+        
+        assertEquals("wss40_server", crypto.getX509Identifier(cert));
+        crypto.verifyTrust(cert.getPublicKey());
+        
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN("CN=Unknown");
+        assertNull(crypto.getX509Certificates(cryptoType));
+    }
+    
+    @org.junit.Test
+    public void testReplacedKeyStore() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40_server.jks"));
+        X509Certificate cert = getCertificate(crypto, "wss40_server");
+        
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        cryptoType.setBytes(MessageDigest.getInstance("SHA-1").digest(cert.getEncoded()));
+        assertNotNull(crypto.getX509Certificates(cryptoType));
+        
+        crypto.setKeyStore(loadKeyStore("keys/wss40CA.jks"));
+        assertNull(crypto.getX509Certificates(cryptoType));
+    }
+    
+    @org.junit.Test
+    public void testModifiedKeyStore() throws Exception {
+        Merlin crypto = new Merlin();
+        KeyStore keyStore = loadKeyStore("keys/wss40CA.jks");
+        crypto.setKeyStore(keyStore);
+        X509Certificate cert = 
+            (X509Certificate)loadKeyStore("keys/wss40_server.jks").getCertificate("wss40_server");
+        
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(crypto.getSKIBytesFromCert(cert));
+        assertNull(crypto.getX509Certificates(cryptoType));
+        
+        // The index must be refreshed explicitly when the KeyStore is modified in place
+        keyStore.setCertificateEntry("server", cert);
+        crypto.clearTrustCache();
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+    }
+    
+    private static X509Certificate getCertificate(Crypto crypto, String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType)[0];
+    }
+    
+    private static KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(CertificateLookupTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+    
+}
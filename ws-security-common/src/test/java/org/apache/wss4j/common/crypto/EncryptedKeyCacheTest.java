@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for the caching of unwrapped EncryptedKey session keys.
+ */
+public class EncryptedKeyCacheTest extends org.junit.Assert {
+
+    private static final String RSA_OAEP = "http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p";
+    private static final String RSA_15 = "http://www.w3.org/2001/04/xmlenc#rsa-1_5";
+    private static final String SHA1 = "http://www.w3.org/2000/09/xmldsig#sha1";
+
+    @org.junit.Test
+    public void testGetAndPut() throws Exception {
+        EncryptedKeyCache cache = new EncryptedKeyCache(10);
+        assertEquals(10, cache.getMaxSize());
+        assertEquals(EncryptedKeyCache.DEFAULT_TTL, cache.getTTL());
+
+        X509Certificate cert = getCertificate("alice.properties", "alice");
+        String key =
+            EncryptedKeyCache.createKey(cert, RSA_OAEP, SHA1, null, null, new byte[]{1, 2, 3});
+        assertNull(cache.get(key));
+
+        byte[] secret = new byte[]{4, 5, 6};
+        cache.put(key, secret);
+        secret[0] = 0;
+        assertArrayEquals(new byte[]{4, 5, 6}, cache.get(key));
+        cache.get(key)[0] = 0;
+        assertArrayEquals(new byte[]{4, 5, 6}, cache.get(key));
+
+        cache.clear();
+        assertNull(cache.get(key));
+    }
+
+    @org.junit.Test
+    public void testKeyDependsOnAllParameters() throws Exception {
+        X509Certificate cert = getCertificate("alice.properties", "alice");
+        X509Certificate otherCert = getCertificate("wss40.properties", "wss40");
+        byte[] encryptedKey = new byte[]{1, 2, 3};
+
+        String key =
+            EncryptedKeyCache.createKey(cert, RSA_OAEP, SHA1, null, null, encryptedKey);
+        assertEquals(
+            key, EncryptedKeyCache.createKey(cert, RSA_OAEP, SHA1, null, null, encryptedKey.clone())
+        );
+        assertNotEquals(
+            key, EncryptedKeyCache.createKey(otherCert, RSA_OAEP, SHA1, null, null, encryptedKey)
+        );
+        assertNotEquals(
+            key, EncryptedKeyCache.createKey(cert, RSA_15, SHA1, null, null, encryptedKey)
+        );
+        assertNotEquals(
+            key, EncryptedKeyCache.createKey(cert, RSA_OAEP, null, null, null, encryptedKey)
+        );
+        assertNotEquals(
+            key, EncryptedKeyCache.createKey(cert, RSA_OAEP, SHA1, SHA1, null, encryptedKey)
+        );
+        assertNotEquals(
+            key, EncryptedKeyCache.createKey(cert, RSA_OAEP, SHA1, null, new byte[0], encryptedKey)
+        );
+        assertNotEquals(
+            key, EncryptedKeyCache.createKey(cert, RSA_OAEP, SHA1, null, null, new byte[]{1, 2, 4})
+        );
+    }
+
+    @org.junit.Test
+    public void testCacheSize() throws Exception {
+        EncryptedKeyCache cache = new EncryptedKeyCache(2);
+        cache.put("a", new byte[]{1});
+        cache.put("b", new byte[]{2});
+        assertNotNull(cache.get("a"));
+        cache.put("c", new byte[]{3});
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @org.junit.Test
+    public void testExpiry() throws Exception {
+        EncryptedKeyCache cache = new EncryptedKeyCache(2, 1L);
+        cache.put("a", new byte[]{1});
+        assertNotNull(cache.get("a"));
+
+        Thread.sleep(1100L);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    private static X509Certificate getCertificate(String propertiesLocation, String alias) throws Exception {
+        Properties properties = new Properties();
+        ClassLoader loader = Loader.getClassLoader(EncryptedKeyCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, propertiesLocation)) {
+            properties.load(input);
+        }
+        Crypto crypto = new Merlin(properties, loader, null);
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType)[0];
+    }
+
+}
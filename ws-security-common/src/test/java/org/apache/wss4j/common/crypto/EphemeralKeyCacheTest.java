@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.wss4j.common.util.Loader;
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * Some tests for the reuse of wrapped outbound ephemeral keys.
+ */
+public class EphemeralKeyCacheTest extends org.junit.Assert {
+
+    private static final String RSA_OAEP = "http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p";
+    private static final String AES_128 = "http://www.w3.org/2001/04/xmlenc#aes128-cbc";
+    private static final String AES_256 = "http://www.w3.org/2001/04/xmlenc#aes256-cbc";
+
+    public EphemeralKeyCacheTest() {
+        WSProviderConfig.init();
+    }
+
+    @org.junit.Test
+    public void testKeyIsRotatedAfterMaxUses() throws Exception {
+        EphemeralKeyCache cache = new EphemeralKeyCache(3);
+        assertEquals(EphemeralKeyCache.DEFAULT_MAX_SIZE, cache.getMaxSize());
+        assertEquals(3, cache.getMaxUses());
+        assertEquals(EphemeralKeyCache.DEFAULT_TTL, cache.getTTL());
+
+        assertNull(cache.get("a"));
+        cache.put("a", new byte[]{1}, new byte[]{2});
+
+        EphemeralKeyCache.WrappedKey wrappedKey = cache.get("a");
+        assertArrayEquals(new byte[]{1}, wrappedKey.getEphemeralKey());
+        assertArrayEquals(new byte[]{2}, wrappedKey.getEncryptedEphemeralKey());
+        assertEquals(
+            Base64.encode(KeyUtils.generateDigest(new byte[]{2})), wrappedKey.getEncryptedKeySHA1()
+        );
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testSingleUseIsNotCached() throws Exception {
+        EphemeralKeyCache cache = new EphemeralKeyCache(1);
+        cache.put("a", new byte[]{1}, new byte[]{2});
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testExpiry() throws Exception {
+        EphemeralKeyCache cache = new EphemeralKeyCache(10, 100, 1L);
+        cache.put("a", new byte[]{1}, new byte[]{2});
+        assertNotNull(cache.get("a"));
+
+        Thread.sleep(1100L);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testCacheSize() throws Exception {
+        EphemeralKeyCache cache = new EphemeralKeyCache(2, 100, 60L);
+        cache.put("a", new byte[]{1}, new byte[]{2});
+        cache.put("b", new byte[]{3}, new byte[]{4});
+        assertNotNull(cache.get("a"));
+        cache.put("c", new byte[]{5}, new byte[]{6});
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @org.junit.Test
+    public void testKeyDependsOnRecipientAndAlgorithms() throws Exception {
+        X509Certificate cert = getCertificate("alice.properties", "alice");
+        X509Certificate otherCert = getCertificate("wss40.properties", "wss40");
+
+        String key = EphemeralKeyCache.createKey(cert, RSA_OAEP, null, null, null, AES_128);
+        assertEquals(key, EphemeralKeyCache.createKey(cert, RSA_OAEP, null, null, null, AES_128));
+        assertNotEquals(key, EphemeralKeyCache.createKey(otherCert, RSA_OAEP, null, null, null, AES_128));
+        assertNotEquals(key, EphemeralKeyCache.createKey(cert, RSA_OAEP, null, null, null, AES_256));
+        assertNotEquals(
+            key, EphemeralKeyCache.createKey(cert, RSA_OAEP, null, null, new byte[]{1}, AES_128)
+        );
+    }
+
+    private static X509Certificate getCertificate(String propertiesLocation, String alias) throws Exception {
+        Properties properties = new Properties();
+        ClassLoader loader = Loader.getClassLoader(EphemeralKeyCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, propertiesLocation)) {
+            properties.load(input);
+        }
+        Crypto crypto = new Merlin(properties, loader, null);
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType)[0];
+    }
+
+}
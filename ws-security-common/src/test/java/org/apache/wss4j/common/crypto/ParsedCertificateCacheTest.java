@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for the cache of certificates parsed from BinarySecurityTokens.
+ */
+public class ParsedCertificateCacheTest extends org.junit.Assert {
+
+    private Crypto crypto;
+
+    public ParsedCertificateCacheTest() throws Exception {
+        WSProviderConfig.init();
+        Properties properties = new Properties();
+        ClassLoader loader = Loader.getClassLoader(ParsedCertificateCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, "wss40.properties")) {
+            properties.load(input);
+        }
+        crypto = new Merlin(properties, loader, null);
+    }
+
+    @org.junit.Test
+    public void testCertificateIsParsedOnce() throws Exception {
+        X509Certificate cert = getCertificates()[0];
+
+        X509Certificate parsedCert = ParsedCertificateCache.loadCertificate(cert.getEncoded(), crypto);
+        assertEquals(cert, parsedCert);
+        assertSame(parsedCert, ParsedCertificateCache.loadCertificate(cert.getEncoded(), crypto));
+    }
+
+    @org.junit.Test
+    public void testPKIPath() throws Exception {
+        X509Certificate[] certs = getCertificates();
+        byte[] data = crypto.getBytesFromCertificates(certs);
+
+        X509Certificate[] parsedCerts = ParsedCertificateCache.getCertificatesFromBytes(data, crypto);
+        assertArrayEquals(certs, parsedCerts);
+
+        X509Certificate[] cachedCerts = ParsedCertificateCache.getCertificatesFromBytes(data, crypto);
+        assertNotSame(parsedCerts, cachedCerts);
+        assertSame(parsedCerts[0], cachedCerts[0]);
+
+        // The same bytes parsed as a X509v3 token are a different entry
+        try {
+            ParsedCertificateCache.loadCertificate(data, crypto);
+            fail("Failure expected on parsing a PKIPath as a certificate");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex.getErrorCode());
+        }
+    }
+
+    @org.junit.Test
+    public void testInvalidDataIsNotCached() throws Exception {
+        int size = ParsedCertificateCache.size();
+        try {
+            ParsedCertificateCache.loadCertificate(new byte[]{1, 2, 3}, crypto);
+            fail("Failure expected on invalid certificate data");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex.getErrorCode());
+        }
+        assertEquals(size, ParsedCertificateCache.size());
+    }
+
+    @org.junit.Test
+    public void testOtherCryptoIsNotCached() throws Exception {
+        X509Certificate[] certs = getCertificates();
+        final byte[] data = crypto.getBytesFromCertificates(certs);
+        ParsedCertificateCache.getCertificatesFromBytes(data, crypto);
+
+        // A Crypto other than Merlin parses the token itself, rather than being served
+        // the certificates that Merlin parsed
+        final X509Certificate[] otherCerts = new X509Certificate[0];
+        Crypto otherCrypto = new Merlin() {
+            @Override
+            public X509Certificate[] getCertificatesFromBytes(byte[] bytes)
+                throws WSSecurityException {
+                return otherCerts;
+            }
+        };
+        assertSame(otherCerts, ParsedCertificateCache.getCertificatesFromBytes(data, otherCrypto));
+
+        int size = ParsedCertificateCache.size();
+        X509Certificate cert = otherCrypto.loadCertificate(
+            new ByteArrayInputStream(certs[0].getEncoded())
+        );
+        assertEquals(cert, ParsedCertificateCache.loadCertificate(certs[0].getEncoded(), otherCrypto));
+        assertEquals(size, ParsedCertificateCache.size());
+    }
+
+    private X509Certificate[] getCertificates() throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias("wss40");
+        return crypto.getX509Certificates(cryptoType);
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import org.apache.wss4j.common.ext.WSPasswordCallback;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for the caching of unlocked private keys in Merlin.
+ */
+public class PrivateKeyCacheTest extends org.junit.Assert {
+    
+    @org.junit.Test
+    public void testCacheDisabledByDefault() throws Exception {
+        Merlin crypto = loadCrypto(null);
+        assertNull(crypto.getPrivateKeyCache());
+        
+        CountingCallbackHandler callbackHandler = new CountingCallbackHandler("password");
+        X509Certificate cert = getCertificate(crypto);
+        crypto.getPrivateKey(cert, callbackHandler);
+        crypto.getPrivateKey(cert, callbackHandler);
+        assertEquals(2, callbackHandler.getCount());
+    }
+    
+    @org.junit.Test
+    public void testCachedKeyIsReused() throws Exception {
+        Merlin crypto = loadCrypto("10");
+        assertEquals(10, crypto.getPrivateKeyCache().getMaxSize());
+        assertEquals(PrivateKeyCache.DEFAULT_TTL, crypto.getPrivateKeyCache().getTTL());
+        
+        CountingCallbackHandler callbackHandler = new CountingCallbackHandler("password");
+        X509Certificate cert = getCertificate(crypto);
+        PrivateKey privateKey = crypto.getPrivateKey(cert, callbackHandler);
+        assertSame(privateKey, crypto.getPrivateKey(cert, callbackHandler));
+        // The password is still resolved for every call
+        assertEquals(2, callbackHandler.getCount());
+        assertEquals(1, crypto.getPrivateKeyCache().size());
+    }
+    
+    @org.junit.Test
+    public void testCallbackHandlerPasswordMustMatch() throws Exception {
+        Merlin crypto = loadCrypto("wss40.properties", "10");
+        X509Certificate cert = getCertificate(crypto, "wss40");
+        crypto.getPrivateKey(cert, new CountingCallbackHandler("security"));
+        assertEquals(1, crypto.getPrivateKeyCache().size());
+        
+        try {
+            crypto.getPrivateKey(cert, new CountingCallbackHandler("wrongpassword"));
+            fail("Failure expected on a wrong password");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+    }
+    
+    @org.junit.Test
+    public void testPasswordMustMatch() throws Exception {
+        Merlin crypto = loadCrypto("wss40.properties", "10");
+        
+        PrivateKey privateKey = crypto.getPrivateKey("wss40", "security");
+        assertSame(privateKey, crypto.getPrivateKey("wss40", "security"));
+        try {
+            crypto.getPrivateKey("wss40", "wrongpassword");
+            fail("Failure expected on a wrong password");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+    }
+    
+    @org.junit.Test
+    public void testSetKeyStoreClearsCache() throws Exception {
+        Merlin crypto = loadCrypto("10");
+        CountingCallbackHandler callbackHandler = new CountingCallbackHandler("password");
+        X509Certificate cert = getCertificate(crypto);
+        crypto.getPrivateKey(cert, callbackHandler);
+        assertEquals(1, crypto.getPrivateKeyCache().size());
+        
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        ClassLoader loader = Loader.getClassLoader(PrivateKeyCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, "keys/alice.p12")) {
+            keyStore.load(input, "password".toCharArray());
+        }
+        crypto.setKeyStore(keyStore);
+        assertEquals(0, crypto.getPrivateKeyCache().size());
+        
+        crypto.getPrivateKey(cert, callbackHandler);
+        assertEquals(2, callbackHandler.getCount());
+    }
+    
+    @org.junit.Test
+    public void testCacheSize() throws Exception {
+        PrivateKeyCache cache = new PrivateKeyCache(1);
+        PrivateKey privateKey = loadCrypto(null).getPrivateKey("alice", "password");
+        
+        cache.put("alice", "password", privateKey, cache.getGeneration());
+        cache.put("bob", "password", privateKey, cache.getGeneration());
+        assertEquals(1, cache.size());
+        assertNull(cache.get("alice", "password"));
+        assertSame(privateKey, cache.get("bob", "password"));
+        
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.put("alice", "password", privateKey, generation);
+        assertEquals(0, cache.size());
+    }
+    
+    private static Merlin loadCrypto(String cacheSize) throws Exception {
+        return loadCrypto("alice.properties", cacheSize);
+    }
+    
+    private static Merlin loadCrypto(String propertiesLocation, String cacheSize) throws Exception {
+        Properties properties = new Properties();
+        ClassLoader loader = Loader.getClassLoader(PrivateKeyCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, propertiesLocation)) {
+            properties.load(input);
+        }
+        if (cacheSize != null) {
+            properties.put("org.apache.wss4j.crypto.merlin.privatekey.cache.size", cacheSize);
+        }
+        return new Merlin(properties, loader, null);
+    }
+    
+    private static X509Certificate getCertificate(Crypto crypto) throws Exception {
+        return getCertificate(crypto, "alice");
+    }
+    
+    private static X509Certificate getCertificate(Crypto crypto, String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType)[0];
+    }
+    
+    private static class CountingCallbackHandler implements CallbackHandler {
+        
+        private final String password;
+        private int count;
+        
+        CountingCallbackHandler(String password) {
+            this.password = password;
+        }
+        
+        public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+            for (Callback callback : callbacks) {
+                if (callback instanceof WSPasswordCallback) {
+                    count++;
+                    ((WSPasswordCallback)callback).setPassword(password);
+                } else {
+                    throw new UnsupportedCallbackException(callback);
+                }
+            }
+        }
+        
+        int getCount() {
+            return count;
+        }
+    }
+    
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for reloading the keystore in ReloadableCrypto.
+ */
+public class ReloadableCryptoTest extends org.junit.Assert {
+    
+    @org.junit.Rule
+    public org.junit.rules.TemporaryFolder folder = new org.junit.rules.TemporaryFolder();
+    
+    @org.junit.Test
+    public void testReloadOnFileChange() throws Exception {
+        File keystoreFile = folder.newFile("keystore.jks");
+        copy("keys/wss40CA.jks", keystoreFile.toPath());
+        
+        try (ReloadableCrypto crypto = 
+            new ReloadableCrypto(createProperties(keystoreFile), getClass().getClassLoader(), null, 100L)) {
+            assertNotNull(getCertificates(crypto, "wss40ca"));
+            assertNull(getCertificates(crypto, "wss40_server"));
+            Merlin merlin = crypto.getMerlin();
+            
+            copy("keys/wss40_server.jks", keystoreFile.toPath());
+            
+            long end = System.currentTimeMillis() + 20000L;
+            while (getCertificates(crypto, "wss40_server") == null && System.currentTimeMillis() < end) {
+                Thread.sleep(100L);
+            }
+            assertNotNull(getCertificates(crypto, "wss40_server"));
+            assertNotSame(merlin, crypto.getMerlin());
+            assertTrue(crypto.getReloadCount() > 0);
+        }
+    }
+    
+    @org.junit.Test
+    public void testFailedReloadKeepsCurrentKeystore() throws Exception {
+        File keystoreFile = folder.newFile("keystore.jks");
+        copy("keys/wss40CA.jks", keystoreFile.toPath());
+        
+        try (ReloadableCrypto crypto = 
+            new ReloadableCrypto(createProperties(keystoreFile), getClass().getClassLoader(), null, 100L)) {
+            crypto.setDefaultX509Identifier("wss40ca");
+            crypto.close();
+            Merlin merlin = crypto.getMerlin();
+            
+            Files.write(keystoreFile.toPath(), new byte[] {1, 2, 3});
+            try {
+                crypto.reload();
+                fail("Failure expected on a corrupt keystore");
+            } catch (WSSecurityException ex) {
+                // expected
+            }
+            assertSame(merlin, crypto.getMerlin());
+            assertNotNull(getCertificates(crypto, "wss40ca"));
+            
+            copy("keys/wss40CA.jks", keystoreFile.toPath());
+            crypto.reload();
+            assertNotSame(merlin, crypto.getMerlin());
+            assertEquals("wss40ca", crypto.getDefaultX509Identifier());
+            assertEquals(1L, crypto.getReloadCount());
+        }
+    }
+    
+    @org.junit.Test
+    public void testCryptoFactory() throws Exception {
+        File keystoreFile = folder.newFile("keystore.jks");
+        copy("keys/wss40CA.jks", keystoreFile.toPath());
+        Properties properties = createProperties(keystoreFile);
+        properties.put("org.apache.wss4j.crypto.provider", ReloadableCrypto.class.getName());
+        
+        Crypto crypto = CryptoFactory.getInstance(properties);
+        assertTrue(crypto instanceof ReloadableCrypto);
+        assertNotNull(getCertificates(crypto, "wss40ca"));
+        ((ReloadableCrypto)crypto).close();
+    }
+    
+    private static Properties createProperties(File keystoreFile) {
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.file", keystoreFile.getAbsolutePath());
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.password", "security");
+        properties.put("org.apache.wss4j.crypto.merlin.keystore.type", "jks");
+        return properties;
+    }
+    
+    private static X509Certificate[] getCertificates(Crypto crypto, String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType);
+    }
+    
+    private static void copy(String resource, Path target) throws Exception {
+        try (InputStream input = Loader.getResourceAsStream(resource)) {
+            Files.copy(input, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+}
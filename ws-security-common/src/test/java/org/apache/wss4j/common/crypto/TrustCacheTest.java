@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * Some tests for the caching of the trust anchors in Merlin.
+ */
+public class TrustCacheTest extends org.junit.Assert {
+    
+    @org.junit.Test
+    public void testTrustAnchorsAreCached() throws Exception {
+        X509Certificate[] certs = getAliceCertificates();
+        CountingMerlin crypto = new CountingMerlin();
+        crypto.setTrustStore(createTrustStore(certs[1]));
+        
+        crypto.verifyTrust(certs, false, null);
+        crypto.verifyTrust(certs, false, null);
+        crypto.verifyTrust(new X509Certificate[] {certs[0]}, false, null);
+        
+        // The trust anchors are loaded once, but new parameters are created for each validation
+        assertEquals(1, crypto.getTrustAnchorsCount());
+        assertEquals(3, crypto.getParameterCount());
+    }
+    
+    @org.junit.Test
+    public void testSetTrustStoreClearsCache() throws Exception {
+        X509Certificate[] certs = getAliceCertificates();
+        CountingMerlin crypto = new CountingMerlin();
+        crypto.setTrustStore(createTrustStore(certs[1]));
+        crypto.verifyTrust(certs, false, null);
+        
+        crypto.setTrustStore(loadKeyStore("keys/wss40CA.jks", "JKS", "security"));
+        try {
+            crypto.verifyTrust(certs, false, null);
+            fail("Failure expected on an untrusted certificate");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+        assertEquals(2, crypto.getTrustAnchorsCount());
+        
+        crypto.setTrustStore(createTrustStore(certs[1]));
+        crypto.verifyTrust(certs, false, null);
+        assertEquals(3, crypto.getTrustAnchorsCount());
+    }
+    
+    @org.junit.Test
+    public void testClearTrustCache() throws Exception {
+        X509Certificate[] certs = getAliceCertificates();
+        CountingMerlin crypto = new CountingMerlin();
+        KeyStore trustStore = loadKeyStore("keys/wss40CA.jks", "JKS", "security");
+        crypto.setTrustStore(trustStore);
+        try {
+            crypto.verifyTrust(certs, false, null);
+            fail("Failure expected on an untrusted certificate");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILURE, ex.getErrorCode());
+        }
+        
+        // Modify the truststore in place, which requires the cache to be cleared explicitly
+        trustStore.setCertificateEntry("cxfca", certs[1]);
+        crypto.clearTrustCache();
+        crypto.verifyTrust(certs, false, null);
+        assertEquals(2, crypto.getTrustAnchorsCount());
+    }
+    
+    private static X509Certificate[] getAliceCertificates() throws Exception {
+        KeyStore keyStore = loadKeyStore("keys/alice.p12", "PKCS12", "password");
+        Certificate[] chain = keyStore.getCertificateChain("alice");
+        X509Certificate[] certs = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+            certs[i] = (X509Certificate)chain[i];
+        }
+        return certs;
+    }
+    
+    private static KeyStore createTrustStore(X509Certificate caCert) throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("ca", caCert);
+        return trustStore;
+    }
+    
+    private static KeyStore loadKeyStore(String location, String type, String password) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(type);
+        ClassLoader loader = Loader.getClassLoader(TrustCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, password.toCharArray());
+        }
+        return keyStore;
+    }
+    
+    /**
+     * Counts the PKIXParameters that are created, and the distinct sets of trust anchors that
+     * they are created from
+     */
+    private static class CountingMerlin extends Merlin {
+        
+        private final Set<Set<TrustAnchor>> trustAnchorSets =
+            Collections.newSetFromMap(new IdentityHashMap<Set<TrustAnchor>, Boolean>());
+        private int parameterCount;
+        
+        @Override
+        protected PKIXParameters createPKIXParameters(
+            Set<TrustAnchor> trustAnchors, boolean enableRevocation
+        ) throws InvalidAlgorithmParameterException {
+            trustAnchorSets.add(trustAnchors);
+            parameterCount++;
+            return super.createPKIXParameters(trustAnchors, enableRevocation);
+        }
+        
+        int getTrustAnchorsCount() {
+            return trustAnchorSets.size();
+        }
+        
+        int getParameterCount() {
+            return parameterCount;
+        }
+    }
+    
+}
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.apache.wss4j.common.crypto.WSProviderConfig;
+import org.apache.xml.security.encryption.XMLCipher;
+
+/**
+ * Some tests for the pooling of Cipher instances.
+ */
+public class CipherPoolTest extends org.junit.Assert {
+
+    public CipherPoolTest() {
+        WSProviderConfig.init();
+    }
+
+    @org.junit.Before
+    public void setUp() {
+        CipherPool.clear();
+    }
+
+    @org.junit.Test
+    public void testCipherIsReused() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        SecretKey secretKey = getSecretKey();
+
+        Cipher cipher = CipherPool.getCipher(XMLCipher.RSA_v1dot5);
+        cipher.init(Cipher.WRAP_MODE, keyPair.getPublic());
+        byte[] wrappedKey = cipher.wrap(secretKey);
+        CipherPool.returnCipher(XMLCipher.RSA_v1dot5, cipher);
+
+        Cipher pooledCipher = CipherPool.getCipher(XMLCipher.RSA_v1dot5);
+        assertSame(cipher, pooledCipher);
+        assertNotSame(cipher, CipherPool.getCipher(XMLCipher.RSA_v1dot5));
+
+        pooledCipher.init(Cipher.UNWRAP_MODE, keyPair.getPrivate());
+        assertArrayEquals(
+            secretKey.getEncoded(),
+            pooledCipher.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY).getEncoded()
+        );
+    }
+
+    @org.junit.Test
+    public void testCiphersAreKeyedByAlgorithm() throws Exception {
+        Cipher cipher = CipherPool.getCipher(XMLCipher.RSA_v1dot5);
+        CipherPool.returnCipher(XMLCipher.RSA_v1dot5, cipher);
+
+        assertNotSame(cipher, CipherPool.getCipher(XMLCipher.RSA_OAEP));
+        assertSame(cipher, CipherPool.getCipher(XMLCipher.RSA_v1dot5));
+    }
+
+    @org.junit.Test
+    public void testPoolIsBounded() throws Exception {
+        Set<Cipher> ciphers = new HashSet<>();
+        for (int i = 0; i < CipherPool.MAX_POOL_SIZE + 4; i++) {
+            ciphers.add(KeyUtils.getCipherInstance(XMLCipher.RSA_v1dot5));
+        }
+        for (Cipher cipher : ciphers) {
+            CipherPool.returnCipher(XMLCipher.RSA_v1dot5, cipher);
+        }
+
+        Set<Cipher> pooledCiphers = new HashSet<>();
+        for (int i = 0; i < CipherPool.MAX_POOL_SIZE + 4; i++) {
+            pooledCiphers.add(CipherPool.getCipher(XMLCipher.RSA_v1dot5));
+        }
+        pooledCiphers.retainAll(ciphers);
+        assertEquals(CipherPool.MAX_POOL_SIZE, pooledCiphers.size());
+    }
+
+    @org.junit.Test
+    public void testReturnedCipherDoesNotKeepKey() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        byte[] plaintext = getSecretKey().getEncoded();
+
+        Cipher encryptCipher = KeyUtils.getCipherInstance(XMLCipher.RSA_v1dot5);
+        encryptCipher.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        byte[] ciphertext = encryptCipher.doFinal(plaintext);
+
+        Cipher cipher = CipherPool.getCipher(XMLCipher.RSA_v1dot5);
+        cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+        assertArrayEquals(plaintext, cipher.doFinal(ciphertext));
+        CipherPool.returnCipher(XMLCipher.RSA_v1dot5, cipher);
+
+        // The pooled Cipher can't decrypt with the private key of its last use anymore
+        Cipher pooledCipher = CipherPool.getCipher(XMLCipher.RSA_v1dot5);
+        assertSame(cipher, pooledCipher);
+        try {
+            assertFalse(Arrays.equals(plaintext, pooledCipher.doFinal(ciphertext)));
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            // expected - the ciphertext is too long to be encrypted with the throwaway key
+        }
+    }
+
+    @org.junit.Test
+    public void testKeyWrapCipherIsPooled() throws Exception {
+        Cipher cipher = CipherPool.getCipher(XMLCipher.AES_128_KeyWrap);
+        cipher.init(Cipher.WRAP_MODE, getSecretKey());
+        cipher.wrap(getSecretKey());
+        CipherPool.returnCipher(XMLCipher.AES_128_KeyWrap, cipher);
+
+        assertSame(cipher, CipherPool.getCipher(XMLCipher.AES_128_KeyWrap));
+    }
+
+    @org.junit.Test
+    public void testReturnedSymmetricCipherDoesNotKeepKey() throws Exception {
+        SecretKey key = getSecretKey();
+        byte[] plaintext = getSecretKey().getEncoded();
+
+        Cipher cipher = CipherPool.getCipher(XMLCipher.AES_128);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        cipher.doFinal(plaintext);
+        CipherPool.returnCipher(XMLCipher.AES_128, cipher);
+
+        // The pooled Cipher now encrypts with the throwaway key, rather than the key of its last use
+        Cipher pooledCipher = CipherPool.getCipher(XMLCipher.AES_128);
+        assertSame(cipher, pooledCipher);
+        Cipher decryptCipher = KeyUtils.getCipherInstance(XMLCipher.AES_128);
+        decryptCipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(pooledCipher.getIV()));
+        byte[] pooledCiphertext = pooledCipher.doFinal(plaintext);
+        try {
+            assertFalse(Arrays.equals(plaintext, decryptCipher.doFinal(pooledCiphertext)));
+        } catch (GeneralSecurityException ex) {
+            // expected - the padding is wrong when decrypting with another key
+        }
+    }
+
+    @org.junit.Test
+    public void testCipherIsReturnedWhenStreamIsClosed() throws Exception {
+        Cipher cipher = CipherPool.getCipher(XMLCipher.AES_128);
+        cipher.init(Cipher.ENCRYPT_MODE, getSecretKey());
+        InputStream inputStream = CipherPool.returnOnClose(
+            XMLCipher.AES_128, cipher, new CipherInputStream(new ByteArrayInputStream(new byte[32]), cipher)
+        );
+        while (inputStream.read() != -1) { //NOPMD
+            // read the whole stream
+        }
+        assertNotSame(cipher, CipherPool.getCipher(XMLCipher.AES_128));
+
+        inputStream.close();
+        inputStream.close();
+        assertSame(cipher, CipherPool.getCipher(XMLCipher.AES_128));
+        assertNotSame(cipher, CipherPool.getCipher(XMLCipher.AES_128));
+    }
+
+    private SecretKey getSecretKey() throws Exception {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        return keyGenerator.generateKey();
+    }
+
+}
@@ -33,9 +33,11 @@ package org.apache.wss4j.dom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.crypto.dom.DOMCryptoContext;
 
@@ -45,6 +47,7 @@ import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.message.CallbackLookup;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 public class WSDocInfo {
     private Document doc;
@@ -60,6 +63,12 @@ public class WSDocInfo {
     private final Map<Integer, List<WSSecurityEngineResult>> actionResults = new HashMap<>();
     private CallbackLookup callbackLookup;
     private Element securityHeader;
+    
+    // An index of the elements in the document by their wsu:Id or Id attribute, and by their
+    // SAML ID or AssertionID attribute. It is built in a single pass over the document the first
+    // time that an element is looked up by Id, and then updated as nodes are decrypted.
+    private ElementIndex elementIds;
+    private ElementIndex samlIds;
 
     public WSDocInfo(Document doc) {
         //
@@ -85,6 +94,8 @@ public class WSDocInfo {
         tokens.clear();
         results.clear();
         actionResults.clear();
+        elementIds = null;
+        samlIds = null;
     }
     
     /**
@@ -205,6 +216,108 @@ public class WSDocInfo {
     }
 
     
+    /**
+     * Get the element in the document with a wsu:Id or Id attribute of the given value. This 
+     * returns the same result as XMLUtils.findElementById on the document element, but uses an 
+     * index of the document rather than searching the entire tree for each lookup. An Id that 
+     * is not in the index is looked up with a search of the document. Elements that are 
+     * inserted into the document after the index is built must be passed to indexElements, 
+     * otherwise a duplicate of an indexed Id is not detected.
+     * @param id The value of the Id attribute
+     * @param checkMultipleElements If true then return null if there are multiple elements
+     *        with the same Id
+     * @return The found element if there was exactly one match, or null otherwise
+     */
+    public Element getElementById(String id, boolean checkMultipleElements) {
+        if (doc == null || doc.getDocumentElement() == null || id == null) {
+            return null;
+        }
+        
+        buildIndex();
+        Element element = elementIds.get(id);
+        if (element == null) {
+            // The Id is not indexed or is ambiguous, or the indexed element has been modified
+            element = XMLUtils.findElementById(doc.getDocumentElement(), id, checkMultipleElements);
+            if (checkMultipleElements) {
+                elementIds.update(id, element);
+            }
+        }
+        return element;
+    }
+    
+    /**
+     * Get the element in the document with a SAML ID or AssertionID attribute of the given 
+     * value. This returns the same result as XMLUtils.findSAMLAssertionElementById on the 
+     * document element, but uses an index of the document rather than searching the entire 
+     * tree for each lookup.
+     * @param id The value of the ID or AssertionID attribute
+     * @return The found element if there was exactly one match, or null otherwise
+     */
+    public Element getSAMLAssertionById(String id) {
+        if (doc == null || doc.getDocumentElement() == null || id == null) {
+            return null;
+        }
+        
+        buildIndex();
+        Element element = samlIds.get(id);
+        if (element == null) {
+            // The ID is not indexed or is ambiguous, or the indexed element has been modified
+            element = XMLUtils.findSAMLAssertionElementById(doc.getDocumentElement(), id);
+            samlIds.update(id, element);
+        }
+        return element;
+    }
+    
+    /**
+     * Add the Ids of the elements under (and including) the given node to the index of the 
+     * document. This must be called when new elements are inserted into the document after 
+     * the index has been built, e.g. when an EncryptedData element is decrypted.
+     * @param node The root of the subtree to index
+     */
+    public void indexElements(Node node) {
+        if (elementIds != null && node != null && node.getOwnerDocument() == doc) {
+            addToIndex(node);
+        }
+    }
+    
+    private void buildIndex() {
+        if (elementIds == null) {
+            elementIds = new ElementIndex(false);
+            samlIds = new ElementIndex(true);
+            addToIndex(doc.getDocumentElement());
+        }
+    }
+    
+    private void addToIndex(Node startNode) {
+        Node node = startNode;
+        while (node != null) {
+            if (Node.ELEMENT_NODE == node.getNodeType() && node.hasAttributes()) {
+                Element element = (Element)node;
+                String wsuId = element.getAttributeNS(WSConstants.WSU_NS, "Id");
+                elementIds.add(wsuId, element);
+                String id = element.getAttributeNS(null, "Id");
+                if (!id.equals(wsuId)) {
+                    elementIds.add(id, element);
+                }
+                String samlId = element.getAttributeNS(null, "ID");
+                samlIds.add(samlId, element);
+                String assertionId = element.getAttributeNS(null, "AssertionID");
+                if (!assertionId.equals(samlId)) {
+                    samlIds.add(assertionId, element);
+                }
+            }
+            
+            Node next = node.getFirstChild();
+            while (next == null && node != startNode) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+    }
+    
     /**
      * Store a WSSecurityEngineResult for later retrieval. 
      * @param result is the WSSecurityEngineResult to store
@@ -351,6 +464,80 @@ public class WSDocInfo {
         this.securityHeader = securityHeader;
     }
     
+    /**
+     * A map from an Id to the single element that has that Id. An Id that is shared by several
+     * elements is recorded as ambiguous. Entries are validated on lookup, as the element may have 
+     * been removed from the document (e.g. an EncryptedData element that has been decrypted).
+     */
+    private static class ElementIndex {
+        private final boolean saml;
+        private final Map<String, Element> elements = new HashMap<>();
+        private final Set<String> ambiguousIds = new HashSet<>();
+        
+        ElementIndex(boolean saml) {
+            this.saml = saml;
+        }
+        
+        void add(String id, Element element) {
+            if ("".equals(id) || ambiguousIds.contains(id)) {
+                return;
+            }
+            Element existing = elements.get(id);
+            if (existing == null || existing == element || !isCurrent(id, existing)) {
+                elements.put(id, element);
+            } else {
+                elements.remove(id);
+                ambiguousIds.add(id);
+            }
+        }
+        
+        /**
+         * Get the element for the given Id, or null if the Id is not known, is ambiguous, or
+         * the indexed element is no longer in the document with that Id
+         */
+        Element get(String id) {
+            Element element = elements.get(id);
+            if (element != null && !isCurrent(id, element)) {
+                return null;
+            }
+            return element;
+        }
+        
+        /**
+         * Update the index with the result of a search of the document
+         */
+        void update(String id, Element element) {
+            if ("".equals(id) || ambiguousIds.contains(id)) {
+                return;
+            }
+            if (element == null) {
+                elements.remove(id);
+            } else {
+                elements.put(id, element);
+            }
+        }
+        
+        private boolean isCurrent(String id, Element element) {
+            if (saml) {
+                if (!(element.hasAttributeNS(null, "ID") && id.equals(element.getAttributeNS(null, "ID"))
+                    || element.hasAttributeNS(null, "AssertionID") 
+                        && id.equals(element.getAttributeNS(null, "AssertionID")))) {
+                    return false;
+                }
+            } else if (!id.equals(element.getAttributeNS(WSConstants.WSU_NS, "Id"))
+                && !id.equals(element.getAttributeNS(null, "Id"))) {
+                return false;
+            }
+            
+            // Check that the element has not been removed from the document
+            Node node = element;
+            while (node.getParentNode() != null) {
+                node = node.getParentNode();
+            }
+            return Node.DOCUMENT_NODE == node.getNodeType();
+        }
+    }
+    
     private static class TokenValue {
         final String idName;
         final String idNamespace;
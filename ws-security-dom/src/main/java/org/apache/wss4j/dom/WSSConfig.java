@@ -23,7 +23,11 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.Security;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -237,6 +241,31 @@ public class WSSConfig {
         DEFAULT_VALIDATORS = java.util.Collections.unmodifiableMap(tmp);
     }
     
+    /**
+     * The default actions, processors and validators hold no per-message state, and so a single 
+     * instance of each is shared by all WSSConfig objects, rather than creating a new instance
+     * by reflection for every header element. Classes that are registered via the setAction,
+     * setProcessor and setValidator operations that are not in this set may be stateful, and 
+     * so a new instance is still created on each lookup.
+     */
+    private static final Set<Class<?>> SHAREABLE_CLASSES;
+    static {
+        final Set<Class<?>> tmp = new HashSet<>();
+        tmp.addAll(DEFAULT_ACTIONS.values());
+        tmp.addAll(DEFAULT_PROCESSORS.values());
+        tmp.addAll(DEFAULT_VALIDATORS.values());
+        // SamlAssertionValidator has configuration setters, and so is not shared
+        tmp.remove(org.apache.wss4j.dom.validate.SamlAssertionValidator.class);
+        SHAREABLE_CLASSES = java.util.Collections.unmodifiableSet(tmp);
+    }
+    
+    /**
+     * The shared instances of the SHAREABLE_CLASSES, which are created lazily (i.e. after the
+     * JCE providers have been installed).
+     */
+    private static final ConcurrentMap<Class<?>, Object> SHARED_INSTANCES = 
+        new ConcurrentHashMap<Class<?>, Object>();
+    
     /**
      * a static boolean flag that determines whether default JCE providers
      * should be added at the time of construction.
@@ -412,15 +441,7 @@ public class WSSConfig {
         final Object actionObject = actionMap.get(action);
         
         if (actionObject instanceof Class<?>) {
-            try {
-                return (Action)((Class<?>)actionObject).newInstance();
-            } catch (Exception ex) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(ex.getMessage(), ex);
-                }
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                        "unableToLoadClass", new Object[] {((Class<?>)actionObject).getName()});
-            }
+            return (Action)getInstance((Class<?>)actionObject);
         } else if (actionObject instanceof Action) {
             return (Action)actionObject;
         }
@@ -504,15 +525,7 @@ public class WSSConfig {
         final Object validatorObject = validatorMap.get(el);
         
         if (validatorObject instanceof Class<?>) {
-            try {
-                return (Validator)((Class<?>)validatorObject).newInstance();
-            } catch (Exception ex) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(ex.getMessage(), ex);
-                }
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                    "unableToLoadClass", new Object[] {((Class<?>)validatorObject).getName()});
-            }
+            return (Validator)getInstance((Class<?>)validatorObject);
         } else if (validatorObject instanceof Validator) {
             return (Validator)validatorObject;
         }
@@ -530,21 +543,44 @@ public class WSSConfig {
         final Object processorObject = processorMap.get(el);
         
         if (processorObject instanceof Class<?>) {
-            try {
-                return (Processor)((Class<?>)processorObject).newInstance();
-            } catch (Exception ex) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(ex.getMessage(), ex);
-                }
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
-                        "unableToLoadClass", new Object[] {((Class<?>)processorObject).getName()});
-            }
+            return (Processor)getInstance((Class<?>)processorObject);
         } else if (processorObject instanceof Processor) {
             return (Processor)processorObject;
         }
         return null;
     }
 
+    /**
+     * Get an instance of the given Action, Processor or Validator class. A shared instance is 
+     * returned for the default classes, and a new instance for any other class.
+     */
+    private static Object getInstance(Class<?> clazz) throws WSSecurityException {
+        if (!SHAREABLE_CLASSES.contains(clazz)) {
+            return createInstance(clazz);
+        }
+        Object instance = SHARED_INSTANCES.get(clazz);
+        if (instance == null) {
+            instance = createInstance(clazz);
+            Object existingInstance = SHARED_INSTANCES.putIfAbsent(clazz, instance);
+            if (existingInstance != null) {
+                instance = existingInstance;
+            }
+        }
+        return instance;
+    }
+    
+    private static Object createInstance(Class<?> clazz) throws WSSecurityException {
+        try {
+            return clazz.newInstance();
+        } catch (Exception ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(ex.getMessage(), ex);
+            }
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex,
+                    "unableToLoadClass", new Object[] {clazz.getName()});
+        }
+    }
+
     public WSTimeSource getCurrentTime() {
         if (currentTime != null) {
             return currentTime;
@@ -397,11 +397,12 @@ public class WSSecurityEngine {
         WSDocInfo wsDocInfo = new WSDocInfo(securityHeader.getOwnerDocument());
         CallbackLookup callbackLookupToUse = callbackLookup;
         if (callbackLookupToUse == null) {
-            callbackLookupToUse = new DOMCallbackLookup(securityHeader.getOwnerDocument());
+            callbackLookupToUse = new DOMCallbackLookup(securityHeader.getOwnerDocument(), wsDocInfo);
         }
         wsDocInfo.setCallbackLookup(callbackLookupToUse);
         wsDocInfo.setCrypto(requestData.getSigVerCrypto());
         wsDocInfo.setSecurityHeader(securityHeader);
+        requestData.setWsDocInfo(wsDocInfo);
 
         final WSSConfig cfg = getWssConfig();
         Node node = securityHeader.getFirstChild();
@@ -97,6 +97,7 @@ public class EncryptionAction implements Action {
             ephemeralKey = passwordCallback.getKey();
         }
         wsEncrypt.setEphemeralKey(ephemeralKey);
+        wsEncrypt.setEphemeralKeyCache(reqData.getEphemeralKeyCache());
         
         if (encryptionToken.getTokenId() != null) {
             wsEncrypt.setEncKeyId(encryptionToken.getTokenId());
@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -38,10 +39,13 @@ import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.cache.ReplayCacheFactory;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.EncryptedKeyCache;
+import org.apache.wss4j.common.crypto.EphemeralKeyCache;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.SOAPConstants;
 import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.WSSConfig;
 import org.apache.wss4j.dom.message.WSSecHeader;
 import org.apache.wss4j.dom.message.token.UsernameToken;
@@ -75,6 +79,7 @@ public class RequestData {
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
     private ReplayCache samlOneTimeUseReplayCache;
+    private ReplayCacheFactory replayCacheFactory;
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     private final List<BSPRule> ignoredBSPRules = new LinkedList<>();
     private boolean appendSignatureAfterTimestamp;
@@ -125,6 +130,40 @@ public class RequestData {
      * exception if the password type of the Username Token does not match this value
      */
     private String requiredPasswordType;
+
+    /**
+     * If this value is not null, then the (independent) References of an inbound Signature
+     * are canonicalized and digested in parallel using this Executor. The default is null,
+     * meaning that the References are validated one after another on the calling thread.
+     */
+    private Executor signatureVerificationExecutor;
+
+    /**
+     * If this value is not null, then the EncryptedData elements referenced by a ReferenceList
+     * are decrypted in parallel using this Executor. The default is null, meaning that they 
+     * are decrypted one after another on the calling thread.
+     */
+    private Executor decryptionExecutor;
+
+    /**
+     * If this value is not null, then the symmetric keys unwrapped from EncryptedKey elements
+     * are cached in it, and a repeated EncryptedKey is not unwrapped again. The default is null.
+     */
+    private EncryptedKeyCache encryptedKeyCache;
+    
+    /**
+     * If this value is not null, then the ephemeral keys generated for outbound encryption
+     * are reused, together with the EncryptedKey, for a number of messages to the same 
+     * recipient. The default is null.
+     */
+    private EphemeralKeyCache ephemeralKeyCache;
+    
+    /**
+     * The WSDocInfo of the security header that is being processed. This is set by the 
+     * WSSecurityEngine, so that the nodes that are decrypted while processing the header are 
+     * added to its Id index.
+     */
+    private WSDocInfo wsDocInfo;
     
     /**
      * This variable controls whether a UsernameToken with no password element is allowed. 
@@ -424,9 +463,28 @@ public class RequestData {
     }
     
     private synchronized ReplayCache createCache(String key) throws WSSecurityException {
-        ReplayCacheFactory replayCacheFactory = ReplayCacheFactory.newInstance();
+        ReplayCacheFactory cacheFactory = replayCacheFactory;
+        if (cacheFactory == null) {
+            cacheFactory = ReplayCacheFactory.newInstance();
+        }
         String cacheKey = key + Base64.encode(WSSecurityUtil.generateNonce(10));
-        return replayCacheFactory.newReplayCache(cacheKey, null);
+        return cacheFactory.newReplayCache(cacheKey, null);
+    }
+    
+    /**
+     * Set the ReplayCacheFactory used to create the replay caches that have not been set
+     * explicitly. The default is the factory returned by ReplayCacheFactory.newInstance().
+     */
+    public void setReplayCacheFactory(ReplayCacheFactory replayCacheFactory) {
+        this.replayCacheFactory = replayCacheFactory;
+    }
+
+    /**
+     * Get the ReplayCacheFactory used to create the replay caches that have not been set
+     * explicitly
+     */
+    public ReplayCacheFactory getReplayCacheFactory() {
+        return replayCacheFactory;
     }
     
     /**
@@ -754,4 +812,74 @@ public class RequestData {
     public void setEncodePasswords(boolean encodePasswords) {
         this.encodePasswords = encodePasswords;
     }
+
+    public Executor getSignatureVerificationExecutor() {
+        return signatureVerificationExecutor;
+    }
+
+    /**
+     * Set the Executor used to validate the References of an inbound Signature in parallel.
+     * The References are read from the DOM tree by several threads at the same time, and so
+     * this is only done for a plain Xerces Document, which allows concurrent reads once all of
+     * its nodes have been created. The References of any other Document (e.g. a SAAJ SOAPPart)
+     * are validated sequentially. Any attachment CallbackHandler must be thread-safe when this
+     * is set.
+     * @param signatureVerificationExecutor the Executor to use, or null to validate the
+     * References sequentially
+     */
+    public void setSignatureVerificationExecutor(Executor signatureVerificationExecutor) {
+        this.signatureVerificationExecutor = signatureVerificationExecutor;
+    }
+
+    public Executor getDecryptionExecutor() {
+        return decryptionExecutor;
+    }
+
+    /**
+     * Set the Executor used to decrypt the EncryptedData elements referenced by a ReferenceList
+     * in parallel. The DOM is not thread-safe, and so the tasks run on the Executor only
+     * decrypt copies of the EncryptedData elements to their plaintext octets. The message
+     * document is only read and modified by the calling thread, which parses the plaintext
+     * and replaces the EncryptedData elements once all of the tasks have completed. Attachments
+     * are decrypted sequentially on the calling thread, and so the attachment CallbackHandler 
+     * is not called concurrently.
+     * @param decryptionExecutor the Executor to use, or null to decrypt the EncryptedData 
+     * elements sequentially
+     */
+    public void setDecryptionExecutor(Executor decryptionExecutor) {
+        this.decryptionExecutor = decryptionExecutor;
+    }
+
+    public EncryptedKeyCache getEncryptedKeyCache() {
+        return encryptedKeyCache;
+    }
+
+    /**
+     * Set the cache of the symmetric keys unwrapped from EncryptedKey elements. The cache 
+     * should not be shared with a configuration that uses a different decryption Crypto.
+     * @param encryptedKeyCache the cache to use, or null to unwrap every EncryptedKey
+     */
+    public void setEncryptedKeyCache(EncryptedKeyCache encryptedKeyCache) {
+        this.encryptedKeyCache = encryptedKeyCache;
+    }
+
+    public EphemeralKeyCache getEphemeralKeyCache() {
+        return ephemeralKeyCache;
+    }
+
+    /**
+     * Set the cache of the wrapped ephemeral keys that are reused for outbound encryption.
+     * @param ephemeralKeyCache the cache to use, or null to generate a new key for every message
+     */
+    public void setEphemeralKeyCache(EphemeralKeyCache ephemeralKeyCache) {
+        this.ephemeralKeyCache = ephemeralKeyCache;
+    }
+
+    public WSDocInfo getWsDocInfo() {
+        return wsDocInfo;
+    }
+
+    public void setWsDocInfo(WSDocInfo wsDocInfo) {
+        this.wsDocInfo = wsDocInfo;
+    }
 }
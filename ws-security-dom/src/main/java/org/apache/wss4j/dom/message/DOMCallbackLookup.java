@@ -25,6 +25,7 @@ import java.util.List;
 import javax.xml.crypto.dom.DOMCryptoContext;
 
 import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
@@ -37,10 +38,22 @@ import org.w3c.dom.Element;
 public class DOMCallbackLookup implements CallbackLookup {
     
     private Document doc;
+    private WSDocInfo wsDocInfo;
     
     public DOMCallbackLookup(Document doc) {
         this.doc = doc;
     }
+    
+    /**
+     * Create a DOMCallbackLookup that uses the Id index of the given WSDocInfo to locate 
+     * elements, rather than searching the entire document for each lookup
+     * @param doc The Document to locate elements in
+     * @param wsDocInfo The WSDocInfo of the document
+     */
+    public DOMCallbackLookup(Document doc, WSDocInfo wsDocInfo) {
+        this.doc = doc;
+        this.wsDocInfo = wsDocInfo;
+    }
 
     /**
      * Get the DOM element that corresponds to the given id and ValueType reference. The Id can 
@@ -93,8 +106,13 @@ public class DOMCallbackLookup implements CallbackLookup {
             }
         }
         // Otherwise do a general search
-        Element foundElement = 
-            XMLUtils.findElementById(doc.getDocumentElement(), idToMatch, checkMultipleElements);
+        Element foundElement = null;
+        if (wsDocInfo != null) {
+            foundElement = wsDocInfo.getElementById(idToMatch, checkMultipleElements);
+        } else {
+            foundElement = 
+                XMLUtils.findElementById(doc.getDocumentElement(), idToMatch, checkMultipleElements);
+        }
         if (foundElement != null) {
             if (context != null) {
                 if (foundElement.hasAttributeNS(WSConstants.WSU_NS, "Id")
@@ -117,10 +135,14 @@ public class DOMCallbackLookup implements CallbackLookup {
             || WSConstants.WSS_SAML2_KI_VALUE_TYPE.equals(valueType)
             || "".equals(valueType)
             || valueType == null) {
-            foundElement = 
-                XMLUtils.findSAMLAssertionElementById(
-                    doc.getDocumentElement(), idToMatch
-                );
+            if (wsDocInfo != null) {
+                foundElement = wsDocInfo.getSAMLAssertionById(idToMatch);
+            } else {
+                foundElement = 
+                    XMLUtils.findSAMLAssertionElementById(
+                        doc.getDocumentElement(), idToMatch
+                    );
+            }
             if (foundElement != null) {
                 if (context != null) {
                     if (foundElement.hasAttributeNS(null, "ID")
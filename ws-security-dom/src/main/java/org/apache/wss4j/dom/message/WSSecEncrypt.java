@@ -43,13 +43,13 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.token.Reference;
 import org.apache.wss4j.common.token.SecurityTokenReference;
 import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.wss4j.common.util.CipherPool;
 import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WsuIdAllocator;
 import org.apache.wss4j.dom.message.token.KerberosSecurity;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
-import org.apache.xml.security.algorithms.JCEMapper;
 import org.apache.xml.security.encryption.EncryptedData;
 import org.apache.xml.security.encryption.XMLCipher;
 import org.apache.xml.security.encryption.XMLEncryptionException;
@@ -116,25 +116,13 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
         document = doc;
         attachmentEncryptedDataElements = new ArrayList<>();
 
-        //
-        // Set up the symmetric key
-        //
-        if (symmetricKey == null) {
-            if (getEphemeralKey() != null) {
-                symmetricKey = 
-                    KeyUtils.prepareSecretKey(getSymmetricEncAlgorithm(), getEphemeralKey());
-            } else {
-                KeyGenerator keyGen = KeyUtils.getKeyGenerator(getSymmetricEncAlgorithm());
-                symmetricKey = keyGen.generateKey();
-            }
-        }
-        
         //
         // Get the certificate that contains the public key for the public key
         // algorithm that will encrypt the generated symmetric (session) key.
         //
+        X509Certificate remoteCert = null;
         if (encryptSymmKey) {
-            X509Certificate remoteCert = getUseThisCert();
+            remoteCert = getUseThisCert();
             if (remoteCert == null) {
                 CryptoType cryptoType = null;
                 if (keyIdentifierType == WSConstants.ENDPOINT_KEY_IDENTIFIER) {
@@ -153,6 +141,22 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
                 }
                 remoteCert = certs[0];
             }
+        }
+        
+        //
+        // Set up the symmetric key
+        //
+        if (symmetricKey == null) {
+            if (getEphemeralKey() != null) {
+                symmetricKey = 
+                    KeyUtils.prepareSecretKey(getSymmetricEncAlgorithm(), getEphemeralKey());
+            } else if (remoteCert == null || !prepareCachedKey(remoteCert)) {
+                KeyGenerator keyGen = KeyUtils.getKeyGenerator(getSymmetricEncAlgorithm());
+                symmetricKey = keyGen.generateKey();
+            }
+        }
+        
+        if (encryptSymmKey) {
             prepareInternal(symmetricKey, remoteCert, crypto);
         } else {
             encryptedEphemeralKey = symmetricKey.getEncoded();
@@ -459,10 +463,9 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
                 resultAttachment.setId(attachmentId);
                 resultAttachment.setMimeType("application/octet-stream");
 
-                String jceAlgorithm = JCEMapper.translateURItoJCEID(encryptionAlgorithm);
                 Cipher cipher = null;
                 try {
-                    cipher = Cipher.getInstance(jceAlgorithm);
+                    cipher = CipherPool.getCipher(encryptionAlgorithm);
 
                     // The Spec mandates a 96-bit IV for GCM algorithms
                     if (XMLCipher.AES_128_GCM.equals(encryptionAlgorithm)
@@ -475,14 +478,19 @@ public class WSSecEncrypt extends WSSecEncryptedKey {
                         cipher.init(Cipher.ENCRYPT_MODE, secretKey);
                     }
                 } catch (Exception e) {
+                    CipherPool.returnCipher(encryptionAlgorithm, cipher);
                     throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_ENCRYPTION, e);
                 }
 
                 Map<String, String> headers = new HashMap<>(attachment.getHeaders());
+                // The Cipher is returned to the pool when the encrypted attachment has been read
                 resultAttachment.setSourceStream(
-                    AttachmentUtils.setupAttachmentEncryptionStream(
-                        cipher, "Element".equals(attachmentEncryptionPart.getEncModifier()),
-                        attachment, headers
+                    CipherPool.returnOnClose(
+                        encryptionAlgorithm, cipher,
+                        AttachmentUtils.setupAttachmentEncryptionStream(
+                            cipher, "Element".equals(attachmentEncryptionPart.getEncModifier()),
+                            attachment, headers
+                        )
                     )
                 );
                 resultAttachment.addHeaders(headers);
@@ -33,6 +33,7 @@ import javax.crypto.spec.PSource;
 
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.EphemeralKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.token.BinarySecurity;
 import org.apache.wss4j.common.token.DOMX509Data;
@@ -40,6 +41,7 @@ import org.apache.wss4j.common.token.DOMX509IssuerSerial;
 import org.apache.wss4j.common.token.Reference;
 import org.apache.wss4j.common.token.SecurityTokenReference;
 import org.apache.wss4j.common.token.X509Security;
+import org.apache.wss4j.common.util.CipherPool;
 import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
@@ -136,6 +138,13 @@ public class WSSecEncryptedKey extends WSSecBase {
     private boolean bstAddedToSecurityHeader;
     private boolean includeEncryptionToken;
     
+    /**
+     * A cache of wrapped ephemeral keys, which are reused for a number of messages
+     */
+    private EphemeralKeyCache ephemeralKeyCache;
+    private String ephemeralKeyCacheKey;
+    private boolean reuseEncryptedEphemeralKey;
+    
     public WSSecEncryptedKey() {
         super();
     }
@@ -176,19 +185,6 @@ public class WSSecEncryptedKey extends WSSecBase {
 
         document = doc;
 
-        //
-        // Set up the symmetric key
-        //
-        if (symmetricKey == null) {
-            if (ephemeralKey != null) {
-                symmetricKey = KeyUtils.prepareSecretKey(symEncAlgo, ephemeralKey);
-            } else {
-                KeyGenerator keyGen = KeyUtils.getKeyGenerator(symEncAlgo);
-                symmetricKey = keyGen.generateKey();
-                ephemeralKey = symmetricKey.getEncoded();
-            }
-        }
-        
         //
         // Get the certificate that contains the public key for the public key
         // algorithm that will encrypt the generated symmetric (session) key.
@@ -213,8 +209,48 @@ public class WSSecEncryptedKey extends WSSecBase {
             remoteCert = certs[0];
         }
         
+        //
+        // Set up the symmetric key
+        //
+        if (symmetricKey == null) {
+            if (ephemeralKey != null) {
+                symmetricKey = KeyUtils.prepareSecretKey(symEncAlgo, ephemeralKey);
+            } else if (!prepareCachedKey(remoteCert)) {
+                KeyGenerator keyGen = KeyUtils.getKeyGenerator(symEncAlgo);
+                symmetricKey = keyGen.generateKey();
+                ephemeralKey = symmetricKey.getEncoded();
+            }
+        }
+        
         prepareInternal(symmetricKey, remoteCert, crypto);
     }
+    
+    /**
+     * Set up the symmetric key from the EphemeralKeyCache, if a cache is configured and 
+     * holds a key that was wrapped for the given certificate. Otherwise, the newly generated 
+     * key is added to the cache once it is wrapped.
+     * 
+     * @param remoteCert The certificate that contains the public key to encrypt the
+     *                   symmetric key data
+     * @return whether the symmetric key was taken from the cache
+     * @throws WSSecurityException
+     */
+    protected boolean prepareCachedKey(X509Certificate remoteCert) throws WSSecurityException {
+        if (ephemeralKeyCache == null) {
+            return false;
+        }
+        ephemeralKeyCacheKey = 
+            EphemeralKeyCache.createKey(remoteCert, keyEncAlgo, digestAlgo, mgfAlgo, null, symEncAlgo);
+        EphemeralKeyCache.WrappedKey wrappedKey = ephemeralKeyCache.get(ephemeralKeyCacheKey);
+        if (wrappedKey == null) {
+            return false;
+        }
+        ephemeralKey = wrappedKey.getEphemeralKey();
+        symmetricKey = KeyUtils.prepareSecretKey(symEncAlgo, ephemeralKey);
+        encryptedEphemeralKey = wrappedKey.getEncryptedEphemeralKey();
+        reuseEncryptedEphemeralKey = true;
+        return true;
+    }
 
     /**
      * Encrypt the symmetric key data and prepare the EncryptedKey element
@@ -233,57 +269,13 @@ public class WSSecEncryptedKey extends WSSecBase {
         X509Certificate remoteCert,
         Crypto crypto
     ) throws WSSecurityException {
-        Cipher cipher = KeyUtils.getCipherInstance(keyEncAlgo);
-        try {
-            OAEPParameterSpec oaepParameterSpec = null;
-            if (WSConstants.KEYTRANSPORT_RSAOEP.equals(keyEncAlgo)
-                    || WSConstants.KEYTRANSPORT_RSAOEP_XENC11.equals(keyEncAlgo)) {
-                String jceDigestAlgorithm = "SHA-1";
-                if (digestAlgo != null) {
-                    jceDigestAlgorithm = JCEMapper.translateURItoJCEID(digestAlgo);
-                }
-
-                MGF1ParameterSpec mgf1ParameterSpec = new MGF1ParameterSpec("SHA-1");
-                if (mgfAlgo != null) {
-                    if (WSConstants.MGF_SHA224.equals(mgfAlgo)) {
-                        mgf1ParameterSpec = new MGF1ParameterSpec("SHA-224");
-                    } if (WSConstants.MGF_SHA256.equals(mgfAlgo)) {
-                        mgf1ParameterSpec = new MGF1ParameterSpec("SHA-256");
-                    } else if (WSConstants.MGF_SHA384.equals(mgfAlgo)) {
-                        mgf1ParameterSpec = new MGF1ParameterSpec("SHA-384");
-                    } else if (WSConstants.MGF_SHA512.equals(mgfAlgo)) {
-                        mgf1ParameterSpec = new MGF1ParameterSpec("SHA-512");
-                    }
-                }
-                
-                oaepParameterSpec = 
-                    new OAEPParameterSpec(
-                        jceDigestAlgorithm, "MGF1", mgf1ParameterSpec, PSource.PSpecified.DEFAULT
-                    );
-            }
-            if (oaepParameterSpec == null) {
-                cipher.init(Cipher.WRAP_MODE, remoteCert);
-            } else {
-                cipher.init(Cipher.WRAP_MODE, remoteCert.getPublicKey(), oaepParameterSpec);
+        if (!reuseEncryptedEphemeralKey) {
+            encryptedEphemeralKey = wrapKey(secretKey, remoteCert);
+            if (ephemeralKeyCacheKey != null) {
+                ephemeralKeyCache.put(
+                    ephemeralKeyCacheKey, secretKey.getEncoded(), encryptedEphemeralKey
+                );
             }
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILED_ENCRYPTION, e
-            );
-        }
-        int blockSize = cipher.getBlockSize();
-        if (doDebug) {
-            LOG.debug(
-                "cipher blksize: " + blockSize + ", symm key: " + secretKey.toString()
-            );
-        }
-        
-        try {
-            encryptedEphemeralKey = cipher.wrap(secretKey);
-        } catch (IllegalStateException | IllegalBlockSizeException | InvalidKeyException ex) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILED_ENCRYPTION, ex
-            );
         }
         Text keyText = 
             WSSecurityUtil.createBase64EncodedTextNode(document, encryptedEphemeralKey);
@@ -431,6 +423,70 @@ public class WSSecEncryptedKey extends WSSecBase {
         bstToken.setID(IDGenerator.generateID(null));
     }
 
+    /**
+     * Wrap the symmetric key with the public key of the given certificate
+     */
+    private byte[] wrapKey(SecretKey secretKey, X509Certificate remoteCert) throws WSSecurityException {
+        Cipher cipher = CipherPool.getCipher(keyEncAlgo);
+        try {
+            try {
+                OAEPParameterSpec oaepParameterSpec = null;
+                if (WSConstants.KEYTRANSPORT_RSAOEP.equals(keyEncAlgo)
+                        || WSConstants.KEYTRANSPORT_RSAOEP_XENC11.equals(keyEncAlgo)) {
+                    String jceDigestAlgorithm = "SHA-1";
+                    if (digestAlgo != null) {
+                        jceDigestAlgorithm = JCEMapper.translateURItoJCEID(digestAlgo);
+                    }
+
+                    MGF1ParameterSpec mgf1ParameterSpec = new MGF1ParameterSpec("SHA-1");
+                    if (mgfAlgo != null) {
+                        if (WSConstants.MGF_SHA224.equals(mgfAlgo)) {
+                            mgf1ParameterSpec = new MGF1ParameterSpec("SHA-224");
+                        } if (WSConstants.MGF_SHA256.equals(mgfAlgo)) {
+                            mgf1ParameterSpec = new MGF1ParameterSpec("SHA-256");
+                        } else if (WSConstants.MGF_SHA384.equals(mgfAlgo)) {
+                            mgf1ParameterSpec = new MGF1ParameterSpec("SHA-384");
+                        } else if (WSConstants.MGF_SHA512.equals(mgfAlgo)) {
+                            mgf1ParameterSpec = new MGF1ParameterSpec("SHA-512");
+                        }
+                    }
+                    
+                    oaepParameterSpec = 
+                        new OAEPParameterSpec(
+                            jceDigestAlgorithm, "MGF1", mgf1ParameterSpec, PSource.PSpecified.DEFAULT
+                        );
+                }
+                if (oaepParameterSpec == null) {
+                    cipher.init(Cipher.WRAP_MODE, remoteCert);
+                } else {
+                    cipher.init(Cipher.WRAP_MODE, remoteCert.getPublicKey(), oaepParameterSpec);
+                }
+            } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.FAILED_ENCRYPTION, e
+                );
+            }
+            int blockSize = cipher.getBlockSize();
+            if (doDebug) {
+                LOG.debug(
+                    "cipher blksize: " + blockSize + ", symm key: " + secretKey.toString()
+                );
+            }
+            
+            byte[] wrappedKey = null;
+            try {
+                wrappedKey = cipher.wrap(secretKey);
+            } catch (IllegalStateException | IllegalBlockSizeException | InvalidKeyException ex) {
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.FAILED_ENCRYPTION, ex
+                );
+            }
+            return wrappedKey;
+        } finally {
+            CipherPool.returnCipher(keyEncAlgo, cipher);
+        }
+    }
+
     /**
      * Create DOM subtree for <code>xenc:EncryptedKey</code>
      * 
@@ -743,5 +799,20 @@ public class WSSecEncryptedKey extends WSSecBase {
         this.includeEncryptionToken = includeEncryptionToken;
     }
 
+    public EphemeralKeyCache getEphemeralKeyCache() {
+        return ephemeralKeyCache;
+    }
+
+    /**
+     * Set a cache of wrapped ephemeral keys. If it is set (and no symmetric key or ephemeral
+     * key is configured), then a key that was wrapped for the recipient certificate before is
+     * reused, and so the same EncryptedKey is sent for a number of messages.
+     * 
+     * @param ephemeralKeyCache the cache of wrapped ephemeral keys
+     */
+    public void setEphemeralKeyCache(EphemeralKeyCache ephemeralKeyCache) {
+        this.ephemeralKeyCache = ephemeralKeyCache;
+    }
+
 
 }
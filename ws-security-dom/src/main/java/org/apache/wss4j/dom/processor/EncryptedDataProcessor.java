@@ -149,7 +149,7 @@ public class EncryptedDataProcessor implements Processor {
         }
 
         WSDataRef dataRef = EncryptionUtils.decryptEncryptedData(
-                elem.getOwnerDocument(), encryptedDataId, elem, key, symEncAlgo, request);
+                elem.getOwnerDocument(), encryptedDataId, elem, key, symEncAlgo, request, wsDocInfo);
 
         WSSecurityEngineResult result =
                 new WSSecurityEngineResult(WSConstants.ENCR, Collections.singletonList(dataRef));
@@ -26,7 +26,6 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 import java.security.spec.MGF1ParameterSpec;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -45,9 +44,11 @@ import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.AlgorithmSuiteValidator;
 import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.EncryptedKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.token.DOMX509IssuerSerial;
 import org.apache.wss4j.common.token.SecurityTokenReference;
+import org.apache.wss4j.common.util.CipherPool;
 import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
@@ -59,6 +60,7 @@ import org.apache.wss4j.dom.str.EncryptedKeySTRParser;
 import org.apache.wss4j.dom.str.STRParser;
 import org.apache.wss4j.dom.str.STRParserParameters;
 import org.apache.wss4j.dom.str.STRParserResult;
+import org.apache.wss4j.dom.util.EncryptedDataDecryptor;
 import org.apache.wss4j.dom.util.EncryptionUtils;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
 import org.apache.wss4j.dom.util.X509Util;
@@ -128,7 +130,6 @@ public class EncryptedKeyProcessor implements Processor {
         // Check BSP Compliance
         checkBSPCompliance(elem, encryptedKeyTransportMethod, data.getBSPEnforcer());
         
-        Cipher cipher = KeyUtils.getCipherInstance(encryptedKeyTransportMethod);
         //
         // Now lookup CipherValue.
         //
@@ -183,73 +184,103 @@ public class EncryptedKeyProcessor implements Processor {
             );
         }
         
-        try {
-            PrivateKey privateKey = data.getDecCrypto().getPrivateKey(certs[0], data.getCallbackHandler());
-            OAEPParameterSpec oaepParameterSpec = null;
-            if (WSConstants.KEYTRANSPORT_RSAOEP.equals(encryptedKeyTransportMethod)
-                    || WSConstants.KEYTRANSPORT_RSAOEP_XENC11.equals(encryptedKeyTransportMethod)) {
-                // Get the DigestMethod if it exists
-                String digestAlgorithm = getDigestAlgorithm(elem);
-                String jceDigestAlgorithm = "SHA-1";
-                if (digestAlgorithm != null && !"".equals(digestAlgorithm)) {
-                    jceDigestAlgorithm = JCEMapper.translateURItoJCEID(digestAlgorithm);
-                }
-
-                String mgfAlgorithm = getMGFAlgorithm(elem);
-                MGF1ParameterSpec mgfParameterSpec = new MGF1ParameterSpec("SHA-1");
-                if (mgfAlgorithm != null) {
-                    if (WSConstants.MGF_SHA224.equals(mgfAlgorithm)) {
-                        mgfParameterSpec = new MGF1ParameterSpec("SHA-224");
-                    } else if (WSConstants.MGF_SHA256.equals(mgfAlgorithm)) {
-                        mgfParameterSpec = new MGF1ParameterSpec("SHA-256");
-                    } else if (WSConstants.MGF_SHA384.equals(mgfAlgorithm)) {
-                        mgfParameterSpec = new MGF1ParameterSpec("SHA-384");
-                    } else if (WSConstants.MGF_SHA512.equals(mgfAlgorithm)) {
-                        mgfParameterSpec = new MGF1ParameterSpec("SHA-512");
-                    }
-                }
-
-                PSource.PSpecified pSource = PSource.PSpecified.DEFAULT;
-                byte[] pSourceBytes = getPSource(elem);
-                if (pSourceBytes != null) {
-                    pSource = new PSource.PSpecified(pSourceBytes);
-                }
-                
-                oaepParameterSpec = 
-                    new OAEPParameterSpec(
-                        jceDigestAlgorithm, "MGF1", mgfParameterSpec, pSource
-                    );
-            }
-            if (oaepParameterSpec == null) {
-                cipher.init(Cipher.UNWRAP_MODE, privateKey);
-            } else {
-                cipher.init(Cipher.UNWRAP_MODE, privateKey, oaepParameterSpec);
-            }
-        } catch (Exception ex) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
-        }
-        
         Element refList = 
             XMLUtils.getDirectChildElement(elem, "ReferenceList", WSConstants.ENC_NS);
         
         byte[] encryptedEphemeralKey = null;
         byte[] decryptedBytes = null;
         
-        try {
-            // Get the key bytes from CipherValue directly or via an attachment
-            String xopUri = EncryptionUtils.getXOPURIFromCipherValue(xencCipherValue);
-            if (xopUri != null && xopUri.startsWith("cid:")) {
-                encryptedEphemeralKey = WSSecurityUtil.getBytesFromAttachment(xopUri, data);
-            } else {
-                encryptedEphemeralKey = getDecodedBase64EncodedData(xencCipherValue);
+        // See if the key has been unwrapped before
+        EncryptedKeyCache encryptedKeyCache = data.getEncryptedKeyCache();
+        String cacheKey = null;
+        if (encryptedKeyCache != null) {
+            try {
+                encryptedEphemeralKey = getEncryptedEphemeralKey(xencCipherValue, data);
+                cacheKey = 
+                    EncryptedKeyCache.createKey(
+                        certs[0], encryptedKeyTransportMethod, getDigestAlgorithm(elem),
+                        getMGFAlgorithm(elem), getPSource(elem), encryptedEphemeralKey
+                    );
+                decryptedBytes = encryptedKeyCache.get(cacheKey);
+            } catch (WSSecurityException ex) {
+                // The key is unwrapped (and the error dealt with) as usual
+                LOG.debug(ex.getMessage(), ex);
+                encryptedEphemeralKey = null;
+                cacheKey = null;
+            }
+        }
+        
+        if (decryptedBytes == null) {
+            // The Cipher is only needed if the key has not been unwrapped before
+            Cipher cipher = CipherPool.getCipher(encryptedKeyTransportMethod);
+            try {
+                try {
+                    PrivateKey privateKey = 
+                        data.getDecCrypto().getPrivateKey(certs[0], data.getCallbackHandler());
+                    OAEPParameterSpec oaepParameterSpec = null;
+                    if (WSConstants.KEYTRANSPORT_RSAOEP.equals(encryptedKeyTransportMethod)
+                            || WSConstants.KEYTRANSPORT_RSAOEP_XENC11.equals(encryptedKeyTransportMethod)) {
+                        // Get the DigestMethod if it exists
+                        String digestAlgorithm = getDigestAlgorithm(elem);
+                        String jceDigestAlgorithm = "SHA-1";
+                        if (digestAlgorithm != null && !"".equals(digestAlgorithm)) {
+                            jceDigestAlgorithm = JCEMapper.translateURItoJCEID(digestAlgorithm);
+                        }
+
+                        String mgfAlgorithm = getMGFAlgorithm(elem);
+                        MGF1ParameterSpec mgfParameterSpec = new MGF1ParameterSpec("SHA-1");
+                        if (mgfAlgorithm != null) {
+                            if (WSConstants.MGF_SHA224.equals(mgfAlgorithm)) {
+                                mgfParameterSpec = new MGF1ParameterSpec("SHA-224");
+                            } else if (WSConstants.MGF_SHA256.equals(mgfAlgorithm)) {
+                                mgfParameterSpec = new MGF1ParameterSpec("SHA-256");
+                            } else if (WSConstants.MGF_SHA384.equals(mgfAlgorithm)) {
+                                mgfParameterSpec = new MGF1ParameterSpec("SHA-384");
+                            } else if (WSConstants.MGF_SHA512.equals(mgfAlgorithm)) {
+                                mgfParameterSpec = new MGF1ParameterSpec("SHA-512");
+                            }
+                        }
+
+                        PSource.PSpecified pSource = PSource.PSpecified.DEFAULT;
+                        byte[] pSourceBytes = getPSource(elem);
+                        if (pSourceBytes != null) {
+                            pSource = new PSource.PSpecified(pSourceBytes);
+                        }
+                    
+                        oaepParameterSpec = 
+                            new OAEPParameterSpec(
+                                jceDigestAlgorithm, "MGF1", mgfParameterSpec, pSource
+                            );
+                    }
+                    if (oaepParameterSpec == null) {
+                        cipher.init(Cipher.UNWRAP_MODE, privateKey);
+                    } else {
+                        cipher.init(Cipher.UNWRAP_MODE, privateKey, oaepParameterSpec);
+                    }
+                } catch (Exception ex) {
+                    throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+                }
+                
+                try {
+                    // Get the key bytes from CipherValue directly or via an attachment
+                    if (encryptedEphemeralKey == null) {
+                        encryptedEphemeralKey = getEncryptedEphemeralKey(xencCipherValue, data);
+                    }
+                
+                    String keyAlgorithm = JCEMapper.translateURItoJCEID(encryptedKeyTransportMethod);
+                    decryptedBytes = 
+                        cipher.unwrap(encryptedEphemeralKey, keyAlgorithm, Cipher.SECRET_KEY).getEncoded();
+                    if (cacheKey != null) {
+                        encryptedKeyCache.put(cacheKey, decryptedBytes);
+                    }
+                } catch (IllegalStateException ex) {
+                    throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+                } catch (Exception ex) {
+                    decryptedBytes = getRandomKey(refList, wsDocInfo);
+                }
+            } finally {
+                CipherPool.returnCipher(encryptedKeyTransportMethod, cipher);
             }
-            
-            String keyAlgorithm = JCEMapper.translateURItoJCEID(encryptedKeyTransportMethod);
-            decryptedBytes = cipher.unwrap(encryptedEphemeralKey, keyAlgorithm, Cipher.SECRET_KEY).getEncoded();
-        } catch (IllegalStateException ex) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
-        } catch (Exception ex) {
-            decryptedBytes = getRandomKey(refList, wsDocInfo);
         }
 
         List<WSDataRef> dataRefs = decryptDataRefs(refList, wsDocInfo, decryptedBytes, data);
@@ -325,6 +356,19 @@ public class EncryptedKeyProcessor implements Processor {
         return null;
     }
     
+    /**
+     * Get the encrypted key bytes from the CipherValue directly or via an attachment
+     */
+    private static byte[] getEncryptedEphemeralKey(
+        Element xencCipherValue, RequestData data
+    ) throws WSSecurityException {
+        String xopUri = EncryptionUtils.getXOPURIFromCipherValue(xencCipherValue);
+        if (xopUri != null && xopUri.startsWith("cid:")) {
+            return WSSecurityUtil.getBytesFromAttachment(xopUri, data);
+        }
+        return getDecodedBase64EncodedData(xencCipherValue);
+    }
+    
     /**
      * Method getDecodedBase64EncodedData
      *
@@ -489,7 +533,8 @@ public class EncryptedKeyProcessor implements Processor {
             return null;
         }
         
-        List<WSDataRef> dataRefs = new ArrayList<>();
+        Document doc = refList.getOwnerDocument();
+        EncryptedDataDecryptor decryptor = new EncryptedDataDecryptor(doc, data, docInfo);
         for (Node node = refList.getFirstChild(); node != null; node = node.getNextSibling()) {
             if (Node.ELEMENT_NODE == node.getNodeType()
                     && WSConstants.ENC_NS.equals(node.getNamespaceURI())
@@ -497,24 +542,32 @@ public class EncryptedKeyProcessor implements Processor {
                 String dataRefURI = ((Element) node).getAttributeNS(null, "URI");
                 dataRefURI = XMLUtils.getIDFromReference(dataRefURI);
                 
-                WSDataRef dataRef = 
-                    decryptDataRef(refList.getOwnerDocument(), dataRefURI, docInfo, decryptedBytes, data);
-                dataRefs.add(dataRef);
+                try {
+                    decryptDataRef(doc, dataRefURI, docInfo, decryptedBytes, data, decryptor);
+                } catch (WSSecurityException ex) {
+                    // The EncryptedData element might only be available once the 
+                    // outstanding EncryptedData elements have been decrypted
+                    if (!decryptor.flush()) {
+                        throw ex;
+                    }
+                    decryptDataRef(doc, dataRefURI, docInfo, decryptedBytes, data, decryptor);
+                }
             }
         }
         
-        return dataRefs;
+        return decryptor.decrypt();
     }
 
     /**
      * Decrypt an EncryptedData element referenced by dataRefURI
      */
-    private WSDataRef decryptDataRef(
+    private void decryptDataRef(
         Document doc, 
         String dataRefURI, 
         WSDocInfo docInfo,
         byte[] decryptedData,
-        RequestData data
+        RequestData data,
+        EncryptedDataDecryptor decryptor
     ) throws WSSecurityException {
         if (LOG.isDebugEnabled()) {
             LOG.debug("found data reference: " + dataRefURI);
@@ -566,9 +619,7 @@ public class EncryptedKeyProcessor implements Processor {
             algorithmSuiteValidator.checkSymmetricEncryptionAlgorithm(symEncAlgo);
         }
 
-        return EncryptionUtils.decryptEncryptedData(
-            doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data
-        );
+        decryptor.add(dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo);
     }
     
     /**
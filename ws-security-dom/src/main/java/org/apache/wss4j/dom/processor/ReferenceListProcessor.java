@@ -20,7 +20,6 @@
 package org.apache.wss4j.dom.processor;
 
 import java.security.Principal;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -48,6 +47,7 @@ import org.apache.wss4j.dom.str.STRParser;
 import org.apache.wss4j.dom.str.STRParserParameters;
 import org.apache.wss4j.dom.str.STRParserResult;
 import org.apache.wss4j.dom.str.SecurityTokenRefSTRParser;
+import org.apache.wss4j.dom.util.EncryptedDataDecryptor;
 import org.apache.wss4j.dom.util.EncryptionUtils;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
 import org.apache.wss4j.dom.util.X509Util;
@@ -87,7 +87,8 @@ public class ReferenceListProcessor implements Processor {
         RequestData data,
         WSDocInfo wsDocInfo
     ) throws WSSecurityException {
-        List<WSDataRef> dataRefs = new ArrayList<>();
+        Document doc = elem.getOwnerDocument();
+        EncryptedDataDecryptor decryptor = new EncryptedDataDecryptor(doc, data, wsDocInfo);
         for (Node node = elem.getFirstChild(); 
             node != null; 
             node = node.getNextSibling()
@@ -100,26 +101,33 @@ public class ReferenceListProcessor implements Processor {
                 
                 // See whether we have already processed the encrypted node 
                 if (!wsDocInfo.hasResult(WSConstants.ENCR, dataRefURI)) {
-                    WSDataRef dataRef = 
-                        decryptDataRefEmbedded(
-                            elem.getOwnerDocument(), dataRefURI, data, wsDocInfo);
-                    dataRefs.add(dataRef);
+                    try {
+                        decryptDataRefEmbedded(doc, dataRefURI, data, wsDocInfo, decryptor);
+                    } catch (WSSecurityException ex) {
+                        // The EncryptedData element (or its key) might only be available
+                        // once the outstanding EncryptedData elements have been decrypted
+                        if (!decryptor.flush()) {
+                            throw ex;
+                        }
+                        decryptDataRefEmbedded(doc, dataRefURI, data, wsDocInfo, decryptor);
+                    }
                 }
             }
         }
         
-        return dataRefs;
+        return decryptor.decrypt();
     }
 
     
     /**
      * Decrypt an (embedded) EncryptedData element referenced by dataRefURI.
      */
-    private WSDataRef decryptDataRefEmbedded(
+    private void decryptDataRefEmbedded(
         Document doc, 
         String dataRefURI, 
         RequestData data,
-        WSDocInfo wsDocInfo
+        WSDocInfo wsDocInfo,
+        EncryptedDataDecryptor decryptor
     ) throws WSSecurityException {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Found data reference: " + dataRefURI);
@@ -197,10 +205,7 @@ public class ReferenceListProcessor implements Processor {
             algorithmSuiteValidator.checkSymmetricEncryptionAlgorithm(symEncAlgo);
         }
 
-        return 
-            EncryptionUtils.decryptEncryptedData(
-                doc, dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo, data
-            );
+        decryptor.add(dataRefURI, encryptedDataElement, symmetricKey, symEncAlgo);
     }
     
     /**
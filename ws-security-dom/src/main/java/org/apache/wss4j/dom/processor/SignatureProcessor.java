@@ -28,9 +28,19 @@ import java.security.spec.AlgorithmParameterSpec;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.crypto.Data;
 import javax.xml.crypto.MarshalException;
@@ -44,6 +54,7 @@ import javax.xml.crypto.dsig.SignedInfo;
 import javax.xml.crypto.dsig.Transform;
 import javax.xml.crypto.dsig.XMLObject;
 import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureException;
 import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.XMLValidateContext;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
@@ -56,6 +67,7 @@ import javax.xml.crypto.dsig.spec.HMACParameterSpec;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheUtils;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.AlgorithmSuiteValidator;
 import org.apache.wss4j.common.crypto.Crypto;
@@ -85,6 +97,7 @@ import org.apache.wss4j.dom.transform.AttachmentContentSignatureTransform;
 import org.apache.wss4j.dom.transform.STRTransform;
 import org.apache.wss4j.dom.transform.STRTransformUtil;
 import org.apache.wss4j.dom.util.EncryptionUtils;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
 import org.apache.wss4j.dom.util.XmlSchemaDateFormat;
 import org.apache.wss4j.dom.validate.Credential;
 import org.apache.wss4j.dom.validate.Validator;
@@ -96,6 +109,43 @@ public class SignatureProcessor implements Processor {
     private static final org.slf4j.Logger LOG = 
         org.slf4j.LoggerFactory.getLogger(SignatureProcessor.class);
     
+    /**
+     * The Transform algorithms that only read from the DOM tree (or from an attachment), and
+     * so can be applied to different References of a Signature at the same time.
+     */
+    private static final Set<String> PARALLEL_SAFE_TRANSFORMS;
+    
+    static {
+        Set<String> transforms = new HashSet<>();
+        transforms.add(WSConstants.C14N_OMIT_COMMENTS);
+        transforms.add(WSConstants.C14N_WITH_COMMENTS);
+        transforms.add(WSConstants.C14N_EXCL_OMIT_COMMENTS);
+        transforms.add(WSConstants.C14N_EXCL_WITH_COMMENTS);
+        transforms.add("http://www.w3.org/2006/12/xml-c14n11");
+        transforms.add("http://www.w3.org/2006/12/xml-c14n11#WithComments");
+        transforms.add(WSConstants.SWA_ATTACHMENT_CONTENT_SIG_TRANS);
+        transforms.add(WSConstants.SWA_ATTACHMENT_COMPLETE_SIG_TRANS);
+        PARALLEL_SAFE_TRANSFORMS = Collections.unmodifiableSet(transforms);
+    }
+    
+    /**
+     * The (plain Xerces) Document implementations that can be read by more than one thread at
+     * the same time, once all of their nodes have been created. Other implementations, e.g. a
+     * SAAJ SOAPPart, might modify their internal state when they are read.
+     */
+    private static final Set<String> CONCURRENT_READ_DOCUMENTS;
+    
+    static {
+        Set<String> documents = new HashSet<>();
+        for (String xercesPackage 
+            : new String[] {"org.apache.xerces.dom.", "com.sun.org.apache.xerces.internal.dom."}) {
+            documents.add(xercesPackage + "CoreDocumentImpl");
+            documents.add(xercesPackage + "DocumentImpl");
+            documents.add(xercesPackage + "DeferredDocumentImpl");
+        }
+        CONCURRENT_READ_DOCUMENTS = Collections.unmodifiableSet(documents);
+    }
+    
     private XMLSignatureFactory signatureFactory;
     
     public SignatureProcessor() {
@@ -263,7 +313,7 @@ public class SignatureProcessor implements Processor {
         }
         wsDocInfo.addResult(result);
         wsDocInfo.addTokenElement(elem);
-        return java.util.Collections.singletonList(result);
+        return Collections.singletonList(result);
     }
     
     /**
@@ -394,13 +444,7 @@ public class SignatureProcessor implements Processor {
         }
         
         XMLValidateContext context = new DOMValidateContext(key, elem);
-        context.setProperty("javax.xml.crypto.dsig.cacheReference", Boolean.TRUE);
-        context.setProperty("org.apache.jcp.xml.dsig.secureValidation", Boolean.TRUE);
-        context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.TRUE);
-        context.setProperty(STRTransform.TRANSFORM_WS_DOC_INFO, wsDocInfo);
-        
-        context.setProperty(AttachmentContentSignatureTransform.ATTACHMENT_CALLBACKHANDLER, 
-                            data.getAttachmentCallbackHandler());
+        setContextProperties(context, data, wsDocInfo);
         
         try {
             XMLSignature xmlSignature = signatureFactory.unmarshalXMLSignature(context);
@@ -418,7 +462,15 @@ public class SignatureProcessor implements Processor {
             testMessageReplay(elem, xmlSignature.getSignatureValue().getValue(), key, data, wsDocInfo);
             
             setElementsOnContext(xmlSignature, (DOMValidateContext)context, wsDocInfo);
-            boolean signatureOk = xmlSignature.validate(context);
+            
+            // Validate the References in parallel if an Executor is configured. The results
+            // are cached by the References, so that they are not digested again below.
+            boolean signatureOk = false;
+            Executor executor = data.getSignatureVerificationExecutor();
+            if (executor == null
+                || validateReferencesInParallel(xmlSignature, context, executor, elem, data, wsDocInfo)) {
+                signatureOk = xmlSignature.validate(context);
+            }
             if (signatureOk) {
                 return xmlSignature;
             }
@@ -452,6 +504,170 @@ public class SignatureProcessor implements Processor {
         throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK);
     }
     
+    /**
+     * Set the properties that are used to validate a Signature on the given context
+     */
+    private static void setContextProperties(
+        XMLValidateContext context, RequestData data, WSDocInfo wsDocInfo
+    ) {
+        context.setProperty("javax.xml.crypto.dsig.cacheReference", Boolean.TRUE);
+        context.setProperty("org.apache.jcp.xml.dsig.secureValidation", Boolean.TRUE);
+        context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.TRUE);
+        context.setProperty(STRTransform.TRANSFORM_WS_DOC_INFO, wsDocInfo);
+        
+        context.setProperty(AttachmentContentSignatureTransform.ATTACHMENT_CALLBACKHANDLER, 
+                            data.getAttachmentCallbackHandler());
+    }
+    
+    /**
+     * Validate the SignatureValue and References of the given XMLSignature, digesting the
+     * References that can safely be processed concurrently on the given Executor. These are
+     * the same-document (or attachment) References that only use Transforms that read from
+     * the DOM tree, and only if the Document is a plain Xerces Document, which can be read
+     * by several threads at the same time. All other References, and the SignatureValue, are
+     * validated on the calling thread in the meantime. Validation stops at the first failure.
+     * 
+     * Each of the References that are digested on the Executor gets its own ValidateContext,
+     * which only knows the element that the Reference points to.
+     * @param xmlSignature the XMLSignature object to validate
+     * @param context the ValidateContext
+     * @param executor the Executor to use to digest the References
+     * @param elem the Signature element
+     * @param data the RequestData
+     * @param wsDocInfo the WSDocInfo object where tokens are stored
+     * @return false if the SignatureValue or a Reference failed to validate
+     * @throws XMLSignatureException
+     * @throws WSSecurityException
+     */
+    private boolean validateReferencesInParallel(
+        XMLSignature xmlSignature, 
+        XMLValidateContext context,
+        Executor executor,
+        Element elem,
+        RequestData data,
+        WSDocInfo wsDocInfo
+    ) throws XMLSignatureException, WSSecurityException {
+        Document doc = elem.getOwnerDocument();
+        if (!CONCURRENT_READ_DOCUMENTS.contains(doc.getClass().getName())) {
+            LOG.debug("Validating the References sequentially, as the Document is not thread-safe");
+            return true;
+        }
+        
+        List<Reference> parallelReferences = new ArrayList<>();
+        List<XMLValidateContext> parallelContexts = new ArrayList<>();
+        List<Reference> references = new ArrayList<>();
+        for (Object reference : xmlSignature.getSignedInfo().getReferences()) {
+            XMLValidateContext referenceContext = 
+                createReferenceContext((Reference)reference, (DOMValidateContext)context, doc);
+            if (referenceContext == null) {
+                references.add((Reference)reference);
+            } else {
+                setContextProperties(referenceContext, data, wsDocInfo);
+                parallelReferences.add((Reference)reference);
+                parallelContexts.add(referenceContext);
+            }
+        }
+        if (parallelReferences.size() < 2) {
+            // Nothing to be gained
+            return true;
+        }
+        
+        // A parser might create the nodes of the tree lazily, which is not thread-safe
+        WSSecurityUtil.expandNodes(doc);
+        
+        final AtomicBoolean failed = new AtomicBoolean();
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+        int submitted = 0;
+        for (int i = 0; i < parallelReferences.size(); i++) {
+            final Reference reference = parallelReferences.get(i);
+            final XMLValidateContext referenceContext = parallelContexts.get(i);
+            try {
+                completionService.submit(new Callable<Boolean>() {
+                    public Boolean call() throws XMLSignatureException {
+                        // Skip the work if another Reference has already failed
+                        return failed.get() || reference.validate(referenceContext);
+                    }
+                });
+                submitted++;
+            } catch (RejectedExecutionException ex) {
+                LOG.debug("Validating Reference " + reference.getURI() + " on the calling thread");
+                references.add(reference);
+            }
+        }
+        
+        try {
+            boolean valid = xmlSignature.getSignatureValue().validate(context);
+            for (int i = 0; valid && i < references.size(); i++) {
+                valid = references.get(i).validate(context);
+            }
+            while (valid && submitted > 0) {
+                submitted--;
+                valid = completionService.take().get();
+            }
+            return valid;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof XMLSignatureException) {
+                throw (XMLSignatureException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw (Error)cause;
+        } finally {
+            // Wait for the outstanding tasks, so that nothing reads from the DOM tree after
+            // this method has returned
+            failed.set(true);
+            waitForTasks(completionService, submitted);
+        }
+    }
+    
+    /**
+     * Create the ValidateContext to digest the given Reference on another thread, or return
+     * null if the Reference can't safely be digested concurrently with the other References
+     */
+    private static XMLValidateContext createReferenceContext(
+        Reference reference, DOMValidateContext context, Document doc
+    ) {
+        String uri = reference.getURI();
+        if (uri == null || uri.startsWith("#xpointer(")) {
+            return null;
+        }
+        for (Object transform : reference.getTransforms()) {
+            if (!PARALLEL_SAFE_TRANSFORMS.contains(((Transform)transform).getAlgorithm())) {
+                return null;
+            }
+        }
+        Element element = null;
+        if (uri.length() > 1 && uri.charAt(0) == '#') {
+            element = context.getElementById(uri.substring(1));
+            if (element == null || element.getOwnerDocument() != doc) {
+                return null;
+            }
+        } else if (!uri.startsWith("cid:")) {
+            return null;
+        }
+        return new ReferenceValidateContext(context, uri, element);
+    }
+    
+    private static void waitForTasks(CompletionService<Boolean> completionService, int count) {
+        boolean interrupted = false;
+        int remaining = count;
+        while (remaining > 0) {
+            try {
+                completionService.take();
+                remaining--;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
     /**
      * Retrieve the Reference elements and set them on the ValidateContext
      * @param xmlSignature the XMLSignature object to get the references from
@@ -707,22 +923,26 @@ public class SignatureProcessor implements Processor {
         String identifier = zulu.format(created) + "" + Arrays.hashCode(signatureValue)
             + "" + Arrays.hashCode(key.getEncoded());
 
-        if (replayCache.contains(identifier)) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.INVALID_SECURITY,
-                "invalidTimestamp",
-                new Object[] {"A replay attack has been detected"});
-        }
-
-        // Store the Timestamp/SignatureValue/Key combination in the cache
+        // Store the Timestamp/SignatureValue/Key combination in the cache, unless it is
+        // already there
+        boolean added;
         Date expires = timeStamp.getExpires();
         if (expires != null) {
             Date rightNow = new Date();
             long currentTime = rightNow.getTime();
             long expiresTime = expires.getTime();
-            replayCache.add(identifier, 1L + (expiresTime - currentTime) / 1000L);
+            added = ReplayCacheUtils.addIfAbsent(
+                replayCache, identifier, 1L + (expiresTime - currentTime) / 1000L
+            );
         } else {
-            replayCache.add(identifier);
+            added = ReplayCacheUtils.addIfAbsent(replayCache, identifier);
+        }
+        
+        if (!added) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.INVALID_SECURITY,
+                "invalidTimestamp",
+                new Object[] {"A replay attack has been detected"});
         }
         
     }
@@ -803,4 +1023,27 @@ public class SignatureProcessor implements Processor {
         }
     }
 
+    /**
+     * A ValidateContext for a single same-document or attachment Reference, which only knows
+     * the element that the Reference points to. It is not shared with any other thread.
+     */
+    private static final class ReferenceValidateContext extends DOMValidateContext {
+        private final String id;
+        private final Element element;
+        
+        ReferenceValidateContext(DOMValidateContext context, String uri, Element element) {
+            super(context.getKeySelector(), context.getNode());
+            this.id = element == null ? null : uri.substring(1);
+            this.element = element;
+        }
+        
+        @Override
+        public Element getElementById(String idValue) {
+            if (id != null && id.equals(idValue)) {
+                return element;
+            }
+            return null;
+        }
+    }
+    
 }
@@ -27,6 +27,7 @@ import org.apache.wss4j.common.principal.SAMLTokenPrincipalImpl;
 import org.apache.wss4j.common.principal.WSUsernameTokenPrincipalImpl;
 import org.w3c.dom.Element;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheUtils;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDocInfo;
@@ -142,22 +143,23 @@ public class UsernameTokenProcessor implements Processor {
         // Test for replay attacks
         ReplayCache replayCache = data.getNonceReplayCache();
         if (replayCache != null && ut.getNonce() != null) {
-            if (replayCache.contains(ut.getNonce())) {
-                throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.INVALID_SECURITY,
-                    "badUsernameToken",
-                    new Object[] {"A replay attack has been detected"}
-                );
-            }
-            
             // If no Created, then just cache for the default time
             // Otherwise, cache for the configured TTL of the UsernameToken Created time, as any
             // older token will just get rejected anyway
+            boolean added;
             Date created = ut.getCreatedDate();
             if (created == null || utTTL <= 0) {
-                replayCache.add(ut.getNonce());
+                added = ReplayCacheUtils.addIfAbsent(replayCache, ut.getNonce());
             } else {
-                replayCache.add(ut.getNonce(), utTTL + 1L);
+                added = ReplayCacheUtils.addIfAbsent(replayCache, ut.getNonce(), utTTL + 1L);
+            }
+            
+            if (!added) {
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.INVALID_SECURITY,
+                    "badUsernameToken",
+                    new Object[] {"A replay attack has been detected"}
+                );
             }
         }
         
@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKey;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.WSDocInfo;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Decrypts the EncryptedData elements referenced by a ReferenceList. If the RequestData has
+ * a decryption Executor, the EncryptedData elements that are added are decrypted in parallel on
+ * that Executor when {@link #decrypt()} is called. The Executor only decrypts copies of the
+ * EncryptedData elements to the plaintext octets. The plaintext is then parsed and put back 
+ * into the document on the calling thread, in the order in which the EncryptedData elements 
+ * were added, and so the document is only ever accessed by the calling thread. Otherwise each
+ * EncryptedData element is decrypted as soon as it is added.
+ */
+public class EncryptedDataDecryptor {
+
+    private final Document doc;
+    private final RequestData requestData;
+    private final WSDocInfo wsDocInfo;
+    private final Executor executor;
+    private final List<WSDataRef> dataRefs = new ArrayList<>();
+    private final List<PendingDecryption> pending = new ArrayList<>();
+
+    public EncryptedDataDecryptor(Document doc, RequestData requestData, WSDocInfo wsDocInfo) {
+        this.doc = doc;
+        this.requestData = requestData;
+        this.wsDocInfo = wsDocInfo;
+        this.executor = requestData.getDecryptionExecutor();
+    }
+
+    /**
+     * Add an EncryptedData element to decrypt.
+     * @param dataRefURI The URI of EncryptedData
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @throws WSSecurityException
+     */
+    public void add(
+        String dataRefURI,
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo
+    ) throws WSSecurityException {
+        if (executor == null || !EncryptionUtils.isDecryptableToByteArray(encData)) {
+            // Attachments are processed via the attachment CallbackHandler, one at a time
+            flush();
+            dataRefs.add(
+                EncryptionUtils.decryptEncryptedData(
+                    doc, dataRefURI, encData, symmetricKey, symEncAlgo, requestData, wsDocInfo
+                )
+            );
+            return;
+        }
+        for (PendingDecryption pendingDecryption : pending) {
+            if (pendingDecryption.encData == encData) {
+                // The same EncryptedData element is referenced twice. Once it has been
+                // decrypted it can no longer be found.
+                flush();
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.INVALID_SECURITY, "dataRef",
+                    new Object[] {dataRefURI});
+            }
+        }
+        pending.add(new PendingDecryption(dataRefURI, encData, symmetricKey, symEncAlgo));
+    }
+
+    /**
+     * Decrypt the EncryptedData elements that have been added but not yet decrypted.
+     * @return true if there were any such EncryptedData elements
+     * @throws WSSecurityException
+     */
+    public boolean flush() throws WSSecurityException {
+        if (pending.isEmpty()) {
+            return false;
+        }
+        List<PendingDecryption> decryptions = new ArrayList<>(pending);
+        pending.clear();
+        
+        // The Executor decrypts copies of the EncryptedData elements, so that the document
+        // is not read by any other thread
+        List<Element> encDataCopies = new ArrayList<>(decryptions.size());
+        for (PendingDecryption decryption : decryptions) {
+            encDataCopies.add(EncryptionUtils.copyEncryptedData(decryption.encData));
+        }
+
+        // Decrypt in parallel. Once a decryption has failed, the decryptions that follow it
+        // are not needed anymore.
+        final AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+        List<FutureTask<byte[]>> tasks = new ArrayList<>(decryptions.size());
+        for (int i = 0; i < decryptions.size(); i++) {
+            final int index = i;
+            final PendingDecryption decryption = decryptions.get(i);
+            final Element encDataCopy = encDataCopies.get(i);
+            FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+                public byte[] call() throws WSSecurityException {
+                    if (index > firstFailure.get()) {
+                        return null;
+                    }
+                    try {
+                        return EncryptionUtils.decryptToByteArray(
+                            encDataCopy, decryption.symmetricKey, decryption.symEncAlgo
+                        );
+                    } catch (WSSecurityException | RuntimeException ex) {
+                        int failure = firstFailure.get();
+                        while (index < failure && !firstFailure.compareAndSet(failure, index)) {
+                            failure = firstFailure.get();
+                        }
+                        throw ex;
+                    }
+                }
+            });
+            tasks.add(task);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                task.run();
+            }
+        }
+
+        // Wait for all of the decryptions. Then parse the plaintext and replace the 
+        // EncryptedData elements in order.
+        List<Object> results = waitForTasks(tasks);
+        for (int i = 0; i < decryptions.size(); i++) {
+            Object result = results.get(i);
+            if (result instanceof WSSecurityException) {
+                throw (WSSecurityException)result;
+            } else if (result instanceof RuntimeException) {
+                throw (RuntimeException)result;
+            } else if (result instanceof Error) {
+                throw (Error)result;
+            }
+            PendingDecryption decryption = decryptions.get(i);
+            Document plaintext = EncryptionUtils.parsePlaintext((byte[])result, decryption.encData);
+            dataRefs.add(
+                EncryptionUtils.decryptEncryptedData(
+                    doc, decryption.dataRefURI, decryption.encData, decryption.symmetricKey,
+                    decryption.symEncAlgo, requestData, wsDocInfo, plaintext
+                )
+            );
+        }
+        return true;
+    }
+
+    /**
+     * Decrypt any EncryptedData elements that are still outstanding, and return the WSDataRef
+     * objects for all of the EncryptedData elements that have been added.
+     * @return the WSDataRef objects in the order in which the EncryptedData elements were added
+     * @throws WSSecurityException
+     */
+    public List<WSDataRef> decrypt() throws WSSecurityException {
+        flush();
+        return dataRefs;
+    }
+
+    /**
+     * Wait for the given tasks to complete, without giving up when interrupted. Returns the
+     * result of each task, or the Throwable that it failed with.
+     */
+    private static List<Object> waitForTasks(List<FutureTask<byte[]>> tasks) {
+        List<Object> results = new ArrayList<>(tasks.size());
+        boolean interrupted = false;
+        for (FutureTask<byte[]> task : tasks) {
+            while (true) {
+                try {
+                    results.add(task.get());
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    results.add(ex.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    private static final class PendingDecryption {
+        private final String dataRefURI;
+        private final Element encData;
+        private final SecretKey symmetricKey;
+        private final String symEncAlgo;
+
+        PendingDecryption(String dataRefURI, Element encData, SecretKey symmetricKey, String symEncAlgo) {
+            this.dataRefURI = dataRefURI;
+            this.encData = encData;
+            this.symmetricKey = symmetricKey;
+            this.symEncAlgo = symEncAlgo;
+        }
+    }
+}
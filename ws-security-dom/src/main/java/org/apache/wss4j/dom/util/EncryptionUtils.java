@@ -24,32 +24,35 @@ import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.wss4j.common.util.CipherPool;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDataRef;
 import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.message.CallbackLookup;
-import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.encryption.AbstractSerializer;
+import org.apache.xml.security.encryption.DocumentSerializer;
 import org.apache.xml.security.encryption.XMLCipher;
 import org.apache.xml.security.encryption.XMLEncryptionException;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import javax.crypto.Cipher;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 public final class EncryptionUtils {
@@ -96,7 +99,8 @@ public final class EncryptionUtils {
 
     
     /**
-     * Decrypt the EncryptedData argument using a SecretKey.
+     * Decrypt the EncryptedData argument using a SecretKey. The decrypted elements are added 
+     * to the Id index of the WSDocInfo of the RequestData, if it is set.
      * @param doc The (document) owner of EncryptedData
      * @param dataRefURI The URI of EncryptedData
      * @param encData The EncryptedData element
@@ -113,6 +117,53 @@ public final class EncryptionUtils {
         String symEncAlgo,
         RequestData requestData
     ) throws WSSecurityException {
+        WSDocInfo wsDocInfo = requestData == null ? null : requestData.getWsDocInfo();
+        return decryptEncryptedData(
+            doc, dataRefURI, encData, symmetricKey, symEncAlgo, requestData, wsDocInfo
+        );
+    }
+    
+    /**
+     * Decrypt the EncryptedData argument using a SecretKey.
+     * @param doc The (document) owner of EncryptedData
+     * @param dataRefURI The URI of EncryptedData
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @param wsDocInfo The WSDocInfo object whose Id index is updated with the decrypted 
+     *        elements (can be null)
+     * @throws WSSecurityException
+     */
+    public static WSDataRef
+    decryptEncryptedData(
+        Document doc,
+        String dataRefURI,
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        RequestData requestData,
+        WSDocInfo wsDocInfo
+    ) throws WSSecurityException {
+        return decryptEncryptedData(
+            doc, dataRefURI, encData, symmetricKey, symEncAlgo, requestData, wsDocInfo, null
+        );
+    }
+    
+    /**
+     * Decrypt the EncryptedData argument, or replace it with the given (already decrypted)
+     * plaintext if it is not null.
+     */
+    static WSDataRef
+    decryptEncryptedData(
+        Document doc,
+        String dataRefURI,
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo,
+        RequestData requestData,
+        WSDocInfo wsDocInfo,
+        Document plaintext
+    ) throws WSSecurityException {
 
         // See if it is an attachment, and handle that differently
         String typeStr = encData.getAttributeNS(null, "Type");
@@ -151,19 +202,15 @@ public final class EncryptionUtils {
         }
 
         XMLCipher xmlCipher = null;
-        try {
-            xmlCipher = XMLCipher.getInstance(symEncAlgo);
-            xmlCipher.setSecureValidation(true);
-            xmlCipher.init(XMLCipher.DECRYPT_MODE, symmetricKey);
-        } catch (XMLEncryptionException ex) {
-            throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex
-            );
+        if (plaintext == null) {
+            xmlCipher = createXMLCipher(symEncAlgo, symmetricKey);
         }
 
         Node decryptedNode = null;
         try {
-            if (xopURI != null) {
+            if (plaintext != null) {
+                replaceEncryptedData(encDataOrig, plaintext);
+            } else if (xopURI != null) {
                 Element tempEncData;
 
                 //if content == true, use encDataOrig (i.e., actual EncryptedData element instead of parent)
@@ -194,9 +241,15 @@ public final class EncryptionUtils {
 
             dataRef.setProtectedElement((Element)decryptedHeader);
             dataRef.setXpath(getXPath(decryptedHeader));
+            if (wsDocInfo != null) {
+                wsDocInfo.indexElements(decryptedHeader);
+            }
         } else if (content) {
             dataRef.setProtectedElement(encData);
             dataRef.setXpath(getXPath(encData));
+            if (wsDocInfo != null) {
+                wsDocInfo.indexElements(encData);
+            }
         } else {
             if (decryptedNode == null) {
                 if (previousSibling == null) {
@@ -209,11 +262,132 @@ public final class EncryptionUtils {
                 dataRef.setProtectedElement((Element)decryptedNode);
             }
             dataRef.setXpath(getXPath(decryptedNode));
+            if (wsDocInfo != null) {
+                // The decrypted nodes replace the EncryptedData element in its parent
+                wsDocInfo.indexElements(parent);
+            }
         }
         
         return dataRef;
     }
 
+    /**
+     * Return true if the given EncryptedData element can be decrypted by 
+     * {@link #decryptToByteArray(Element, SecretKey, String)}, i.e. it is neither an 
+     * attachment nor does it refer to its cipher value via xop:Include.
+     */
+    static boolean isDecryptableToByteArray(Element encData) {
+        String typeStr = encData.getAttributeNS(null, "Type");
+        if (WSConstants.SWA_ATTACHMENT_ENCRYPTED_DATA_TYPE_CONTENT_ONLY.equals(typeStr)
+            || WSConstants.SWA_ATTACHMENT_ENCRYPTED_DATA_TYPE_COMPLETE.equals(typeStr)) {
+            return false;
+        }
+        return getXOPURIFromEncryptedData(encData) == null;
+    }
+    
+    /**
+     * Copy the given EncryptedData element into a new Document. The copy can be decrypted by
+     * {@link #decryptToByteArray(Element, SecretKey, String)} on another thread, without
+     * reading the owner document of the EncryptedData element.
+     * @param encData The EncryptedData element
+     * @return the copy of the EncryptedData element
+     * @throws WSSecurityException
+     */
+    static Element copyEncryptedData(Element encData) throws WSSecurityException {
+        DocumentBuilder db = null;
+        try {
+            db = org.apache.xml.security.utils.XMLUtils.createDocumentBuilder(false, true);
+            Document copy = db.newDocument();
+            Element encDataCopy = (Element)copy.importNode(encData, true);
+            copy.appendChild(encDataCopy);
+            return encDataCopy;
+        } catch (ParserConfigurationException ex) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        } finally {
+            if (db != null) {
+                org.apache.xml.security.utils.XMLUtils.repoolDocumentBuilder(db);
+            }
+        }
+    }
+    
+    /**
+     * Decrypt the given EncryptedData element to its plaintext octets. Only the document of 
+     * the EncryptedData element is read.
+     * @param encData The EncryptedData element
+     * @param symmetricKey The SecretKey with which to decrypt EncryptedData
+     * @param symEncAlgo The symmetric encryption algorithm to use
+     * @return the plaintext
+     * @throws WSSecurityException
+     */
+    static byte[] decryptToByteArray(
+        Element encData,
+        SecretKey symmetricKey,
+        String symEncAlgo
+    ) throws WSSecurityException {
+        XMLCipher xmlCipher = createXMLCipher(symEncAlgo, symmetricKey);
+        try {
+            return xmlCipher.decryptToByteArray(encData);
+        } catch (Exception ex) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        }
+    }
+    
+    /**
+     * Parse the decrypted plaintext of the given EncryptedData element into a new Document. 
+     * The plaintext is wrapped in a dummy element that declares the namespaces in scope for
+     * the EncryptedData element.
+     * @param plaintext The plaintext of the EncryptedData element
+     * @param encData The EncryptedData element
+     * @return the Document containing the plaintext
+     * @throws WSSecurityException
+     */
+    static Document parsePlaintext(byte[] plaintext, Element encData) throws WSSecurityException {
+        DocumentBuilder db = null;
+        try {
+            byte[] source = ContextSerializer.wrap(plaintext, encData.getParentNode());
+            db = org.apache.xml.security.utils.XMLUtils.createDocumentBuilder(false, true);
+            return db.parse(new InputSource(new ByteArrayInputStream(source)));
+        } catch (Exception ex) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, ex);
+        } finally {
+            if (db != null) {
+                org.apache.xml.security.utils.XMLUtils.repoolDocumentBuilder(db);
+            }
+        }
+    }
+    
+    /**
+     * Replace the EncryptedData element with the content of the dummy element of a Document 
+     * returned by {@link #parsePlaintext(byte[], Element)}.
+     */
+    private static void replaceEncryptedData(Element encData, Document plaintext) {
+        Document doc = encData.getOwnerDocument();
+        Element dummy = (Element)doc.importNode(plaintext.getDocumentElement(), true);
+        DocumentFragment fragment = doc.createDocumentFragment();
+        Node child = dummy.getFirstChild();
+        while (child != null) {
+            dummy.removeChild(child);
+            fragment.appendChild(child);
+            child = dummy.getFirstChild();
+        }
+        encData.getParentNode().replaceChild(fragment, encData);
+    }
+    
+    private static XMLCipher createXMLCipher(
+        String symEncAlgo, SecretKey symmetricKey
+    ) throws WSSecurityException {
+        try {
+            XMLCipher xmlCipher = XMLCipher.getInstance(symEncAlgo);
+            xmlCipher.setSecureValidation(true);
+            xmlCipher.init(XMLCipher.DECRYPT_MODE, symmetricKey);
+            return xmlCipher;
+        } catch (XMLEncryptionException ex) {
+            throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, ex
+            );
+        }
+    }
+    
     private static String getXOPURIFromEncryptedData(Element encData) {
         Element cipherData = XMLUtils.getDirectChildElement(encData, "CipherData", WSConstants.ENC_NS);
         if (cipherData != null) {
@@ -279,13 +453,13 @@ public final class EncryptionUtils {
             Attachment attachment = attachments.get(0);
 
             final String encAlgo = X509Util.getEncAlgo(encData);
-            final String jceAlgorithm =
-                    JCEMapper.translateURItoJCEID(encAlgo);
-            final Cipher cipher = Cipher.getInstance(jceAlgorithm);
+            final Cipher cipher = CipherPool.getCipher(encAlgo);
 
+            // The Cipher is returned to the pool when the decrypted attachment has been read
             InputStream attachmentInputStream =
-                    AttachmentUtils.setupAttachmentDecryptionStream(
-                            encAlgo, cipher, symmetricKey, attachment.getSourceStream());
+                    CipherPool.returnOnClose(encAlgo, cipher,
+                            AttachmentUtils.setupAttachmentDecryptionStream(
+                                    encAlgo, cipher, symmetricKey, attachment.getSourceStream()));
             
             Attachment resultAttachment = new Attachment();
             resultAttachment.setId(attachment.getId());
@@ -304,8 +478,7 @@ public final class EncryptionUtils {
             attachmentResultCallback.setAttachmentId(resultAttachment.getId());
             attachmentCallbackHandler.handle(new Callback[]{attachmentResultCallback});
 
-        } catch (UnsupportedCallbackException | IOException
-            | NoSuchAlgorithmException | NoSuchPaddingException e) {
+        } catch (UnsupportedCallbackException | IOException e) {
             throw new WSSecurityException(
                     WSSecurityException.ErrorCode.FAILED_CHECK, e);
         }
@@ -320,7 +493,7 @@ public final class EncryptionUtils {
 
     private static Node decryptXopAttachment(SecretKey symmetricKey, String symEncAlgo, RequestData requestData,
                                              String xopURI, Element encData) throws WSSecurityException, IOException,
-            UnsupportedCallbackException, NoSuchAlgorithmException, NoSuchPaddingException, ParserConfigurationException, SAXException {
+            UnsupportedCallbackException, ParserConfigurationException, SAXException {
 
         CallbackHandler attachmentCallbackHandler = requestData.getAttachmentCallbackHandler();
         if (attachmentCallbackHandler == null) {
@@ -341,19 +514,22 @@ public final class EncryptionUtils {
         }
         Attachment attachment = attachments.get(0);
 
-        final String jceAlgorithm =
-                JCEMapper.translateURItoJCEID(symEncAlgo);
-        final Cipher cipher = Cipher.getInstance(jceAlgorithm);
-
-        InputStream attachmentInputStream =
-                AttachmentUtils.setupAttachmentDecryptionStream(
-                        symEncAlgo, cipher, symmetricKey, attachment.getSourceStream());
+        final Cipher cipher = CipherPool.getCipher(symEncAlgo);
 
         // For the xop:Include case, we need to replace the xop:Include Element with the
         // decrypted Element
         DocumentBuilder db =
                 org.apache.xml.security.utils.XMLUtils.createDocumentBuilder(false);
-        Document document = db.parse(attachmentInputStream);
+        Document document;
+        try {
+            InputStream attachmentInputStream =
+                    AttachmentUtils.setupAttachmentDecryptionStream(
+                            symEncAlgo, cipher, symmetricKey, attachment.getSourceStream());
+            document = db.parse(attachmentInputStream);
+        } finally {
+            // The decrypted attachment has been read completely, so the Cipher isn't used anymore
+            CipherPool.returnCipher(symEncAlgo, cipher);
+        }
         Node decryptedNode = 
             encData.getOwnerDocument().importNode(document.getDocumentElement(), true);
         encData.getParentNode().appendChild(decryptedNode);
@@ -411,4 +587,14 @@ public final class EncryptionUtils {
         }
     }
 
+    /**
+     * Gives access to the (protected) method used by Santuario to wrap a decrypted fragment 
+     * with the namespace declarations in scope for its context node.
+     */
+    private static final class ContextSerializer extends DocumentSerializer {
+        
+        static byte[] wrap(byte[] source, Node ctx) throws XMLEncryptionException {
+            return AbstractSerializer.createContext(source, ctx);
+        }
+    }
 }
@@ -42,6 +42,7 @@ import org.apache.xml.security.utils.JavaUtils;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
@@ -598,5 +599,33 @@ public final class WSSecurityUtil {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, e);
         }
     }
+    
+    /**
+     * Read every node of the given (sub)tree once, so that a DOM implementation that creates 
+     * its nodes lazily (e.g. the Xerces "deferred" DOM) has created all of them before the 
+     * tree is read by more than one thread.
+     * @param root the root of the (sub)tree
+     */
+    public static void expandNodes(Node root) {
+        Node node = root;
+        while (node != null) {
+            if (Node.ELEMENT_NODE == node.getNodeType()) {
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    attributes.item(i).getNodeValue();
+                }
+            } else {
+                node.getNodeValue();
+            }
+            Node next = node.getFirstChild();
+            while (next == null && node != null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+    }
 
 }
@@ -23,6 +23,7 @@ import java.util.Date;
 import java.util.List;
 
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheUtils;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.OpenSAMLUtil;
 import org.apache.wss4j.common.saml.SAMLKeyInfo;
@@ -252,24 +253,25 @@ public class SamlAssertionValidator extends SignatureTrustValidator {
             String identifier = samlAssertion.getId();
             
             ReplayCache replayCache = data.getSamlOneTimeUseReplayCache();
-            if (replayCache.contains(identifier)) {
-                throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.INVALID_SECURITY,
-                    "badSamlToken",
-                    new Object[] {"A replay attack has been detected"});
-            }
-            
+            boolean added;
             DateTime expires = samlAssertion.getSaml2().getConditions().getNotOnOrAfter();
             if (expires != null) {
                 Date rightNow = new Date();
                 long currentTime = rightNow.getTime();
                 long expiresTime = expires.getMillis();
-                replayCache.add(identifier, 1L + (expiresTime - currentTime) / 1000L);
+                added = ReplayCacheUtils.addIfAbsent(
+                    replayCache, identifier, 1L + (expiresTime - currentTime) / 1000L
+                );
             } else {
-                replayCache.add(identifier);
+                added = ReplayCacheUtils.addIfAbsent(replayCache, identifier);
             }
             
-            replayCache.add(identifier);
+            if (!added) {
+                throw new WSSecurityException(
+                    WSSecurityException.ErrorCode.INVALID_SECURITY,
+                    "badSamlToken",
+                    new Object[] {"A replay attack has been detected"});
+            }
         }
     }
     
@@ -271,5 +271,39 @@ public class CustomActionProcessorTest extends org.junit.Assert {
             LOG.debug(outputString);
         }
     }
+    
+    /**
+     * Test that the default processors, validators and actions are shared, and that a 
+     * custom processor configured as a class is instantiated on each lookup
+     */
+    @org.junit.Test
+    public void
+    testSharedInstances() throws Exception {
+        WSSConfig cfg = WSSConfig.getNewInstance();
+        WSSConfig cfg2 = WSSConfig.getNewInstance();
+        
+        assertSame(
+            cfg.getProcessor(WSSecurityEngine.SIGNATURE), 
+            cfg2.getProcessor(WSSecurityEngine.SIGNATURE)
+        );
+        assertSame(
+            cfg.getValidator(WSSecurityEngine.TIMESTAMP), 
+            cfg2.getValidator(WSSecurityEngine.TIMESTAMP)
+        );
+        assertSame(cfg.getAction(WSConstants.SIGN), cfg2.getAction(WSConstants.SIGN));
+        
+        // SamlAssertionValidator is configurable and so is not shared
+        assertNotSame(
+            cfg.getValidator(WSSecurityEngine.SAML2_TOKEN), 
+            cfg.getValidator(WSSecurityEngine.SAML2_TOKEN)
+        );
+        
+        cfg.setProcessor(WSSecurityEngine.SIGNATURE, CustomProcessor.class);
+        assertTrue(cfg.getProcessor(WSSecurityEngine.SIGNATURE) instanceof CustomProcessor);
+        assertNotSame(
+            cfg.getProcessor(WSSecurityEngine.SIGNATURE), 
+            cfg.getProcessor(WSSecurityEngine.SIGNATURE)
+        );
+    }
 
 }
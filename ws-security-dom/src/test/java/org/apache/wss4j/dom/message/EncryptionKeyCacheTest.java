@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.message;
+
+import java.io.IOException;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.EncryptedKeyCache;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Some tests for caching the session keys unwrapped from an EncryptedKey.
+ */
+public class EncryptionKeyCacheTest extends org.junit.Assert {
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(EncryptionKeyCacheTest.class);
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto = null;
+
+    public EncryptionKeyCacheTest() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance("wss40.properties");
+    }
+
+    /**
+     * The same EncryptedKey is processed twice - the private key is only needed the first time.
+     */
+    @org.junit.Test
+    public void testCachedKeyIsUsed() throws Exception {
+        Document encryptedDoc = encrypt(WSConstants.KEYTRANSPORT_RSAOEP);
+        Document copy = (Document)encryptedDoc.cloneNode(true);
+
+        EncryptedKeyCache cache = new EncryptedKeyCache(10);
+        CountingCallbackHandler callbackHandler = new CountingCallbackHandler();
+        verify(encryptedDoc, callbackHandler, cache);
+        assertEquals(1, callbackHandler.getCount());
+        assertEquals(1, cache.size());
+
+        verify(copy, callbackHandler, cache);
+        assertEquals(1, callbackHandler.getCount());
+        assertEquals(
+            XMLUtils.PrettyDocumentToString(encryptedDoc), XMLUtils.PrettyDocumentToString(copy)
+        );
+    }
+
+    /**
+     * No cache is used by default.
+     */
+    @org.junit.Test
+    public void testCacheDisabledByDefault() throws Exception {
+        Document encryptedDoc = encrypt(WSConstants.KEYTRANSPORT_RSAOEP);
+        Document copy = (Document)encryptedDoc.cloneNode(true);
+
+        CountingCallbackHandler callbackHandler = new CountingCallbackHandler();
+        verify(encryptedDoc, callbackHandler, null);
+        verify(copy, callbackHandler, null);
+        assertEquals(2, callbackHandler.getCount());
+    }
+
+    /**
+     * A key that fails to unwrap is not added to the cache.
+     */
+    @org.junit.Test
+    public void testModifiedEncryptedKeyIsNotCached() throws Exception {
+        Document encryptedDoc = encrypt(WSConstants.KEYTRANSPORT_RSAOEP);
+
+        Element securityHeader = WSSecurityUtil.getSecurityHeader(encryptedDoc, null);
+        Element encryptedKey =
+            XMLUtils.findElement(securityHeader, "EncryptedKey", WSConstants.ENC_NS);
+        Element cipherValue =
+            XMLUtils.findElement(encryptedKey, "CipherValue", WSConstants.ENC_NS);
+        String value = cipherValue.getTextContent();
+        cipherValue.setTextContent("AAAA" + value.substring(4));
+
+        EncryptedKeyCache cache = new EncryptedKeyCache(10);
+        try {
+            verify(encryptedDoc, new CountingCallbackHandler(), cache);
+            fail("Failure expected on a modified EncryptedKey");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+        }
+        assertEquals(0, cache.size());
+    }
+
+    private Document encrypt(String keyTransportAlgorithm) throws Exception {
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("wss40");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.setKeyEncAlgo(keyTransportAlgorithm);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        return encrypt.build(doc, crypto, secHeader);
+    }
+
+    private void verify(
+        Document doc, CallbackHandler handler, EncryptedKeyCache cache
+    ) throws Exception {
+        RequestData requestData = new RequestData();
+        requestData.setDecCrypto(crypto);
+        requestData.setCallbackHandler(handler);
+        requestData.setEncryptedKeyCache(cache);
+        secEngine.processSecurityHeader(doc, requestData);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(XMLUtils.PrettyDocumentToString(doc));
+        }
+        assertTrue(XMLUtils.PrettyDocumentToString(doc).contains("counter_port_type"));
+    }
+
+    private static class CountingCallbackHandler implements CallbackHandler {
+
+        private final CallbackHandler callbackHandler = new KeystoreCallbackHandler();
+        private int count;
+
+        public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+            count++;
+            callbackHandler.handle(callbacks);
+        }
+
+        int getCount() {
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.message;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.EphemeralKeyCache;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Some tests for reusing a wrapped ephemeral key (and so the EncryptedKey) for a number of
+ * outbound messages.
+ */
+public class EncryptionKeyReuseTest extends org.junit.Assert {
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(EncryptionKeyReuseTest.class);
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private CallbackHandler callbackHandler = new KeystoreCallbackHandler();
+    private Crypto crypto = null;
+
+    public EncryptionKeyReuseTest() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance("wss40.properties");
+    }
+
+    /**
+     * The same EncryptedKey is sent for two messages, and then the key is rotated.
+     */
+    @org.junit.Test
+    public void testEncryptedKeyIsReused() throws Exception {
+        EphemeralKeyCache cache = new EphemeralKeyCache(2);
+
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        Document encryptedDoc = encrypt(encrypt, cache);
+        String cipherValue = getEncryptedKeyCipherValue(encryptedDoc);
+        assertEquals(1, cache.size());
+
+        WSSecEncrypt reusingEncrypt = new WSSecEncrypt();
+        Document reusingDoc = encrypt(reusingEncrypt, cache);
+        assertEquals(cipherValue, getEncryptedKeyCipherValue(reusingDoc));
+        assertArrayEquals(
+            encrypt.getSymmetricKey().getEncoded(), reusingEncrypt.getSymmetricKey().getEncoded()
+        );
+        assertNotEquals(encrypt.getId(), reusingEncrypt.getId());
+        assertEquals(0, cache.size());
+
+        Document rotatedDoc = encrypt(new WSSecEncrypt(), cache);
+        assertNotEquals(cipherValue, getEncryptedKeyCipherValue(rotatedDoc));
+
+        verify(encryptedDoc);
+        verify(reusingDoc);
+        verify(rotatedDoc);
+    }
+
+    /**
+     * The key is not reused for a different symmetric algorithm.
+     */
+    @org.junit.Test
+    public void testDifferentAlgorithm() throws Exception {
+        EphemeralKeyCache cache = new EphemeralKeyCache(10);
+
+        Document encryptedDoc = encrypt(new WSSecEncrypt(), cache);
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setSymmetricEncAlgorithm(WSConstants.AES_256);
+        Document otherDoc = encrypt(encrypt, cache);
+
+        assertNotEquals(getEncryptedKeyCipherValue(encryptedDoc), getEncryptedKeyCipherValue(otherDoc));
+        assertEquals(2, cache.size());
+        verify(otherDoc);
+    }
+
+    /**
+     * A WSSecEncryptedKey also reuses the wrapped key.
+     */
+    @org.junit.Test
+    public void testWSSecEncryptedKey() throws Exception {
+        EphemeralKeyCache cache = new EphemeralKeyCache(10);
+        byte[] ephemeralKey = null;
+        byte[] encryptedEphemeralKey = null;
+        for (int i = 0; i < 2; i++) {
+            WSSecEncryptedKey encrKeyBuilder = new WSSecEncryptedKey();
+            encrKeyBuilder.setUserInfo("wss40");
+            encrKeyBuilder.setKeyIdentifierType(WSConstants.THUMBPRINT_IDENTIFIER);
+            encrKeyBuilder.setEphemeralKeyCache(cache);
+            encrKeyBuilder.prepare(SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG), crypto);
+            if (ephemeralKey == null) {
+                ephemeralKey = encrKeyBuilder.getEphemeralKey();
+                encryptedEphemeralKey = encrKeyBuilder.getEncryptedEphemeralKey();
+            } else {
+                assertArrayEquals(ephemeralKey, encrKeyBuilder.getEphemeralKey());
+                assertArrayEquals(encryptedEphemeralKey, encrKeyBuilder.getEncryptedEphemeralKey());
+            }
+        }
+    }
+
+    private Document encrypt(WSSecEncrypt encrypt, EphemeralKeyCache cache) throws Exception {
+        encrypt.setUserInfo("wss40");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        encrypt.setEphemeralKeyCache(cache);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        return encrypt.build(doc, crypto, secHeader);
+    }
+
+    private String getEncryptedKeyCipherValue(Document doc) throws Exception {
+        Element securityHeader = WSSecurityUtil.getSecurityHeader(doc, null);
+        Element encryptedKey =
+            XMLUtils.findElement(securityHeader, "EncryptedKey", WSConstants.ENC_NS);
+        return XMLUtils.findElement(encryptedKey, "CipherValue", WSConstants.ENC_NS).getTextContent();
+    }
+
+    private void verify(Document doc) throws Exception {
+        secEngine.processSecurityHeader(doc, null, callbackHandler, crypto);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(XMLUtils.PrettyDocumentToString(doc));
+        }
+        assertTrue(XMLUtils.PrettyDocumentToString(doc).contains("counter_port_type"));
+    }
+
+}
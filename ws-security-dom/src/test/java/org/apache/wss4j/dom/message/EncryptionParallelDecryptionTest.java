@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.message;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.security.auth.callback.CallbackHandler;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPPart;
+
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.common.KeystoreCallbackHandler;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.common.SecretKeyCallbackHandler;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.apache.wss4j.dom.util.WSSecurityUtil;
+import org.apache.xml.security.utils.Base64;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Some tests for decrypting the EncryptedData elements of a ReferenceList in parallel on an
+ * Executor.
+ */
+public class EncryptionParallelDecryptionTest extends org.junit.Assert {
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(EncryptionParallelDecryptionTest.class);
+    private static final String SOAPMSG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<soapenv:Envelope xmlns:foo=\"urn:foo.bar\" xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+        "   <soapenv:Header>" +
+        "       <foo:header1>value1</foo:header1>" +
+        "       <foo:header2>value2</foo:header2>" +
+        "       <foo:header3 xmlns:bar=\"urn:bar\"><bar:value>value3</bar:value></foo:header3>" +
+        "   </soapenv:Header>" +
+        "   <soapenv:Body>" +
+        "      <ns1:testMethod xmlns:ns1=\"http://axis/service/security/test6/LogTestService8\">asf1</ns1:testMethod>" +
+        "   </soapenv:Body>" +
+        "</soapenv:Envelope>";
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private CallbackHandler callbackHandler = new KeystoreCallbackHandler();
+    private Crypto crypto = null;
+    private ExecutorService executorService;
+    private final AtomicInteger tasks = new AtomicInteger();
+
+    public EncryptionParallelDecryptionTest() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance();
+    }
+
+    @org.junit.Before
+    public void setUp() throws Exception {
+        executorService = Executors.newFixedThreadPool(4);
+        tasks.set(0);
+    }
+
+    @org.junit.After
+    public void tearDown() throws Exception {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Encrypt a number of parts using an EncryptedKey, and decrypt them in parallel. The
+     * decrypted message must be the same as for a sequential decryption.
+     */
+    @org.junit.Test
+    public void testEncryptedKeyReferenceList() throws Exception {
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        addParts(encrypt);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Document encryptedDoc = encrypt.build(doc, crypto, secHeader);
+        Document copy = (Document)encryptedDoc.cloneNode(true);
+
+        WSHandlerResult results = verify(encryptedDoc, callbackHandler, true);
+        assertEquals(4, tasks.get());
+        WSHandlerResult sequentialResults = verify(copy, callbackHandler, false);
+
+        assertEquals(
+            XMLUtils.PrettyDocumentToString(copy), XMLUtils.PrettyDocumentToString(encryptedDoc)
+        );
+        compareDataRefs(sequentialResults, results);
+    }
+
+    /**
+     * Encrypt a number of parts using a symmetric key referred to via an EncryptedKeySHA1
+     * KeyIdentifier, so that a standalone ReferenceList is processed.
+     */
+    @org.junit.Test
+    public void testStandaloneReferenceList() throws Exception {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(128);
+        SecretKey key = keyGen.generateKey();
+
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setKeyIdentifierType(WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER);
+        encrypt.setSymmetricKey(key);
+        encrypt.setEncryptSymmKey(false);
+        addParts(encrypt);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Document encryptedDoc = encrypt.build(doc, crypto, secHeader);
+        Document copy = (Document)encryptedDoc.cloneNode(true);
+
+        SecretKeyCallbackHandler secretKeyCallbackHandler = new SecretKeyCallbackHandler();
+        secretKeyCallbackHandler.addSecretKey(
+            Base64.encode(KeyUtils.generateDigest(key.getEncoded())), key.getEncoded()
+        );
+
+        WSHandlerResult results = verify(encryptedDoc, secretKeyCallbackHandler, true);
+        assertEquals(4, tasks.get());
+        WSHandlerResult sequentialResults = verify(copy, secretKeyCallbackHandler, false);
+
+        assertEquals(
+            XMLUtils.PrettyDocumentToString(copy), XMLUtils.PrettyDocumentToString(encryptedDoc)
+        );
+        compareDataRefs(sequentialResults, results);
+    }
+
+    /**
+     * Encrypt a number of parts, and decrypt them in parallel in a SAAJ SOAPPart. The
+     * decrypted message must be the same as for a sequential decryption.
+     */
+    @org.junit.Test
+    public void testSAAJDocument() throws Exception {
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        addParts(encrypt);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Document encryptedDoc = encrypt.build(doc, crypto, secHeader);
+        byte[] encryptedMessage = XMLUtils.PrettyDocumentToString(encryptedDoc).getBytes("UTF-8");
+
+        MessageFactory messageFactory = MessageFactory.newInstance();
+        SOAPPart soapPart = 
+            messageFactory.createMessage(null, new ByteArrayInputStream(encryptedMessage)).getSOAPPart();
+        WSHandlerResult results = verify(soapPart, callbackHandler, true);
+        assertEquals(4, tasks.get());
+
+        SOAPPart sequentialSoapPart = 
+            messageFactory.createMessage(null, new ByteArrayInputStream(encryptedMessage)).getSOAPPart();
+        WSHandlerResult sequentialResults = verify(sequentialSoapPart, callbackHandler, false);
+
+        assertEquals(
+            XMLUtils.PrettyDocumentToString(sequentialSoapPart), XMLUtils.PrettyDocumentToString(soapPart)
+        );
+        compareDataRefs(sequentialResults, results);
+    }
+
+    /**
+     * Modify the ciphertext of one of the parts - the parallel decryption must fail.
+     */
+    @org.junit.Test
+    public void testModifiedCipherValue() throws Exception {
+        WSSecEncrypt encrypt = new WSSecEncrypt();
+        encrypt.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        encrypt.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        addParts(encrypt);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Document encryptedDoc = encrypt.build(doc, crypto, secHeader);
+
+        Element body = WSSecurityUtil.findBodyElement(encryptedDoc);
+        Element cipherValue =
+            XMLUtils.findElement(body, "CipherValue", WSConstants.ENC_NS);
+        String value = cipherValue.getTextContent();
+        cipherValue.setTextContent("AAAA" + value.substring(4));
+
+        try {
+            verify(encryptedDoc, callbackHandler, true);
+            fail("Failure expected on a modified CipherValue");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+        }
+    }
+
+    private void addParts(WSSecEncrypt encrypt) {
+        encrypt.getParts().add(new WSEncryptionPart("header1", "urn:foo.bar", "Element"));
+        encrypt.getParts().add(new WSEncryptionPart("header2", "urn:foo.bar", "Header"));
+        encrypt.getParts().add(new WSEncryptionPart("header3", "urn:foo.bar", "Content"));
+        encrypt.getParts().add(new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, "Content"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void compareDataRefs(WSHandlerResult expected, WSHandlerResult actual) {
+        WSSecurityEngineResult expectedResult =
+            expected.getActionResults().get(WSConstants.ENCR).get(0);
+        WSSecurityEngineResult actualResult =
+            actual.getActionResults().get(WSConstants.ENCR).get(0);
+        List<WSDataRef> expectedRefs =
+            (List<WSDataRef>) expectedResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        List<WSDataRef> actualRefs =
+            (List<WSDataRef>) actualResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        assertEquals(4, actualRefs.size());
+        assertEquals(expectedRefs.size(), actualRefs.size());
+        for (int i = 0; i < actualRefs.size(); i++) {
+            assertEquals(expectedRefs.get(i).getWsuId(), actualRefs.get(i).getWsuId());
+            assertEquals(expectedRefs.get(i).getXpath(), actualRefs.get(i).getXpath());
+            assertEquals(expectedRefs.get(i).isContent(), actualRefs.get(i).isContent());
+            assertNotNull(actualRefs.get(i).getProtectedElement());
+        }
+    }
+
+    private WSHandlerResult verify(
+        Document doc, CallbackHandler handler, boolean parallel
+    ) throws Exception {
+        RequestData requestData = new RequestData();
+        requestData.setDecCrypto(crypto);
+        requestData.setCallbackHandler(handler);
+        if (parallel) {
+            requestData.setDecryptionExecutor(new Executor() {
+                public void execute(Runnable command) {
+                    tasks.incrementAndGet();
+                    executorService.execute(command);
+                }
+            });
+        }
+        WSHandlerResult results = secEngine.processSecurityHeader(doc, requestData);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(XMLUtils.PrettyDocumentToString(doc));
+        }
+        return results;
+    }
+
+}
@@ -32,6 +32,8 @@ import org.apache.wss4j.dom.common.SOAPUtil;
 import org.apache.wss4j.dom.common.SecurityTestUtil;
 import org.apache.wss4j.dom.common.UsernamePasswordCallbackHandler;
 import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.cache.DigestReplayCache;
+import org.apache.wss4j.common.cache.DigestReplayCacheFactory;
 import org.apache.wss4j.common.cache.MemoryReplayCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
@@ -428,6 +430,45 @@ public class ReplayTest extends org.junit.Assert {
         }   
     }
     
+    /**
+     * Test that a replayed UsernameToken is rejected when the nonce replay cache is a
+     * DigestReplayCache, which stores a digest of each identifier rather than the identifier.
+     */
+    @org.junit.Test
+    public void testDigestReplayCacheReplayedUsernameToken() throws Exception {
+        WSSecUsernameToken builder = new WSSecUsernameToken();
+        builder.setUserInfo("wernerd", "verySecret");
+        
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Document signedDoc = builder.build(doc, secHeader);
+
+        if (LOG.isDebugEnabled()) {
+            String outputString = 
+                XMLUtils.PrettyDocumentToString(signedDoc);
+            LOG.debug(outputString);
+        }
+        
+        WSSConfig wssConfig = WSSConfig.getNewInstance();
+        RequestData data = new RequestData();
+        data.setCallbackHandler(new UsernamePasswordCallbackHandler());
+        data.setWssConfig(wssConfig);
+        data.setReplayCacheFactory(new DigestReplayCacheFactory());
+        assertTrue(data.getNonceReplayCache() instanceof DigestReplayCache);
+        
+        // Successfully verify UsernameToken
+        verify(signedDoc, wssConfig, data);
+        
+        // Now try again - a replay attack should be detected
+        try {
+            verify(signedDoc, wssConfig, data);
+            fail("Expected failure on a replay attack");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getErrorCode() == WSSecurityException.ErrorCode.INVALID_SECURITY); 
+        }   
+    }
+    
     /**
      * Test that creates, sends and processes an unsigned SAML 2 authentication assertion. This
      * is just a sanity test to make sure that it is possible to send the SAML token twice, as
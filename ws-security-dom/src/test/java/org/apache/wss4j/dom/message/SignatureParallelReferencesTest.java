@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.dom.message;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.soap.SOAPPart;
+
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.Attachment;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDataRef;
+import org.apache.wss4j.dom.WSSConfig;
+import org.apache.wss4j.dom.WSSecurityEngine;
+import org.apache.wss4j.dom.WSSecurityEngineResult;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.handler.WSHandlerResult;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Some tests for validating the References of a Signature in parallel on an Executor.
+ */
+public class SignatureParallelReferencesTest extends org.junit.Assert {
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(SignatureParallelReferencesTest.class);
+    private static final String SOAPMSG = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<soapenv:Envelope xmlns:foo=\"urn:foo.bar\" xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+        "   <soapenv:Header>" +
+        "       <foo:header1>value1</foo:header1>" +
+        "       <foo:header2>value2</foo:header2>" +
+        "       <foo:header3>value3</foo:header3>" +
+        "   </soapenv:Header>" +
+        "   <soapenv:Body>" +
+        "      <ns1:testMethod xmlns:ns1=\"http://axis/service/security/test6/LogTestService8\">asf1</ns1:testMethod>" +
+        "   </soapenv:Body>" +
+        "</soapenv:Envelope>";
+
+    private WSSecurityEngine secEngine = new WSSecurityEngine();
+    private Crypto crypto = null;
+    private ExecutorService executorService;
+    private final AtomicInteger tasks = new AtomicInteger();
+
+    public SignatureParallelReferencesTest() throws Exception {
+        WSSConfig.init();
+        crypto = CryptoFactory.getInstance();
+    }
+
+    @org.junit.Before
+    public void setUp() throws Exception {
+        executorService = Executors.newFixedThreadPool(4);
+        tasks.set(0);
+    }
+
+    @org.junit.After
+    public void tearDown() throws Exception {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Sign a number of parts and validate the References in parallel. The results must be
+     * the same as for a sequential validation.
+     */
+    @org.junit.Test
+    public void testParallelReferences() throws Exception {
+        Document signedDoc = signParts();
+        Document copy = (Document)signedDoc.cloneNode(true);
+
+        WSHandlerResult results = verify(signedDoc, null, true);
+        assertEquals(4, tasks.get());
+
+        WSSecurityEngineResult actionResult =
+            results.getActionResults().get(WSConstants.SIGN).get(0);
+        @SuppressWarnings("unchecked")
+        final List<WSDataRef> refs =
+            (List<WSDataRef>) actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        assertEquals(4, refs.size());
+
+        WSSecurityEngineResult sequentialResult =
+            verify(copy, null, false).getActionResults().get(WSConstants.SIGN).get(0);
+        @SuppressWarnings("unchecked")
+        final List<WSDataRef> sequentialRefs =
+            (List<WSDataRef>) sequentialResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        for (int i = 0; i < refs.size(); i++) {
+            assertEquals(sequentialRefs.get(i).getXpath(), refs.get(i).getXpath());
+            assertArrayEquals(sequentialRefs.get(i).getDigestValue(), refs.get(i).getDigestValue());
+        }
+    }
+
+    /**
+     * Modify one of the signed parts - the parallel validation must fail.
+     */
+    @org.junit.Test
+    public void testModifiedReference() throws Exception {
+        Document signedDoc = signParts();
+
+        Element header =
+            XMLUtils.findElement(signedDoc.getDocumentElement(), "header2", "urn:foo.bar");
+        header.setTextContent("modified");
+
+        try {
+            verify(signedDoc, null, true);
+            fail("Failure expected on a modified signed part");
+        } catch (WSSecurityException ex) {
+            assertEquals(WSSecurityException.ErrorCode.FAILED_CHECK, ex.getErrorCode());
+        }
+    }
+
+    /**
+     * Sign the SOAP Body and an attachment, and validate the References in parallel.
+     */
+    @org.junit.Test
+    public void testAttachmentReference() throws Exception {
+        WSSecSignature builder = new WSSecSignature();
+        builder.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        builder.getParts().add(new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, "Content"));
+        builder.getParts().add(new WSEncryptionPart("cid:Attachments", "Content"));
+
+        String attachmentId = UUID.randomUUID().toString();
+        Attachment attachment = new Attachment();
+        attachment.setMimeType("text/xml");
+        attachment.addHeaders(getHeaders(attachmentId));
+        attachment.setId(attachmentId);
+        attachment.setSourceStream(new ByteArrayInputStream(SOAPUtil.SAMPLE_SOAP_MSG.getBytes("UTF-8")));
+        builder.setAttachmentCallbackHandler(
+            new AttachmentCallbackHandler(Collections.singletonList(attachment))
+        );
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Document signedDoc = builder.build(doc, crypto, secHeader);
+
+        verify(signedDoc, new AttachmentCallbackHandler(Collections.singletonList(attachment)), true);
+        assertEquals(2, tasks.get());
+    }
+
+    /**
+     * Sign many parts of a message, and validate the References of the Signature with a
+     * SAAJ SOAPPart. The References must be validated sequentially, as a SOAPPart can't be
+     * read by several threads at the same time.
+     */
+    @org.junit.Test
+    public void testSAAJDocument() throws Exception {
+        StringBuilder headers = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            headers.append("<foo:part").append(i).append(">value").append(i)
+                .append("</foo:part").append(i).append(">");
+        }
+        String soapMessage = SOAPMSG.replace(
+            "<soapenv:Header>", "<soapenv:Header>" + headers.toString()
+        );
+        
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        for (int i = 0; i < 20; i++) {
+            sign.getParts().add(new WSEncryptionPart("part" + i, "urn:foo.bar", ""));
+        }
+        sign.getParts().add(new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, ""));
+
+        Document doc = SOAPUtil.toSOAPPart(soapMessage);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        Document signedDoc = sign.build(doc, crypto, secHeader);
+        
+        String signedMessage = XMLUtils.PrettyDocumentToString(signedDoc);
+        SOAPMessage saajMessage = 
+            MessageFactory.newInstance().createMessage(
+                null, new ByteArrayInputStream(signedMessage.getBytes("UTF-8"))
+            );
+        SOAPPart soapPart = saajMessage.getSOAPPart();
+
+        WSHandlerResult results = verify(soapPart, null, true);
+        assertEquals(0, tasks.get());
+        
+        WSSecurityEngineResult actionResult =
+            results.getActionResults().get(WSConstants.SIGN).get(0);
+        @SuppressWarnings("unchecked")
+        final List<WSDataRef> refs =
+            (List<WSDataRef>) actionResult.get(WSSecurityEngineResult.TAG_DATA_REF_URIS);
+        assertEquals(21, refs.size());
+    }
+
+    private Document signParts() throws Exception {
+        WSSecSignature sign = new WSSecSignature();
+        sign.setUserInfo("16c73ab6-b892-458f-abf5-2f875f74882e", "security");
+        sign.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPMSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+
+        sign.getParts().add(new WSEncryptionPart("header1", "urn:foo.bar", ""));
+        sign.getParts().add(new WSEncryptionPart("header2", "urn:foo.bar", ""));
+        sign.getParts().add(new WSEncryptionPart("header3", "urn:foo.bar", ""));
+        sign.getParts().add(new WSEncryptionPart("Body", WSConstants.URI_SOAP11_ENV, ""));
+
+        Document signedDoc = sign.build(doc, crypto, secHeader);
+
+        if (LOG.isDebugEnabled()) {
+            String outputString =
+                XMLUtils.PrettyDocumentToString(signedDoc);
+            LOG.debug(outputString);
+        }
+        return signedDoc;
+    }
+
+    private Map<String, String> getHeaders(String attachmentId) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(AttachmentUtils.MIME_HEADER_CONTENT_DESCRIPTION, "Attachment");
+        headers.put(AttachmentUtils.MIME_HEADER_CONTENT_DISPOSITION, "attachment; filename=\"fname.ext\"");
+        headers.put(AttachmentUtils.MIME_HEADER_CONTENT_ID, "<attachment=" + attachmentId + ">");
+        headers.put(AttachmentUtils.MIME_HEADER_CONTENT_LOCATION, "http://ws.apache.org");
+        headers.put(AttachmentUtils.MIME_HEADER_CONTENT_TYPE, "text/xml; charset=UTF-8");
+        return headers;
+    }
+
+    private WSHandlerResult verify(
+        Document doc, CallbackHandler attachmentCallbackHandler, boolean parallel
+    ) throws Exception {
+        RequestData requestData = new RequestData();
+        requestData.setSigVerCrypto(crypto);
+        requestData.setAttachmentCallbackHandler(attachmentCallbackHandler);
+        if (parallel) {
+            requestData.setSignatureVerificationExecutor(new java.util.concurrent.Executor() {
+                public void execute(Runnable command) {
+                    tasks.incrementAndGet();
+                    executorService.execute(command);
+                }
+            });
+        }
+        return secEngine.processSecurityHeader(doc, requestData);
+    }
+
+}
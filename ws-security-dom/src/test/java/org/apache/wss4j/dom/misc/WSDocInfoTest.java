@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.dom.misc;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.util.XMLUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.WSDocInfo;
+import org.apache.wss4j.dom.common.SOAPUtil;
+import org.apache.wss4j.dom.handler.RequestData;
+import org.apache.wss4j.dom.message.WSSecEncrypt;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.util.EncryptionUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Some tests for looking up elements by Id using the index of WSDocInfo.
+ */
+public class WSDocInfoTest extends org.junit.Assert {
+    private static final String SOAP_MSG = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" 
+        + "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+        + "xmlns:wsu=\"" + WSConstants.WSU_NS + "\">"
+        + "<SOAP-ENV:Header>"
+        + "<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"_saml\"/>"
+        + "<header wsu:Id=\"header\"/>"
+        + "<duplicate Id=\"dup\"/>"
+        + "</SOAP-ENV:Header>"
+        + "<SOAP-ENV:Body wsu:Id=\"body\">" 
+        + "<add xmlns=\"http://ws.apache.org/counter/counter_port_type\" Id=\"add\">" 
+        + "<value xmlns=\"\">15</value>" + "</add>" 
+        + "<duplicate wsu:Id=\"dup\"/>"
+        + "</SOAP-ENV:Body>" + "</SOAP-ENV:Envelope>";
+
+    @org.junit.Test
+    public void testGetElementById() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        WSDocInfo wsDocInfo = new WSDocInfo(doc);
+        
+        assertEquals("header", wsDocInfo.getElementById("header", true).getLocalName());
+        assertEquals("Body", wsDocInfo.getElementById("body", true).getLocalName());
+        assertEquals("add", wsDocInfo.getElementById("add", true).getLocalName());
+        assertNull(wsDocInfo.getElementById("unknown", true));
+        assertNull(wsDocInfo.getElementById("_saml", true));
+        
+        assertEquals("Assertion", wsDocInfo.getSAMLAssertionById("_saml").getLocalName());
+        assertNull(wsDocInfo.getSAMLAssertionById("header"));
+    }
+    
+    @org.junit.Test
+    public void testDuplicateIds() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        WSDocInfo wsDocInfo = new WSDocInfo(doc);
+        
+        assertNull(wsDocInfo.getElementById("dup", true));
+        Element element = wsDocInfo.getElementById("dup", false);
+        assertEquals("Header", element.getParentNode().getLocalName());
+        
+        // Once one of the duplicates is removed the Id is unique again
+        element.getParentNode().removeChild(element);
+        element = wsDocInfo.getElementById("dup", true);
+        assertEquals("Body", element.getParentNode().getLocalName());
+    }
+    
+    @org.junit.Test
+    public void testModifiedDocument() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        WSDocInfo wsDocInfo = new WSDocInfo(doc);
+        Element header = wsDocInfo.getElementById("header", true);
+        
+        // A removed element is not returned
+        Element parent = (Element)header.getParentNode();
+        parent.removeChild(header);
+        assertNull(wsDocInfo.getElementById("header", true));
+        
+        // Elements that are added to the document must be indexed
+        Element newHeader = doc.createElementNS("urn:test", "newHeader");
+        newHeader.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "newHeader");
+        Element child = doc.createElementNS("urn:test", "child");
+        child.setAttributeNS(null, "Id", "header");
+        newHeader.appendChild(child);
+        parent.appendChild(newHeader);
+        wsDocInfo.indexElements(newHeader);
+        
+        assertSame(newHeader, wsDocInfo.getElementById("newHeader", true));
+        assertSame(child, wsDocInfo.getElementById("header", true));
+        
+        // Adding a second element with the same Id is detected
+        Element duplicate = doc.createElementNS("urn:test", "duplicate");
+        duplicate.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "newHeader");
+        parent.appendChild(duplicate);
+        wsDocInfo.indexElements(duplicate);
+        assertNull(wsDocInfo.getElementById("newHeader", true));
+    }
+    
+    @org.junit.Test
+    public void testUnindexedElement() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        WSDocInfo wsDocInfo = new WSDocInfo(doc);
+        Element header = wsDocInfo.getElementById("header", true);
+        
+        // An element that was not passed to indexElements is found by searching the document
+        Element newHeader = doc.createElementNS("urn:test", "newHeader");
+        newHeader.setAttributeNS(WSConstants.WSU_NS, "wsu:Id", "newHeader");
+        header.getParentNode().appendChild(newHeader);
+        assertSame(newHeader, wsDocInfo.getElementById("newHeader", true));
+    }
+    
+    @org.junit.Test
+    public void testDuplicateIdInDecryptedData() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader();
+        secHeader.insertSecurityHeader(doc);
+        
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(128);
+        SecretKey key = keyGen.generateKey();
+        WSSecEncrypt builder = new WSSecEncrypt();
+        builder.setKeyIdentifierType(WSConstants.ENCRYPTED_KEY_SHA1_IDENTIFIER);
+        builder.setSymmetricKey(key);
+        builder.setEncryptSymmKey(false);
+        builder.build(doc, CryptoFactory.getInstance(), secHeader);
+        
+        // The duplicate in the Body is encrypted, so the Id in the Header is unique
+        WSDocInfo wsDocInfo = new WSDocInfo(doc);
+        Element element = wsDocInfo.getElementById("dup", true);
+        assertEquals("Header", element.getParentNode().getLocalName());
+        
+        // Decrypting the Body must add the duplicate to the index
+        RequestData requestData = new RequestData();
+        requestData.setWsDocInfo(wsDocInfo);
+        Element encryptedData = XMLUtils.findElement(doc, "EncryptedData", WSConstants.ENC_NS);
+        EncryptionUtils.decryptEncryptedData(
+            doc, "#" + encryptedData.getAttributeNS(null, "Id"), encryptedData, key, 
+            WSConstants.AES_128, requestData
+        );
+        assertNull(wsDocInfo.getElementById("dup", true));
+        assertNotNull(wsDocInfo.getElementById("dup", false));
+    }
+    
+}
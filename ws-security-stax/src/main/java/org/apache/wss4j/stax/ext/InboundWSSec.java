@@ -22,6 +22,7 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.impl.InboundWSSecurityContextImpl;
 import org.apache.wss4j.stax.impl.WSSecurityStreamReader;
 import org.apache.wss4j.stax.impl.processor.input.OperationInputProcessor;
+import org.apache.wss4j.stax.impl.processor.input.SecurityHeaderHandlers;
 import org.apache.wss4j.stax.impl.processor.input.SecurityHeaderInputProcessor;
 import org.apache.wss4j.stax.impl.processor.input.SignatureConfirmationInputProcessor;
 import org.apache.wss4j.stax.securityEvent.WSSecurityEventConstants;
@@ -73,6 +74,12 @@ public class InboundWSSec {
     private final boolean initiator;
     private final boolean returnSecurityError;
 
+    //the parts of the processor chain which are the same for every message: the stateless
+    //processors and the security header handlers are shared by all of the messages
+    private final OperationInputProcessor operationInputProcessor;
+    private final SignatureConfirmationInputProcessor signatureConfirmationInputProcessor;
+    private volatile SecurityHeaderHandlers securityHeaderHandlers;
+
     public InboundWSSec(WSSSecurityProperties securityProperties) {
         this(securityProperties, false, false);
     }
@@ -82,6 +89,8 @@ public class InboundWSSec {
         this.securityProperties = securityProperties;
         this.initiator = initiator;
         this.returnSecurityError = returnSecurityError;
+        this.operationInputProcessor = new OperationInputProcessor(securityProperties);
+        this.signatureConfirmationInputProcessor = new SignatureConfirmationInputProcessor(securityProperties);
     }
 
     /**
@@ -240,11 +249,12 @@ public class InboundWSSec {
         documentContext.setEncoding(xmlStreamReader.getEncoding() != null ? xmlStreamReader.getEncoding() : "UTF-8");
         InputProcessorChainImpl inputProcessorChain = new InputProcessorChainImpl(securityContextImpl, documentContext);
         inputProcessorChain.addProcessor(new XMLEventReaderInputProcessor(securityProperties, xmlStreamReader));
-        inputProcessorChain.addProcessor(new SecurityHeaderInputProcessor(securityProperties));
-        inputProcessorChain.addProcessor(new OperationInputProcessor(securityProperties));
+        inputProcessorChain.addProcessor(
+                new SecurityHeaderInputProcessor(securityProperties, getSecurityHeaderHandlers()));
+        inputProcessorChain.addProcessor(operationInputProcessor);
 
         if (securityProperties.isEnableSignatureConfirmationVerification()) {
-            inputProcessorChain.addProcessor(new SignatureConfirmationInputProcessor(securityProperties));
+            inputProcessorChain.addProcessor(signatureConfirmationInputProcessor);
         }
 
         if (log.isTraceEnabled()) {
@@ -264,4 +274,14 @@ public class InboundWSSec {
 
         return new WSSecurityStreamReader(inputProcessorChain, securityProperties, initiator, returnSecurityError);
     }
+
+    private SecurityHeaderHandlers getSecurityHeaderHandlers() {
+        //the handlers are looked up on first use, when the security configuration is initialized
+        SecurityHeaderHandlers handlers = securityHeaderHandlers;
+        if (handlers == null) {
+            handlers = new SecurityHeaderHandlers();
+            securityHeaderHandlers = handlers;
+        }
+        return handlers;
+    }
 }
@@ -20,6 +20,7 @@ package org.apache.wss4j.stax.ext;
 
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.EphemeralKeyCache;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.impl.processor.output.*;
@@ -480,6 +481,7 @@ public class OutboundWSSec {
         // First check to see if a Symmetric key is available
         GenericOutboundSecurityToken securityToken = 
             getOutboundSecurityToken(outputProcessorChain, WSSConstants.PROP_USE_THIS_TOKEN_ID_FOR_ENCRYPTION);
+        boolean generatedKey = false;
         if (securityToken == null || securityToken.getSecretKey(symmetricEncryptionAlgorithm) == null) {
             //prepare the symmetric session key for all encryption parts
             String keyAlgorithm = JCEAlgorithmMapper.getJCEKeyAlgorithmFromURI(securityProperties.getEncryptionSymAlgorithm());
@@ -498,6 +500,7 @@ public class OutboundWSSec {
 
             final Key symmetricKey = keyGen.generateKey();
             final String symmId = IDGenerator.generateID(null);
+            generatedKey = true;
 
             final GenericOutboundSecurityToken symmetricSecurityToken = 
                 new GenericOutboundSecurityToken(symmId, WSSecurityTokenConstants.EncryptedKeyToken, symmetricKey);
@@ -555,6 +558,30 @@ public class OutboundWSSec {
             crypto.verifyTrust(x509Certificates, true, null);
         }
 
+        // Reuse a symmetric key that was wrapped for the cert before, if the generated
+        // key may be replaced and an EphemeralKeyCache is configured
+        EphemeralKeyCache ephemeralKeyCache = securityProperties.getEphemeralKeyCache();
+        if (generatedKey && ephemeralKeyCache != null) {
+            String cacheKey =
+                EphemeralKeyCache.createKey(
+                    x509Certificates[0], securityProperties.getEncryptionKeyTransportAlgorithm(),
+                    securityProperties.getEncryptionKeyTransportDigestAlgorithm(),
+                    securityProperties.getEncryptionKeyTransportMGFAlgorithm(),
+                    securityProperties.getEncryptionKeyTransportOAEPParams(),
+                    symmetricEncryptionAlgorithm
+                );
+            EphemeralKeyCache.WrappedKey wrappedKey = ephemeralKeyCache.get(cacheKey);
+            if (wrappedKey == null) {
+                outputProcessorChain.getSecurityContext().put(WSSConstants.PROP_EPHEMERAL_KEY_CACHE_KEY, cacheKey);
+            } else {
+                String keyAlgorithm = JCEAlgorithmMapper.getJCEKeyAlgorithmFromURI(symmetricEncryptionAlgorithm);
+                securityToken.setSecretKey("", new SecretKeySpec(wrappedKey.getEphemeralKey(), keyAlgorithm));
+                outputProcessorChain.getSecurityContext().put(
+                    WSSConstants.PROP_ENCRYPTED_EPHEMERAL_KEY, wrappedKey.getEncryptedEphemeralKey()
+                );
+            }
+        }
+
         // Create a new outbound EncryptedKey token for the cert
         final String id = IDGenerator.generateID(null);
         final GenericOutboundSecurityToken encryptedKeyToken =
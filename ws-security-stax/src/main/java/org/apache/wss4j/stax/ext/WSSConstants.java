@@ -205,6 +205,8 @@ public class WSSConstants extends XMLSecurityConstants {
     public static final String PROP_USE_THIS_TOKEN_ID_FOR_DERIVED_KEY = "PROP_USE_THIS_TOKEN_ID_FOR_DERIVED_KEY";
     public static final String PROP_USE_THIS_TOKEN_ID_FOR_SECURITYCONTEXTTOKEN = "PROP_USE_THIS_TOKEN_ID_FOR_SECURITYCONTEXTTOKEN";
     public static final String PROP_USE_THIS_TOKEN_ID_FOR_CUSTOM_TOKEN = "PROP_USE_THIS_TOKEN_ID_FOR_CUSTOM_TOKEN";
+    public static final String PROP_EPHEMERAL_KEY_CACHE_KEY = "PROP_EPHEMERAL_KEY_CACHE_KEY";
+    public static final String PROP_ENCRYPTED_EPHEMERAL_KEY = "PROP_ENCRYPTED_EPHEMERAL_KEY";
 
     public static final String PROP_TIMESTAMP_SECURITYEVENT = "PROP_TIMESTAMP";
 
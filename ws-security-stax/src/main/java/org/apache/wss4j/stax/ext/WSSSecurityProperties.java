@@ -41,6 +41,8 @@ import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.cache.ReplayCacheFactory;
 import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.EncryptedKeyCache;
+import org.apache.wss4j.common.crypto.EphemeralKeyCache;
 import org.apache.wss4j.common.crypto.Merlin;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
 import org.apache.wss4j.common.ext.WSSecurityException;
@@ -111,6 +113,7 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
     private ReplayCache samlOneTimeUseReplayCache;
+    private ReplayCacheFactory replayCacheFactory;
     private boolean enableTimestampReplayCache = true;
     private boolean enableNonceReplayCache = true;
     private boolean enableSamlOneTimeUseReplayCache = true;
@@ -118,6 +121,9 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     private List<String> audienceRestrictions = new ArrayList<>();
     private boolean requireTimestampExpires;
+    private EncryptedKeyCache encryptedKeyCache;
+    private EphemeralKeyCache ephemeralKeyCache;
+    private boolean useSingleThreadedDecryption;
 
     private CallbackHandler attachmentCallbackHandler;
     private Object msgContext;
@@ -167,6 +173,7 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.timestampReplayCache = wssSecurityProperties.timestampReplayCache;
         this.nonceReplayCache = wssSecurityProperties.nonceReplayCache;
         this.samlOneTimeUseReplayCache = wssSecurityProperties.samlOneTimeUseReplayCache;
+        this.replayCacheFactory = wssSecurityProperties.replayCacheFactory;
         this.enableTimestampReplayCache = wssSecurityProperties.enableTimestampReplayCache;
         this.enableNonceReplayCache = wssSecurityProperties.enableNonceReplayCache;
         this.enableSamlOneTimeUseReplayCache = wssSecurityProperties.enableSamlOneTimeUseReplayCache;
@@ -182,6 +189,9 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.msgContext = wssSecurityProperties.msgContext;
         this.audienceRestrictions = wssSecurityProperties.audienceRestrictions;
         this.requireTimestampExpires = wssSecurityProperties.requireTimestampExpires;
+        this.encryptedKeyCache = wssSecurityProperties.encryptedKeyCache;
+        this.ephemeralKeyCache = wssSecurityProperties.ephemeralKeyCache;
+        this.useSingleThreadedDecryption = wssSecurityProperties.useSingleThreadedDecryption;
     }
 
     /**
@@ -742,17 +752,36 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     }
     
     private synchronized ReplayCache createCache(String key) throws WSSecurityException {
-        ReplayCacheFactory replayCacheFactory = ReplayCacheFactory.newInstance();
+        ReplayCacheFactory cacheFactory = replayCacheFactory;
+        if (cacheFactory == null) {
+            cacheFactory = ReplayCacheFactory.newInstance();
+        }
         byte[] nonceValue;
         try {
             nonceValue = WSSConstants.generateBytes(10);
             String cacheKey = key + Base64.encode(nonceValue);
-            return replayCacheFactory.newReplayCache(cacheKey, null);
+            return cacheFactory.newReplayCache(cacheKey, null);
         } catch (XMLSecurityException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
         }
     }
     
+    /**
+     * Set the ReplayCacheFactory used to create the replay caches that have not been set
+     * explicitly. The default is the factory returned by ReplayCacheFactory.newInstance().
+     */
+    public void setReplayCacheFactory(ReplayCacheFactory replayCacheFactory) {
+        this.replayCacheFactory = replayCacheFactory;
+    }
+
+    /**
+     * Get the ReplayCacheFactory used to create the replay caches that have not been set
+     * explicitly
+     */
+    public ReplayCacheFactory getReplayCacheFactory() {
+        return replayCacheFactory;
+    }
+    
     /**
      * Set the replay cache for Nonces
      */
@@ -990,4 +1019,45 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     public void setRequireTimestampExpires(boolean requireTimestampExpires) {
         this.requireTimestampExpires = requireTimestampExpires;
     }
+
+    public EncryptedKeyCache getEncryptedKeyCache() {
+        return encryptedKeyCache;
+    }
+
+    /**
+     * Set a cache of the symmetric keys unwrapped from EncryptedKey elements, so that a
+     * repeated EncryptedKey is not unwrapped again. The default is null (no caching). The
+     * cache should not be shared with a configuration that uses a different decryption Crypto.
+     */
+    public void setEncryptedKeyCache(EncryptedKeyCache encryptedKeyCache) {
+        this.encryptedKeyCache = encryptedKeyCache;
+    }
+
+    public EphemeralKeyCache getEphemeralKeyCache() {
+        return ephemeralKeyCache;
+    }
+
+    /**
+     * Set a cache of wrapped ephemeral keys for outbound encryption. If it is set, then a
+     * symmetric key that was wrapped for the recipient certificate before is reused, together
+     * with the EncryptedKey, for a number of messages. The default is null (a new key is 
+     * generated for every message).
+     */
+    public void setEphemeralKeyCache(EphemeralKeyCache ephemeralKeyCache) {
+        this.ephemeralKeyCache = ephemeralKeyCache;
+    }
+
+    public boolean isUseSingleThreadedDecryption() {
+        return useSingleThreadedDecryption;
+    }
+
+    /**
+     * Whether to decrypt EncryptedData structures on the thread that reads the message,
+     * instead of in a separate decryption thread that writes the plaintext to a pipe. The
+     * ciphertext is then decrypted incrementally as the parser of the decrypted content asks
+     * for more input. The default is false.
+     */
+    public void setUseSingleThreadedDecryption(boolean useSingleThreadedDecryption) {
+        this.useSingleThreadedDecryption = useSingleThreadedDecryption;
+    }
 }
@@ -22,8 +22,12 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.xml.namespace.QName;
 
@@ -36,7 +40,9 @@ import org.apache.wss4j.stax.securityEvent.HttpsTokenSecurityEvent;
 import org.apache.wss4j.stax.securityEvent.WSSecurityEventConstants;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
 import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
 import org.apache.xml.security.stax.impl.InboundSecurityContextImpl;
+import org.apache.xml.security.stax.securityEvent.AbstractSecuredElementSecurityEvent;
 import org.apache.xml.security.stax.securityEvent.AlgorithmSuiteSecurityEvent;
 import org.apache.xml.security.stax.securityEvent.ContentEncryptedElementSecurityEvent;
 import org.apache.xml.security.stax.securityEvent.EncryptedElementSecurityEvent;
@@ -57,6 +63,16 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
             org.slf4j.LoggerFactory.getLogger(InboundWSSecurityContextImpl.class);
 
     private final Deque<SecurityEvent> securityEventQueue = new ArrayDeque<SecurityEvent>();
+
+    //the SignedElement, EncryptedElement and ContentEncrypted events of the queue, indexed by the id of
+    //their token and by their XMLSecEvent, so that the usage of the tokens can be identified without
+    //scanning the whole queue for every token. The lists are in the order of registration.
+    private final List<SignedElementSecurityEvent> signedElementSecurityEvents = new ArrayList<>();
+    private final Map<String, List<SignedElementSecurityEvent>> signedElementsByTokenId = new HashMap<>();
+    private final Map<XMLSecEvent, List<SignedElementSecurityEvent>> signedElementsByXMLSecEvent = new IdentityHashMap<>();
+    private final Map<String, List<AbstractSecuredElementSecurityEvent>> encryptedElementsByTokenId = new HashMap<>();
+    private final Map<XMLSecEvent, List<EncryptedElementSecurityEvent>> encryptedElementsByXMLSecEvent = new IdentityHashMap<>();
+
     private boolean operationSecurityEventOccured = false;
     private boolean messageEncryptionTokenOccured = false;
     private boolean allowRSA15KeyTransportAlgorithm = false;
@@ -110,10 +126,55 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
             forwardSecurityEvent(securityEvent);
 
             securityEventQueue.clear();
+            signedElementSecurityEvents.clear();
+            signedElementsByTokenId.clear();
+            signedElementsByXMLSecEvent.clear();
+            encryptedElementsByTokenId.clear();
+            encryptedElementsByXMLSecEvent.clear();
             return;
         }
 
         securityEventQueue.push(securityEvent);
+        indexSecurityEvent(securityEvent);
+    }
+
+    private void indexSecurityEvent(SecurityEvent securityEvent) {
+        if (WSSecurityEventConstants.SignedElement.equals(securityEvent.getSecurityEventType())) {
+            SignedElementSecurityEvent signedElementSecurityEvent = (SignedElementSecurityEvent) securityEvent;
+            signedElementSecurityEvents.add(signedElementSecurityEvent);
+            SecurityToken securityToken = signedElementSecurityEvent.getSecurityToken();
+            if (securityToken != null && securityToken.getId() != null) {
+                addToIndex(signedElementsByTokenId, securityToken.getId(), signedElementSecurityEvent);
+            }
+            if (signedElementSecurityEvent.getXmlSecEvent() != null) {
+                addToIndex(signedElementsByXMLSecEvent, signedElementSecurityEvent.getXmlSecEvent(), signedElementSecurityEvent);
+            }
+        } else if (WSSecurityEventConstants.EncryptedElement.equals(securityEvent.getSecurityEventType())) {
+            EncryptedElementSecurityEvent encryptedElementSecurityEvent = (EncryptedElementSecurityEvent) securityEvent;
+            SecurityToken securityToken = encryptedElementSecurityEvent.getSecurityToken();
+            if (securityToken != null && securityToken.getId() != null) {
+                addToIndex(encryptedElementsByTokenId, securityToken.getId(), encryptedElementSecurityEvent);
+            }
+            if (encryptedElementSecurityEvent.getXmlSecEvent() != null) {
+                addToIndex(encryptedElementsByXMLSecEvent, encryptedElementSecurityEvent.getXmlSecEvent(), encryptedElementSecurityEvent);
+            }
+        } else if (WSSecurityEventConstants.ContentEncrypted.equals(securityEvent.getSecurityEventType())) {
+            ContentEncryptedElementSecurityEvent contentEncryptedElementSecurityEvent =
+                    (ContentEncryptedElementSecurityEvent) securityEvent;
+            SecurityToken securityToken = contentEncryptedElementSecurityEvent.getSecurityToken();
+            if (securityToken != null && securityToken.getId() != null) {
+                addToIndex(encryptedElementsByTokenId, securityToken.getId(), contentEncryptedElementSecurityEvent);
+            }
+        }
+    }
+
+    private static <K, V> void addToIndex(Map<K, List<V>> index, K key, V value) {
+        List<V> values = index.get(key);
+        if (values == null) {
+            values = new ArrayList<>(2);
+            index.put(key, values);
+        }
+        values.add(value);
     }
 
     @Override
@@ -188,42 +249,54 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
                 TokenSecurityEvent<? extends InboundSecurityToken> newTokenSecurityEvent =
                         WSSUtils.createTokenSecurityEvent(securityToken, tokenSecurityEvent.getCorrelationID());
                 supportingTokens = addTokenSecurityEvent(newTokenSecurityEvent, supportingTokens);
-                securityEventDeque.offer(newTokenSecurityEvent);
             }
-            //remove old TokenSecurityEvent so that only root tokens are in the queue
-            securityEventDeque.remove(tokenSecurityEvent);
+        }
+        //replace the old TokenSecurityEvents with the new ones so that only root tokens are in the queue
+        if (!tokenSecurityEvents.isEmpty()) {
+            Set<SecurityEvent> oldTokenSecurityEvents =
+                    Collections.newSetFromMap(new IdentityHashMap<SecurityEvent, Boolean>());
+            oldTokenSecurityEvents.addAll(tokenSecurityEvents);
+            List<SecurityEvent> securityEvents = new ArrayList<>(securityEventDeque);
+            securityEventDeque.clear();
+            for (int i = 0; i < securityEvents.size(); i++) {
+                SecurityEvent securityEvent = securityEvents.get(i);
+                if (!oldTokenSecurityEvents.contains(securityEvent)) {
+                    securityEventDeque.offer(securityEvent);
+                }
+            }
+            securityEventDeque.addAll(supportingTokens);
         }
 
         Iterator<TokenSecurityEvent<? extends InboundSecurityToken>> supportingTokensIterator = supportingTokens.iterator();
         while (supportingTokensIterator.hasNext()) {
             TokenSecurityEvent<? extends InboundSecurityToken> tokenSecurityEvent = supportingTokensIterator.next();
-            List<InboundSecurityToken> signingSecurityTokens = isSignedToken(tokenSecurityEvent, securityEventDeque, httpsTokenSecurityEvent);
+            List<InboundSecurityToken> signingSecurityTokens = isSignedToken(tokenSecurityEvent, httpsTokenSecurityEvent);
 
             List<QName> signatureElementPath = new ArrayList<>(4);
             signatureElementPath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
             signatureElementPath.add(WSSConstants.TAG_dsig_Signature);
-            boolean signsSignature = signsElement(tokenSecurityEvent, signatureElementPath, securityEventDeque);
-            boolean encryptsSignature = encryptsElement(tokenSecurityEvent, signatureElementPath, securityEventDeque);
+            boolean signsSignature = signsElement(tokenSecurityEvent, signatureElementPath);
+            boolean encryptsSignature = encryptsElement(tokenSecurityEvent, signatureElementPath);
 
             List<QName> signatureConfirmationElementPath = new ArrayList<>(4);
             signatureConfirmationElementPath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
             signatureConfirmationElementPath.add(WSSConstants.TAG_wsse11_SignatureConfirmation);
-            boolean signsSignatureConfirmation = signsElement(tokenSecurityEvent, signatureConfirmationElementPath, securityEventDeque);
-            boolean encryptsSignatureConfirmation = encryptsElement(tokenSecurityEvent, signatureConfirmationElementPath, securityEventDeque);
+            boolean signsSignatureConfirmation = signsElement(tokenSecurityEvent, signatureConfirmationElementPath);
+            boolean encryptsSignatureConfirmation = encryptsElement(tokenSecurityEvent, signatureConfirmationElementPath);
 
             List<QName> timestampElementPath = new ArrayList<>(4);
             timestampElementPath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
             timestampElementPath.add(WSSConstants.TAG_wsu_Timestamp);
-            boolean signsTimestamp = signsElement(tokenSecurityEvent, timestampElementPath, securityEventDeque);
+            boolean signsTimestamp = signsElement(tokenSecurityEvent, timestampElementPath);
 
             List<QName> usernameTokenElementPath = new ArrayList<>(4);
             usernameTokenElementPath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
             usernameTokenElementPath.add(WSSConstants.TAG_wsse_UsernameToken);
-            boolean encryptsUsernameToken = encryptsElement(tokenSecurityEvent, usernameTokenElementPath, securityEventDeque);
+            boolean encryptsUsernameToken = encryptsElement(tokenSecurityEvent, usernameTokenElementPath);
 
             boolean transportSecurityActive = Boolean.TRUE == get(WSSConstants.TRANSPORT_SECURITY_ACTIVE);
 
-            List<InboundSecurityToken> encryptingSecurityTokens = isEncryptedToken(tokenSecurityEvent, securityEventDeque, httpsTokenSecurityEvent);
+            List<InboundSecurityToken> encryptingSecurityTokens = isEncryptedToken(tokenSecurityEvent, httpsTokenSecurityEvent);
 
             boolean signatureUsage = tokenSecurityEvent.getSecurityToken().getTokenUsages().contains(WSSecurityTokenConstants.TokenUsage_Signature);
             boolean encryptionUsage = tokenSecurityEvent.getSecurityToken().getTokenUsages().contains(WSSecurityTokenConstants.TokenUsage_Encryption);
@@ -285,8 +358,7 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
                     signedSupportingTokens,
                     signedEndorsingSupportingTokens,
                     signedEncryptedSupportingTokens,
-                    signedEndorsingEncryptedSupportingTokens,
-                    securityEventDeque);
+                    signedEndorsingEncryptedSupportingTokens);
 
             TokenSecurityEvent<? extends InboundSecurityToken> tokenSecurityEvent =
                     getTokenSecurityEvent(messageSignatureToken, tokenSecurityEvents);
@@ -392,35 +464,34 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
             List<TokenSecurityEvent<? extends InboundSecurityToken>> signedSupportingTokens,
             List<TokenSecurityEvent<? extends InboundSecurityToken>> signedEndorsingSupportingTokens,
             List<TokenSecurityEvent<? extends InboundSecurityToken>> signedEncryptedSupportingTokens,
-            List<TokenSecurityEvent<? extends InboundSecurityToken>> signedEndorsingEncryptedSupportingTokens,
-            Deque<SecurityEvent> securityEventDeque
+            List<TokenSecurityEvent<? extends InboundSecurityToken>> signedEndorsingEncryptedSupportingTokens
     ) throws XMLSecurityException {
 
         //todo we have to check if the signingTokens also cover the other supporting tokens!
         for (int i = 0; i < signedSupportingTokens.size(); i++) {
             TokenSecurityEvent<? extends InboundSecurityToken> tokenSecurityEvent = signedSupportingTokens.get(i);
-            List<? extends InboundSecurityToken> signingSecurityTokens = getSigningToken(tokenSecurityEvent, securityEventDeque);
+            List<? extends InboundSecurityToken> signingSecurityTokens = getSigningToken(tokenSecurityEvent);
             if (signingSecurityTokens.size() == 1) {
                 return signingSecurityTokens.get(0);
             }
         }
         for (int i = 0; i < signedEndorsingSupportingTokens.size(); i++) {
             TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent = signedEndorsingSupportingTokens.get(i);
-            List<InboundSecurityToken> signingSecurityTokens = getSigningToken(tokenSecurityEvent, securityEventDeque);
+            List<InboundSecurityToken> signingSecurityTokens = getSigningToken(tokenSecurityEvent);
             if (signingSecurityTokens.size() == 1) {
                 return signingSecurityTokens.get(0);
             }
         }
         for (int i = 0; i < signedEncryptedSupportingTokens.size(); i++) {
             TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent = signedEncryptedSupportingTokens.get(i);
-            List<InboundSecurityToken> signingSecurityTokens = getSigningToken(tokenSecurityEvent, securityEventDeque);
+            List<InboundSecurityToken> signingSecurityTokens = getSigningToken(tokenSecurityEvent);
             if (signingSecurityTokens.size() == 1) {
                 return signingSecurityTokens.get(0);
             }
         }
         for (int i = 0; i < signedEndorsingEncryptedSupportingTokens.size(); i++) {
             TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent = signedEndorsingEncryptedSupportingTokens.get(i);
-            List<InboundSecurityToken> signingSecurityTokens = getSigningToken(tokenSecurityEvent, securityEventDeque);
+            List<InboundSecurityToken> signingSecurityTokens = getSigningToken(tokenSecurityEvent);
             if (signingSecurityTokens.size() == 1) {
                 return signingSecurityTokens.get(0);
             }
@@ -428,20 +499,18 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
         return null;
     }
 
-    private List<InboundSecurityToken> getSigningToken(TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent, Deque<SecurityEvent> securityEventDeque) throws XMLSecurityException {
+    private List<InboundSecurityToken> getSigningToken(TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent) throws XMLSecurityException {
         List<InboundSecurityToken> signingSecurityTokens = new ArrayList<>();
 
-        for (Iterator<SecurityEvent> iterator = securityEventDeque.iterator(); iterator.hasNext(); ) {
-            SecurityEvent securityEvent = iterator.next();
-            if (WSSecurityEventConstants.SignedElement.equals(securityEvent.getSecurityEventType())) {
-                SignedElementSecurityEvent signedElementSecurityEvent = (SignedElementSecurityEvent) securityEvent;
-                if (signedElementSecurityEvent.isSigned()
-                        && WSSUtils.pathMatches(
-                        signedElementSecurityEvent.getElementPath(),
-                        ((InboundSecurityToken)tokenSecurityEvent.getSecurityToken()).getElementPath(), true, false)
-                        ) {
-                    signingSecurityTokens.add((InboundSecurityToken)signedElementSecurityEvent.getSecurityToken());
-                }
+        //newest first, like the queue
+        for (int i = signedElementSecurityEvents.size() - 1; i >= 0; i--) {
+            SignedElementSecurityEvent signedElementSecurityEvent = signedElementSecurityEvents.get(i);
+            if (signedElementSecurityEvent.isSigned()
+                    && WSSUtils.pathMatches(
+                    signedElementSecurityEvent.getElementPath(),
+                    ((InboundSecurityToken)tokenSecurityEvent.getSecurityToken()).getElementPath(), true, false)
+                    ) {
+                signingSecurityTokens.add((InboundSecurityToken)signedElementSecurityEvent.getSecurityToken());
             }
         }
         return signingSecurityTokens;
@@ -462,22 +531,21 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
     }
 
     private List<InboundSecurityToken> isSignedToken(TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent,
-                                              Deque<SecurityEvent> securityEventDeque,
                                               HttpsTokenSecurityEvent httpsTokenSecurityEvent) throws XMLSecurityException {
         List<InboundSecurityToken> securityTokenList = new ArrayList<>();
         if (httpsTokenSecurityEvent != null) {
             securityTokenList.add(httpsTokenSecurityEvent.getSecurityToken());
             return securityTokenList;
         }
-        for (Iterator<SecurityEvent> iterator = securityEventDeque.iterator(); iterator.hasNext(); ) {
-            SecurityEvent securityEvent = iterator.next();
-            if (WSSecurityEventConstants.SignedElement.equals(securityEvent.getSecurityEventType())) {
-                SignedElementSecurityEvent signedElementSecurityEvent = (SignedElementSecurityEvent) securityEvent;
+        if (tokenSecurityEvent.getSecurityToken() == null) {
+            return securityTokenList;
+        }
+        List<SignedElementSecurityEvent> signedElementSecurityEventList =
+                signedElementsByXMLSecEvent.get(((InboundSecurityToken)tokenSecurityEvent.getSecurityToken()).getXMLSecEvent());
+        if (signedElementSecurityEventList != null) {
+            for (int i = signedElementSecurityEventList.size() - 1; i >= 0; i--) {
+                SignedElementSecurityEvent signedElementSecurityEvent = signedElementSecurityEventList.get(i);
                 if (signedElementSecurityEvent.isSigned()
-                        && tokenSecurityEvent.getSecurityToken() != null
-                        && signedElementSecurityEvent.getXmlSecEvent() != null
-                        && signedElementSecurityEvent.getXmlSecEvent() == 
-                            ((InboundSecurityToken)tokenSecurityEvent.getSecurityToken()).getXMLSecEvent()
                         && !securityTokenList.contains((InboundSecurityToken)signedElementSecurityEvent.getSecurityToken())) {
                     securityTokenList.add((InboundSecurityToken)signedElementSecurityEvent.getSecurityToken());
                 }
@@ -487,7 +555,6 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
     }
 
     private List<InboundSecurityToken> isEncryptedToken(TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent,
-                                                 Deque<SecurityEvent> securityEventDeque,
                                                  HttpsTokenSecurityEvent httpsTokenSecurityEvent) throws XMLSecurityException {
 
         List<InboundSecurityToken> securityTokenList = new ArrayList<>();
@@ -495,15 +562,15 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
             securityTokenList.add(httpsTokenSecurityEvent.getSecurityToken());
             return securityTokenList;
         }
-        for (Iterator<SecurityEvent> iterator = securityEventDeque.iterator(); iterator.hasNext(); ) {
-            SecurityEvent securityEvent = iterator.next();
-            if (WSSecurityEventConstants.EncryptedElement.equals(securityEvent.getSecurityEventType())) {
-                EncryptedElementSecurityEvent encryptedElementSecurityEvent = (EncryptedElementSecurityEvent) securityEvent;
+        if (tokenSecurityEvent.getSecurityToken() == null) {
+            return securityTokenList;
+        }
+        List<EncryptedElementSecurityEvent> encryptedElementSecurityEventList =
+                encryptedElementsByXMLSecEvent.get(((InboundSecurityToken)tokenSecurityEvent.getSecurityToken()).getXMLSecEvent());
+        if (encryptedElementSecurityEventList != null) {
+            for (int i = encryptedElementSecurityEventList.size() - 1; i >= 0; i--) {
+                EncryptedElementSecurityEvent encryptedElementSecurityEvent = encryptedElementSecurityEventList.get(i);
                 if (encryptedElementSecurityEvent.isEncrypted()
-                        && tokenSecurityEvent.getSecurityToken() != null
-                        && encryptedElementSecurityEvent.getXmlSecEvent() != null
-                        && encryptedElementSecurityEvent.getXmlSecEvent() == 
-                            ((InboundSecurityToken)tokenSecurityEvent.getSecurityToken()).getXMLSecEvent()
                         && !securityTokenList.contains((InboundSecurityToken)encryptedElementSecurityEvent.getSecurityToken())) {
                     securityTokenList.add((InboundSecurityToken)encryptedElementSecurityEvent.getSecurityToken());
                 }
@@ -512,55 +579,52 @@ public class InboundWSSecurityContextImpl extends InboundSecurityContextImpl imp
         return securityTokenList;
     }
 
-    private boolean signsElement(TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent, List<QName> elementPath,
-                                 Deque<SecurityEvent> securityEventDeque) throws XMLSecurityException {
-        for (Iterator<SecurityEvent> iterator = securityEventDeque.iterator(); iterator.hasNext(); ) {
-            SecurityEvent securityEvent = iterator.next();
-            if (WSSecurityEventConstants.SignedElement.equals(securityEvent.getSecurityEventType())) {
-                SignedElementSecurityEvent signedElementSecurityEvent = (SignedElementSecurityEvent) securityEvent;
-                if (signedElementSecurityEvent.isSigned()
-                        && matchesTokenOrWrappedTokenId(tokenSecurityEvent.getSecurityToken(),
-                        signedElementSecurityEvent.getSecurityToken().getId(),
-                        SecurityTokenConstants.TokenUsage_Signature)
-                        && WSSUtils.pathMatches(elementPath, signedElementSecurityEvent.getElementPath(), true, false)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    private boolean signsElement(TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent, List<QName> elementPath)
+            throws XMLSecurityException {
+        return signsElement(tokenSecurityEvent.getSecurityToken(), elementPath);
     }
 
-    private boolean matchesTokenOrWrappedTokenId(
-            SecurityToken securityToken, String id,
-            SecurityTokenConstants.TokenUsage tokenUsage) throws XMLSecurityException {
-        if (securityToken.getId().equals(id) && securityToken.getTokenUsages().contains(tokenUsage)) {
-            return true;
+    //the element is signed by the token or by one of its wrapped tokens
+    private boolean signsElement(SecurityToken securityToken, List<QName> elementPath) throws XMLSecurityException {
+        if (securityToken.getTokenUsages().contains(SecurityTokenConstants.TokenUsage_Signature)) {
+            List<SignedElementSecurityEvent> signedElementSecurityEventList = signedElementsByTokenId.get(securityToken.getId());
+            if (signedElementSecurityEventList != null) {
+                for (int i = 0; i < signedElementSecurityEventList.size(); i++) {
+                    SignedElementSecurityEvent signedElementSecurityEvent = signedElementSecurityEventList.get(i);
+                    if (signedElementSecurityEvent.isSigned()
+                            && WSSUtils.pathMatches(elementPath, signedElementSecurityEvent.getElementPath(), true, false)) {
+                        return true;
+                    }
+                }
+            }
         }
         List<? extends SecurityToken> wrappedTokens = securityToken.getWrappedTokens();
         for (int i = 0; i < wrappedTokens.size(); i++) {
-            boolean match = matchesTokenOrWrappedTokenId(wrappedTokens.get(i), id, tokenUsage);
-            if (match) {
-                return match;
+            if (signsElement(wrappedTokens.get(i), elementPath)) {
+                return true;
             }
         }
         return false;
     }
 
-    private boolean encryptsElement(TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent, List<QName> elementPath,
-                                    Deque<SecurityEvent> securityEventDeque) throws XMLSecurityException {
-        for (Iterator<SecurityEvent> iterator = securityEventDeque.iterator(); iterator.hasNext(); ) {
-            SecurityEvent securityEvent = iterator.next();
+    private boolean encryptsElement(TokenSecurityEvent<? extends SecurityToken> tokenSecurityEvent, List<QName> elementPath)
+            throws XMLSecurityException {
+        List<AbstractSecuredElementSecurityEvent> encryptedElementSecurityEventList =
+                encryptedElementsByTokenId.get(tokenSecurityEvent.getSecurityToken().getId());
+        if (encryptedElementSecurityEventList == null) {
+            return false;
+        }
+        for (int i = 0; i < encryptedElementSecurityEventList.size(); i++) {
+            AbstractSecuredElementSecurityEvent securityEvent = encryptedElementSecurityEventList.get(i);
             if (WSSecurityEventConstants.EncryptedElement.equals(securityEvent.getSecurityEventType())) {
                 EncryptedElementSecurityEvent encryptedElementSecurityEvent = (EncryptedElementSecurityEvent) securityEvent;
                 if (encryptedElementSecurityEvent.isEncrypted()
-                        && encryptedElementSecurityEvent.getSecurityToken().getId().equals(tokenSecurityEvent.getSecurityToken().getId())
                         && WSSUtils.pathMatches(elementPath, encryptedElementSecurityEvent.getElementPath(), true, false)) {
                     return true;
                 }
-            } else if (WSSecurityEventConstants.ContentEncrypted.equals(securityEvent.getSecurityEventType())) {
+            } else {
                 ContentEncryptedElementSecurityEvent contentEncryptedElementSecurityEvent = (ContentEncryptedElementSecurityEvent) securityEvent;
                 if (contentEncryptedElementSecurityEvent.isEncrypted()
-                        && contentEncryptedElementSecurityEvent.getSecurityToken().getId().equals(tokenSecurityEvent.getSecurityToken().getId())
                         && contentEncryptedElementSecurityEvent.getXmlSecEvent() ==
                             ((InboundSecurityToken)tokenSecurityEvent.getSecurityToken()).getXMLSecEvent()
                         && WSSUtils.pathMatches(elementPath, contentEncryptedElementSecurityEvent.getElementPath(), true, false)) {
@@ -54,9 +54,14 @@ public class BinarySecurityTokenInputHandler extends AbstractInputSecurityHeader
     @Override
     public void handle(final InputProcessorChain inputProcessorChain, final XMLSecurityProperties securityProperties,
                        final Deque<XMLSecEvent> eventQueue, final Integer index) throws XMLSecurityException {
-        @SuppressWarnings("unchecked")
-        final BinarySecurityTokenType binarySecurityTokenType =
-                ((JAXBElement<BinarySecurityTokenType>) parseStructure(eventQueue, index, securityProperties)).getValue();
+        final List<XMLSecEvent> xmlSecEvents = getResponsibleXMLSecEvents(eventQueue, index);
+        BinarySecurityTokenType binarySecurityTokenType = SecurityHeaderElementBinder.bindBinarySecurityToken(xmlSecEvents);
+        if (binarySecurityTokenType == null) {
+            @SuppressWarnings("unchecked")
+            JAXBElement<BinarySecurityTokenType> jaxbElement =
+                    (JAXBElement<BinarySecurityTokenType>) parseStructure(eventQueue, index, securityProperties);
+            binarySecurityTokenType = jaxbElement.getValue();
+        }
 
         checkBSPCompliance(inputProcessorChain, binarySecurityTokenType);
 
@@ -67,7 +72,6 @@ public class BinarySecurityTokenInputHandler extends AbstractInputSecurityHeader
         final WSInboundSecurityContext wsInboundSecurityContext = (WSInboundSecurityContext) inputProcessorChain.getSecurityContext();
         final WSSSecurityProperties wssSecurityProperties = (WSSSecurityProperties) securityProperties;
         final List<QName> elementPath = getElementPath(eventQueue);
-        final List<XMLSecEvent> xmlSecEvents = getResponsibleXMLSecEvents(eventQueue, index);
 
         final TokenContext tokenContext = new TokenContext(wssSecurityProperties, wsInboundSecurityContext, xmlSecEvents, elementPath);
 
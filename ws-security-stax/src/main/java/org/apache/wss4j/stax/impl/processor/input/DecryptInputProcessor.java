@@ -20,20 +20,38 @@ package org.apache.wss4j.stax.impl.processor.input;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
 
 import org.apache.wss4j.binding.wss10.SecurityTokenReferenceType;
 import org.apache.wss4j.common.bsp.BSPRule;
@@ -53,10 +71,12 @@ import org.apache.xml.security.binding.xmldsig.TransformType;
 import org.apache.xml.security.binding.xmldsig.TransformsType;
 import org.apache.xml.security.binding.xmlenc.CipherReferenceType;
 import org.apache.xml.security.binding.xmlenc.EncryptedDataType;
+import org.apache.xml.security.binding.xmlenc.EncryptedKeyType;
 import org.apache.xml.security.binding.xmlenc.ReferenceList;
 import org.apache.xml.security.binding.xmlenc.ReferenceType;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.config.ConfigurationProperties;
+import org.apache.xml.security.stax.config.JCEAlgorithmMapper;
 import org.apache.xml.security.stax.config.TransformerAlgorithmMapper;
 import org.apache.xml.security.stax.ext.DocumentContext;
 import org.apache.xml.security.stax.ext.InboundSecurityContext;
@@ -65,17 +85,37 @@ import org.apache.xml.security.stax.ext.SecurePart;
 import org.apache.xml.security.stax.ext.XMLSecurityConstants;
 import org.apache.xml.security.stax.ext.XMLSecurityProperties;
 import org.apache.xml.security.stax.ext.XMLSecurityUtils;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecEventFactory;
+import org.apache.xml.security.stax.ext.stax.XMLSecNamespace;
 import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+import org.apache.xml.security.stax.impl.XMLSecurityEventReader;
 import org.apache.xml.security.stax.impl.processor.input.AbstractDecryptInputProcessor;
+import org.apache.xml.security.stax.impl.processor.input.XMLEncryptedKeyInputHandler;
+import org.apache.xml.security.stax.impl.util.FullyBufferedOutputStream;
+import org.apache.xml.security.stax.impl.util.IDGenerator;
+import org.apache.xml.security.stax.impl.util.IVSplittingOutputStream;
 import org.apache.xml.security.stax.impl.util.LimitingInputStream;
+import org.apache.xml.security.stax.impl.util.MultiInputStream;
+import org.apache.xml.security.stax.impl.util.ReplaceableOuputStream;
+import org.apache.xml.security.stax.impl.util.UnsynchronizedByteArrayInputStream;
 import org.apache.xml.security.stax.securityEvent.ContentEncryptedElementSecurityEvent;
 import org.apache.xml.security.stax.securityEvent.EncryptedElementSecurityEvent;
 import org.apache.xml.security.stax.securityEvent.TokenSecurityEvent;
 import org.apache.xml.security.stax.securityToken.InboundSecurityToken;
 import org.apache.xml.security.stax.securityToken.SecurityToken;
+import org.apache.xml.security.stax.securityToken.SecurityTokenConstants;
+import org.apache.xml.security.stax.securityToken.SecurityTokenFactory;
+import org.apache.xml.security.stax.securityToken.SecurityTokenProvider;
 
 /**
- * Processor for decryption of EncryptedData XML structures
+ * Processor for decryption of EncryptedData XML structures.
+ *
+ * By default the CipherValue of each EncryptedData is decrypted by a separate decryption thread,
+ * which writes the plaintext to a pipe that is read by the StAX parser of the decrypted content.
+ * If WSSSecurityProperties.isUseSingleThreadedDecryption() is set then this processor decrypts
+ * on the caller's thread instead: the parser of the decrypted content reads from a stream that
+ * pulls the next chunk of the CipherValue through the cipher whenever it needs more input.
  */
 public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
 
@@ -87,11 +127,23 @@ public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
 
     private List<DeferredAttachment> attachmentReferences = new ArrayList<>();
 
+    private final KeyInfoType keyInfoType;
+    private final boolean singleThreadedDecryption;
+    //only the namespace and the local name are compared, so this matches the wrapper element name
+    //of AbstractDecryptInputProcessor, which is checked by the AbstractDecryptedEventReaderInputProcessor
+    private final QName wrapperElementName = new QName("http://dummy", "dummy", IDGenerator.generateID(null));
+    private final ArrayDeque<XMLSecEvent> tmpXmlEventList = new ArrayDeque<>();
+    //the DecryptedEventReaderInputProcessor joins its decryption thread. In single-threaded mode
+    //it gets a thread that is never started, so that join() returns immediately
+    private Thread unstartedDecryptionThread;
+
     public DecryptInputProcessor(KeyInfoType keyInfoType, ReferenceList referenceList,
                                  WSSSecurityProperties securityProperties, WSInboundSecurityContext securityContext)
             throws XMLSecurityException {
 
         super(keyInfoType, referenceList, securityProperties);
+        this.keyInfoType = keyInfoType;
+        this.singleThreadedDecryption = securityProperties.isUseSingleThreadedDecryption();
         checkBSPCompliance(keyInfoType, referenceList, securityContext, BSPRule.R3006);
     }
 
@@ -120,6 +172,369 @@ public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
         }
     }
 
+    @Override
+    public XMLSecEvent processNextHeaderEvent(InputProcessorChain inputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
+        if (singleThreadedDecryption) {
+            return processEvent(inputProcessorChain, true);
+        }
+        return super.processNextHeaderEvent(inputProcessorChain);
+    }
+
+    @Override
+    public XMLSecEvent processNextEvent(InputProcessorChain inputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
+        if (singleThreadedDecryption) {
+            return processEvent(inputProcessorChain, false);
+        }
+        return super.processNextEvent(inputProcessorChain);
+    }
+
+    /**
+     * The single-threaded counterpart of AbstractDecryptInputProcessor's event processing. The
+     * EncryptedData structure is handled in the same way, but the plaintext is read from a
+     * CipherValueInputStream instead of from the pipe of a decryption thread.
+     */
+    private XMLSecEvent processEvent(InputProcessorChain inputProcessorChain, boolean isSecurityHeaderEvent)
+            throws XMLStreamException, XMLSecurityException {
+
+        if (!tmpXmlEventList.isEmpty()) {
+            return tmpXmlEventList.pollLast();
+        }
+
+        XMLSecEvent xmlSecEvent = isSecurityHeaderEvent
+                ? inputProcessorChain.processHeaderEvent()
+                : inputProcessorChain.processEvent();
+
+        boolean encryptedHeader = false;
+
+        if (xmlSecEvent.getEventType() != XMLStreamConstants.START_ELEMENT) {
+            return xmlSecEvent;
+        }
+        XMLSecStartElement xmlSecStartElement = xmlSecEvent.asStartElement();
+
+        //buffer the events until the EncryptedData Element appears and discard it if we found the reference inside it
+        //otherwise replay it
+        if (XMLSecurityConstants.TAG_wsse11_EncryptedHeader.equals(xmlSecStartElement.getName())) {
+            xmlSecEvent = readAndBufferEncryptedHeader(inputProcessorChain, isSecurityHeaderEvent, xmlSecEvent);
+            xmlSecStartElement = xmlSecEvent.asStartElement();
+            encryptedHeader = true;
+        }
+
+        if (!WSSConstants.TAG_xenc_EncryptedData.equals(xmlSecStartElement.getName())) {
+            return xmlSecEvent;
+        }
+
+        ReferenceType referenceType = null;
+        if (getReferences() != null) {
+            referenceType = matchesReferenceId(xmlSecStartElement);
+            if (referenceType == null) {
+                //if the events were not for us (no matching reference-id the we can replay the EncryptedHeader events
+                if (!tmpXmlEventList.isEmpty()) {
+                    return tmpXmlEventList.pollLast();
+                }
+                return xmlSecEvent;
+            }
+            //duplicate id's are forbidden
+            if (getProcessedReferences().contains(referenceType)) {
+                throw new XMLSecurityException("signature.Verification.MultipleIDs");
+            }
+
+            getProcessedReferences().add(referenceType);
+        }
+        tmpXmlEventList.clear();
+
+        //the following logic reads the encryptedData structure and doesn't pass them further
+        //through the chain
+        InputProcessorChain subInputProcessorChain = inputProcessorChain.createSubChain(this);
+
+        EncryptedDataType encryptedDataType =
+                parseEncryptedDataStructure(isSecurityHeaderEvent, xmlSecEvent, subInputProcessorChain);
+        if (encryptedDataType.getId() == null) {
+            encryptedDataType.setId(IDGenerator.generateID(null));
+        }
+
+        InboundSecurityToken inboundSecurityToken =
+                getSecurityToken(inputProcessorChain, xmlSecStartElement, encryptedDataType);
+        handleSecurityToken(inboundSecurityToken, inputProcessorChain.getSecurityContext(), encryptedDataType);
+
+        final String algorithmURI = encryptedDataType.getEncryptionMethod().getAlgorithm();
+        final int ivLength = JCEAlgorithmMapper.getIVLengthFromURI(algorithmURI) / 8;
+        Cipher symCipher = getCipher(algorithmURI);
+
+        if (encryptedDataType.getCipherData().getCipherReference() != null) {
+            handleCipherReference(inputProcessorChain, encryptedDataType, symCipher, inboundSecurityToken);
+            subInputProcessorChain.reset();
+            return isSecurityHeaderEvent
+                    ? subInputProcessorChain.processHeaderEvent()
+                    : subInputProcessorChain.processEvent();
+        }
+
+        //the plaintext is decrypted on demand by the CipherValueInputStream
+        Key secretKey = inboundSecurityToken.getSecretKey(algorithmURI, XMLSecurityConstants.Enc,
+                encryptedDataType.getId());
+        secretKey = XMLSecurityUtils.prepareSecretKey(algorithmURI, secretKey.getEncoded());
+
+        XMLSecStartElement parentXMLSecStartElement = xmlSecStartElement.getParentXMLSecStartElement();
+        if (encryptedHeader) {
+            parentXMLSecStartElement = parentXMLSecStartElement.getParentXMLSecStartElement();
+        }
+        AbstractDecryptedEventReaderInputProcessor decryptedEventReaderInputProcessor =
+                newDecryptedEventReaderInputProcessor(encryptedHeader, parentXMLSecStartElement,
+                        encryptedDataType, inboundSecurityToken, inputProcessorChain.getSecurityContext());
+
+        //add the new created EventReader processor to the chain.
+        inputProcessorChain.addProcessor(decryptedEventReaderInputProcessor);
+
+        inputProcessorChain.getDocumentContext().setIsInEncryptedContent(
+                inputProcessorChain.getProcessors().indexOf(decryptedEventReaderInputProcessor),
+                decryptedEventReaderInputProcessor);
+
+        //fire here only ContentEncryptedElementEvents
+        //the other ones will be fired later, because we don't know the encrypted element name yet
+        //important: this must occur after setIsInEncryptedContent!
+        if (SecurePart.Modifier.Content.getModifier().equals(encryptedDataType.getType())) {
+            handleEncryptedContent(inputProcessorChain, xmlSecStartElement.getParentXMLSecStartElement(),
+                    inboundSecurityToken, encryptedDataType);
+        }
+
+        if (unstartedDecryptionThread == null) {
+            unstartedDecryptionThread = new Thread();
+        }
+        decryptedEventReaderInputProcessor.setDecryptionThread(unstartedDecryptionThread);
+
+        InputStream prologInputStream;
+        InputStream epilogInputStream;
+        try {
+            prologInputStream = writeWrapperStartElement(xmlSecStartElement);
+            epilogInputStream = writeWrapperEndElement();
+        } catch (IOException e) {
+            throw new XMLSecurityException(e);
+        }
+
+        InputStream decryptInputStream =
+                new CipherValueInputStream(subInputProcessorChain, isSecurityHeaderEvent,
+                        symCipher, secretKey, ivLength);
+        decryptInputStream = applyTransforms(referenceType, decryptInputStream);
+
+        //spec says (4.2): "The cleartext octet sequence obtained in step 3 is
+        //interpreted as UTF-8 encoded character data."
+        XMLStreamReader xmlStreamReader =
+                ((XMLInputFactory) inputProcessorChain.getSecurityContext().get(
+                        XMLSecurityConstants.XMLINPUTFACTORY)).createXMLStreamReader(
+                                new MultiInputStream(prologInputStream, decryptInputStream, epilogInputStream),
+                                "UTF-8");
+
+        //forward to wrapper element. This already reads the start of the plaintext
+        try {
+            forwardToWrapperElement(xmlStreamReader);
+        } catch (XMLStreamException e) {
+            throwDecryptionFailure(e);
+            throw e;
+        }
+
+        decryptedEventReaderInputProcessor.setXmlStreamReader(xmlStreamReader);
+
+        if (isSecurityHeaderEvent) {
+            return decryptedEventReaderInputProcessor.processNextHeaderEvent(inputProcessorChain);
+        } else {
+            return decryptedEventReaderInputProcessor.processNextEvent(inputProcessorChain);
+        }
+    }
+
+    private XMLSecEvent readAndBufferEncryptedHeader(InputProcessorChain inputProcessorChain, boolean isSecurityHeaderEvent,
+                                                     XMLSecEvent xmlSecEvent) throws XMLStreamException, XMLSecurityException {
+
+        InputProcessorChain subInputProcessorChain = inputProcessorChain.createSubChain(this);
+        do {
+            tmpXmlEventList.push(xmlSecEvent);
+
+            subInputProcessorChain.reset();
+            if (isSecurityHeaderEvent) {
+                xmlSecEvent = subInputProcessorChain.processHeaderEvent();
+            } else {
+                xmlSecEvent = subInputProcessorChain.processEvent();
+            }
+        }
+        while (!(xmlSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT
+                && WSSConstants.TAG_xenc_EncryptedData.equals(xmlSecEvent.asStartElement().getName())));
+
+        tmpXmlEventList.push(xmlSecEvent);
+        return xmlSecEvent;
+    }
+
+    private EncryptedDataType parseEncryptedDataStructure(boolean isSecurityHeaderEvent, XMLSecEvent xmlSecEvent,
+                                                          InputProcessorChain subInputProcessorChain)
+            throws XMLStreamException, XMLSecurityException {
+
+        Deque<XMLSecEvent> xmlSecEvents = new ArrayDeque<>();
+        xmlSecEvents.push(xmlSecEvent);
+        XMLSecEvent encryptedDataXMLSecEvent;
+        int count = 0;
+        int keyInfoCount = 0;
+        do {
+            subInputProcessorChain.reset();
+            if (isSecurityHeaderEvent) {
+                encryptedDataXMLSecEvent = subInputProcessorChain.processHeaderEvent();
+            } else {
+                encryptedDataXMLSecEvent = subInputProcessorChain.processEvent();
+            }
+
+            xmlSecEvents.push(encryptedDataXMLSecEvent);
+            if (++count >= maximumAllowedEncryptedDataEvents) {
+                throw new XMLSecurityException("stax.xmlStructureSizeExceeded",
+                        new Object[] {maximumAllowedEncryptedDataEvents});
+            }
+
+            //the keyInfoCount is necessary to prevent early while-loop abort when the KeyInfo also contains a CipherValue.
+            if (encryptedDataXMLSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT
+                    && WSSConstants.TAG_dsig_KeyInfo.equals(encryptedDataXMLSecEvent.asStartElement().getName())) {
+                keyInfoCount++;
+            } else if (encryptedDataXMLSecEvent.getEventType() == XMLStreamConstants.END_ELEMENT
+                    && WSSConstants.TAG_dsig_KeyInfo.equals(encryptedDataXMLSecEvent.asEndElement().getName())) {
+                keyInfoCount--;
+            }
+        }
+        while (!((encryptedDataXMLSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT
+                && WSSConstants.TAG_xenc_CipherValue.equals(encryptedDataXMLSecEvent.asStartElement().getName())
+                || encryptedDataXMLSecEvent.getEventType() == XMLStreamConstants.END_ELEMENT
+                && WSSConstants.TAG_xenc_EncryptedData.equals(encryptedDataXMLSecEvent.asEndElement().getName()))
+                && keyInfoCount == 0));
+
+        xmlSecEvents.push(XMLSecEventFactory.createXmlSecEndElement(WSSConstants.TAG_xenc_CipherValue));
+        xmlSecEvents.push(XMLSecEventFactory.createXmlSecEndElement(WSSConstants.TAG_xenc_CipherData));
+        xmlSecEvents.push(XMLSecEventFactory.createXmlSecEndElement(WSSConstants.TAG_xenc_EncryptedData));
+
+        try {
+            Unmarshaller unmarshaller =
+                    XMLSecurityConstants.getJaxbUnmarshaller(getSecurityProperties().isDisableSchemaValidation());
+            @SuppressWarnings("unchecked")
+            JAXBElement<EncryptedDataType> encryptedDataTypeJAXBElement =
+                    (JAXBElement<EncryptedDataType>) unmarshaller.unmarshal(new XMLSecurityEventReader(xmlSecEvents, 0));
+            return encryptedDataTypeJAXBElement.getValue();
+        } catch (JAXBException e) {
+            throw new XMLSecurityException(e);
+        }
+    }
+
+    private InboundSecurityToken getSecurityToken(InputProcessorChain inputProcessorChain,
+                                                  XMLSecStartElement xmlSecStartElement,
+                                                  EncryptedDataType encryptedDataType) throws XMLSecurityException {
+        KeyInfoType keyInfo = keyInfoType;
+        if (keyInfo == null) {
+            keyInfo = encryptedDataType.getKeyInfo();
+        }
+
+        if (keyInfo != null) {
+            final EncryptedKeyType encryptedKeyType =
+                    XMLSecurityUtils.getQNameType(keyInfo.getContent(), WSSConstants.TAG_xenc_EncryptedKey);
+            if (encryptedKeyType != null) {
+                XMLEncryptedKeyInputHandler handler = new XMLEncryptedKeyInputHandler();
+                handler.handle(inputProcessorChain, encryptedKeyType, xmlSecStartElement, getSecurityProperties());
+
+                SecurityTokenProvider<? extends InboundSecurityToken> securityTokenProvider =
+                        inputProcessorChain.getSecurityContext().getSecurityTokenProvider(encryptedKeyType.getId());
+                return securityTokenProvider.getSecurityToken();
+            }
+        }
+
+        return SecurityTokenFactory.getInstance().getSecurityToken(
+                keyInfo, SecurityTokenConstants.KeyUsage_Decryption,
+                getSecurityProperties(), inputProcessorChain.getSecurityContext());
+    }
+
+    private Cipher getCipher(String algorithmURI) throws XMLSecurityException {
+        String jceName = JCEAlgorithmMapper.translateURItoJCEID(algorithmURI);
+        String jceProvider = JCEAlgorithmMapper.getJCEProviderFromURI(algorithmURI);
+        if (jceName == null) {
+            throw new XMLSecurityException("algorithms.NoSuchMap", new Object[] {algorithmURI});
+        }
+        try {
+            if (jceProvider != null) {
+                return Cipher.getInstance(jceName, jceProvider);
+            }
+            return Cipher.getInstance(jceName);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | NoSuchProviderException e) {
+            throw new XMLSecurityException(e);
+        }
+    }
+
+    private InputStream writeWrapperStartElement(XMLSecStartElement xmlSecStartElement) throws IOException {
+
+        //Next line is needed to declare the namespaces of the parents in the decrypted content:
+        //every element starts with "<prefix:localname xmlns:prefix="nsURI"> "
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append('<')
+            .append(wrapperElementName.getPrefix())
+            .append(':')
+            .append(wrapperElementName.getLocalPart())
+            .append(" xmlns:")
+            .append(wrapperElementName.getPrefix())
+            .append("=\"")
+            .append(wrapperElementName.getNamespaceURI())
+            .append('"');
+
+        //apply all namespaces from current scope to get a valid documentfragment:
+        List<XMLSecNamespace> comparableNamespacesToApply = new ArrayList<>();
+        List<XMLSecNamespace> comparableNamespaceList = new ArrayList<>();
+        xmlSecStartElement.getNamespacesFromCurrentScope(comparableNamespaceList);
+        //reverse iteration -> From current element namespaces to parent namespaces
+        for (int i = comparableNamespaceList.size() - 1; i >= 0; i--) {
+            XMLSecNamespace comparableNamespace = comparableNamespaceList.get(i);
+            if (!comparableNamespacesToApply.contains(comparableNamespace)) {
+                comparableNamespacesToApply.add(comparableNamespace);
+                stringBuilder.append(' ');
+                String prefix = comparableNamespace.getPrefix();
+                String uri = comparableNamespace.getNamespaceURI();
+                if (prefix == null || prefix.isEmpty()) {
+                    stringBuilder.append("xmlns=\"").append(uri).append('"');
+                } else {
+                    stringBuilder.append("xmlns:").append(prefix).append("=\"").append(uri).append('"');
+                }
+            }
+        }
+
+        stringBuilder.append('>');
+        return new UnsynchronizedByteArrayInputStream(stringBuilder.toString().getBytes("UTF-8"));
+    }
+
+    private InputStream writeWrapperEndElement() throws IOException {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("</")
+            .append(wrapperElementName.getPrefix())
+            .append(':')
+            .append(wrapperElementName.getLocalPart())
+            .append('>');
+        return new UnsynchronizedByteArrayInputStream(stringBuilder.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * In single-threaded mode a decryption failure is thrown by the Cipher streams that the
+     * StAX reader reads from, and so it reaches this processor wrapped in an IOException and
+     * an XMLStreamException. The XMLSecurityException that caused it is thrown instead.
+     */
+    private static void throwDecryptionFailure(XMLStreamException e) throws XMLSecurityException {
+        Throwable cause = e.getCause();
+        while (cause != null) {
+            if (cause instanceof XMLSecurityException) {
+                throw (XMLSecurityException) cause;
+            }
+            cause = cause.getCause();
+        }
+    }
+
+    private void forwardToWrapperElement(XMLStreamReader xmlStreamReader) throws XMLStreamException {
+        do {
+            if (xmlStreamReader.getEventType() == XMLStreamConstants.START_ELEMENT
+                    && xmlStreamReader.getName().equals(wrapperElementName)) {
+                xmlStreamReader.next();
+                break;
+            }
+            xmlStreamReader.next();
+        }
+        while (xmlStreamReader.hasNext());
+    }
+
     @Override
     protected InputStream applyTransforms(ReferenceType referenceType, InputStream inputStream) throws XMLSecurityException {
         if (referenceType != null) {
@@ -373,6 +788,165 @@ public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
         }
     }
 
+    /**
+     * An InputStream of the plaintext of a CipherValue, which decrypts on the caller's thread.
+     * Each time that the buffered plaintext has been consumed, the next Characters event of the
+     * CipherValue is read from the chain and written through the same Base64 decoding, IV
+     * splitting and Cipher streams that the decryption thread uses. The CipherValue end element
+     * finalizes the Cipher.
+     */
+    private static class CipherValueInputStream extends InputStream {
+
+        private final InputProcessorChain inputProcessorChain;
+        private final boolean header;
+        private final PlaintextBuffer plaintextBuffer = new PlaintextBuffer();
+        private final Writer writer;
+        private boolean finished;
+
+        CipherValueInputStream(InputProcessorChain inputProcessorChain, boolean header,
+                               final Cipher cipher, Key secretKey, int ivLength) throws XMLSecurityException {
+            this.inputProcessorChain = inputProcessorChain;
+            this.header = header;
+
+            final OutputStream plaintextOutputStream;
+            if (cipher.getAlgorithm().toUpperCase().contains("GCM")) {
+                //the plaintext must not be used before the authentication tag is checked
+                plaintextOutputStream = new FullyBufferedOutputStream(plaintextBuffer);
+            } else {
+                plaintextOutputStream = plaintextBuffer;
+            }
+
+            OutputStream cipherOutputStream = new CipherOutputStream(plaintextOutputStream, cipher) {
+                //CipherOutputStream.close() swallows a BadPaddingException, so the cipher is finalized here
+                @Override
+                public void close() throws IOException {
+                    super.flush();
+                    try {
+                        plaintextOutputStream.write(cipher.doFinal());
+                        plaintextOutputStream.close();
+                    } catch (IllegalBlockSizeException | BadPaddingException e) {
+                        throw new IOException(new WSSecurityException(WSSecurityException.ErrorCode.FAILED_CHECK, e));
+                    }
+                }
+            };
+
+            IVSplittingOutputStream ivSplittingOutputStream =
+                    new IVSplittingOutputStream(cipherOutputStream, cipher, secretKey, ivLength);
+            ReplaceableOuputStream replaceableOuputStream = new ReplaceableOuputStream(ivSplittingOutputStream);
+            ivSplittingOutputStream.setParentOutputStream(replaceableOuputStream);
+            try {
+                this.writer = new OutputStreamWriter(new Base64OutputStream(replaceableOuputStream, false),
+                        inputProcessorChain.getDocumentContext().getEncoding());
+            } catch (IOException e) {
+                throw new XMLSecurityException(e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            if (read == -1) {
+                return -1;
+            }
+            return b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (plaintextBuffer.available() == 0) {
+                if (finished) {
+                    return -1;
+                }
+                decryptNextEvent();
+            }
+            return plaintextBuffer.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return plaintextBuffer.available();
+        }
+
+        private void decryptNextEvent() throws IOException {
+            XMLSecEvent xmlSecEvent;
+            try {
+                inputProcessorChain.reset();
+                if (header) {
+                    xmlSecEvent = inputProcessorChain.processHeaderEvent();
+                } else {
+                    xmlSecEvent = inputProcessorChain.processEvent();
+                }
+            } catch (XMLStreamException | XMLSecurityException e) {
+                throw new IOException(e);
+            }
+
+            switch (xmlSecEvent.getEventType()) {
+                case XMLStreamConstants.END_ELEMENT:
+                    //this must be the CipherValue EndElement
+                    finished = true;
+                    writer.close();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                    writer.write(xmlSecEvent.asCharacters().getText());
+                    writer.flush();
+                    break;
+                default:
+                    throw new IOException(new XMLSecurityException("stax.unexpectedXMLEvent",
+                            new Object[] {XMLSecurityUtils.getXMLEventAsString(xmlSecEvent)}));
+            }
+        }
+    }
+
+    /**
+     * The plaintext written by the Cipher stream, which is consumed by the CipherValueInputStream
+     */
+    private static class PlaintextBuffer extends OutputStream {
+
+        private byte[] buf = new byte[8192];
+        private int pos;
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (pos == count) {
+                pos = 0;
+                count = 0;
+            }
+            if (count + len > buf.length) {
+                byte[] newBuf = buf;
+                if (count - pos + len > buf.length) {
+                    newBuf = new byte[Math.max(buf.length * 2, count - pos + len)];
+                }
+                System.arraycopy(buf, pos, newBuf, 0, count - pos);
+                count -= pos;
+                pos = 0;
+                buf = newBuf;
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        int available() {
+            return count - pos;
+        }
+
+        int read(byte[] b, int off, int len) {
+            int length = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, length);
+            pos += length;
+            return length;
+        }
+    }
+
     /*
    <xenc:EncryptedData xmlns:xenc="http://www.w3.org/2001/04/xmlenc#" Id="EncDataId-1612925417" Type="http://www.w3.org/2001/04/xmlenc#Content">
        <xenc:EncryptionMethod xmlns:xenc="http://www.w3.org/2001/04/xmlenc#" Algorithm="http://www.w3.org/2001/04/xmlenc#aes256-cbc" />
@@ -406,6 +980,32 @@ public class DecryptInputProcessor extends AbstractDecryptInputProcessor {
                     encryptedDataType, decryptInputProcessor, inboundSecurityToken);
         }
 
+        @Override
+        public XMLSecEvent processNextHeaderEvent(InputProcessorChain inputProcessorChain)
+                throws XMLStreamException, XMLSecurityException {
+            try {
+                return super.processNextHeaderEvent(inputProcessorChain);
+            } catch (XMLStreamException e) {
+                if (singleThreadedDecryption) {
+                    throwDecryptionFailure(e);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public XMLSecEvent processNextEvent(InputProcessorChain inputProcessorChain)
+                throws XMLStreamException, XMLSecurityException {
+            try {
+                return super.processNextEvent(inputProcessorChain);
+            } catch (XMLStreamException e) {
+                if (singleThreadedDecryption) {
+                    throwDecryptionFailure(e);
+                }
+                throw e;
+            }
+        }
+
         @Override
         protected void handleEncryptedElement(
                 InputProcessorChain inputProcessorChain, XMLSecStartElement xmlSecStartElement,
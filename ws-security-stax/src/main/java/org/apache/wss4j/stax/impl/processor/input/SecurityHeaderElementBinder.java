@@ -0,0 +1,336 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.impl.processor.input;
+
+import org.apache.wss4j.binding.wss10.AttributedString;
+import org.apache.wss4j.binding.wss10.BinarySecurityTokenType;
+import org.apache.wss4j.binding.wss10.EncodedString;
+import org.apache.wss4j.binding.wss10.PasswordString;
+import org.apache.wss4j.binding.wss10.UsernameTokenType;
+import org.apache.wss4j.binding.wsu10.AttributedDateTime;
+import org.apache.wss4j.binding.wsu10.TimestampType;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.xml.security.stax.ext.stax.XMLSecAttribute;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Binds the buffered XMLSecEvents of the most common security header elements directly to
+ * their JAXB objects, without going through a (schema validating) JAXB Unmarshaller.
+ *
+ * Only a strict subset of what the schema allows is accepted: the expected child elements in
+ * the expected order, no comments or processing instructions, no attributes other than the
+ * expected ones, Ids that are simple NCNames and (known) WS-Security URIs as attribute values.
+ * For this subset the result is the same as the result of the Unmarshaller, and the structure
+ * is valid according to the schema. For anything else null is returned, and the caller must
+ * fall back to JAXB, which does the full schema validation.
+ */
+public final class SecurityHeaderElementBinder {
+
+    private static final Pattern NCNAME = Pattern.compile("[A-Za-z_][A-Za-z0-9._\\-]*");
+
+    private static final Set<String> KNOWN_URIS = new HashSet<>(Arrays.asList(
+            WSSConstants.SOAPMESSAGE_NS10_BASE64_ENCODING,
+            WSSConstants.NS_X509_V3_TYPE,
+            WSSConstants.NS_X509PKIPathv1,
+            WSSConstants.NS_GSS_Kerberos5_AP_REQ,
+            WSSConstants.NS_GSS_Kerberos5_AP_REQ1510,
+            WSSConstants.NS_GSS_Kerberos5_AP_REQ4120,
+            WSSConstants.NS_Kerberos5_AP_REQ,
+            WSSConstants.NS_Kerberos5_AP_REQ1510,
+            WSSConstants.NS_Kerberos5_AP_REQ4120,
+            WSSConstants.NS_PASSWORD_TEXT,
+            WSSConstants.NS_PASSWORD_DIGEST
+    ));
+
+    private static final QName[] ID_ATTRIBUTES = {WSSConstants.ATT_wsu_Id};
+    private static final QName[] ENCODED_STRING_ATTRIBUTES = {WSSConstants.ATT_wsu_Id, WSSConstants.ATT_NULL_EncodingType};
+    private static final QName[] BINARY_SECURITY_TOKEN_ATTRIBUTES =
+            {WSSConstants.ATT_wsu_Id, WSSConstants.ATT_NULL_EncodingType, WSSConstants.ATT_NULL_ValueType};
+    private static final QName[] PASSWORD_ATTRIBUTES = {WSSConstants.ATT_wsu_Id, WSSConstants.ATT_NULL_Type};
+
+    private final List<XMLSecEvent> xmlSecEvents;
+    private int position;
+
+    private SecurityHeaderElementBinder(List<XMLSecEvent> xmlSecEvents) {
+        this.xmlSecEvents = xmlSecEvents;
+    }
+
+    /**
+     * Bind a wsu:Timestamp with an optional Created and an optional Expires child.
+     * @param xmlSecEvents the events of the Timestamp element (start to end)
+     * @return the TimestampType or null if the structure must be unmarshalled by JAXB
+     */
+    public static TimestampType bindTimestamp(List<XMLSecEvent> xmlSecEvents) {
+        SecurityHeaderElementBinder binder = new SecurityHeaderElementBinder(xmlSecEvents);
+        XMLSecStartElement startElement = binder.nextStartElement();
+        if (startElement == null || !WSSConstants.TAG_wsu_Timestamp.equals(startElement.getName())) {
+            return null;
+        }
+        String[] attributes = getAttributes(startElement, ID_ATTRIBUTES);
+        if (attributes == null) {
+            return null;
+        }
+        TimestampType timestampType = new TimestampType();
+        timestampType.setId(attributes[0]);
+
+        XMLSecStartElement childElement = binder.nextStartElement();
+        if (childElement != null && WSSConstants.TAG_wsu_Created.equals(childElement.getName())) {
+            AttributedDateTime created = binder.bindAttributedDateTime(childElement);
+            if (created == null) {
+                return null;
+            }
+            timestampType.setCreated(created);
+            childElement = binder.nextStartElement();
+        }
+        if (childElement != null && WSSConstants.TAG_wsu_Expires.equals(childElement.getName())) {
+            AttributedDateTime expires = binder.bindAttributedDateTime(childElement);
+            if (expires == null) {
+                return null;
+            }
+            timestampType.setExpires(expires);
+            childElement = binder.nextStartElement();
+        }
+        if (childElement != null || !binder.endElement() || !binder.isComplete()) {
+            return null;
+        }
+        return timestampType;
+    }
+
+    /**
+     * Bind a wsse:BinarySecurityToken.
+     * @param xmlSecEvents the events of the BinarySecurityToken element (start to end)
+     * @return the BinarySecurityTokenType or null if the structure must be unmarshalled by JAXB
+     */
+    public static BinarySecurityTokenType bindBinarySecurityToken(List<XMLSecEvent> xmlSecEvents) {
+        SecurityHeaderElementBinder binder = new SecurityHeaderElementBinder(xmlSecEvents);
+        XMLSecStartElement startElement = binder.nextStartElement();
+        if (startElement == null || !WSSConstants.TAG_wsse_BinarySecurityToken.equals(startElement.getName())) {
+            return null;
+        }
+        String[] attributes = getAttributes(startElement, BINARY_SECURITY_TOKEN_ATTRIBUTES);
+        if (attributes == null) {
+            return null;
+        }
+        String value = binder.readText();
+        if (value == null || !binder.isComplete()) {
+            return null;
+        }
+        BinarySecurityTokenType binarySecurityTokenType = new BinarySecurityTokenType();
+        binarySecurityTokenType.setId(attributes[0]);
+        binarySecurityTokenType.setEncodingType(attributes[1]);
+        binarySecurityTokenType.setValueType(attributes[2]);
+        binarySecurityTokenType.setValue(value);
+        return binarySecurityTokenType;
+    }
+
+    /**
+     * Bind a wsse:UsernameToken with a Username followed by any number of Password, Nonce
+     * and Created children.
+     * @param xmlSecEvents the events of the UsernameToken element (start to end)
+     * @return the UsernameTokenType or null if the structure must be unmarshalled by JAXB
+     */
+    public static UsernameTokenType bindUsernameToken(List<XMLSecEvent> xmlSecEvents) {
+        SecurityHeaderElementBinder binder = new SecurityHeaderElementBinder(xmlSecEvents);
+        XMLSecStartElement startElement = binder.nextStartElement();
+        if (startElement == null || !WSSConstants.TAG_wsse_UsernameToken.equals(startElement.getName())) {
+            return null;
+        }
+        String[] attributes = getAttributes(startElement, ID_ATTRIBUTES);
+        if (attributes == null) {
+            return null;
+        }
+        UsernameTokenType usernameTokenType = new UsernameTokenType();
+        usernameTokenType.setId(attributes[0]);
+
+        XMLSecStartElement childElement = binder.nextStartElement();
+        if (childElement == null || !WSSConstants.TAG_wsse_Username.equals(childElement.getName())) {
+            return null;
+        }
+        attributes = getAttributes(childElement, ID_ATTRIBUTES);
+        String value = binder.readText();
+        if (attributes == null || value == null) {
+            return null;
+        }
+        AttributedString username = new AttributedString();
+        username.setId(attributes[0]);
+        username.setValue(value);
+        usernameTokenType.setUsername(username);
+
+        List<Object> any = usernameTokenType.getAny();
+        while ((childElement = binder.nextStartElement()) != null) {
+            QName name = childElement.getName();
+            if (WSSConstants.TAG_wsse_Password.equals(name)) {
+                attributes = getAttributes(childElement, PASSWORD_ATTRIBUTES);
+                value = binder.readText();
+                if (attributes == null || value == null) {
+                    return null;
+                }
+                PasswordString password = new PasswordString();
+                password.setId(attributes[0]);
+                password.setType(attributes[1]);
+                password.setValue(value);
+                any.add(new JAXBElement<PasswordString>(WSSConstants.TAG_wsse_Password, PasswordString.class, password));
+            } else if (WSSConstants.TAG_wsse_Nonce.equals(name)) {
+                attributes = getAttributes(childElement, ENCODED_STRING_ATTRIBUTES);
+                value = binder.readText();
+                if (attributes == null || value == null) {
+                    return null;
+                }
+                EncodedString nonce = new EncodedString();
+                nonce.setId(attributes[0]);
+                nonce.setEncodingType(attributes[1]);
+                nonce.setValue(value);
+                any.add(new JAXBElement<EncodedString>(WSSConstants.TAG_wsse_Nonce, EncodedString.class, nonce));
+            } else if (WSSConstants.TAG_wsu_Created.equals(name)) {
+                AttributedDateTime created = binder.bindAttributedDateTime(childElement);
+                if (created == null) {
+                    return null;
+                }
+                any.add(new JAXBElement<AttributedDateTime>(WSSConstants.TAG_wsu_Created, AttributedDateTime.class, created));
+            } else {
+                return null;
+            }
+        }
+        if (!binder.endElement() || !binder.isComplete()) {
+            return null;
+        }
+        return usernameTokenType;
+    }
+
+    private AttributedDateTime bindAttributedDateTime(XMLSecStartElement startElement) {
+        String[] attributes = getAttributes(startElement, ID_ATTRIBUTES);
+        String value = readText();
+        if (attributes == null || value == null) {
+            return null;
+        }
+        AttributedDateTime attributedDateTime = new AttributedDateTime();
+        attributedDateTime.setId(attributes[0]);
+        attributedDateTime.setValue(value);
+        return attributedDateTime;
+    }
+
+    /**
+     * Get the values of the allowed attributes, in the order of the given names. Returns null
+     * if the element has any other attribute, or if an attribute value is not a simple NCName
+     * (for the wsu:Id) or a known URI (for all of the other attributes).
+     */
+    private static String[] getAttributes(XMLSecStartElement startElement, QName[] allowedAttributes) {
+        String[] values = new String[allowedAttributes.length];
+        List<XMLSecAttribute> attributes = startElement.getOnElementDeclaredAttributes();
+        for (int i = 0; i < attributes.size(); i++) {
+            XMLSecAttribute attribute = attributes.get(i);
+            int index = indexOf(allowedAttributes, attribute.getName());
+            if (index == -1) {
+                return null;
+            }
+            String value = attribute.getValue();
+            if (WSSConstants.ATT_wsu_Id.equals(allowedAttributes[index])) {
+                if (!NCNAME.matcher(value).matches()) {
+                    return null;
+                }
+            } else if (!KNOWN_URIS.contains(value)) {
+                return null;
+            }
+            values[index] = value;
+        }
+        return values;
+    }
+
+    private static int indexOf(QName[] names, QName name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Skip whitespace and return the next start element, or null if the next event is
+     * something else.
+     */
+    private XMLSecStartElement nextStartElement() {
+        while (position < xmlSecEvents.size()) {
+            XMLSecEvent xmlSecEvent = xmlSecEvents.get(position);
+            switch (xmlSecEvent.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    position++;
+                    return xmlSecEvent.asStartElement();
+                case XMLStreamConstants.CHARACTERS:
+                    if (!xmlSecEvent.asCharacters().isWhiteSpace()) {
+                        return null;
+                    }
+                    position++;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the (simple) content of the current element, including its end element. Returns
+     * null if the element has any content other than text.
+     */
+    private String readText() {
+        String text = "";
+        StringBuilder stringBuilder = null;
+        while (position < xmlSecEvents.size()
+                && xmlSecEvents.get(position).getEventType() == XMLStreamConstants.CHARACTERS) {
+            String data = xmlSecEvents.get(position).asCharacters().getData();
+            if (stringBuilder != null) {
+                stringBuilder.append(data);
+            } else if (text.isEmpty()) {
+                text = data;
+            } else {
+                stringBuilder = new StringBuilder(text).append(data);
+            }
+            position++;
+        }
+        if (!endElement()) {
+            return null;
+        }
+        return stringBuilder != null ? stringBuilder.toString() : text;
+    }
+
+    private boolean endElement() {
+        if (position < xmlSecEvents.size()
+                && xmlSecEvents.get(position).getEventType() == XMLStreamConstants.END_ELEMENT) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isComplete() {
+        return position == xmlSecEvents.size();
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.impl.processor.input;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.xml.security.stax.config.SecurityHeaderHandlerMapper;
+import org.apache.xml.security.stax.ext.XMLSecurityHeaderHandler;
+
+/**
+ * An immutable table of the handlers for the security header elements. The handlers of this
+ * package are stateless, and so a single instance of each of them is created for the well-known
+ * security header elements when the table is built, and shared by all of the messages that are
+ * processed with the table.
+ *
+ * The handler of any other element, or a handler of another package (which is configured in a
+ * custom security configuration and might not be stateless) is created for each use, as before.
+ */
+public final class SecurityHeaderHandlers {
+
+    private static final QName[] SECURITY_HEADER_ELEMENTS = {
+        WSSConstants.TAG_wsse_BinarySecurityToken,
+        WSSConstants.TAG_xenc_EncryptedKey,
+        WSSConstants.TAG_xenc_ReferenceList,
+        WSSConstants.TAG_xenc_EncryptedData,
+        WSSConstants.TAG_dsig_Signature,
+        WSSConstants.TAG_wsu_Timestamp,
+        WSSConstants.TAG_wsse_UsernameToken,
+        WSSConstants.TAG_wsse11_SignatureConfirmation,
+        WSSConstants.TAG_wsse_SecurityTokenReference,
+        WSSConstants.TAG_saml_Assertion,
+        WSSConstants.TAG_saml2_Assertion,
+        WSSConstants.TAG_wsc0502_SecurityContextToken,
+        WSSConstants.TAG_wsc0512_SecurityContextToken,
+        WSSConstants.TAG_wsc0502_DerivedKeyToken,
+        WSSConstants.TAG_wsc0512_DerivedKeyToken
+    };
+
+    private final Map<QName, XMLSecurityHeaderHandler> handlers;
+
+    /**
+     * Build the table from the current security configuration.
+     */
+    public SecurityHeaderHandlers() {
+        Map<QName, XMLSecurityHeaderHandler> handlerMap = new HashMap<>();
+        Map<Class<?>, XMLSecurityHeaderHandler> instances = new HashMap<>();
+        for (QName elementName : SECURITY_HEADER_ELEMENTS) {
+            Class<?> clazz = SecurityHeaderHandlerMapper.getSecurityHeaderHandler(elementName);
+            if (clazz == null || clazz.getPackage() != SecurityHeaderHandlers.class.getPackage()) {
+                continue;
+            }
+            XMLSecurityHeaderHandler handler = instances.get(clazz);
+            if (handler == null) {
+                try {
+                    handler = (XMLSecurityHeaderHandler) clazz.newInstance();
+                } catch (InstantiationException | IllegalAccessException e) {
+                    //the error is reported when the handler is needed
+                    continue;
+                }
+                instances.put(clazz, handler);
+            }
+            handlerMap.put(elementName, handler);
+        }
+        this.handlers = Collections.unmodifiableMap(handlerMap);
+    }
+
+    /**
+     * Get the handler for a security header element.
+     * @param elementName The name of the element
+     * @return the handler or null if there is no handler configured for the element
+     * @throws WSSecurityException if the handler cannot be created
+     */
+    public XMLSecurityHeaderHandler getHandler(QName elementName) throws WSSecurityException {
+        XMLSecurityHeaderHandler handler = handlers.get(elementName);
+        if (handler != null) {
+            return handler;
+        }
+        return newHandler(elementName);
+    }
+
+    /**
+     * Create a new instance of the handler for a security header element.
+     * @param elementName The name of the element
+     * @return the handler or null if there is no handler configured for the element
+     * @throws WSSecurityException if the handler cannot be created
+     */
+    public static XMLSecurityHeaderHandler newHandler(QName elementName) throws WSSecurityException {
+        Class<?> clazz = SecurityHeaderHandlerMapper.getSecurityHeaderHandler(elementName);
+        if (clazz == null) {
+            return null;
+        }
+        try {
+            return (XMLSecurityHeaderHandler) clazz.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, e);
+        }
+    }
+}
@@ -33,7 +33,6 @@ import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.ext.WSSUtils;
 import org.apache.wss4j.stax.securityEvent.NoSecuritySecurityEvent;
 import org.apache.xml.security.exceptions.XMLSecurityException;
-import org.apache.xml.security.stax.config.SecurityHeaderHandlerMapper;
 import org.apache.xml.security.stax.ext.AbstractInputProcessor;
 import org.apache.xml.security.stax.ext.InputProcessorChain;
 import org.apache.xml.security.stax.ext.XMLSecurityHeaderHandler;
@@ -53,12 +52,27 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
     protected static final org.slf4j.Logger LOG = 
         org.slf4j.LoggerFactory.getLogger(SecurityHeaderInputProcessor.class);
 
+    //the buffered events are the ones created by XMLEventReaderInputProcessor. They are passed to the
+    //XMLSecurityHeaderHandlers and then all of them are replayed to the following processors, so they
+    //are kept as they are rather than in a compact form that would have to be materialised again
     private final ArrayDeque<XMLSecEvent> xmlSecEventList = new ArrayDeque<XMLSecEvent>();
+    private final SecurityHeaderHandlers securityHeaderHandlers;
     private int startIndexForProcessor = 0;
 
     public SecurityHeaderInputProcessor(WSSSecurityProperties securityProperties) {
+        this(securityProperties, null);
+    }
+
+    /**
+     * @param securityProperties The security configuration
+     * @param securityHeaderHandlers The (shared) handlers for the security header elements. If null,
+     *                               a new handler is created for each security header element
+     */
+    public SecurityHeaderInputProcessor(WSSSecurityProperties securityProperties,
+                                        SecurityHeaderHandlers securityHeaderHandlers) {
         super(securityProperties);
         setPhase(WSSConstants.Phase.POSTPROCESSING);
+        this.securityHeaderHandlers = securityHeaderHandlers;
     }
 
     @Override
@@ -77,7 +91,9 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                 = new InternalSecurityHeaderBufferProcessor(getSecurityProperties());
         subInputProcessorChain.addProcessor(internalSecurityHeaderBufferProcessor);
 
-        boolean responsibleSecurityHeaderFound = false;
+        //the start element of the security header we are responsible for. The events in the security
+        //header are identified by their start element at level 3, which doesn't need an element path
+        XMLSecStartElement responsibleSecurityHeader = null;
         boolean timestampFound = false;
 
         XMLSecEvent xmlSecEvent;
@@ -102,11 +118,10 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                                 ((WSSSecurityProperties) getSecurityProperties()).getActor())) {
                             continue;
                         }
-                        responsibleSecurityHeaderFound = true;
+                        responsibleSecurityHeader = xmlSecStartElement;
 
-                    } else if (documentLevel == 4 && responsibleSecurityHeaderFound
-                            && WSSUtils.isInSecurityHeader(xmlSecStartElement,
-                            ((WSSSecurityProperties) getSecurityProperties()).getActor())) {
+                    } else if (documentLevel == 4 && responsibleSecurityHeader != null
+                            && xmlSecStartElement.getStartElementAtLevel(3) == responsibleSecurityHeader) {
                         startIndexForProcessor = xmlSecEventList.size() - 1;
 
                         //special handling for EncryptedData in the SecurityHeader. This way, if for example
@@ -116,10 +131,9 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                             engageSecurityHeaderHandler(subInputProcessorChain, getSecurityProperties(),
                                     xmlSecEventList, startIndexForProcessor, xmlSecStartElement.getName());
                         }
-                    } else if (documentLevel == 5 && responsibleSecurityHeaderFound
-                            && WSSUtils.isInSecurityHeader(xmlSecStartElement,
-                            ((WSSSecurityProperties) getSecurityProperties()).getActor())
-                            && WSSConstants.TAG_xenc_EncryptedData.equals(xmlSecStartElement.getName())) {
+                    } else if (documentLevel == 5 && responsibleSecurityHeader != null
+                            && WSSConstants.TAG_xenc_EncryptedData.equals(xmlSecStartElement.getName())
+                            && xmlSecStartElement.getStartElementAtLevel(3) == responsibleSecurityHeader) {
                         startIndexForProcessor = xmlSecEventList.size() - 1;
 
                         // Same goes as per EncryptedData above. This is when a child of a security header
@@ -131,16 +145,15 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                 case XMLStreamConstants.END_ELEMENT:
                     XMLSecEndElement xmlSecEndElement = xmlSecEvent.asEndElement();
                     documentLevel = xmlSecEndElement.getDocumentLevel();
-                    if (documentLevel == 3 && responsibleSecurityHeaderFound
+                    if (documentLevel == 3 && responsibleSecurityHeader != null
                             && xmlSecEndElement.getName().equals(WSSConstants.TAG_wsse_Security)) {
 
                         return finalizeHeaderProcessing(
                                 inputProcessorChain, subInputProcessorChain,
                                 internalSecurityHeaderBufferProcessor, xmlSecEventList);
 
-                    } else if (documentLevel == 4 && responsibleSecurityHeaderFound
-                            && WSSUtils.isInSecurityHeader(xmlSecEndElement,
-                            ((WSSSecurityProperties) getSecurityProperties()).getActor())) {
+                    } else if (documentLevel == 4 && responsibleSecurityHeader != null
+                            && xmlSecEndElement.getStartElementAtLevel(3) == responsibleSecurityHeader) {
                         //we are in the security header and the depth is +1, so every child
                         //element should have a responsible handler with the exception of an EncryptedData SecurityHeader
                         //which is already handled in the above StartElement logic (@see comment above).
@@ -199,7 +212,6 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
         return xmlSecEventList.pollLast();
     }
 
-    @SuppressWarnings("unchecked")
     private void engageSecurityHeaderHandler(InputProcessorChain inputProcessorChain,
                                              XMLSecurityProperties securityProperties,
                                              Deque<XMLSecEvent> eventQueue,
@@ -207,17 +219,18 @@ public class SecurityHeaderInputProcessor extends AbstractInputProcessor {
                                              QName elementName)
             throws WSSecurityException, XMLStreamException {
 
-        Class<XMLSecurityHeaderHandler> clazz = 
-            (Class<XMLSecurityHeaderHandler>)SecurityHeaderHandlerMapper.getSecurityHeaderHandler(elementName);
-        if (clazz == null) {
+        XMLSecurityHeaderHandler xmlSecurityHeaderHandler;
+        if (securityHeaderHandlers != null) {
+            xmlSecurityHeaderHandler = securityHeaderHandlers.getHandler(elementName);
+        } else {
+            xmlSecurityHeaderHandler = SecurityHeaderHandlers.newHandler(elementName);
+        }
+        if (xmlSecurityHeaderHandler == null) {
             LOG.warn("No matching handler found for " + elementName);
             return;
         }
         try {
-            XMLSecurityHeaderHandler xmlSecurityHeaderHandler = clazz.newInstance();
             xmlSecurityHeaderHandler.handle(inputProcessorChain, securityProperties, eventQueue, index);
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, e);
         } catch (WSSecurityException e) {
             throw e;
         } catch (XMLSecurityException e) {
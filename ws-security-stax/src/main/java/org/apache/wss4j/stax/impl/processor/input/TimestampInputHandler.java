@@ -62,11 +62,15 @@ public class TimestampInputHandler extends AbstractInputSecurityHeaderHandler {
         }
         wssecurityContextInbound.put(WSSConstants.TIMESTAMP_PROCESSED, Boolean.TRUE);
 
-        @SuppressWarnings("unchecked")
-        final TimestampType timestampType =
-                ((JAXBElement<TimestampType>) parseStructure(eventQueue, index, securityProperties)).getValue();
-
         final List<XMLSecEvent> xmlSecEvents = getResponsibleXMLSecEvents(eventQueue, index);
+        TimestampType timestampType = SecurityHeaderElementBinder.bindTimestamp(xmlSecEvents);
+        if (timestampType == null) {
+            @SuppressWarnings("unchecked")
+            JAXBElement<TimestampType> jaxbElement =
+                    (JAXBElement<TimestampType>) parseStructure(eventQueue, index, securityProperties);
+            timestampType = jaxbElement.getValue();
+        }
+
         List<QName> elementPath = getElementPath(eventQueue);
 
         checkBSPCompliance(inputProcessorChain, timestampType, xmlSecEvents);
@@ -24,6 +24,7 @@ import org.apache.wss4j.binding.wss10.UsernameTokenType;
 import org.apache.wss4j.binding.wsu10.AttributedDateTime;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheUtils;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.DateUtil;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
@@ -60,11 +61,8 @@ public class UsernameTokenInputHandler extends AbstractInputSecurityHeaderHandle
     public void handle(final InputProcessorChain inputProcessorChain, final XMLSecurityProperties securityProperties,
                        Deque<XMLSecEvent> eventQueue, Integer index) throws XMLSecurityException {
 
-        @SuppressWarnings("unchecked")
-        final UsernameTokenType usernameTokenType =
-                ((JAXBElement<UsernameTokenType>) parseStructure(eventQueue, index, securityProperties)).getValue();
-
         final List<XMLSecEvent> xmlSecEvents = getResponsibleXMLSecEvents(eventQueue, index);
+        final UsernameTokenType usernameTokenType = parseUsernameToken(eventQueue, index, securityProperties, xmlSecEvents);
 
         checkBSPCompliance(inputProcessorChain, usernameTokenType, xmlSecEvents);
 
@@ -82,18 +80,19 @@ public class UsernameTokenInputHandler extends AbstractInputSecurityHeaderHandle
         if (encodedNonce != null && replayCache != null) {
             // Check for replay attacks
             String nonce = encodedNonce.getValue();
-            if (replayCache.contains(nonce)) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
-            }
             
             // If no Created, then just cache for the default time
             // Otherwise, cache for the configured TTL of the UsernameToken Created time, as any
             // older token will just get rejected anyway
+            boolean added;
             int utTTL = wssSecurityProperties.getUtTTL();
             if (createdDate == null || utTTL <= 0) {
-                replayCache.add(nonce);
+                added = ReplayCacheUtils.addIfAbsent(replayCache, nonce);
             } else {
-                replayCache.add(nonce, utTTL + 1L);
+                added = ReplayCacheUtils.addIfAbsent(replayCache, nonce, utTTL + 1L);
+            }
+            if (!added) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
             }
         }
 
@@ -140,6 +139,19 @@ public class UsernameTokenInputHandler extends AbstractInputSecurityHeaderHandle
         inputProcessorChain.getSecurityContext().registerSecurityEvent(usernameTokenSecurityEvent);
     }
 
+    private UsernameTokenType parseUsernameToken(Deque<XMLSecEvent> eventQueue, Integer index,
+                                                 XMLSecurityProperties securityProperties,
+                                                 List<XMLSecEvent> xmlSecEvents) throws XMLSecurityException {
+        UsernameTokenType usernameTokenType = SecurityHeaderElementBinder.bindUsernameToken(xmlSecEvents);
+        if (usernameTokenType == null) {
+            @SuppressWarnings("unchecked")
+            JAXBElement<UsernameTokenType> jaxbElement =
+                    (JAXBElement<UsernameTokenType>) parseStructure(eventQueue, index, securityProperties);
+            usernameTokenType = jaxbElement.getValue();
+        }
+        return usernameTokenType;
+    }
+
     private void checkBSPCompliance(InputProcessorChain inputProcessorChain, UsernameTokenType usernameTokenType,
                                     List<XMLSecEvent> xmlSecEvents) throws WSSecurityException {
 
@@ -22,16 +22,23 @@ import org.apache.wss4j.binding.wss10.ObjectFactory;
 import org.apache.wss4j.binding.wss10.ReferenceType;
 import org.apache.wss4j.binding.wss10.SecurityTokenReferenceType;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.crypto.EncryptedKeyCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
+import org.apache.wss4j.stax.impl.securityToken.CachingEncryptedKeySecurityTokenImpl;
 import org.apache.xml.security.binding.xmldsig.KeyInfoType;
 import org.apache.xml.security.binding.xmlenc.EncryptedKeyType;
 import org.apache.xml.security.binding.xmlenc.EncryptionMethodType;
 import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.InboundSecurityContext;
 import org.apache.xml.security.stax.ext.InputProcessorChain;
 import org.apache.xml.security.stax.ext.XMLSecurityProperties;
 import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
 import org.apache.xml.security.stax.impl.processor.input.XMLEncryptedKeyInputHandler;
+import org.apache.xml.security.stax.impl.util.IDGenerator;
+import org.apache.xml.security.stax.securityEvent.EncryptedKeyTokenSecurityEvent;
+import org.apache.xml.security.stax.securityToken.InboundSecurityToken;
+import org.apache.xml.security.stax.securityToken.SecurityTokenProvider;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 
@@ -60,7 +67,68 @@ public class WSSEncryptedKeyInputHandler extends XMLEncryptedKeyInputHandler {
             }
         }
         
-        super.handle(inputProcessorChain, encryptedKeyType, responsibleXMLSecStartXMLEvent, securityProperties);
+        EncryptedKeyCache encryptedKeyCache =
+            ((WSSSecurityProperties) securityProperties).getEncryptedKeyCache();
+        if (encryptedKeyCache == null) {
+            super.handle(inputProcessorChain, encryptedKeyType, responsibleXMLSecStartXMLEvent, securityProperties);
+        } else {
+            handleCachingEncryptedKey(inputProcessorChain, encryptedKeyType, responsibleXMLSecStartXMLEvent,
+                                      securityProperties, encryptedKeyCache);
+        }
+    }
+
+    // The same as XMLEncryptedKeyInputHandler.handle, except that the token looks up the unwrapped
+    // key in the EncryptedKeyCache first
+    private void handleCachingEncryptedKey(final InputProcessorChain inputProcessorChain,
+            final EncryptedKeyType encryptedKeyType, final XMLSecEvent responsibleXMLSecStartXMLEvent,
+            final XMLSecurityProperties securityProperties,
+            final EncryptedKeyCache encryptedKeyCache) throws XMLSecurityException {
+        if (encryptedKeyType.getEncryptionMethod() == null) {
+            throw new XMLSecurityException("stax.encryption.noEncAlgo");
+        }
+
+        if (encryptedKeyType.getId() == null) {
+            encryptedKeyType.setId(IDGenerator.generateID(null));
+        }
+
+        final InboundSecurityContext inboundSecurityContext = inputProcessorChain.getSecurityContext();
+
+        final SecurityTokenProvider<InboundSecurityToken> securityTokenProvider =
+                new SecurityTokenProvider<InboundSecurityToken>() {
+
+            private CachingEncryptedKeySecurityTokenImpl securityToken;
+
+            @Override
+            public InboundSecurityToken getSecurityToken() throws XMLSecurityException {
+                if (this.securityToken != null) {
+                    return this.securityToken;
+                }
+                this.securityToken = new CachingEncryptedKeySecurityTokenImpl(
+                        inboundSecurityContext, encryptedKeyType, securityProperties, encryptedKeyCache);
+                this.securityToken.setElementPath(responsibleXMLSecStartXMLEvent.getElementPath());
+                this.securityToken.setXMLSecEvent(responsibleXMLSecStartXMLEvent);
+                return this.securityToken;
+            }
+
+            @Override
+            public String getId() {
+                return encryptedKeyType.getId();
+            }
+        };
+
+        //register the key token for decryption:
+        inboundSecurityContext.registerSecurityTokenProvider(encryptedKeyType.getId(), securityTokenProvider);
+
+        //fire a tokenSecurityEvent
+        EncryptedKeyTokenSecurityEvent tokenSecurityEvent = new EncryptedKeyTokenSecurityEvent();
+        tokenSecurityEvent.setSecurityToken(securityTokenProvider.getSecurityToken());
+        tokenSecurityEvent.setCorrelationID(encryptedKeyType.getId());
+        inboundSecurityContext.registerSecurityEvent(tokenSecurityEvent);
+
+        //if this EncryptedKey structure contains a reference list, delegate it to a subclass
+        if (encryptedKeyType.getReferenceList() != null) {
+            handleReferenceList(inputProcessorChain, encryptedKeyType, securityProperties);
+        }
     }
 
     //if this EncryptedKey structure contains a reference list, instantiate a new DecryptInputProcessor
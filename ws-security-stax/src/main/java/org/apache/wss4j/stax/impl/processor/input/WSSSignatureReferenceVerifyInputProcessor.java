@@ -21,6 +21,7 @@ package org.apache.wss4j.stax.impl.processor.input;
 import org.apache.wss4j.binding.wss10.TransformationParametersType;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheUtils;
 import org.apache.wss4j.common.ext.Attachment;
 import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
@@ -297,19 +298,22 @@ public class WSSSignatureReferenceVerifyInputProcessor extends AbstractSignature
             final String cacheKey = 
                     timestampSecurityEvent.getCreated().getTimeInMillis() +
                     "" + Arrays.hashCode(getSignatureType().getSignatureValue().getValue());
-            if (replayCache.contains(cacheKey)) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.MESSAGE_EXPIRED);
-            }
             
-            // Store the Timestamp/SignatureValue combination in the cache
+            // Store the Timestamp/SignatureValue combination in the cache, unless it is already there
+            boolean added;
             Calendar expiresCal = timestampSecurityEvent.getExpires();
             if (expiresCal != null) {
                 Date rightNow = new Date();
                 long currentTime = rightNow.getTime();
                 long expiresTime = expiresCal.getTimeInMillis();
-                replayCache.add(cacheKey, 1L + (expiresTime - currentTime) / 1000L);
+                added = ReplayCacheUtils.addIfAbsent(
+                    replayCache, cacheKey, 1L + (expiresTime - currentTime) / 1000L
+                );
             } else {
-                replayCache.add(cacheKey);
+                added = ReplayCacheUtils.addIfAbsent(replayCache, cacheKey);
+            }
+            if (!added) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.MESSAGE_EXPIRED);
             }
         }
     }
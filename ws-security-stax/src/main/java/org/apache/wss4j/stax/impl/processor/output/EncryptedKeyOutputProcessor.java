@@ -277,47 +277,60 @@ public class EncryptedKeyOutputProcessor extends AbstractOutputProcessor {
                 createStartElementAndOutputAsEvent(subOutputProcessorChain, WSSConstants.TAG_xenc_CipherValue, false, null);
 
                 try {
-                    //encrypt the symmetric session key with the public key from the receiver:
-                    String jceid = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportAlgorithm);
-                    Cipher cipher = Cipher.getInstance(jceid);
-
-                    AlgorithmParameterSpec algorithmParameterSpec = null;
-                    if (XMLSecurityConstants.NS_XENC11_RSAOAEP.equals(encryptionKeyTransportAlgorithm) ||
-                            XMLSecurityConstants.NS_XENC_RSAOAEPMGF1P.equals(encryptionKeyTransportAlgorithm)) {
-
-                        String jceDigestAlgorithm = "SHA-1";
-                        String encryptionKeyTransportDigestAlgorithm = getSecurityProperties().getEncryptionKeyTransportDigestAlgorithm();
-                        if (encryptionKeyTransportDigestAlgorithm != null) {
-                            jceDigestAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportDigestAlgorithm);
+                    // Reuse the wrapped key of the symmetric key taken from the EphemeralKeyCache
+                    byte[] encryptedEphemeralKey =
+                        outputProcessorChain.getSecurityContext().get(WSSConstants.PROP_ENCRYPTED_EPHEMERAL_KEY);
+                    if (encryptedEphemeralKey == null) {
+                        //encrypt the symmetric session key with the public key from the receiver:
+                        String jceid = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportAlgorithm);
+                        Cipher cipher = Cipher.getInstance(jceid);
+
+                        AlgorithmParameterSpec algorithmParameterSpec = null;
+                        if (XMLSecurityConstants.NS_XENC11_RSAOAEP.equals(encryptionKeyTransportAlgorithm) ||
+                                XMLSecurityConstants.NS_XENC_RSAOAEPMGF1P.equals(encryptionKeyTransportAlgorithm)) {
+
+                            String jceDigestAlgorithm = "SHA-1";
+                            String encryptionKeyTransportDigestAlgorithm = getSecurityProperties().getEncryptionKeyTransportDigestAlgorithm();
+                            if (encryptionKeyTransportDigestAlgorithm != null) {
+                                jceDigestAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportDigestAlgorithm);
+                            }
+
+                            PSource.PSpecified pSource = PSource.PSpecified.DEFAULT;
+                            byte[] oaepParams = getSecurityProperties().getEncryptionKeyTransportOAEPParams();
+                            if (oaepParams != null) {
+                                pSource = new PSource.PSpecified(oaepParams);
+                            }
+
+                            MGF1ParameterSpec mgfParameterSpec = new MGF1ParameterSpec("SHA-1");
+                            if (encryptionKeyTransportMGFAlgorithm != null) {
+                                String jceMGFAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportMGFAlgorithm);
+                                mgfParameterSpec = new MGF1ParameterSpec(jceMGFAlgorithm);
+                            }
+                            algorithmParameterSpec = new OAEPParameterSpec(jceDigestAlgorithm, "MGF1", mgfParameterSpec, pSource);
                         }
 
-                        PSource.PSpecified pSource = PSource.PSpecified.DEFAULT;
-                        byte[] oaepParams = getSecurityProperties().getEncryptionKeyTransportOAEPParams();
-                        if (oaepParams != null) {
-                            pSource = new PSource.PSpecified(oaepParams);
-                        }
-
-                        MGF1ParameterSpec mgfParameterSpec = new MGF1ParameterSpec("SHA-1");
-                        if (encryptionKeyTransportMGFAlgorithm != null) {
-                            String jceMGFAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportMGFAlgorithm);
-                            mgfParameterSpec = new MGF1ParameterSpec(jceMGFAlgorithm);
-                        }
-                        algorithmParameterSpec = new OAEPParameterSpec(jceDigestAlgorithm, "MGF1", mgfParameterSpec, pSource);
-                    }
+                        cipher.init(Cipher.WRAP_MODE, x509Certificate.getPublicKey(), algorithmParameterSpec);
 
-                    cipher.init(Cipher.WRAP_MODE, x509Certificate.getPublicKey(), algorithmParameterSpec);
+                        Key secretKey = securityToken.getSecretKey("");
 
-                    Key secretKey = securityToken.getSecretKey("");
-
-                    int blockSize = cipher.getBlockSize();
-                    if (blockSize > 0 && blockSize < secretKey.getEncoded().length) {
-                        throw new WSSecurityException(
-                                WSSecurityException.ErrorCode.FAILURE,
-                                "unsupportedKeyTransp",
-                                new Object[] {"public key algorithm too weak to encrypt symmetric key"}
-                        );
+                        int blockSize = cipher.getBlockSize();
+                        if (blockSize > 0 && blockSize < secretKey.getEncoded().length) {
+                            throw new WSSecurityException(
+                                    WSSecurityException.ErrorCode.FAILURE,
+                                    "unsupportedKeyTransp",
+                                    new Object[] {"public key algorithm too weak to encrypt symmetric key"}
+                            );
+                        }
+                        encryptedEphemeralKey = cipher.wrap(secretKey);
+
+                        String cacheKey =
+                            outputProcessorChain.getSecurityContext().get(WSSConstants.PROP_EPHEMERAL_KEY_CACHE_KEY);
+                        if (cacheKey != null) {
+                            ((WSSSecurityProperties)getSecurityProperties()).getEphemeralKeyCache().put(
+                                cacheKey, secretKey.getEncoded(), encryptedEphemeralKey
+                            );
+                        }
                     }
-                    byte[] encryptedEphemeralKey = cipher.wrap(secretKey);
                     
                     if (((WSSSecurityProperties)getSecurityProperties()).getCallbackHandler() != null) {
                         // Store the Encrypted Key in the CallbackHandler for processing on the inbound side
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.impl.securityToken;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.cert.X509Certificate;
+import java.security.spec.MGF1ParameterSpec;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.wss4j.common.crypto.EncryptedKeyCache;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.xml.security.binding.xmldsig.DigestMethodType;
+import org.apache.xml.security.binding.xmlenc.EncryptedKeyType;
+import org.apache.xml.security.binding.xmlenc.EncryptionMethodType;
+import org.apache.xml.security.binding.xmlenc11.MGFType;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.config.JCEAlgorithmMapper;
+import org.apache.xml.security.stax.ext.InboundSecurityContext;
+import org.apache.xml.security.stax.ext.XMLSecurityConstants;
+import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.ext.XMLSecurityUtils;
+import org.apache.xml.security.stax.impl.securityToken.AbstractInboundSecurityToken;
+import org.apache.xml.security.stax.securityEvent.AlgorithmSuiteSecurityEvent;
+import org.apache.xml.security.stax.securityToken.InboundSecurityToken;
+import org.apache.xml.security.stax.securityToken.SecurityTokenConstants;
+import org.apache.xml.security.stax.securityToken.SecurityTokenFactory;
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * An EncryptedKey token, which unwraps its key the same way as the token created by the
+ * XMLEncryptedKeyInputHandler, but which first consults an EncryptedKeyCache. A key that has
+ * been unwrapped before is taken from the cache, and so the private key operation is skipped.
+ */
+public class CachingEncryptedKeySecurityTokenImpl extends AbstractInboundSecurityToken {
+
+    private static final transient org.slf4j.Logger log =
+        org.slf4j.LoggerFactory.getLogger(CachingEncryptedKeySecurityTokenImpl.class);
+
+    private final InboundSecurityContext inboundSecurityContext;
+    private final EncryptedKeyType encryptedKeyType;
+    private final XMLSecurityProperties securityProperties;
+    private final EncryptedKeyCache encryptedKeyCache;
+    private byte[] decryptedKey;
+    private InboundSecurityToken wrappingSecurityToken;
+
+    public CachingEncryptedKeySecurityTokenImpl(
+            InboundSecurityContext inboundSecurityContext, EncryptedKeyType encryptedKeyType,
+            XMLSecurityProperties securityProperties, EncryptedKeyCache encryptedKeyCache) {
+        super(inboundSecurityContext, encryptedKeyType.getId(),
+              SecurityTokenConstants.KeyIdentifier_EncryptedKey, true);
+        this.inboundSecurityContext = inboundSecurityContext;
+        this.encryptedKeyType = encryptedKeyType;
+        this.securityProperties = securityProperties;
+        this.encryptedKeyCache = encryptedKeyCache;
+    }
+
+    @Override
+    public Key getKey(String algorithmURI, XMLSecurityConstants.AlgorithmUsage algorithmUsage,
+                      String correlationID) throws XMLSecurityException {
+
+        Key key = getSecretKey().get(algorithmURI);
+        if (key != null) {
+            return key;
+        }
+
+        String algoFamily = JCEAlgorithmMapper.getJCEKeyAlgorithmFromURI(algorithmURI);
+        key = new SecretKeySpec(getSecret(correlationID, algorithmURI), algoFamily);
+        setSecretKey(algorithmURI, key);
+        return key;
+    }
+
+    @Override
+    public InboundSecurityToken getKeyWrappingToken() throws XMLSecurityException {
+        if (wrappingSecurityToken != null) {
+            return wrappingSecurityToken;
+        }
+        wrappingSecurityToken = SecurityTokenFactory.getInstance().getSecurityToken(
+                encryptedKeyType.getKeyInfo(),
+                SecurityTokenConstants.KeyUsage_Decryption,
+                securityProperties,
+                inboundSecurityContext);
+        wrappingSecurityToken.addWrappedToken(this);
+        return wrappingSecurityToken;
+    }
+
+    @Override
+    public SecurityTokenConstants.TokenType getTokenType() {
+        return SecurityTokenConstants.EncryptedKeyToken;
+    }
+
+    private byte[] getSecret(String correlationID, String symmetricAlgorithmURI) throws XMLSecurityException {
+        if (decryptedKey != null) {
+            return decryptedKey;
+        }
+
+        String algorithmURI = encryptedKeyType.getEncryptionMethod().getAlgorithm();
+        if (algorithmURI == null) {
+            throw new XMLSecurityException("stax.encryption.noEncAlgo");
+        }
+        String jceName = JCEAlgorithmMapper.translateURItoJCEID(algorithmURI);
+        String jceProvider = JCEAlgorithmMapper.getJCEProviderFromURI(algorithmURI);
+        if (jceName == null) {
+            throw new XMLSecurityException("algorithms.NoSuchMap", new Object[] {algorithmURI});
+        }
+        InboundSecurityToken wrappingToken = getKeyWrappingToken();
+
+        EncryptionMethodType encryptionMethodType = encryptedKeyType.getEncryptionMethod();
+        List<Object> content = encryptionMethodType.getContent();
+        DigestMethodType digestMethodType =
+            XMLSecurityUtils.getQNameType(content, XMLSecurityConstants.TAG_dsig_DigestMethod);
+        byte[] oaepParams =
+            XMLSecurityUtils.getQNameType(content, XMLSecurityConstants.TAG_xenc_OAEPparams);
+        MGFType mgfType = XMLSecurityUtils.getQNameType(content, XMLSecurityConstants.TAG_xenc11_MGF);
+        boolean oaep = XMLSecurityConstants.NS_XENC11_RSAOAEP.equals(algorithmURI)
+            || XMLSecurityConstants.NS_XENC_RSAOAEPMGF1P.equals(algorithmURI);
+
+        Cipher cipher;
+        XMLSecurityConstants.AlgorithmUsage algorithmUsage;
+        try {
+            algorithmUsage = wrappingToken.isAsymmetric()
+                ? XMLSecurityConstants.Asym_Key_Wrap : XMLSecurityConstants.Sym_Key_Wrap;
+
+            if (jceProvider == null) {
+                cipher = Cipher.getInstance(jceName);
+            } else {
+                cipher = Cipher.getInstance(jceName, jceProvider);
+            }
+
+            OAEPParameterSpec oaepParameterSpec = null;
+            if (oaep) {
+                String jceDigestAlgorithm = "SHA-1";
+                if (digestMethodType != null) {
+                    AlgorithmSuiteSecurityEvent algorithmSuiteSecurityEvent = new AlgorithmSuiteSecurityEvent();
+                    algorithmSuiteSecurityEvent.setAlgorithmURI(digestMethodType.getAlgorithm());
+                    algorithmSuiteSecurityEvent.setAlgorithmUsage(XMLSecurityConstants.EncDig);
+                    algorithmSuiteSecurityEvent.setCorrelationID(correlationID);
+                    inboundSecurityContext.registerSecurityEvent(algorithmSuiteSecurityEvent);
+
+                    jceDigestAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(digestMethodType.getAlgorithm());
+                }
+
+                PSource.PSpecified pSource = PSource.PSpecified.DEFAULT;
+                if (oaepParams != null) {
+                    pSource = new PSource.PSpecified(oaepParams);
+                }
+
+                MGF1ParameterSpec mgfParameterSpec = new MGF1ParameterSpec("SHA-1");
+                if (mgfType != null) {
+                    String jceMGFAlgorithm = JCEAlgorithmMapper.translateURItoJCEID(mgfType.getAlgorithm());
+                    mgfParameterSpec = new MGF1ParameterSpec(jceMGFAlgorithm);
+                }
+                oaepParameterSpec = new OAEPParameterSpec(jceDigestAlgorithm, "MGF1", mgfParameterSpec, pSource);
+            }
+
+            if (encryptedKeyType.getCipherData() == null
+                || encryptedKeyType.getCipherData().getCipherValue() == null) {
+                throw new XMLSecurityException("stax.encryption.noCipherValue");
+            }
+
+            // See if the key has been unwrapped before. The public key is requested from the
+            // wrapping token instead of the private key, for the sake of the security events.
+            X509Certificate[] certs = wrappingToken.getX509Certificates();
+            String cacheKey = null;
+            if (certs != null && certs.length > 0 && certs[0] != null) {
+                cacheKey = EncryptedKeyCache.createKey(
+                    certs[0], algorithmURI,
+                    digestMethodType == null ? null : digestMethodType.getAlgorithm(),
+                    mgfType == null ? null : mgfType.getAlgorithm(),
+                    oaepParams, encryptedKeyType.getCipherData().getCipherValue()
+                );
+                byte[] cachedKey = encryptedKeyCache.get(cacheKey);
+                if (cachedKey != null) {
+                    wrappingToken.getPublicKey(algorithmURI, algorithmUsage, correlationID);
+                    setSha1Identifier(getSha1Identifier(encryptedKeyType));
+                    this.decryptedKey = cachedKey;
+                    return this.decryptedKey;
+                }
+            }
+
+            Key privateKey = wrappingToken.getSecretKey(algorithmURI, algorithmUsage, correlationID);
+            if (oaepParameterSpec == null) {
+                cipher.init(Cipher.UNWRAP_MODE, privateKey);
+            } else {
+                cipher.init(Cipher.UNWRAP_MODE, privateKey, oaepParameterSpec);
+            }
+
+            setSha1Identifier(getSha1Identifier(encryptedKeyType));
+            try {
+                Key key = cipher.unwrap(encryptedKeyType.getCipherData().getCipherValue(),
+                        jceName,
+                        Cipher.SECRET_KEY);
+                this.decryptedKey = key.getEncoded();
+                if (cacheKey != null) {
+                    encryptedKeyCache.put(cacheKey, this.decryptedKey);
+                }
+                return this.decryptedKey;
+            } catch (IllegalStateException e) {
+                throw new XMLSecurityException(e);
+            } catch (Exception e) {
+                log.warn("Unwrapping of the encrypted key failed with error: " + e.getMessage() + ". "
+                        + "Generating a faked one to mitigate timing attacks.");
+
+                int keyLength = JCEAlgorithmMapper.getKeyLengthFromURI(symmetricAlgorithmURI);
+                this.decryptedKey = XMLSecurityConstants.generateBytes(keyLength / 8);
+                return this.decryptedKey;
+            }
+        } catch (NoSuchPaddingException | NoSuchAlgorithmException | InvalidAlgorithmParameterException
+                | InvalidKeyException | NoSuchProviderException e) {
+            throw new XMLSecurityException(e);
+        }
+    }
+
+    private static String getSha1Identifier(EncryptedKeyType encryptedKeyType) throws XMLSecurityException {
+        return Base64.encode(KeyUtils.generateDigest(encryptedKeyType.getCipherData().getCipherValue()));
+    }
+}
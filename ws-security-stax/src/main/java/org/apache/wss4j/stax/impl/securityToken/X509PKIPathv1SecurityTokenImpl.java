@@ -19,23 +19,16 @@
 package org.apache.wss4j.stax.impl.securityToken;
 
 import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.ParsedCertificateCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
 import org.apache.xml.security.exceptions.XMLSecurityException;
-import org.apache.xml.security.stax.impl.util.UnsynchronizedByteArrayInputStream;
 
 import javax.security.auth.callback.CallbackHandler;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.security.cert.CertPath;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.Iterator;
-import java.util.List;
 
 public class X509PKIPathv1SecurityTokenImpl extends X509SecurityTokenImpl {
 
@@ -49,20 +42,15 @@ public class X509PKIPathv1SecurityTokenImpl extends X509SecurityTokenImpl {
         super(WSSecurityTokenConstants.X509PkiPathV1Token, wsInboundSecurityContext, crypto,
                 callbackHandler, id, keyIdentifier, securityProperties, true);
 
-        try (InputStream in = new UnsynchronizedByteArrayInputStream(binaryContent)) {
-            CertPath certPath = getCrypto().getCertificateFactory().generateCertPath(in);
-            List<? extends Certificate> l = certPath.getCertificates();
-            X509Certificate[] certs = new X509Certificate[l.size()];
-            Iterator<? extends Certificate> iterator = l.iterator();
-            for (int i = 0; i < l.size(); i++) {
-                certs[i] = (X509Certificate) iterator.next();
-            }
-            if (certs.length > 0) {
-                setX509Certificates(certs);
-            }
-        } catch (CertificateException | IOException e) {
+        X509Certificate[] certs;
+        try {
+            certs = ParsedCertificateCache.getCertificatesFromBytes(binaryContent, getCrypto());
+        } catch (WSSecurityException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.INVALID_SECURITY, e, "parseError");
         }
+        if (certs.length > 0) {
+            setX509Certificates(certs);
+        }
     }
 
     @Override
@@ -25,6 +25,9 @@ import org.apache.wss4j.common.WSEncryptionPart;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.EncryptedKeyCache;
+import org.apache.wss4j.common.crypto.EphemeralKeyCache;
+import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.handler.WSHandlerConstants;
@@ -58,7 +61,10 @@ import org.w3c.dom.NodeList;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
@@ -72,6 +78,7 @@ import javax.xml.xpath.XPathExpression;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.security.KeyStore;
@@ -2654,4 +2661,233 @@ public class EncDecryptionTest extends AbstractTestBase {
             Assert.assertEquals(nodeList.getLength(), 0);
         }
     }
+
+    @Test
+    public void testEncDecryptionEncryptedKeyCacheInbound() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        {
+            InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+            String action = WSHandlerConstants.ENCRYPT;
+            Properties properties = new Properties();
+            Document securedDocument = doOutboundSecurityWithWSS4J(sourceDocument, action, properties);
+
+            javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+        }
+
+        //done encryption; now test decryption twice with the same cache:
+        EncryptedKeyCache encryptedKeyCache = new EncryptedKeyCache(10);
+        final List<Integer> decryptCallbacks = new ArrayList<Integer>();
+        List<List<SecurityEventConstants.Event>> receivedEvents = new ArrayList<List<SecurityEventConstants.Event>>();
+        for (int i = 0; i < 2; i++) {
+            WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+            securityProperties.loadDecryptionKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+            securityProperties.setCallbackHandler(new CallbackHandlerImpl() {
+                @Override
+                public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+                    if (((WSPasswordCallback) callbacks[0]).getUsage() == WSPasswordCallback.DECRYPT) {
+                        decryptCallbacks.add(1);
+                    }
+                    super.handle(callbacks);
+                }
+            });
+            securityProperties.setEncryptedKeyCache(encryptedKeyCache);
+
+            TestSecurityEventListener securityEventListener = new TestSecurityEventListener(new SecurityEventConstants.Event[0]);
+            Document document = doInboundSecurity(securityProperties,
+                    xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())), securityEventListener);
+
+            //no encrypted content
+            NodeList nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_xenc_EncryptedData.getNamespaceURI(), WSSConstants.TAG_xenc_EncryptedData.getLocalPart());
+            Assert.assertEquals(nodeList.getLength(), 0);
+
+            List<SecurityEventConstants.Event> events = new ArrayList<SecurityEventConstants.Event>();
+            for (SecurityEvent securityEvent : securityEventListener.getReceivedSecurityEvents()) {
+                events.add(securityEvent.getSecurityEventType());
+            }
+            receivedEvents.add(events);
+        }
+
+        //the private key is only needed for the first message, and the same events are fired for both
+        Assert.assertEquals(1, decryptCallbacks.size());
+        Assert.assertEquals(1, encryptedKeyCache.size());
+        Assert.assertEquals(receivedEvents.get(0), receivedEvents.get(1));
+    }
+
+    @Test
+    public void testEncDecryptionEphemeralKeyCacheOutbound() throws Exception {
+
+        //encrypt three messages with the same cache - the wrapped key is used for two messages
+        EphemeralKeyCache ephemeralKeyCache = new EphemeralKeyCache(2);
+        List<byte[]> securedDocuments = new ArrayList<byte[]>();
+        List<String> cipherValues = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+            List<WSSConstants.Action> actions = new ArrayList<WSSConstants.Action>();
+            actions.add(WSSConstants.ENCRYPT);
+            securityProperties.setActions(actions);
+            securityProperties.loadEncryptionKeystore(this.getClass().getClassLoader().getResource("transmitter.jks"), "default".toCharArray());
+            securityProperties.setEncryptionUser("receiver");
+            securityProperties.setEphemeralKeyCache(ephemeralKeyCache);
+
+            InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+            ByteArrayOutputStream baos = doOutboundSecurity(securityProperties, sourceDocument);
+            securedDocuments.add(baos.toByteArray());
+
+            Document document = documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(baos.toByteArray()));
+            XPathExpression xPathExpression = getXPath("/soap:Envelope/soap:Header/wsse:Security/xenc:EncryptedKey/xenc:CipherData/xenc:CipherValue");
+            Node node = (Node) xPathExpression.evaluate(document, XPathConstants.NODE);
+            Assert.assertNotNull(node);
+            cipherValues.add(node.getTextContent());
+        }
+
+        Assert.assertEquals(cipherValues.get(0), cipherValues.get(1));
+        Assert.assertNotEquals(cipherValues.get(1), cipherValues.get(2));
+        Assert.assertEquals(1, ephemeralKeyCache.size());
+
+        //done encryption; now test decryption:
+        for (byte[] securedDocument : securedDocuments) {
+            String action = WSHandlerConstants.ENCRYPT;
+            doInboundSecurityWithWSS4J(documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(securedDocument)), action);
+        }
+    }
+
+    @Test
+    public void testEncDecryptionSingleThreadedInbound() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        {
+            InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-encryptedHeader.xml");
+            String action = WSHandlerConstants.ENCRYPT;
+            Properties properties = new Properties();
+            properties.setProperty(WSHandlerConstants.ENCRYPTION_PARTS,
+                    "{Header}{http://www.example.com}testEncryptedHeader;{Content}{http://schemas.xmlsoap.org/soap/envelope/}Body;");
+            properties.put(WSHandlerConstants.ENC_SYM_ALGO, "http://www.w3.org/2009/xmlenc11#aes128-gcm");
+            Document securedDocument = doOutboundSecurityWithWSS4J(sourceDocument, action, properties);
+
+            NodeList nodeList = securedDocument.getElementsByTagNameNS(WSSConstants.TAG_xenc_EncryptedData.getNamespaceURI(), WSSConstants.TAG_xenc_EncryptedData.getLocalPart());
+            Assert.assertEquals(nodeList.getLength(), 3);
+
+            javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+        }
+
+        //decrypt on the caller's thread:
+        {
+            WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+            securityProperties.loadDecryptionKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+            securityProperties.setCallbackHandler(new CallbackHandlerImpl());
+            securityProperties.setUseSingleThreadedDecryption(true);
+
+            Document document = doInboundSecurity(securityProperties, xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())));
+
+            //the EncryptedHeader of the test document is not referenced and must still be there
+            NodeList nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_xenc_EncryptedData.getNamespaceURI(), WSSConstants.TAG_xenc_EncryptedData.getLocalPart());
+            Assert.assertEquals(nodeList.getLength(), 1);
+
+            nodeList = document.getElementsByTagNameNS("http://www.example.com", "someElement");
+            Assert.assertEquals(nodeList.getLength(), 1);
+            Assert.assertEquals(nodeList.item(0).getTextContent(), "some Text");
+            Assert.assertEquals(nodeList.item(0).getParentNode().getParentNode().getLocalName(), "Header");
+
+            nodeList = document.getElementsByTagNameNS("http://schemas.xmlsoap.org/wsdl/", "definitions");
+            Assert.assertEquals(nodeList.getLength(), 2);
+        }
+    }
+
+    @Test
+    public void testEncDecryptionSingleThreadedInboundCBC() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        {
+            InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-encryptedHeader.xml");
+            String action = WSHandlerConstants.ENCRYPT;
+            Properties properties = new Properties();
+            properties.setProperty(WSHandlerConstants.ENCRYPTION_PARTS,
+                    "{Header}{http://www.example.com}testEncryptedHeader;{Content}{http://schemas.xmlsoap.org/soap/envelope/}Body;");
+            properties.put(WSHandlerConstants.ENC_SYM_ALGO, "http://www.w3.org/2001/04/xmlenc#aes128-cbc");
+            Document securedDocument = doOutboundSecurityWithWSS4J(sourceDocument, action, properties);
+
+            NodeList nodeList = securedDocument.getElementsByTagNameNS(WSSConstants.TAG_xenc_EncryptedData.getNamespaceURI(), WSSConstants.TAG_xenc_EncryptedData.getLocalPart());
+            Assert.assertEquals(nodeList.getLength(), 3);
+
+            javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+        }
+
+        //decrypt on the caller's thread:
+        {
+            WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+            securityProperties.loadDecryptionKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+            securityProperties.setCallbackHandler(new CallbackHandlerImpl());
+            securityProperties.setUseSingleThreadedDecryption(true);
+
+            Document document = doInboundSecurity(securityProperties, xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())));
+
+            //the EncryptedHeader of the test document is not referenced and must still be there
+            NodeList nodeList = document.getElementsByTagNameNS(WSSConstants.TAG_xenc_EncryptedData.getNamespaceURI(), WSSConstants.TAG_xenc_EncryptedData.getLocalPart());
+            Assert.assertEquals(nodeList.getLength(), 1);
+
+            nodeList = document.getElementsByTagNameNS("http://www.example.com", "someElement");
+            Assert.assertEquals(nodeList.getLength(), 1);
+            Assert.assertEquals(nodeList.item(0).getTextContent(), "some Text");
+            Assert.assertEquals(nodeList.item(0).getParentNode().getParentNode().getLocalName(), "Header");
+
+            nodeList = document.getElementsByTagNameNS("http://schemas.xmlsoap.org/wsdl/", "definitions");
+            Assert.assertEquals(nodeList.getLength(), 2);
+        }
+    }
+
+    @Test
+    public void testEncDecryptionSingleThreadedInboundModifiedGCM() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        {
+            InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+            String action = WSHandlerConstants.ENCRYPT;
+            Properties properties = new Properties();
+            properties.put(WSHandlerConstants.ENC_SYM_ALGO, "http://www.w3.org/2009/xmlenc11#aes128-gcm");
+            Document securedDocument = doOutboundSecurityWithWSS4J(sourceDocument, action, properties);
+
+            //flip a byte of the encrypted Body content
+            XPathExpression xPathExpression = getXPath("/soap:Envelope/soap:Body/xenc:EncryptedData/xenc:CipherData/xenc:CipherValue");
+            Node node = (Node) xPathExpression.evaluate(securedDocument, XPathConstants.NODE);
+            Assert.assertNotNull(node);
+            byte[] cipherValue = Base64.decode(node.getTextContent());
+            cipherValue[cipherValue.length / 2] ^= 0x01;
+            node.setTextContent(Base64.encode(cipherValue));
+
+            javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+        }
+
+        //decrypt on the caller's thread:
+        {
+            WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+            securityProperties.loadDecryptionKeystore(this.getClass().getClassLoader().getResource("receiver.jks"), "default".toCharArray());
+            securityProperties.setCallbackHandler(new CallbackHandlerImpl());
+            securityProperties.setUseSingleThreadedDecryption(true);
+
+            InboundWSSec wsSecIn = WSSec.getInboundWSSec(securityProperties);
+            XMLStreamReader xmlStreamReader =
+                wsSecIn.processInMessage(xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())));
+
+            boolean bodyStarted = false;
+            try {
+                while (xmlStreamReader.hasNext()) {
+                    if (xmlStreamReader.next() == XMLStreamConstants.START_ELEMENT) {
+                        if (bodyStarted) {
+                            //the plaintext must not be delivered before the authentication tag is checked
+                            Assert.fail("Unexpected element in the Body: " + xmlStreamReader.getName());
+                        }
+                        bodyStarted = "Body".equals(xmlStreamReader.getLocalName());
+                    }
+                }
+                Assert.fail("Exception expected");
+            } catch (XMLStreamException e) {
+                Assert.assertTrue(e.getCause() instanceof WSSecurityException);
+            }
+        }
+    }
 }
@@ -33,26 +33,32 @@ import org.apache.wss4j.stax.impl.securityToken.SamlSecurityTokenImpl;
 import org.apache.wss4j.stax.impl.securityToken.UsernameSecurityTokenImpl;
 import org.apache.wss4j.stax.impl.securityToken.X509SecurityTokenImpl;
 import org.apache.wss4j.stax.securityEvent.*;
+import org.apache.wss4j.stax.securityEvent.EncryptedKeyTokenSecurityEvent;
 import org.apache.wss4j.stax.securityEvent.X509TokenSecurityEvent;
 import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.config.Init;
 import org.apache.xml.security.stax.ext.XMLSecurityConstants;
 import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
 import org.apache.xml.security.stax.ext.stax.XMLSecEventFactory;
+import org.apache.xml.security.stax.impl.securityToken.AbstractInboundSecurityToken;
 import org.apache.xml.security.stax.impl.util.IDGenerator;
 import org.apache.xml.security.stax.securityEvent.*;
+import org.apache.xml.security.stax.securityToken.SecurityTokenConstants;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import javax.xml.namespace.QName;
 
+import java.lang.reflect.Field;
 import java.security.KeyStore;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
+import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public class InboundWSSecurityContextImplTest {
 
@@ -708,6 +714,236 @@ public class InboundWSSecurityContextImplTest {
         return securityEventList;
     }
 
+    @Test
+    public void testTokenIdentificationWrappedAndSupportingTokens() throws Exception {
+        final List<SecurityEvent> securityEventList = new LinkedList<SecurityEvent>();
+
+        SecurityEventListener securityEventListener = new SecurityEventListener() {
+            @Override
+            public void registerSecurityEvent(SecurityEvent securityEvent) throws WSSecurityException {
+                securityEventList.add(securityEvent);
+            }
+        };
+
+        InboundWSSecurityContextImpl inboundWSSecurityContext = new InboundWSSecurityContextImpl();
+        inboundWSSecurityContext.addSecurityEventListener(securityEventListener);
+
+        List<XMLSecurityConstants.ContentType> protectionOrder = new LinkedList<XMLSecurityConstants.ContentType>();
+        protectionOrder.add(XMLSecurityConstants.ContentType.SIGNATURE);
+        protectionOrder.add(XMLSecurityConstants.ContentType.ENCRYPTION);
+
+        List<QName> timestampPath = new LinkedList<QName>();
+        timestampPath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
+        timestampPath.add(WSSConstants.TAG_wsu_Timestamp);
+
+        List<QName> signaturePath = new LinkedList<QName>();
+        signaturePath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
+        signaturePath.add(WSSConstants.TAG_dsig_Signature);
+
+        List<QName> usernameTokenPath = new LinkedList<QName>();
+        usernameTokenPath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
+        usernameTokenPath.add(WSSConstants.TAG_wsse_UsernameToken);
+
+        List<QName> bstPath = new LinkedList<QName>();
+        bstPath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
+        bstPath.add(WSSConstants.TAG_wsse_BinarySecurityToken);
+
+        List<QName> ekPath = new LinkedList<QName>();
+        ekPath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
+        ekPath.add(WSSConstants.TAG_xenc_EncryptedKey);
+
+        List<QName> dkPath = new LinkedList<QName>();
+        dkPath.addAll(WSSConstants.WSSE_SECURITY_HEADER_PATH);
+        dkPath.add(WSSConstants.TAG_wsc0502_DerivedKeyToken);
+
+        TimestampSecurityEvent timestampSecurityEvent = new TimestampSecurityEvent();
+        inboundWSSecurityContext.registerSecurityEvent(timestampSecurityEvent);
+
+        //the token which encrypts the UsernameToken
+        X509SecurityTokenImpl encryptionToken = getX509Token(WSSecurityTokenConstants.X509V3Token);
+        encryptionToken.addTokenUsage(WSSecurityTokenConstants.TokenUsage_Encryption);
+        X509TokenSecurityEvent encryptionTokenSecurityEvent = new X509TokenSecurityEvent();
+        encryptionTokenSecurityEvent.setSecurityToken(encryptionToken);
+        inboundWSSecurityContext.registerSecurityEvent(encryptionTokenSecurityEvent);
+
+        XMLSecEvent encryptedUsernameTokenXmlEvent = XMLSecEventFactory.createXmlSecStartElement(WSSConstants.TAG_wsse_UsernameToken, null, null);
+
+        EncryptedElementSecurityEvent usernameEncryptedElementSecurityEvent = new EncryptedElementSecurityEvent(encryptionToken, true, protectionOrder);
+        usernameEncryptedElementSecurityEvent.setElementPath(usernameTokenPath);
+        usernameEncryptedElementSecurityEvent.setXmlSecEvent(encryptedUsernameTokenXmlEvent);
+        inboundWSSecurityContext.registerSecurityEvent(usernameEncryptedElementSecurityEvent);
+
+        UsernameSecurityTokenImpl encryptedUsernameSecurityToken = new UsernameSecurityTokenImpl(
+                WSSConstants.UsernameTokenPasswordType.PASSWORD_TEXT,
+                "username", "password", new Date().toString(), null, new byte[10], 10L,
+                null, IDGenerator.generateID(null), WSSecurityTokenConstants.KeyIdentifier_SecurityTokenDirectReference);
+        encryptedUsernameSecurityToken.setElementPath(usernameTokenPath);
+        encryptedUsernameSecurityToken.setXMLSecEvent(encryptedUsernameTokenXmlEvent);
+        UsernameTokenSecurityEvent encryptedUsernameTokenSecurityEvent = new UsernameTokenSecurityEvent();
+        encryptedUsernameTokenSecurityEvent.setSecurityToken(encryptedUsernameSecurityToken);
+        inboundWSSecurityContext.registerSecurityEvent(encryptedUsernameTokenSecurityEvent);
+
+        //neither signed nor encrypted
+        UsernameSecurityTokenImpl usernameSecurityToken = new UsernameSecurityTokenImpl(
+                WSSConstants.UsernameTokenPasswordType.PASSWORD_TEXT,
+                "username", "password", new Date().toString(), null, new byte[10], 10L,
+                null, IDGenerator.generateID(null), WSSecurityTokenConstants.KeyIdentifier_SecurityTokenDirectReference);
+        usernameSecurityToken.setElementPath(usernameTokenPath);
+        usernameSecurityToken.setXMLSecEvent(XMLSecEventFactory.createXmlSecStartElement(WSSConstants.TAG_wsse_UsernameToken, null, null));
+        UsernameTokenSecurityEvent usernameTokenSecurityEvent = new UsernameTokenSecurityEvent();
+        usernameTokenSecurityEvent.setSecurityToken(usernameSecurityToken);
+        inboundWSSecurityContext.registerSecurityEvent(usernameTokenSecurityEvent);
+
+        //the token of the message signature
+        X509SecurityTokenImpl signatureToken = getX509Token(WSSecurityTokenConstants.X509V3Token);
+        signatureToken.addTokenUsage(WSSecurityTokenConstants.TokenUsage_Signature);
+        X509TokenSecurityEvent signatureTokenSecurityEvent = new X509TokenSecurityEvent();
+        signatureTokenSecurityEvent.setSecurityToken(signatureToken);
+        inboundWSSecurityContext.registerSecurityEvent(signatureTokenSecurityEvent);
+
+        SignedElementSecurityEvent signedTimestampElementSecurityEvent = new SignedElementSecurityEvent(signatureToken, true, protectionOrder);
+        signedTimestampElementSecurityEvent.setElementPath(timestampPath);
+        inboundWSSecurityContext.registerSecurityEvent(signedTimestampElementSecurityEvent);
+
+        SignedElementSecurityEvent signedUsernameTokenElementSecurityEvent = new SignedElementSecurityEvent(signatureToken, true, protectionOrder);
+        signedUsernameTokenElementSecurityEvent.setElementPath(usernameTokenPath);
+        signedUsernameTokenElementSecurityEvent.setXmlSecEvent(encryptedUsernameTokenXmlEvent);
+        inboundWSSecurityContext.registerSecurityEvent(signedUsernameTokenElementSecurityEvent);
+
+        XMLSecEvent bstTokenXmlEvent = XMLSecEventFactory.createXmlSecStartElement(WSSConstants.TAG_wsse_BinarySecurityToken, null, null);
+
+        SignedElementSecurityEvent signedBstElementSecurityEvent = new SignedElementSecurityEvent(signatureToken, true, protectionOrder);
+        signedBstElementSecurityEvent.setElementPath(bstPath);
+        signedBstElementSecurityEvent.setXmlSecEvent(bstTokenXmlEvent);
+        inboundWSSecurityContext.registerSecurityEvent(signedBstElementSecurityEvent);
+
+        XMLSecEvent ekXmlEvent = XMLSecEventFactory.createXmlSecStartElement(WSSConstants.TAG_xenc_EncryptedKey, null, null);
+
+        SignedElementSecurityEvent signedEkElementSecurityEvent = new SignedElementSecurityEvent(signatureToken, true, protectionOrder);
+        signedEkElementSecurityEvent.setElementPath(ekPath);
+        signedEkElementSecurityEvent.setXmlSecEvent(ekXmlEvent);
+        inboundWSSecurityContext.registerSecurityEvent(signedEkElementSecurityEvent);
+
+        X509SecurityTokenImpl signedSupportingToken = getX509Token(WSSecurityTokenConstants.X509V3Token);
+        signedSupportingToken.setElementPath(bstPath);
+        signedSupportingToken.setXMLSecEvent(bstTokenXmlEvent);
+        X509TokenSecurityEvent signedSupportingTokenSecurityEvent = new X509TokenSecurityEvent();
+        signedSupportingTokenSecurityEvent.setSecurityToken(signedSupportingToken);
+        inboundWSSecurityContext.registerSecurityEvent(signedSupportingTokenSecurityEvent);
+
+        //a DerivedKeyToken over an EncryptedKey which endorses the message signature
+        AbstractInboundSecurityToken ekSecurityToken = new AbstractInboundSecurityToken(
+                null, IDGenerator.generateID(null),
+                SecurityTokenConstants.KeyIdentifier_EncryptedKey, true) {
+            @Override
+            public SecurityTokenConstants.TokenType getTokenType() {
+                return SecurityTokenConstants.EncryptedKeyToken;
+            }
+        };
+        ekSecurityToken.setElementPath(ekPath);
+        ekSecurityToken.setXMLSecEvent(ekXmlEvent);
+
+        AbstractInboundSecurityToken dkSecurityToken = new AbstractInboundSecurityToken(
+                null, IDGenerator.generateID(null),
+                WSSecurityTokenConstants.KeyIdentifier_SecurityTokenDirectReference, true) {
+            @Override
+            public SecurityTokenConstants.TokenType getTokenType() {
+                return WSSecurityTokenConstants.DerivedKeyToken;
+            }
+        };
+        dkSecurityToken.setElementPath(dkPath);
+        dkSecurityToken.addTokenUsage(WSSecurityTokenConstants.TokenUsage_Signature);
+        dkSecurityToken.setKeyWrappingToken(ekSecurityToken);
+        ekSecurityToken.addWrappedToken(dkSecurityToken);
+
+        EncryptedKeyTokenSecurityEvent encryptedKeyTokenSecurityEvent = new EncryptedKeyTokenSecurityEvent();
+        encryptedKeyTokenSecurityEvent.setSecurityToken(ekSecurityToken);
+        inboundWSSecurityContext.registerSecurityEvent(encryptedKeyTokenSecurityEvent);
+
+        DerivedKeyTokenSecurityEvent derivedKeyTokenSecurityEvent = new DerivedKeyTokenSecurityEvent();
+        derivedKeyTokenSecurityEvent.setSecurityToken(dkSecurityToken);
+        inboundWSSecurityContext.registerSecurityEvent(derivedKeyTokenSecurityEvent);
+
+        SignedElementSecurityEvent dkSignedTimestampElementSecurityEvent = new SignedElementSecurityEvent(dkSecurityToken, true, protectionOrder);
+        dkSignedTimestampElementSecurityEvent.setElementPath(timestampPath);
+        inboundWSSecurityContext.registerSecurityEvent(dkSignedTimestampElementSecurityEvent);
+
+        SignedElementSecurityEvent dkSignedSignatureElementSecurityEvent = new SignedElementSecurityEvent(dkSecurityToken, true, protectionOrder);
+        dkSignedSignatureElementSecurityEvent.setElementPath(signaturePath);
+        inboundWSSecurityContext.registerSecurityEvent(dkSignedSignatureElementSecurityEvent);
+
+        //nothing is forwarded before the operation is known
+        Assert.assertTrue(securityEventList.isEmpty());
+        Assert.assertEquals(15, ((Collection<?>) getPrivateField(inboundWSSecurityContext, "securityEventQueue")).size());
+        Assert.assertEquals(6, ((Collection<?>) getPrivateField(inboundWSSecurityContext, "signedElementSecurityEvents")).size());
+        Assert.assertEquals(2, ((Map<?, ?>) getPrivateField(inboundWSSecurityContext, "signedElementsByTokenId")).size());
+        Assert.assertEquals(3, ((Map<?, ?>) getPrivateField(inboundWSSecurityContext, "signedElementsByXMLSecEvent")).size());
+        Assert.assertEquals(1, ((Map<?, ?>) getPrivateField(inboundWSSecurityContext, "encryptedElementsByTokenId")).size());
+        Assert.assertEquals(1, ((Map<?, ?>) getPrivateField(inboundWSSecurityContext, "encryptedElementsByXMLSecEvent")).size());
+
+        OperationSecurityEvent operationSecurityEvent = new OperationSecurityEvent();
+        operationSecurityEvent.setOperation(new QName("definitions"));
+        inboundWSSecurityContext.registerSecurityEvent(operationSecurityEvent);
+
+        Assert.assertTrue(((Collection<?>) getPrivateField(inboundWSSecurityContext, "securityEventQueue")).isEmpty());
+        Assert.assertTrue(((Collection<?>) getPrivateField(inboundWSSecurityContext, "signedElementSecurityEvents")).isEmpty());
+        Assert.assertTrue(((Map<?, ?>) getPrivateField(inboundWSSecurityContext, "signedElementsByTokenId")).isEmpty());
+        Assert.assertTrue(((Map<?, ?>) getPrivateField(inboundWSSecurityContext, "signedElementsByXMLSecEvent")).isEmpty());
+        Assert.assertTrue(((Map<?, ?>) getPrivateField(inboundWSSecurityContext, "encryptedElementsByTokenId")).isEmpty());
+        Assert.assertTrue(((Map<?, ?>) getPrivateField(inboundWSSecurityContext, "encryptedElementsByXMLSecEvent")).isEmpty());
+
+        //the seven TokenSecurityEvents are replaced by one event per root token, forwarded in the order
+        //of registration, followed by the remaining events and the operation
+        Assert.assertEquals(15, securityEventList.size());
+
+        Assert.assertTrue(securityEventList.get(0) instanceof X509TokenSecurityEvent);
+        Assert.assertSame(encryptionToken, ((X509TokenSecurityEvent) securityEventList.get(0)).getSecurityToken());
+        Assert.assertEquals(1, encryptionToken.getTokenUsages().size());
+        Assert.assertTrue(encryptionToken.getTokenUsages().contains(WSSecurityTokenConstants.TokenUsage_MainEncryption));
+
+        Assert.assertTrue(securityEventList.get(1) instanceof UsernameTokenSecurityEvent);
+        Assert.assertSame(encryptedUsernameSecurityToken, ((UsernameTokenSecurityEvent) securityEventList.get(1)).getSecurityToken());
+        Assert.assertEquals(1, encryptedUsernameSecurityToken.getTokenUsages().size());
+        Assert.assertTrue(encryptedUsernameSecurityToken.getTokenUsages().contains(WSSecurityTokenConstants.TokenUsage_SignedEncryptedSupportingTokens));
+
+        Assert.assertTrue(securityEventList.get(2) instanceof UsernameTokenSecurityEvent);
+        Assert.assertSame(usernameSecurityToken, ((UsernameTokenSecurityEvent) securityEventList.get(2)).getSecurityToken());
+        Assert.assertEquals(1, usernameSecurityToken.getTokenUsages().size());
+        Assert.assertTrue(usernameSecurityToken.getTokenUsages().contains(WSSecurityTokenConstants.TokenUsage_SupportingTokens));
+
+        Assert.assertTrue(securityEventList.get(3) instanceof X509TokenSecurityEvent);
+        Assert.assertSame(signatureToken, ((X509TokenSecurityEvent) securityEventList.get(3)).getSecurityToken());
+        Assert.assertEquals(1, signatureToken.getTokenUsages().size());
+        Assert.assertTrue(signatureToken.getTokenUsages().contains(WSSecurityTokenConstants.TokenUsage_MainSignature));
+
+        Assert.assertTrue(securityEventList.get(4) instanceof X509TokenSecurityEvent);
+        Assert.assertSame(signedSupportingToken, ((X509TokenSecurityEvent) securityEventList.get(4)).getSecurityToken());
+        Assert.assertEquals(1, signedSupportingToken.getTokenUsages().size());
+        Assert.assertTrue(signedSupportingToken.getTokenUsages().contains(WSSecurityTokenConstants.TokenUsage_SignedSupportingTokens));
+
+        //the wrapped DerivedKeyToken signs the Timestamp and the Signature, the usage is set on its root token
+        Assert.assertTrue(securityEventList.get(5) instanceof EncryptedKeyTokenSecurityEvent);
+        Assert.assertSame(ekSecurityToken, ((EncryptedKeyTokenSecurityEvent) securityEventList.get(5)).getSecurityToken());
+        Assert.assertEquals(1, ekSecurityToken.getTokenUsages().size());
+        Assert.assertTrue(ekSecurityToken.getTokenUsages().contains(WSSecurityTokenConstants.TokenUsage_SignedEndorsingSupportingTokens));
+        Assert.assertEquals(1, dkSecurityToken.getTokenUsages().size());
+        Assert.assertTrue(dkSecurityToken.getTokenUsages().contains(WSSecurityTokenConstants.TokenUsage_Signature));
+
+        for (int i = 6; i < securityEventList.size() - 1; i++) {
+            Assert.assertFalse(securityEventList.get(i) instanceof TokenSecurityEvent);
+        }
+        Assert.assertSame(timestampSecurityEvent, securityEventList.get(6));
+        Assert.assertSame(usernameEncryptedElementSecurityEvent, securityEventList.get(7));
+        Assert.assertSame(dkSignedSignatureElementSecurityEvent, securityEventList.get(13));
+        Assert.assertSame(operationSecurityEvent, securityEventList.get(14));
+    }
+
+    private Object getPrivateField(InboundWSSecurityContextImpl inboundWSSecurityContext, String fieldName) throws Exception {
+        Field field = InboundWSSecurityContextImpl.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return field.get(inboundWSSecurityContext);
+    }
+
     private X509SecurityTokenImpl getX509Token(WSSecurityTokenConstants.TokenType tokenType) throws Exception {
 
         final KeyStore keyStore = KeyStore.getInstance("jks");
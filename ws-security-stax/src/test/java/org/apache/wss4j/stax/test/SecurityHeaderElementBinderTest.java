@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.test;
+
+import org.apache.wss4j.binding.wss10.BinarySecurityTokenType;
+import org.apache.wss4j.binding.wss10.EncodedString;
+import org.apache.wss4j.binding.wss10.PasswordString;
+import org.apache.wss4j.binding.wss10.UsernameTokenType;
+import org.apache.wss4j.binding.wsu10.AttributedDateTime;
+import org.apache.wss4j.binding.wsu10.TimestampType;
+import org.apache.wss4j.stax.WSSec;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.impl.processor.input.SecurityHeaderElementBinder;
+import org.apache.xml.security.stax.ext.XMLSecurityUtils;
+import org.apache.xml.security.stax.ext.stax.XMLSecEvent;
+import org.apache.xml.security.stax.ext.stax.XMLSecEventFactory;
+import org.apache.xml.security.stax.ext.stax.XMLSecStartElement;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SecurityHeaderElementBinderTest extends AbstractTestBase {
+
+    private static final String NAMESPACES =
+            " xmlns:wsse=\"" + WSSConstants.NS_WSSE10 + "\" xmlns:wsu=\"" + WSSConstants.NS_WSU10 + "\"";
+
+    static {
+        WSSec.init();
+    }
+
+    @Test
+    public void testTimestamp() throws Exception {
+        String xml = "<wsu:Timestamp" + NAMESPACES + " wsu:Id=\"TS-1\">\n"
+                + "  <wsu:Created>2009-11-18T10:11:28.358Z</wsu:Created>\n"
+                + "  <wsu:Expires wsu:Id=\"E-1\">2009-11-18T10:26:28.358Z</wsu:Expires>\n"
+                + "</wsu:Timestamp>";
+
+        TimestampType timestampType = SecurityHeaderElementBinder.bindTimestamp(getXMLSecEvents(xml));
+        assertNotNull(timestampType);
+        TimestampType expected = this.<TimestampType>unmarshal(xml);
+        assertEquals(expected.getId(), timestampType.getId());
+        assertAttributedDateTime(expected.getCreated(), timestampType.getCreated());
+        assertAttributedDateTime(expected.getExpires(), timestampType.getExpires());
+        assertTrue(timestampType.getAny().isEmpty());
+        assertTrue(timestampType.getOtherAttributes().isEmpty());
+
+        xml = "<wsu:Timestamp" + NAMESPACES + "><wsu:Expires>2009-11-18T10:26:28.358Z</wsu:Expires></wsu:Timestamp>";
+        timestampType = SecurityHeaderElementBinder.bindTimestamp(getXMLSecEvents(xml));
+        assertNotNull(timestampType);
+        assertNull(timestampType.getId());
+        assertNull(timestampType.getCreated());
+        assertEquals("2009-11-18T10:26:28.358Z", timestampType.getExpires().getValue());
+    }
+
+    @Test
+    public void testUnusualTimestamp() throws Exception {
+        String[] contents = {
+            // Created after Expires
+            "<wsu:Expires>2009-11-18T10:26:28.358Z</wsu:Expires><wsu:Created>2009-11-18T10:11:28.358Z</wsu:Created>",
+            // a comment
+            "<wsu:Created>2009-11-18T10:11:28.358Z<!-- a comment --></wsu:Created>",
+            // an extension element
+            "<wsu:Created>2009-11-18T10:11:28.358Z</wsu:Created><x:Ext xmlns:x=\"urn:x\"/>",
+            // text
+            "text<wsu:Created>2009-11-18T10:11:28.358Z</wsu:Created>",
+            // an unknown attribute
+            "<wsu:Created ValueType=\"urn:x\">2009-11-18T10:11:28.358Z</wsu:Created>",
+        };
+        for (String content : contents) {
+            String xml = "<wsu:Timestamp" + NAMESPACES + ">" + content + "</wsu:Timestamp>";
+            assertNull(content, SecurityHeaderElementBinder.bindTimestamp(getXMLSecEvents(xml)));
+        }
+
+        String xml = "<wsu:Timestamp" + NAMESPACES + " wsu:Id=\" TS-1\"/>";
+        assertNull(SecurityHeaderElementBinder.bindTimestamp(getXMLSecEvents(xml)));
+        // JAXB collapses the whitespace
+        assertEquals("TS-1", this.<TimestampType>unmarshal(xml).getId());
+    }
+
+    @Test
+    public void testBinarySecurityToken() throws Exception {
+        String xml = "<wsse:BinarySecurityToken" + NAMESPACES + " wsu:Id=\"BST-1\""
+                + " EncodingType=\"" + WSSConstants.SOAPMESSAGE_NS10_BASE64_ENCODING + "\""
+                + " ValueType=\"" + WSSConstants.NS_X509_V3_TYPE + "\">MIIB&#13;\nAAAA</wsse:BinarySecurityToken>";
+
+        BinarySecurityTokenType binarySecurityTokenType =
+                SecurityHeaderElementBinder.bindBinarySecurityToken(getXMLSecEvents(xml));
+        assertNotNull(binarySecurityTokenType);
+        BinarySecurityTokenType expected = this.<BinarySecurityTokenType>unmarshal(xml);
+        assertEquals(expected.getId(), binarySecurityTokenType.getId());
+        assertEquals(expected.getEncodingType(), binarySecurityTokenType.getEncodingType());
+        assertEquals(expected.getValueType(), binarySecurityTokenType.getValueType());
+        assertEquals(expected.getValue(), binarySecurityTokenType.getValue());
+        assertTrue(binarySecurityTokenType.getOtherAttributes().isEmpty());
+
+        xml = "<wsse:BinarySecurityToken" + NAMESPACES
+                + " ValueType=\"urn:x\">MIIB</wsse:BinarySecurityToken>";
+        assertNull(SecurityHeaderElementBinder.bindBinarySecurityToken(getXMLSecEvents(xml)));
+        assertEquals("urn:x", this.<BinarySecurityTokenType>unmarshal(xml).getValueType());
+    }
+
+    @Test
+    public void testUsernameToken() throws Exception {
+        String xml = "<wsse:UsernameToken" + NAMESPACES + " wsu:Id=\"UT-1\">"
+                + "<wsse:Username>transmitter</wsse:Username>"
+                + "<wsse:Password Type=\"" + WSSConstants.NS_PASSWORD_DIGEST + "\">digest</wsse:Password>"
+                + "<wsse:Nonce EncodingType=\"" + WSSConstants.SOAPMESSAGE_NS10_BASE64_ENCODING + "\">nonce</wsse:Nonce>"
+                + "<wsu:Created>2009-11-18T10:11:28.358Z</wsu:Created>"
+                + "</wsse:UsernameToken>";
+
+        UsernameTokenType usernameTokenType = SecurityHeaderElementBinder.bindUsernameToken(getXMLSecEvents(xml));
+        assertNotNull(usernameTokenType);
+        UsernameTokenType expected = this.<UsernameTokenType>unmarshal(xml);
+        assertEquals(expected.getId(), usernameTokenType.getId());
+        assertEquals(expected.getUsername().getValue(), usernameTokenType.getUsername().getValue());
+        assertEquals(expected.getAny().size(), usernameTokenType.getAny().size());
+
+        PasswordString expectedPassword = XMLSecurityUtils.getQNameType(expected.getAny(), WSSConstants.TAG_wsse_Password);
+        PasswordString password = XMLSecurityUtils.getQNameType(usernameTokenType.getAny(), WSSConstants.TAG_wsse_Password);
+        assertEquals(expectedPassword.getType(), password.getType());
+        assertEquals(expectedPassword.getValue(), password.getValue());
+
+        EncodedString expectedNonce = XMLSecurityUtils.getQNameType(expected.getAny(), WSSConstants.TAG_wsse_Nonce);
+        EncodedString nonce = XMLSecurityUtils.getQNameType(usernameTokenType.getAny(), WSSConstants.TAG_wsse_Nonce);
+        assertEquals(expectedNonce.getEncodingType(), nonce.getEncodingType());
+        assertEquals(expectedNonce.getValue(), nonce.getValue());
+
+        assertAttributedDateTime(
+                XMLSecurityUtils.<AttributedDateTime>getQNameType(expected.getAny(), WSSConstants.TAG_wsu_Created),
+                XMLSecurityUtils.<AttributedDateTime>getQNameType(usernameTokenType.getAny(), WSSConstants.TAG_wsu_Created));
+
+        // a wsse11:Salt is left to JAXB
+        xml = "<wsse:UsernameToken" + NAMESPACES + "><wsse:Username>transmitter</wsse:Username>"
+                + "<wsse11:Salt xmlns:wsse11=\"" + WSSConstants.NS_WSSE11 + "\">c2FsdA==</wsse11:Salt>"
+                + "</wsse:UsernameToken>";
+        assertNull(SecurityHeaderElementBinder.bindUsernameToken(getXMLSecEvents(xml)));
+
+        // as is a missing Username
+        xml = "<wsse:UsernameToken" + NAMESPACES + "><wsse:Password>secret</wsse:Password></wsse:UsernameToken>";
+        assertNull(SecurityHeaderElementBinder.bindUsernameToken(getXMLSecEvents(xml)));
+    }
+
+    private void assertAttributedDateTime(AttributedDateTime expected, AttributedDateTime attributedDateTime) {
+        assertEquals(expected.getId(), attributedDateTime.getId());
+        assertEquals(expected.getValue(), attributedDateTime.getValue());
+        assertTrue(attributedDateTime.getOtherAttributes().isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T unmarshal(String xml) throws Exception {
+        return ((JAXBElement<T>) WSSConstants.getJaxbUnmarshaller(false).unmarshal(new StringReader(xml))).getValue();
+    }
+
+    private List<XMLSecEvent> getXMLSecEvents(String xml) throws Exception {
+        XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+        List<XMLSecEvent> xmlSecEvents = new ArrayList<XMLSecEvent>();
+        XMLSecStartElement parentXMLSecStartElement = null;
+        while (xmlStreamReader.next() != XMLStreamConstants.END_DOCUMENT) {
+            XMLSecEvent xmlSecEvent = XMLSecEventFactory.allocate(xmlStreamReader, parentXMLSecStartElement);
+            if (xmlSecEvent.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                parentXMLSecStartElement = xmlSecEvent.asStartElement();
+            } else if (xmlSecEvent.getEventType() == XMLStreamConstants.END_ELEMENT) {
+                parentXMLSecStartElement = parentXMLSecStartElement.getParentXMLSecStartElement();
+            }
+            xmlSecEvents.add(xmlSecEvent);
+        }
+        return xmlSecEvents;
+    }
+}
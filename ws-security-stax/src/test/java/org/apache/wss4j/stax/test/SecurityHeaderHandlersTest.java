@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.wss4j.stax.test;
+
+import org.apache.wss4j.stax.WSSec;
+import org.apache.wss4j.stax.ext.WSSConstants;
+import org.apache.wss4j.stax.impl.processor.input.SAMLTokenInputHandler;
+import org.apache.wss4j.stax.impl.processor.input.SecurityHeaderHandlers;
+import org.apache.wss4j.stax.impl.processor.input.TimestampInputHandler;
+import org.apache.xml.security.stax.ext.XMLSecurityHeaderHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.namespace.QName;
+
+public class SecurityHeaderHandlersTest {
+
+    static {
+        WSSec.init();
+    }
+
+    @Test
+    public void testSharedHandlers() throws Exception {
+        SecurityHeaderHandlers securityHeaderHandlers = new SecurityHeaderHandlers();
+
+        XMLSecurityHeaderHandler handler = securityHeaderHandlers.getHandler(WSSConstants.TAG_wsu_Timestamp);
+        Assert.assertTrue(handler instanceof TimestampInputHandler);
+        Assert.assertSame(handler, securityHeaderHandlers.getHandler(WSSConstants.TAG_wsu_Timestamp));
+        Assert.assertNotSame(handler, SecurityHeaderHandlers.newHandler(WSSConstants.TAG_wsu_Timestamp));
+
+        // both SAML versions are handled by the same instance
+        handler = securityHeaderHandlers.getHandler(WSSConstants.TAG_saml_Assertion);
+        Assert.assertTrue(handler instanceof SAMLTokenInputHandler);
+        Assert.assertSame(handler, securityHeaderHandlers.getHandler(WSSConstants.TAG_saml2_Assertion));
+
+        Assert.assertNull(securityHeaderHandlers.getHandler(new QName("urn:unknown", "Token")));
+    }
+}
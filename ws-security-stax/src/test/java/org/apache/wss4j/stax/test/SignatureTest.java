@@ -22,7 +22,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.KeyStore;
 import java.security.Security;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -68,6 +70,8 @@ import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.stax.ext.SecurePart;
 import org.apache.xml.security.stax.securityEvent.SecurityEvent;
 import org.apache.xml.security.stax.securityEvent.SignatureValueSecurityEvent;
+import org.apache.xml.security.utils.Base64;
+import org.apache.xml.security.utils.XMLUtils;
 import org.junit.Assert;
 import org.junit.Test;
 import org.w3c.dom.Document;
@@ -737,6 +741,46 @@ public class SignatureTest extends AbstractTestBase {
         }
     }
 
+    @Test
+    public void testBinarySecurityTokenEncodingOutbound() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+        List<WSSConstants.Action> actions = new ArrayList<WSSConstants.Action>();
+        actions.add(WSSConstants.SIGNATURE);
+        securityProperties.setActions(actions);
+        securityProperties.loadSignatureKeyStore(this.getClass().getClassLoader().getResource("transmitter.jks"), "default".toCharArray());
+        securityProperties.setSignatureUser("transmitter");
+        securityProperties.setSignatureKeyIdentifier(WSSecurityTokenConstants.KeyIdentifier_SecurityTokenDirectReference);
+        securityProperties.setCallbackHandler(new org.apache.wss4j.stax.test.CallbackHandlerImpl());
+
+        OutboundWSSec wsSecOut = WSSec.getOutboundWSSec(securityProperties);
+        XMLStreamWriter xmlStreamWriter = wsSecOut.processOutMessage(baos, "UTF-8", new ArrayList<SecurityEvent>());
+        XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml"));
+        XmlReaderToWriter.writeAll(xmlStreamReader, xmlStreamWriter);
+        xmlStreamWriter.close();
+
+        Document document = documentBuilderFactory.newDocumentBuilder().parse(new ByteArrayInputStream(baos.toByteArray()));
+        XPathExpression xPathExpression = getXPath("/soap:Envelope/soap:Header/wsse:Security/wsse:BinarySecurityToken");
+        Node node = (Node) xPathExpression.evaluate(document, XPathConstants.NODE);
+        Assert.assertNotNull(node);
+
+        KeyStore keyStore = KeyStore.getInstance("jks");
+        keyStore.load(this.getClass().getClassLoader().getResourceAsStream("transmitter.jks"), "default".toCharArray());
+        X509Certificate cert = (X509Certificate) keyStore.getCertificate("transmitter");
+
+        //the certificate is written with the xmlsec Base64 encoding, as the DOM code does. Lines
+        //are only wrapped if the xmlsec line breaks are enabled, and there is no trailing line break
+        String value = node.getTextContent();
+        Assert.assertEquals(Base64.encode(cert.getEncoded()), value);
+        Assert.assertArrayEquals(cert.getEncoded(), Base64.decode(value));
+        Assert.assertEquals(!XMLUtils.ignoreLineBreaks(), value.indexOf('\n') > 0);
+        Assert.assertFalse(value.endsWith("\n"));
+        for (String line : value.split("\n")) {
+            Assert.assertTrue(XMLUtils.ignoreLineBreaks() || line.length() <= 76);
+        }
+    }
+
 /*  Not spec conform and therefore not supported!:
     @Test
     public void testSignatureKeyIdentifierBinarySecurityTokenEmbedded() throws Exception {
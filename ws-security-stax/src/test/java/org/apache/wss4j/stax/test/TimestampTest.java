@@ -23,9 +23,11 @@ import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.handler.WSHandlerConstants;
 import org.apache.xml.security.stax.securityEvent.SecurityEvent;
+import org.apache.xml.security.stax.securityEvent.SecurityEventConstants;
 import org.apache.wss4j.stax.ConfigurationConverter;
 import org.apache.wss4j.stax.WSSec;
 import org.apache.wss4j.stax.ext.*;
+import org.apache.wss4j.stax.securityEvent.WSSecurityEventConstants;
 import org.apache.wss4j.stax.test.utils.StAX2DOM;
 import org.apache.wss4j.stax.test.utils.XmlReaderToWriter;
 import org.junit.Assert;
@@ -651,6 +653,49 @@ public class TimestampTest extends AbstractTestBase {
         }
     }
     
+    @Test
+    public void testTimestampInOtherActorHeaderInbound() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        {
+            InputStream sourceDocument = this.getClass().getClassLoader().getResourceAsStream("testdata/plain-soap-1.1.xml");
+            String action = WSHandlerConstants.TIMESTAMP;
+            Document securedDocument = doOutboundSecurityWithWSS4J(sourceDocument, action, new Properties());
+
+            NodeList nodeList = securedDocument.getElementsByTagNameNS(WSSConstants.TAG_wsu_Timestamp.getNamespaceURI(), WSSConstants.TAG_wsu_Timestamp.getLocalPart());
+            Node securityHeader = nodeList.item(0).getParentNode();
+            Assert.assertEquals(securityHeader.getLocalName(), WSSConstants.TAG_wsse_Security.getLocalPart());
+
+            //add a security header for another actor with an invalid Timestamp in front of ours,
+            //which must not be processed
+            Element otherSecurityHeader = (Element) securityHeader.cloneNode(true);
+            otherSecurityHeader.setAttributeNS(WSSConstants.ATT_soap11_Actor.getNamespaceURI(),
+                    WSSConstants.ATT_soap11_Actor.getPrefix() + ":" + WSSConstants.ATT_soap11_Actor.getLocalPart(),
+                    "urn:other");
+            Node timestamp = otherSecurityHeader.getElementsByTagNameNS(WSSConstants.TAG_wsu_Timestamp.getNamespaceURI(), WSSConstants.TAG_wsu_Timestamp.getLocalPart()).item(0);
+            while (timestamp.getFirstChild() != null) {
+                timestamp.removeChild(timestamp.getFirstChild());
+            }
+            securityHeader.getParentNode().insertBefore(otherSecurityHeader, securityHeader);
+
+            javax.xml.transform.Transformer transformer = TRANSFORMER_FACTORY.newTransformer();
+            transformer.transform(new DOMSource(securedDocument), new StreamResult(baos));
+        }
+
+        //done timestamp; now test timestamp-verification:
+        {
+            WSSSecurityProperties securityProperties = new WSSSecurityProperties();
+            InboundWSSec wsSecIn = WSSec.getInboundWSSec(securityProperties, false, true);
+            TestSecurityEventListener securityEventListener = new TestSecurityEventListener(new SecurityEventConstants.Event[0]);
+            XMLStreamReader xmlStreamReader = wsSecIn.processInMessage(
+                    xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(baos.toByteArray())), null, securityEventListener);
+
+            Document document = StAX2DOM.readDoc(documentBuilderFactory.newDocumentBuilder(), xmlStreamReader);
+            Assert.assertEquals(2, document.getElementsByTagNameNS(WSSConstants.TAG_wsse_Security.getNamespaceURI(), WSSConstants.TAG_wsse_Security.getLocalPart()).getLength());
+            Assert.assertEquals(1, securityEventListener.getSecurityEvents(WSSecurityEventConstants.Timestamp).size());
+        }
+    }
+
     @Test
     public void testTimestampPropertiesOutbound() throws Exception {
 